@@ -0,0 +1,85 @@
+package edu.harvard.seas.pl.abcdatalog.benchmarks;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The entry point of the benchmark JAR. It accepts the usual JMH command line options, plus an
+ * option {@code -threads N1,N2,...} that runs the selected benchmarks once for each of the given
+ * thread counts. The concurrent engines size their thread pools by the number of available
+ * processors, so a thread count is imposed by forking the benchmark JVM with {@code
+ * -XX:ActiveProcessorCount}.
+ */
+public final class BenchmarkMain {
+
+  private BenchmarkMain() {}
+
+  public static void main(String[] args) throws Exception {
+    List<String> jmhArgs = new ArrayList<>();
+    List<Integer> threads = new ArrayList<>();
+    for (int i = 0; i < args.length; ++i) {
+      if (args[i].equals("-threads") && i + 1 < args.length) {
+        for (String n : args[++i].split(",")) {
+          threads.add(Integer.parseInt(n.trim()));
+        }
+      } else {
+        jmhArgs.add(args[i]);
+      }
+    }
+    if (threads.isEmpty()) {
+      org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+      return;
+    }
+
+    CommandLineOptions cmd = new CommandLineOptions(jmhArgs.toArray(new String[0]));
+    for (int n : threads) {
+      System.out.println("# Available processors: " + n);
+      List<String> jvmArgs = new ArrayList<>();
+      jvmArgs.addAll(cmd.getJvmArgsAppend().orElse(Collections.emptyList()));
+      jvmArgs.add("-XX:ActiveProcessorCount=" + n);
+      new Runner(
+              new OptionsBuilder()
+                  .parent(cmd)
+                  .jvmArgsAppend(jvmArgs.toArray(new String[0]))
+                  .build())
+          .run();
+    }
+  }
+}
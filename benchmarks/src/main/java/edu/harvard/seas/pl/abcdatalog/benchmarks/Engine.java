@@ -0,0 +1,88 @@
+package edu.harvard.seas.pl.abcdatalog.benchmarks;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.engine.DatalogEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.concurrent.ConcurrentBottomUpEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.concurrent.ConcurrentChunkedBottomUpEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.concurrent.ConcurrentStratifiedNegationBottomUpEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.sequential.SemiNaiveEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.topdown.ConcurrentIterativeQsqEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.topdown.IterativeQsqEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.topdown.MstEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.topdown.RecursiveQsqEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.topdown.TabledQsqEngine;
+import java.util.function.Supplier;
+
+/** The Datalog engines that are benchmarked, named so that they can be used as JMH parameters. */
+public enum Engine {
+  SEMI_NAIVE(SemiNaiveEngine::newEngine, true),
+  CONCURRENT_BOTTOM_UP(ConcurrentBottomUpEngine::new, false),
+  CONCURRENT_CHUNKED_BOTTOM_UP(() -> new ConcurrentChunkedBottomUpEngine(Engine.CHUNK_SIZE), false),
+  CONCURRENT_STRATIFIED_NEGATION_BOTTOM_UP(ConcurrentStratifiedNegationBottomUpEngine::new, true),
+  RECURSIVE_QSQ(RecursiveQsqEngine::new, false),
+  ITERATIVE_QSQ(IterativeQsqEngine::new, false),
+  CONCURRENT_ITERATIVE_QSQ(ConcurrentIterativeQsqEngine::new, false),
+  TABLED_QSQ(TabledQsqEngine::new, false),
+  MST(MstEngine::new, false);
+
+  /** The number of facts per work item for the chunked engine. */
+  private static final int CHUNK_SIZE = 64;
+
+  private final Supplier<DatalogEngine> factory;
+  private final boolean supportsNegation;
+
+  private Engine(Supplier<DatalogEngine> factory, boolean supportsNegation) {
+    this.factory = factory;
+    this.supportsNegation = supportsNegation;
+  }
+
+  /**
+   * Returns a new, uninitialized instance of this engine.
+   *
+   * @return the engine
+   */
+  public DatalogEngine create() {
+    return this.factory.get();
+  }
+
+  /**
+   * Returns whether this engine supports stratified negation.
+   *
+   * @return whether negation is supported
+   */
+  public boolean supportsNegation() {
+    return this.supportsNegation;
+  }
+}
@@ -0,0 +1,116 @@
+package edu.harvard.seas.pl.abcdatalog.benchmarks;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidationException;
+import edu.harvard.seas.pl.abcdatalog.engine.DatalogEngine;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time it takes an engine to answer a query over a freshly initialized program, i.e.,
+ * the time for {@link DatalogEngine#init} followed by {@link DatalogEngine#query}. Bottom-up
+ * engines do their work when initialized, while top-down engines do it when queried, so only the
+ * sum of the two is comparable across engines.
+ *
+ * <p>Each iteration evaluates the program once with a new engine instance.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EvaluationBenchmark {
+  /** Whether the query has its first argument bound, or asks for the whole relation. */
+  public enum QueryKind {
+    BOUND,
+    OPEN
+  }
+
+  @Param({
+    "SEMI_NAIVE",
+    "CONCURRENT_BOTTOM_UP",
+    "CONCURRENT_CHUNKED_BOTTOM_UP",
+    "CONCURRENT_STRATIFIED_NEGATION_BOTTOM_UP",
+    "RECURSIVE_QSQ",
+    "ITERATIVE_QSQ",
+    "CONCURRENT_ITERATIVE_QSQ",
+    "TABLED_QSQ",
+    "MST"
+  })
+  public Engine engine;
+
+  @Param({"TC_CHAIN", "TC_GRID", "TC_RANDOM", "SAME_GENERATION", "POINTS_TO", "TRIANGLES"})
+  public Workload.Kind workload;
+
+  @Param({"SMALL", "MEDIUM"})
+  public Scale scale;
+
+  @Param({"BOUND", "OPEN"})
+  public QueryKind query;
+
+  @Param("0")
+  public long seed;
+
+  private Workload w;
+
+  private PositiveAtom q;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    this.w = Workload.create(this.workload, this.scale.sizeFor(this.workload), this.seed);
+    this.q = this.query == QueryKind.BOUND ? this.w.getBoundQuery() : this.w.getOpenQuery();
+  }
+
+  @Benchmark
+  public Set<PositiveAtom> evaluate() throws DatalogValidationException {
+    DatalogEngine e = this.engine.create();
+    e.init(this.w.getProgram());
+    return e.query(this.q);
+  }
+}
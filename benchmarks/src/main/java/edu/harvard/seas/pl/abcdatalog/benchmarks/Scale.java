@@ -0,0 +1,85 @@
+package edu.harvard.seas.pl.abcdatalog.benchmarks;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+/**
+ * The data scales at which workloads are benchmarked. Each workload kind grows at a different rate
+ * in its scale parameter, so the actual sizes are chosen per kind such that the same scale results
+ * in a roughly comparable amount of work.
+ */
+public enum Scale {
+  SMALL,
+  MEDIUM,
+  LARGE;
+
+  /**
+   * Returns the scale parameter to use for the given kind of workload.
+   *
+   * @param kind the kind of workload
+   * @return the scale parameter
+   */
+  public int sizeFor(Workload.Kind kind) {
+    switch (kind) {
+      case TC_CHAIN:
+        return this.pick(200, 500, 1000);
+      case TC_GRID:
+        return this.pick(10, 20, 30);
+      case TC_RANDOM:
+        return this.pick(100, 300, 1000);
+      case SAME_GENERATION:
+        return this.pick(4, 5, 6);
+      case POINTS_TO:
+        return this.pick(100, 400, 2000);
+      case TRIANGLES:
+        return this.pick(1000, 10000, 50000);
+      case STRATIFIED_NEGATION:
+        return this.pick(1000, 10000, 100000);
+      case RANDOM_STRATIFIED:
+        return this.pick(50, 100, 200);
+      default:
+        throw new AssertionError();
+    }
+  }
+
+  private int pick(int small, int medium, int large) {
+    switch (this) {
+      case SMALL:
+        return small;
+      case MEDIUM:
+        return medium;
+      default:
+        return large;
+    }
+  }
+}
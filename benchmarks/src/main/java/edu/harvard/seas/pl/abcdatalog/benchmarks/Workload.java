@@ -0,0 +1,284 @@
+package edu.harvard.seas.pl.abcdatalog.benchmarks;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.Clause;
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import edu.harvard.seas.pl.abcdatalog.ast.Variable;
+import edu.harvard.seas.pl.abcdatalog.parser.DatalogParseException;
+import edu.harvard.seas.pl.abcdatalog.parser.DatalogParser;
+import edu.harvard.seas.pl.abcdatalog.parser.DatalogTokenizer;
+import edu.harvard.seas.pl.abcdatalog.workload.FactGenerator;
+import edu.harvard.seas.pl.abcdatalog.workload.Generators;
+import edu.harvard.seas.pl.abcdatalog.workload.RandomProgramGenerator;
+import java.io.StringReader;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A benchmark workload: a program (rules together with generated EDB facts) and the queries asked
+ * of it. The EDB facts are constructed directly as atoms, so that parsing is not part of the
+ * workload.
+ */
+public final class Workload {
+  /** The kinds of workloads. */
+  public enum Kind {
+    /** Transitive closure over a path of {@code scale} edges. */
+    TC_CHAIN,
+    /**
+     * Transitive closure over a {@code scale} by {@code scale} grid with edges going right/down.
+     */
+    TC_GRID,
+    /**
+     * Transitive closure over a random graph with {@code scale} nodes and {@code 2 * scale} edges.
+     */
+    TC_RANDOM,
+    /** Same-generation over a ternary tree of depth {@code scale}. */
+    SAME_GENERATION,
+    /** Andersen-style points-to analysis over {@code scale} variables and as many statements. */
+    POINTS_TO,
+    /**
+     * Triangle listing over a random graph with {@code scale} nodes and {@code 4 * scale} edges.
+     */
+    TRIANGLES,
+    /**
+     * Nodes not reachable from each of 16 sources in a random graph with {@code scale} nodes and
+     * {@code scale} edges, which requires stratified negation.
+     */
+    STRATIFIED_NEGATION,
+    /**
+     * A random program with three strata and negation over a domain of {@code scale} constants (see
+     * {@link RandomProgramGenerator}).
+     */
+    RANDOM_STRATIFIED
+  }
+
+  private final Set<Clause> program;
+  private final PositiveAtom boundQuery;
+  private final PositiveAtom openQuery;
+
+  private Workload(Set<Clause> program, PositiveAtom boundQuery, PositiveAtom openQuery) {
+    this.program = program;
+    this.boundQuery = boundQuery;
+    this.openQuery = openQuery;
+  }
+
+  /**
+   * Returns the program of this workload.
+   *
+   * @return the program
+   */
+  public Set<Clause> getProgram() {
+    return this.program;
+  }
+
+  /**
+   * Returns a query of this workload whose first argument is bound to a constant.
+   *
+   * @return the query
+   */
+  public PositiveAtom getBoundQuery() {
+    return this.boundQuery;
+  }
+
+  /**
+   * Returns a query of this workload that asks for the whole of the derived relation.
+   *
+   * @return the query
+   */
+  public PositiveAtom getOpenQuery() {
+    return this.openQuery;
+  }
+
+  /**
+   * Generates a workload. The same arguments always yield the same workload.
+   *
+   * @param kind the kind of workload
+   * @param scale the scale of the workload (see {@link Kind})
+   * @param seed the seed for random choices
+   * @return the workload
+   */
+  public static Workload create(Kind kind, int scale, long seed) {
+    Constant n0 = Constant.create("n0");
+    switch (kind) {
+      case TC_CHAIN:
+        return create(TC_RULES, Generators.chain("e", scale), "tc", 2, n0);
+      case TC_GRID:
+        return create(TC_RULES, Generators.lattice("e", scale, scale), "tc", 2, n0);
+      case TC_RANDOM:
+        return create(TC_RULES, Generators.uniformGraph("e", scale, 2 * scale, seed), "tc", 2, n0);
+      case SAME_GENERATION:
+        return create(
+            "sg(X, Y) :- par(P, X), par(P, Y). " + "sg(X, Y) :- par(A, X), sg(A, B), par(B, Y).",
+            Generators.fanOutTree("par", scale, 3),
+            "sg",
+            2,
+            Constant.create("n1"));
+      case POINTS_TO:
+        return create(
+            "pt(V, H) :- new(V, H). "
+                + "pt(V, H) :- assign(V, W), pt(W, H). "
+                + "pt(V, H) :- load(V, W, F), pt(W, B), hpt(B, F, H). "
+                + "hpt(B, F, H) :- store(V, F, W), pt(V, B), pt(W, H).",
+            pointsTo(scale, seed),
+            "pt",
+            2,
+            Constant.create("v0"));
+      case TRIANGLES:
+        return create(
+            "tri(X, Y, Z) :- e(X, Y), e(Y, Z), e(Z, X).",
+            Generators.uniformGraph("e", scale, 4 * scale, seed),
+            "tri",
+            3,
+            n0);
+      case STRATIFIED_NEGATION:
+        PredicateSym node = PredicateSym.create("node", 1);
+        PredicateSym source = PredicateSym.create("source", 1);
+        FactGenerator nodes =
+            () ->
+                IntStream.range(0, scale)
+                    .boxed()
+                    .flatMap(
+                        i -> {
+                          Term[] args = {Constant.create("n" + i)};
+                          PositiveAtom a = PositiveAtom.create(node, args);
+                          return i < 16
+                              ? Stream.of(a, PositiveAtom.create(source, args))
+                              : Stream.of(a);
+                        });
+        return create(
+            "reach(X, Y) :- source(X), e(X, Y). "
+                + "reach(X, Y) :- reach(X, Z), e(Z, Y). "
+                + "unreach(X, Y) :- source(X), node(Y), not reach(X, Y).",
+            Generators.uniformGraph("e", scale, scale, seed).concat(nodes),
+            "unreach",
+            2,
+            n0);
+      case RANDOM_STRATIFIED:
+        RandomProgramGenerator.Program prog =
+            new RandomProgramGenerator()
+                .withEdbPredicates(3)
+                .withIdbPredicates(8)
+                .withStrata(3)
+                .withDomainSize(scale)
+                .withFactsPerPredicate(2 * scale)
+                .generate(seed);
+        List<PredicateSym> idbs = prog.getIdbPredicates();
+        return create(
+            prog.getRules(), prog.getFacts(), idbs.get(idbs.size() - 1), Constant.create("c0"));
+      default:
+        throw new AssertionError();
+    }
+  }
+
+  private static final String TC_RULES = "tc(X, Y) :- e(X, Y). tc(X, Y) :- tc(X, Z), e(Z, Y).";
+
+  /**
+   * Generates the input of a points-to analysis. Variables are grouped into modules (think of
+   * methods) within which most of the data flow happens, with a small fraction of assignments
+   * between modules; uniformly random assignments would make every variable point to every object.
+   */
+  private static FactGenerator pointsTo(int scale, long seed) {
+    final int moduleSize = 50;
+    final int fields = 4;
+    PredicateSym newPred = PredicateSym.create("new", 2);
+    PredicateSym assign = PredicateSym.create("assign", 2);
+    PredicateSym load = PredicateSym.create("load", 3);
+    PredicateSym store = PredicateSym.create("store", 3);
+    return () -> {
+      Random r = new Random(seed);
+      return IntStream.range(0, scale)
+          .boxed()
+          .flatMap(
+              i -> {
+                int base = i - i % moduleSize;
+                int size = Math.min(moduleSize, scale - base);
+                Stream.Builder<PositiveAtom> b = Stream.builder();
+                if (i % 2 == 0) {
+                  b.add(atom(newPred, var(i), Constant.create("h" + i)));
+                }
+                int from = r.nextInt(100) == 0 ? r.nextInt(scale) : base + r.nextInt(size);
+                b.add(atom(assign, var(i), var(from)));
+                if (i % 4 == 0) {
+                  Constant f = Constant.create("f" + r.nextInt(fields));
+                  b.add(atom(load, var(i), var(base + r.nextInt(size)), f));
+                  b.add(atom(store, var(base + r.nextInt(size)), f, var(base + r.nextInt(size))));
+                }
+                return b.build();
+              });
+    };
+  }
+
+  private static Constant var(int i) {
+    return Constant.create("v" + i);
+  }
+
+  private static PositiveAtom atom(PredicateSym p, Term... args) {
+    return PositiveAtom.create(p, args);
+  }
+
+  private static Workload create(
+      String rules, FactGenerator facts, String queryPred, int arity, Constant boundArg) {
+    Set<Clause> program;
+    try {
+      program = DatalogParser.parseProgram(new DatalogTokenizer(new StringReader(rules)));
+    } catch (DatalogParseException e) {
+      throw new AssertionError(e);
+    }
+    return create(program, facts, PredicateSym.create(queryPred, arity), boundArg);
+  }
+
+  private static Workload create(
+      Set<Clause> rules, FactGenerator facts, PredicateSym queryPred, Constant boundArg) {
+    Set<Clause> program = new HashSet<>(rules);
+    program.addAll(facts.toClauses());
+    int arity = queryPred.getArity();
+    Term[] open = new Term[arity];
+    Term[] bound = new Term[arity];
+    for (int i = 0; i < arity; ++i) {
+      open[i] = Variable.create("X" + i);
+      bound[i] = open[i];
+    }
+    bound[0] = boundArg;
+    return new Workload(
+        program, PositiveAtom.create(queryPred, bound), PositiveAtom.create(queryPred, open));
+  }
+}
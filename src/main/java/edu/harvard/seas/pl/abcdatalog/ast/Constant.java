@@ -34,17 +34,19 @@ package edu.harvard.seas.pl.abcdatalog.ast;
  */
 
 import edu.harvard.seas.pl.abcdatalog.ast.visitors.TermVisitor;
+import edu.harvard.seas.pl.abcdatalog.util.WeakInterner;
 import edu.harvard.seas.pl.abcdatalog.util.substitution.Substitution;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 /** A zero-ary function symbol (i.e., a constant in Datalog). */
 public class Constant implements Term {
   /** Identifier of the constant. */
   private final String name;
 
-  /** A map for memoization. */
-  private static final ConcurrentMap<String, Constant> memo = new ConcurrentHashMap<>();
+  /**
+   * A map for memoization. It does not keep constants alive, so constants from data that has been
+   * discarded can be reclaimed.
+   */
+  private static final WeakInterner<String, Constant> memo = new WeakInterner<>();
 
   /**
    * Returns a constant with the given string identifier.
@@ -53,17 +55,7 @@ public class Constant implements Term {
    * @return the constant
    */
   public static Constant create(String name) {
-    Constant c = memo.get(name);
-    if (c != null) {
-      return c;
-    }
-    // try creating it
-    c = new Constant(name);
-    Constant existing = memo.putIfAbsent(name, c);
-    if (existing != null) {
-      return existing;
-    }
-    return c;
+    return memo.intern(name, Constant::new);
   }
 
   /**
@@ -50,6 +50,9 @@ public class PositiveAtom implements Premise, Head {
   /** Is the atom ground (i.e., all arguments are constants)? */
   protected volatile Boolean isGround;
 
+  /** The cached hash code of this atom, or zero if it has not been computed yet. */
+  private int hash;
+
   /**
    * A static factory method for the creation of atoms. Returns an atom with the provided predicate
    * symbol and arguments. The argument array becomes "owned" by this atom and should not be
@@ -151,11 +154,17 @@ public class PositiveAtom implements Premise, Head {
 
   @Override
   public int hashCode() {
-    final int prime = 31;
-    int result = 1;
-    result = prime * result + Arrays.hashCode(args);
-    result = prime * result + pred.hashCode();
-    return result;
+    // Atoms are hashed whenever they are added to or looked up in a fact index, so the hash code is
+    // computed once and cached (the arguments never change).
+    int h = this.hash;
+    if (h == 0) {
+      final int prime = 31;
+      h = 1;
+      h = prime * h + Arrays.hashCode(args);
+      h = prime * h + pred.hashCode();
+      this.hash = h;
+    }
+    return h;
   }
 
   @Override
@@ -164,6 +173,7 @@ public class PositiveAtom implements Premise, Head {
     if (obj == null) return false;
     if (getClass() != obj.getClass()) return false;
     PositiveAtom other = (PositiveAtom) obj;
+    if (hash != 0 && other.hash != 0 && hash != other.hash) return false;
     // This check relies on isGround being set to one of the static
     // attributes Boolean.TRUE or Boolean.FALSE.
     if (isGround != null && other.isGround != null && isGround != other.isGround) return false;
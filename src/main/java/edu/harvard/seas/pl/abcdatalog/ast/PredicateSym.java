@@ -33,8 +33,7 @@ package edu.harvard.seas.pl.abcdatalog.ast;
  * #L%
  */
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import edu.harvard.seas.pl.abcdatalog.util.WeakInterner;
 
 /** A basic predicate symbol in Datalog. */
 public class PredicateSym {
@@ -44,9 +43,35 @@ public class PredicateSym {
   /** Arity of any atom formed from this predicate symbol. */
   protected final int arity;
 
-  /** Map for memoization. */
-  private static final ConcurrentMap<String, ConcurrentMap<Integer, PredicateSym>> memo =
-      new ConcurrentHashMap<>();
+  /**
+   * Map for memoization. Entries are dropped once their predicate symbol is no longer referenced.
+   */
+  private static final WeakInterner<Key, PredicateSym> memo = new WeakInterner<>();
+
+  /** The memoization key of a predicate symbol. */
+  private static final class Key {
+    private final String sym;
+    private final int arity;
+
+    private Key(String sym, int arity) {
+      this.sym = sym;
+      this.arity = arity;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * this.sym.hashCode() + this.arity;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return this.arity == other.arity && this.sym.equals(other.sym);
+    }
+  }
 
   /**
    * Returns a predicate symbol with the given string identifier and arity.
@@ -56,24 +81,7 @@ public class PredicateSym {
    * @return the predicate symbol
    */
   public static PredicateSym create(String sym, int arity) {
-    ConcurrentMap<Integer, PredicateSym> byArity = memo.get(sym);
-    if (byArity == null) {
-      byArity = new ConcurrentHashMap<>();
-      ConcurrentMap<Integer, PredicateSym> existing = memo.putIfAbsent(sym, byArity);
-      if (existing != null) {
-        byArity = existing;
-      }
-    }
-
-    PredicateSym ps = byArity.get(arity);
-    if (ps == null) {
-      ps = new PredicateSym(sym, arity);
-      PredicateSym existing = byArity.putIfAbsent(arity, ps);
-      if (existing != null) {
-        return existing;
-      }
-    }
-    return ps;
+    return memo.intern(new Key(sym, arity), k -> new PredicateSym(k.sym, k.arity));
   }
 
   /**
@@ -34,17 +34,16 @@ package edu.harvard.seas.pl.abcdatalog.ast;
  */
 
 import edu.harvard.seas.pl.abcdatalog.ast.visitors.TermVisitor;
+import edu.harvard.seas.pl.abcdatalog.util.WeakInterner;
 import edu.harvard.seas.pl.abcdatalog.util.substitution.Substitution;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 /** A Datalog variable. */
 public class Variable implements Term {
   /** Identifier for this variable. */
   private final String name;
 
-  /** Map for memoization. */
-  private static final ConcurrentMap<String, Variable> memo = new ConcurrentHashMap<>();
+  /** Map for memoization (which holds variables weakly). */
+  private static final WeakInterner<String, Variable> memo = new WeakInterner<>();
 
   /**
    * Returns a variable with the given string identifier.
@@ -53,17 +52,7 @@ public class Variable implements Term {
    * @return the variable
    */
   public static Variable create(String name) {
-    Variable c = memo.get(name);
-    if (c != null) {
-      return c;
-    }
-    // try creating it
-    c = new Variable(name);
-    Variable existing = memo.putIfAbsent(name, c);
-    if (existing != null) {
-      return existing;
-    }
-    return c;
+    return memo.intern(name, Variable::new);
   }
 
   /**
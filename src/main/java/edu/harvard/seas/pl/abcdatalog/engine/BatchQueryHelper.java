@@ -0,0 +1,177 @@
+package edu.harvard.seas.pl.abcdatalog.engine;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import edu.harvard.seas.pl.abcdatalog.ast.Variable;
+import edu.harvard.seas.pl.abcdatalog.util.substitution.ConstOnlySubstitution;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A helper that answers a batch of queries against a DatalogEngine. Queries are grouped by
+ * predicate symbol and pattern of bound arguments: each group is prepared once (see {@link
+ * DatalogEngine#prepare(PositiveAtom, Variable...)}) and then executed for each of its queries,
+ * with duplicate queries answered only once. The executions can be run in parallel when the engine
+ * supports concurrent queries.
+ *
+ * <p>Conjunctive queries are not grouped beyond answering duplicates once: there is no prepared
+ * form of a conjunctive query, and the plan that a bottom-up engine picks for one depends on how
+ * selective its constants are, so a plan shared by all queries of the same shape would be worse
+ * than planning each query separately.
+ *
+ * <p>Every answer in the returned list is a separate set, even for duplicate queries, so that a
+ * caller can modify one answer without affecting another.
+ */
+public final class BatchQueryHelper {
+
+  private BatchQueryHelper() {
+    throw new AssertionError("impossible");
+  }
+
+  /**
+   * Answers a batch of queries.
+   *
+   * @param engine the engine
+   * @param queries the queries
+   * @param parallel whether the queries can be executed in parallel
+   * @return the answers to the queries, in the same order as the queries
+   */
+  public static List<Set<PositiveAtom>> query(
+      DatalogEngine engine, List<PositiveAtom> queries, boolean parallel) {
+    Map<PositiveAtom, Integer> distinct = new LinkedHashMap<>();
+    int[] which = new int[queries.size()];
+    for (int i = 0; i < which.length; ++i) {
+      which[i] = distinct.computeIfAbsent(queries.get(i), q -> distinct.size());
+    }
+
+    Map<List<Object>, PreparedQuery> groups = new HashMap<>();
+    List<PreparedQuery> prepared = new ArrayList<>();
+    List<Constant[]> args = new ArrayList<>();
+    for (PositiveAtom q : distinct.keySet()) {
+      Term[] qArgs = q.getArgs();
+      List<Object> key = new ArrayList<>(qArgs.length + 1);
+      key.add(q.getPred());
+      List<Constant> consts = new ArrayList<>();
+      for (int i = 0; i < qArgs.length; ++i) {
+        if (qArgs[i] instanceof Constant) {
+          key.add(-1);
+          consts.add((Constant) qArgs[i]);
+        } else {
+          key.add(Arrays.asList(qArgs).indexOf(qArgs[i]));
+        }
+      }
+      prepared.add(groups.computeIfAbsent(key, k -> prepareGroup(engine, q)));
+      args.add(consts.toArray(new Constant[0]));
+    }
+
+    IntStream range = IntStream.range(0, prepared.size());
+    if (parallel) {
+      range = range.parallel();
+    }
+    List<Set<PositiveAtom>> answers =
+        range.mapToObj(i -> prepared.get(i).execute(args.get(i))).collect(Collectors.toList());
+
+    return expand(answers, which);
+  }
+
+  /**
+   * Builds the list of answers for a batch from the answers to its distinct queries, copying the
+   * answer for every repeated occurrence of a query.
+   *
+   * @param answers the answers to the distinct queries
+   * @param which for each query in the batch, the index of its distinct query
+   * @return the answers to the batch
+   */
+  private static <T> List<Set<T>> expand(List<Set<T>> answers, int[] which) {
+    boolean[] used = new boolean[answers.size()];
+    List<Set<T>> r = new ArrayList<>(which.length);
+    for (int i : which) {
+      Set<T> answer = answers.get(i);
+      r.add(used[i] ? new LinkedHashSet<>(answer) : answer);
+      used[i] = true;
+    }
+    return r;
+  }
+
+  /**
+   * Prepares a query in which every constant of the given query is replaced by a parameter, so that
+   * the prepared query can answer every query with the same predicate symbol and pattern of bound
+   * arguments.
+   */
+  private static PreparedQuery prepareGroup(DatalogEngine engine, PositiveAtom q) {
+    Term[] args = q.getArgs().clone();
+    List<Variable> params = new ArrayList<>();
+    for (int i = 0; i < args.length; ++i) {
+      if (args[i] instanceof Constant) {
+        Variable p = Variable.createFreshVariable();
+        params.add(p);
+        args[i] = p;
+      }
+    }
+    return engine.prepare(PositiveAtom.create(q.getPred(), args), params.toArray(new Variable[0]));
+  }
+
+  /**
+   * Answers a batch of conjunctive queries.
+   *
+   * @param engine the engine
+   * @param queries the conjunctive queries
+   * @param parallel whether the queries can be executed in parallel
+   * @return the answers to the queries, in the same order as the queries
+   */
+  public static List<Set<ConstOnlySubstitution>> queryConjunctive(
+      DatalogEngine engine, List<List<PositiveAtom>> queries, boolean parallel) {
+    Map<List<PositiveAtom>, Integer> distinct = new LinkedHashMap<>();
+    int[] which = new int[queries.size()];
+    for (int i = 0; i < which.length; ++i) {
+      which[i] = distinct.computeIfAbsent(queries.get(i), q -> distinct.size());
+    }
+
+    List<List<PositiveAtom>> unique = new ArrayList<>(distinct.keySet());
+    Stream<List<PositiveAtom>> stream = parallel ? unique.parallelStream() : unique.stream();
+    return expand(stream.map(engine::query).collect(Collectors.toList()), which);
+  }
+}
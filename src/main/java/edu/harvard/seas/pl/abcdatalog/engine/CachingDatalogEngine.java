@@ -0,0 +1,265 @@
+package edu.harvard.seas.pl.abcdatalog.engine;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.Clause;
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidationException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A Datalog engine that caches the results of queries made to another engine. A query is answered
+ * from the cache if the same query (up to the renaming of variables) has been made before, or if a
+ * more general query has been made before; for example, the query {@code p(a,X)} can be answered by
+ * filtering the cached result of {@code p(X,Y)}. The cache holds at most a given number of facts in
+ * total, evicting the results of the least recently used queries to make room.
+ *
+ * <p>Since the cache is never invalidated, the backing engine must not change after it has been
+ * initialized. The sets returned by this engine are unmodifiable views of cached results.
+ */
+public class CachingDatalogEngine implements DatalogEngine {
+  /** The engine that queries are delegated to. */
+  private final DatalogEngine engine;
+
+  /** The maximum number of facts to cache. */
+  private final long maxFacts;
+
+  /** The cached results, in least-recently-used order. Guarded by this engine's inherent lock. */
+  private final LinkedHashMap<QueryPattern, Set<PositiveAtom>> cache =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * The cached results, mapped by predicate symbol and then by query pattern. Unlike the cache
+   * itself, reading this map does not affect the LRU order. Guarded by this engine's inherent lock.
+   */
+  private final Map<PredicateSym, Map<QueryPattern, Set<PositiveAtom>>> cacheByPred =
+      new HashMap<>();
+
+  /** The total number of cached facts. Guarded by this engine's inherent lock. */
+  private long size = 0;
+
+  /**
+   * Constructs an engine that caches the results of queries made to the given engine, holding at
+   * most the given number of facts.
+   *
+   * @param engine the engine
+   * @param maxFacts the maximum number of facts to cache
+   * @throws IllegalArgumentException if the maximum is negative
+   */
+  public CachingDatalogEngine(DatalogEngine engine, long maxFacts) {
+    if (maxFacts < 0) {
+      throw new IllegalArgumentException("Cache size must be nonnegative.");
+    }
+    this.engine = engine;
+    this.maxFacts = maxFacts;
+  }
+
+  @Override
+  public void init(Set<Clause> program) throws DatalogValidationException {
+    this.engine.init(program);
+    clear();
+  }
+
+  @Override
+  public Set<PositiveAtom> query(PositiveAtom q) {
+    QueryPattern pattern = new QueryPattern(q);
+    Set<PositiveAtom> result = lookup(pattern, q);
+    if (result == null) {
+      result = Collections.unmodifiableSet(this.engine.query(q));
+      insert(pattern, result);
+    }
+    return result;
+  }
+
+  /**
+   * Looks up the result of a query in the cache, either directly or by filtering the smallest
+   * cached result of a more general query.
+   *
+   * @param pattern the pattern of the query
+   * @param q the query
+   * @return the result, or null if it cannot be answered from the cache
+   */
+  private synchronized Set<PositiveAtom> lookup(QueryPattern pattern, PositiveAtom q) {
+    Set<PositiveAtom> result = this.cache.get(pattern);
+    if (result != null) {
+      return result;
+    }
+
+    QueryPattern best = null;
+    Set<PositiveAtom> bestResult = null;
+    for (Map.Entry<QueryPattern, Set<PositiveAtom>> e :
+        this.cacheByPred.getOrDefault(q.getPred(), Collections.emptyMap()).entrySet()) {
+      if (e.getKey().subsumes(pattern)
+          && (bestResult == null || e.getValue().size() < bestResult.size())) {
+        best = e.getKey();
+        bestResult = e.getValue();
+      }
+    }
+    if (best == null) {
+      return null;
+    }
+    // Mark the more general query as used.
+    this.cache.get(best);
+
+    Set<PositiveAtom> filtered = new HashSet<>();
+    for (PositiveAtom a : bestResult) {
+      if (q.unify(a) != null) {
+        filtered.add(a);
+      }
+    }
+    result = Collections.unmodifiableSet(filtered);
+    insert(pattern, result);
+    return result;
+  }
+
+  /**
+   * Adds the result of a query to the cache, evicting the results of the least recently used
+   * queries as necessary.
+   *
+   * @param pattern the pattern of the query
+   * @param result the result
+   */
+  private synchronized void insert(QueryPattern pattern, Set<PositiveAtom> result) {
+    if (result.size() > this.maxFacts || this.cache.containsKey(pattern)) {
+      return;
+    }
+    this.cache.put(pattern, result);
+    this.cacheByPred.computeIfAbsent(pattern.pred, p -> new HashMap<>()).put(pattern, result);
+    this.size += result.size();
+
+    for (Iterator<Map.Entry<QueryPattern, Set<PositiveAtom>>> it = this.cache.entrySet().iterator();
+        this.size > this.maxFacts && it.hasNext(); ) {
+      Map.Entry<QueryPattern, Set<PositiveAtom>> e = it.next();
+      it.remove();
+      this.cacheByPred.get(e.getKey().pred).remove(e.getKey());
+      this.size -= e.getValue().size();
+    }
+  }
+
+  /** Discards all cached results. */
+  public synchronized void clear() {
+    this.cache.clear();
+    this.cacheByPred.clear();
+    this.size = 0;
+  }
+
+  /**
+   * Returns the number of facts currently cached.
+   *
+   * @return the number of facts
+   */
+  public synchronized long getCachedFactCount() {
+    return this.size;
+  }
+
+  /**
+   * The shape of a query, i.e., a query up to the renaming of variables. Each argument is either a
+   * constant or the (integer) position of the first occurrence of a variable.
+   */
+  private static final class QueryPattern {
+    private final PredicateSym pred;
+
+    private final Object[] args;
+
+    public QueryPattern(PositiveAtom q) {
+      this.pred = q.getPred();
+      Term[] terms = q.getArgs();
+      this.args = new Object[terms.length];
+      for (int i = 0; i < terms.length; ++i) {
+        if (terms[i] instanceof Constant) {
+          this.args[i] = terms[i];
+        } else {
+          int first = 0;
+          while (terms[first] != terms[i]) {
+            ++first;
+          }
+          this.args[i] = first;
+        }
+      }
+    }
+
+    /**
+     * Returns whether the result of a query with this pattern contains the result of every query
+     * with the other pattern, i.e., whether the other pattern is an instance of this one.
+     *
+     * @param other the other pattern
+     * @return whether this pattern subsumes the other one
+     */
+    public boolean subsumes(QueryPattern other) {
+      if (!this.pred.equals(other.pred)) {
+        return false;
+      }
+      for (int i = 0; i < this.args.length; ++i) {
+        Object arg = this.args[i];
+        if (arg instanceof Constant) {
+          if (arg != other.args[i]) {
+            return false;
+          }
+        } else {
+          // The other query must have the same term wherever this one
+          // repeats a variable.
+          Object first = other.args[(Integer) arg];
+          if (first instanceof Integer ? !first.equals(other.args[i]) : first != other.args[i]) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * this.pred.hashCode() + Arrays.hashCode(this.args);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) return true;
+      if (obj == null) return false;
+      if (getClass() != obj.getClass()) return false;
+      QueryPattern other = (QueryPattern) obj;
+      return this.pred.equals(other.pred) && Arrays.equals(this.args, other.args);
+    }
+  }
+}
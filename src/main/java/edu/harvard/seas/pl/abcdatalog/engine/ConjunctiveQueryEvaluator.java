@@ -0,0 +1,336 @@
+package edu.harvard.seas.pl.abcdatalog.engine;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import edu.harvard.seas.pl.abcdatalog.ast.Variable;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.IndexableFactCollection;
+import edu.harvard.seas.pl.abcdatalog.util.substitution.ConstOnlySubstitution;
+import edu.harvard.seas.pl.abcdatalog.util.substitution.SimpleConstSubstitution;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * An evaluator for conjunctive queries over an indexable collection of facts. Unlike {@link
+ * ConjunctiveQueryHelper}, which issues a singleton query for every partial answer, this evaluator
+ * plans the query up front: atoms are ordered greedily by the estimated number of candidate facts,
+ * preferring atoms that share a variable with the atoms already joined, and each atom is then
+ * joined with the partial answers either by probing the fact index (when there are few partial
+ * answers) or by a hash join on the shared variables.
+ */
+public final class ConjunctiveQueryEvaluator {
+  /**
+   * The number of candidate facts at which the planner stops counting, so that planning a query
+   * does not scan whole relations. Atoms with at least this many candidates are estimated to have
+   * exactly this many.
+   */
+  static final int ESTIMATE_LIMIT = 1024;
+
+  private ConjunctiveQueryEvaluator() {
+    throw new AssertionError("impossible");
+  }
+
+  /**
+   * Returns the set of all (minimal) substitutions that ground the given conjunctive query and make
+   * it true with respect to the given facts.
+   *
+   * @param facts the facts
+   * @param query the conjunctive query
+   * @return the set of minimal satisfying substitutions
+   */
+  public static Set<ConstOnlySubstitution> query(
+      IndexableFactCollection facts, List<PositiveAtom> query) {
+    Map<Variable, Integer> slots = new LinkedHashMap<>();
+    for (PositiveAtom a : query) {
+      for (Term t : a.getArgs()) {
+        if (t instanceof Variable) {
+          slots.putIfAbsent((Variable) t, slots.size());
+        }
+      }
+    }
+
+    List<Constant[]> bindings = new ArrayList<>();
+    bindings.add(new Constant[slots.size()]);
+    boolean[] isBound = new boolean[slots.size()];
+    for (CompiledAtom atom : plan(facts, query, slots)) {
+      bindings = atom.join(facts, bindings, isBound);
+      if (bindings.isEmpty()) {
+        return new LinkedHashSet<>();
+      }
+      for (int slot : atom.slots) {
+        if (slot >= 0) {
+          isBound[slot] = true;
+        }
+      }
+    }
+
+    Set<ConstOnlySubstitution> r = new LinkedHashSet<>();
+    for (Constant[] binding : bindings) {
+      SimpleConstSubstitution subst = new SimpleConstSubstitution();
+      for (Map.Entry<Variable, Integer> e : slots.entrySet()) {
+        subst.put(e.getKey(), binding[e.getValue()]);
+      }
+      r.add(subst);
+    }
+    return r;
+  }
+
+  /**
+   * Orders the atoms of a query for evaluation. The first atom is the one with the fewest candidate
+   * facts; each subsequent atom is the one with the fewest candidate facts among those sharing a
+   * variable with the atoms already chosen (or among all remaining atoms, if there are none).
+   */
+  private static List<CompiledAtom> plan(
+      IndexableFactCollection facts, List<PositiveAtom> query, Map<Variable, Integer> slots) {
+    List<CompiledAtom> remaining = new ArrayList<>();
+    for (PositiveAtom a : query) {
+      remaining.add(new CompiledAtom(a, slots, facts));
+    }
+    List<CompiledAtom> order = new ArrayList<>();
+    boolean[] isBound = new boolean[slots.size()];
+    while (!remaining.isEmpty()) {
+      CompiledAtom best = null;
+      boolean bestIsConnected = false;
+      for (CompiledAtom atom : remaining) {
+        boolean isConnected = atom.sharesVariable(isBound);
+        if (best == null
+            || (isConnected && !bestIsConnected)
+            || (isConnected == bestIsConnected && atom.estimate < best.estimate)) {
+          best = atom;
+          bestIsConnected = isConnected;
+        }
+      }
+      remaining.remove(best);
+      order.add(best);
+      for (int slot : best.slots) {
+        if (slot >= 0) {
+          isBound[slot] = true;
+        }
+      }
+    }
+    return order;
+  }
+
+  /** An atom of a query, with its variables replaced by the slots they are bound in. */
+  private static final class CompiledAtom {
+    private final PositiveAtom atom;
+
+    /** For each argument, the slot of its variable, or -1 if the argument is a constant. */
+    private final int[] slots;
+
+    /**
+     * The number of facts returned by the index for this atom, ignoring any bindings, capped at
+     * ESTIMATE_LIMIT.
+     */
+    private final int estimate;
+
+    /** The exact number of facts returned by the index for this atom, or -1 if not yet counted. */
+    private int count = -1;
+
+    CompiledAtom(PositiveAtom atom, Map<Variable, Integer> slots, IndexableFactCollection facts) {
+      this.atom = atom;
+      Term[] args = atom.getArgs();
+      this.slots = new int[args.length];
+      for (int i = 0; i < args.length; ++i) {
+        Integer slot = slots.get(args[i]);
+        this.slots[i] = slot == null ? -1 : slot;
+      }
+      Iterable<PositiveAtom> candidates = facts.indexInto(atom);
+      if (candidates instanceof Set) {
+        this.count = ((Set<?>) candidates).size();
+        this.estimate = Math.min(this.count, ESTIMATE_LIMIT);
+      } else {
+        this.estimate = count(candidates, ESTIMATE_LIMIT);
+        if (this.estimate < ESTIMATE_LIMIT) {
+          this.count = this.estimate;
+        }
+      }
+    }
+
+    /** Counts the given facts, stopping at the limit. */
+    private static int count(Iterable<PositiveAtom> facts, int limit) {
+      int n = 0;
+      for (Iterator<PositiveAtom> it = facts.iterator(); n < limit && it.hasNext(); it.next()) {
+        ++n;
+      }
+      return n;
+    }
+
+    /**
+     * Returns whether there are fewer partial answers than candidate facts. The candidate facts are
+     * only counted in full if the estimate does not settle the question.
+     */
+    private boolean hasFewerBindings(IndexableFactCollection facts, int bindings) {
+      if (bindings < this.estimate) {
+        return true;
+      }
+      if (this.count < 0) {
+        this.count = count(facts.indexInto(this.atom), Integer.MAX_VALUE);
+      }
+      return bindings < this.count;
+    }
+
+    boolean sharesVariable(boolean[] isBound) {
+      for (int slot : this.slots) {
+        if (slot >= 0 && isBound[slot]) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Joins the partial answers with the facts matching this atom. If there are fewer partial
+     * answers than candidate facts, each partial answer is used to probe the fact index; otherwise,
+     * the candidate facts are hashed on the variables that are already bound.
+     */
+    List<Constant[]> join(
+        IndexableFactCollection facts, List<Constant[]> bindings, boolean[] isBound) {
+      List<Constant[]> r = new ArrayList<>();
+      List<Integer> boundPositions = new ArrayList<>();
+      for (int i = 0; i < this.slots.length; ++i) {
+        int slot = this.slots[i];
+        if (slot >= 0 && isBound[slot]) {
+          boundPositions.add(i);
+        }
+      }
+
+      if (boundPositions.isEmpty()) {
+        List<PositiveAtom> candidates = this.candidates(facts.indexInto(this.atom));
+        for (Constant[] binding : bindings) {
+          for (PositiveAtom fact : candidates) {
+            Constant[] extended = this.extend(binding, fact);
+            if (extended != null) {
+              r.add(extended);
+            }
+          }
+        }
+      } else if (this.hasFewerBindings(facts, bindings.size())) {
+        Term[] args = this.atom.getArgs();
+        for (Constant[] binding : bindings) {
+          Term[] probeArgs = args.clone();
+          for (int i : boundPositions) {
+            probeArgs[i] = binding[this.slots[i]];
+          }
+          PositiveAtom probe = PositiveAtom.create(this.atom.getPred(), probeArgs);
+          for (PositiveAtom fact : facts.indexInto(probe)) {
+            Constant[] extended = this.extend(binding, fact);
+            if (extended != null) {
+              r.add(extended);
+            }
+          }
+        }
+      } else {
+        Map<Object, List<PositiveAtom>> table = new HashMap<>();
+        for (PositiveAtom fact : this.candidates(facts.indexInto(this.atom))) {
+          Term[] fArgs = fact.getArgs();
+          Object key = this.key(boundPositions, i -> (Constant) fArgs[i]);
+          table.computeIfAbsent(key, k -> new ArrayList<>()).add(fact);
+        }
+        for (Constant[] binding : bindings) {
+          Object key = this.key(boundPositions, i -> binding[this.slots[i]]);
+          List<PositiveAtom> matches = table.get(key);
+          if (matches != null) {
+            for (PositiveAtom fact : matches) {
+              Constant[] extended = this.extend(binding, fact);
+              if (extended != null) {
+                r.add(extended);
+              }
+            }
+          }
+        }
+      }
+      return r;
+    }
+
+    /** Returns the facts that match the constants (and repeated variables) of this atom. */
+    private List<PositiveAtom> candidates(Iterable<PositiveAtom> facts) {
+      List<PositiveAtom> r = new ArrayList<>();
+      for (PositiveAtom fact : facts) {
+        if (this.atom.unify(fact) != null) {
+          r.add(fact);
+        }
+      }
+      return r;
+    }
+
+    private Object key(List<Integer> positions, IntFunction<Constant> get) {
+      if (positions.size() == 1) {
+        return get.apply(positions.get(0));
+      }
+      Constant[] key = new Constant[positions.size()];
+      for (int j = 0; j < key.length; ++j) {
+        key[j] = get.apply(positions.get(j));
+      }
+      return Arrays.asList(key);
+    }
+
+    /**
+     * Extends a partial answer so that this atom matches the given fact, returning null if that is
+     * not possible.
+     */
+    private Constant[] extend(Constant[] binding, PositiveAtom fact) {
+      if (fact.getPred() != this.atom.getPred()) {
+        return null;
+      }
+      Term[] args = this.atom.getArgs();
+      Term[] fArgs = fact.getArgs();
+      Constant[] r = binding.clone();
+      for (int i = 0; i < args.length; ++i) {
+        int slot = this.slots[i];
+        Constant c = (Constant) fArgs[i];
+        if (slot < 0) {
+          if (args[i] != c) {
+            return null;
+          }
+        } else if (r[slot] == null) {
+          r[slot] = c;
+        } else if (r[slot] != c) {
+          return null;
+        }
+      }
+      return r;
+    }
+  }
+}
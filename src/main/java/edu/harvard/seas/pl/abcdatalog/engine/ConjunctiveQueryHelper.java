@@ -42,6 +42,8 @@ import edu.harvard.seas.pl.abcdatalog.util.substitution.SimpleConstSubstitution;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * A helper that adds (naive) conjunctive query support to an arbitrary DatalogEngine by turning a
@@ -54,13 +56,27 @@ public final class ConjunctiveQueryHelper {
   }
 
   public static Set<ConstOnlySubstitution> query(DatalogEngine engine, List<PositiveAtom> query) {
+    return query(engine::query, query);
+  }
+
+  /**
+   * Answers a conjunctive query using the given function for answering singleton queries. The
+   * function must return exactly the facts that unify with the atom it is given.
+   *
+   * @param singletonQuery the function for answering singleton queries
+   * @param query the conjunctive query
+   * @return the set of minimal satisfying substitutions
+   */
+  public static Set<ConstOnlySubstitution> query(
+      Function<PositiveAtom, ? extends Iterable<PositiveAtom>> singletonQuery,
+      List<PositiveAtom> query) {
     Set<ConstOnlySubstitution> r = new LinkedHashSet<>();
-    query(engine, query, 0, new SimpleConstSubstitution(), r);
+    query(singletonQuery, query, 0, new SimpleConstSubstitution(), r);
     return r;
   }
 
   private static void query(
-      DatalogEngine engine,
+      Function<PositiveAtom, ? extends Iterable<PositiveAtom>> singletonQuery,
       List<PositiveAtom> query,
       int pos,
       SimpleConstSubstitution subst,
@@ -70,17 +86,59 @@ public final class ConjunctiveQueryHelper {
       return;
     }
     PositiveAtom curQ = query.get(pos).applySubst(subst);
-    for (PositiveAtom fact : engine.query(curQ)) {
-      SimpleConstSubstitution curSubst = new SimpleConstSubstitution(subst);
-      Term[] qArgs = curQ.getArgs();
-      Term[] fArgs = fact.getArgs();
-      for (int i = 0; i < qArgs.length; ++i) {
-        Term qArg = qArgs[i];
-        if (qArg instanceof Variable) {
-          curSubst.put((Variable) qArg, (Constant) fArgs[i]);
-        }
+    for (PositiveAtom fact : singletonQuery.apply(curQ)) {
+      query(singletonQuery, query, pos + 1, extend(subst, curQ, fact), acc);
+    }
+  }
+
+  /**
+   * Lazily answers a conjunctive query using the given function for streaming the answers to
+   * singleton queries. The function must return exactly the facts that unify with the atom it is
+   * given, without duplicates; the returned stream then has no duplicates either.
+   *
+   * @param singletonQuery the function for streaming the answers to singleton queries
+   * @param query the conjunctive query
+   * @return a stream of minimal satisfying substitutions
+   */
+  public static Stream<ConstOnlySubstitution> queryStream(
+      Function<PositiveAtom, Stream<PositiveAtom>> singletonQuery, List<PositiveAtom> query) {
+    return queryStream(singletonQuery, query, 0, new SimpleConstSubstitution());
+  }
+
+  private static Stream<ConstOnlySubstitution> queryStream(
+      Function<PositiveAtom, Stream<PositiveAtom>> singletonQuery,
+      List<PositiveAtom> query,
+      int pos,
+      SimpleConstSubstitution subst) {
+    if (pos >= query.size()) {
+      return Stream.of(subst);
+    }
+    PositiveAtom curQ = query.get(pos).applySubst(subst);
+    return singletonQuery
+        .apply(curQ)
+        .flatMap(fact -> queryStream(singletonQuery, query, pos + 1, extend(subst, curQ, fact)));
+  }
+
+  /**
+   * Extends a substitution by mapping each variable in a query to the corresponding constant in a
+   * fact that unifies with the query.
+   *
+   * @param subst the substitution
+   * @param q the query
+   * @param fact the fact
+   * @return the extended substitution
+   */
+  private static SimpleConstSubstitution extend(
+      SimpleConstSubstitution subst, PositiveAtom q, PositiveAtom fact) {
+    SimpleConstSubstitution curSubst = new SimpleConstSubstitution(subst);
+    Term[] qArgs = q.getArgs();
+    Term[] fArgs = fact.getArgs();
+    for (int i = 0; i < qArgs.length; ++i) {
+      Term qArg = qArgs[i];
+      if (qArg instanceof Variable) {
+        curSubst.put((Variable) qArg, (Constant) fArgs[i]);
       }
-      query(engine, query, pos + 1, curSubst, acc);
     }
+    return curSubst;
   }
 }
@@ -35,10 +35,12 @@ package edu.harvard.seas.pl.abcdatalog.engine;
 
 import edu.harvard.seas.pl.abcdatalog.ast.Clause;
 import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.Variable;
 import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidationException;
 import edu.harvard.seas.pl.abcdatalog.util.substitution.ConstOnlySubstitution;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * A Datalog evaluation engine. Datalog engines are initialized with a set of clauses that represent
@@ -83,4 +85,75 @@ public interface DatalogEngine {
   default Set<ConstOnlySubstitution> query(List<PositiveAtom> query) {
     return ConjunctiveQueryHelper.query(this, query);
   }
+
+  /**
+   * Returns a stream of the facts that would be returned by {@link #query(PositiveAtom)} for the
+   * given query. Engines that can produce answers incrementally generate them lazily, so that, for
+   * example, {@code queryStream(q).limit(10)} does not compute every answer; by default, the stream
+   * is over the materialized answer set.
+   *
+   * @param q the query
+   * @return a stream of facts
+   * @throws IllegalStateException if this engine has not been initialized with a program
+   */
+  default Stream<PositiveAtom> queryStream(PositiveAtom q) {
+    return query(q).stream();
+  }
+
+  /**
+   * Returns a stream of the substitutions that would be returned by {@link #query(List)} for the
+   * given conjunctive query. The substitutions are generated lazily, one singleton query at a time,
+   * using {@link #queryStream(PositiveAtom)}.
+   *
+   * @param query the conjunctive query
+   * @return a stream of minimal satisfying substitutions
+   * @throws IllegalStateException if this engine has not been initialized with a program
+   */
+  default Stream<ConstOnlySubstitution> queryStream(List<PositiveAtom> query) {
+    return ConjunctiveQueryHelper.queryStream(this::queryStream, query);
+  }
+
+  /**
+   * Prepares a query for repeated execution. The given variables of the query are parameters: each
+   * execution of the prepared query binds them, in order, to the constants it is given. Engines can
+   * use the fact that the pattern of bound arguments is the same for every execution to do their
+   * query planning once, here, rather than on every query; by default, each execution simply calls
+   * {@link #query(PositiveAtom)}.
+   *
+   * @param query the query
+   * @param params the variables of the query that are parameters
+   * @return the prepared query
+   * @throws IllegalArgumentException if a parameter does not occur in the query or is listed more
+   *     than once
+   */
+  default PreparedQuery prepare(PositiveAtom query, Variable... params) {
+    QueryTemplate template = new QueryTemplate(query, params);
+    return args -> this.query(template.bind(args));
+  }
+
+  /**
+   * Answers a batch of queries. Queries with the same predicate symbol and pattern of bound
+   * arguments are prepared (see {@link #prepare(PositiveAtom, Variable...)}) only once. Engines
+   * that support concurrent queries evaluate the batch in parallel; by default, the queries are
+   * evaluated one after another.
+   *
+   * @param queries the queries
+   * @return the answers to the queries, in the same order as the queries
+   * @throws IllegalStateException if this engine has not been initialized with a program
+   */
+  default List<Set<PositiveAtom>> queryBatch(List<PositiveAtom> queries) {
+    return BatchQueryHelper.query(this, queries, false);
+  }
+
+  /**
+   * Answers a batch of conjunctive queries. Engines that support concurrent queries evaluate the
+   * batch in parallel; by default, the queries are evaluated one after another.
+   *
+   * @param queries the conjunctive queries
+   * @return the answers to the queries, in the same order as the queries
+   * @throws IllegalStateException if this engine has not been initialized with a program
+   */
+  default List<Set<ConstOnlySubstitution>> queryConjunctiveBatch(List<List<PositiveAtom>> queries) {
+    return BatchQueryHelper.queryConjunctive(this, queries, false);
+  }
 }
@@ -0,0 +1,171 @@
+package edu.harvard.seas.pl.abcdatalog.engine;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import edu.harvard.seas.pl.abcdatalog.ast.Variable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A query atom in which some variables are parameters that are bound to constants each time the
+ * query is executed. The template records, for each argument position, whether it holds a constant,
+ * a parameter, or a free variable, so that binding the parameters and matching facts against the
+ * bound query requires neither unification nor a substitution.
+ */
+public final class QueryTemplate {
+  private final PositiveAtom query;
+
+  /**
+   * For each argument position: the index of the parameter it holds, or -1 if it holds a constant,
+   * or -2 - j if it holds a free variable that first occurs at position j.
+   */
+  private final int[] kinds;
+
+  private final int nParams;
+
+  /**
+   * Creates a template for the given query and parameters.
+   *
+   * @param query the query
+   * @param params the parameters
+   * @throws IllegalArgumentException if a parameter does not occur in the query or occurs more than
+   *     once in the list of parameters
+   */
+  public QueryTemplate(PositiveAtom query, Variable... params) {
+    Term[] args = query.getArgs();
+    List<Variable> seen = new ArrayList<>();
+    for (Variable p : params) {
+      if (seen.contains(p)) {
+        throw new IllegalArgumentException("Parameter " + p + " is listed more than once.");
+      }
+      if (!Arrays.asList(args).contains(p)) {
+        throw new IllegalArgumentException("Parameter " + p + " does not occur in the query.");
+      }
+      seen.add(p);
+    }
+
+    List<Variable> ps = Arrays.asList(params);
+    this.query = query;
+    this.kinds = new int[args.length];
+    this.nParams = params.length;
+    for (int i = 0; i < args.length; ++i) {
+      Term t = args[i];
+      if (t instanceof Constant) {
+        this.kinds[i] = -1;
+      } else if (ps.contains(t)) {
+        this.kinds[i] = ps.indexOf(t);
+      } else {
+        int j = 0;
+        while (args[j] != t) {
+          ++j;
+        }
+        this.kinds[i] = -2 - j;
+      }
+    }
+  }
+
+  /**
+   * Returns the query of this template.
+   *
+   * @return the query
+   */
+  public PositiveAtom getQuery() {
+    return this.query;
+  }
+
+  /**
+   * Returns whether the given argument position is bound once the parameters are, i.e., whether it
+   * holds a constant or a parameter.
+   *
+   * @param i the argument position
+   * @return whether the position is bound
+   */
+  public boolean isBound(int i) {
+    return this.kinds[i] >= -1;
+  }
+
+  /**
+   * Returns the query with its parameters replaced by the given values.
+   *
+   * @param args the values of the parameters
+   * @return the bound query
+   * @throws IllegalArgumentException if the number of values does not match the number of
+   *     parameters
+   */
+  public PositiveAtom bind(Constant... args) {
+    if (args.length != this.nParams) {
+      throw new IllegalArgumentException(
+          "Expected " + this.nParams + " arguments but got " + args.length + ".");
+    }
+    Term[] terms = this.query.getArgs().clone();
+    for (int i = 0; i < terms.length; ++i) {
+      if (this.kinds[i] >= 0) {
+        terms[i] = args[this.kinds[i]];
+      }
+    }
+    return PositiveAtom.create(this.query.getPred(), terms);
+  }
+
+  /**
+   * Returns whether a fact unifies with the query bound to the given parameter values. The fact is
+   * assumed to have the same predicate symbol as the query.
+   *
+   * @param args the values of the parameters
+   * @param fact the fact
+   * @return whether the fact matches
+   */
+  public boolean matches(Constant[] args, PositiveAtom fact) {
+    Term[] qArgs = this.query.getArgs();
+    Term[] fArgs = fact.getArgs();
+    for (int i = 0; i < fArgs.length; ++i) {
+      int kind = this.kinds[i];
+      Term expected;
+      if (kind >= 0) {
+        expected = args[kind];
+      } else if (kind == -1) {
+        expected = qArgs[i];
+      } else {
+        expected = fArgs[-2 - kind];
+      }
+      if (fArgs[i] != expected) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -35,11 +35,20 @@ package edu.harvard.seas.pl.abcdatalog.engine.bottomup;
 
 import edu.harvard.seas.pl.abcdatalog.ast.Clause;
 import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.Variable;
 import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidationException;
+import edu.harvard.seas.pl.abcdatalog.engine.BatchQueryHelper;
+import edu.harvard.seas.pl.abcdatalog.engine.ConjunctiveQueryEvaluator;
 import edu.harvard.seas.pl.abcdatalog.engine.DatalogEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.PreparedQuery;
+import edu.harvard.seas.pl.abcdatalog.engine.QueryTemplate;
 import edu.harvard.seas.pl.abcdatalog.util.datastructures.IndexableFactCollection;
+import edu.harvard.seas.pl.abcdatalog.util.substitution.ConstOnlySubstitution;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /** A framework for a bottom-up Datalog engine. */
 public class BottomUpEngineFrame<E extends EvalManager> implements DatalogEngine {
@@ -61,6 +70,22 @@ public class BottomUpEngineFrame<E extends EvalManager> implements DatalogEngine
     this.manager = manager;
   }
 
+  /**
+   * Sets the listener that is notified of the work performed by the evaluation manager of this
+   * engine, for profiling the evaluation of a program.
+   *
+   * @param metrics the listener, or null for none
+   * @throws IllegalStateException if this engine has already been initialized
+   * @throws UnsupportedOperationException if the evaluation manager does not report metrics
+   */
+  public synchronized void setMetrics(EvalMetrics metrics) {
+    if (this.isInitialized) {
+      throw new IllegalStateException("Metrics must be set before the engine is initialized.");
+    }
+
+    this.manager.setMetrics(metrics);
+  }
+
   @Override
   public synchronized void init(Set<Clause> program) throws DatalogValidationException {
     if (this.isInitialized) {
@@ -72,6 +97,38 @@ public class BottomUpEngineFrame<E extends EvalManager> implements DatalogEngine
     this.isInitialized = true;
   }
 
+  /**
+   * Initializes this engine by running the given action to initialize the evaluation manager (for
+   * example, with an already compiled program) and then evaluating.
+   *
+   * @param initializeManager the action that initializes the manager
+   * @throws IllegalStateException if this engine has already been initialized
+   */
+  protected synchronized void init(Runnable initializeManager) {
+    if (this.isInitialized) {
+      throw new IllegalStateException("Cannot initialize an engine more than once.");
+    }
+
+    initializeManager.run();
+    this.facts = this.manager.eval();
+    this.isInitialized = true;
+  }
+
+  /**
+   * Returns the facts that can be derived from the program, including the EDB facts. The collection
+   * does not change once the engine has been initialized.
+   *
+   * @return the facts
+   * @throws IllegalStateException if this engine has not been initialized with a program
+   */
+  public IndexableFactCollection getFacts() {
+    if (!this.isInitialized) {
+      throw new IllegalStateException("Engine must be initialized before it can be queried.");
+    }
+
+    return this.facts;
+  }
+
   @Override
   public Set<PositiveAtom> query(PositiveAtom q) {
     if (!this.isInitialized) {
@@ -86,4 +143,94 @@ public class BottomUpEngineFrame<E extends EvalManager> implements DatalogEngine
     }
     return r;
   }
+
+  /**
+   * Prepares a query for repeated execution. Each execution walks the index of the derived facts
+   * for the bound query and matches facts against the query template directly, without unification.
+   *
+   * @param query the query
+   * @param params the variables of the query that are parameters
+   * @return the prepared query
+   * @throws IllegalStateException if this engine has not been initialized with a program
+   * @throws IllegalArgumentException if a parameter does not occur in the query or is listed more
+   *     than once
+   */
+  @Override
+  public PreparedQuery prepare(PositiveAtom query, Variable... params) {
+    if (!this.isInitialized) {
+      throw new IllegalStateException("Engine must be initialized before it can be queried.");
+    }
+
+    QueryTemplate template = new QueryTemplate(query, params);
+    IndexableFactCollection facts = this.facts;
+    return args -> {
+      Set<PositiveAtom> r = new HashSet<>();
+      for (PositiveAtom a : facts.indexInto(template.bind(args))) {
+        if (template.matches(args, a)) {
+          r.add(a);
+        }
+      }
+      return r;
+    };
+  }
+
+  /**
+   * Answers a conjunctive query by planning a join over the derived facts; see {@link
+   * ConjunctiveQueryEvaluator}.
+   *
+   * @param query the conjunctive query
+   * @return the set of minimal satisfying substitutions
+   * @throws IllegalStateException if this engine has not been initialized with a program
+   */
+  @Override
+  public Set<ConstOnlySubstitution> query(List<PositiveAtom> query) {
+    if (!this.isInitialized) {
+      throw new IllegalStateException("Engine must be initialized before it can be queried.");
+    }
+
+    return ConjunctiveQueryEvaluator.query(this.facts, query);
+  }
+
+  /**
+   * Answers a batch of queries in parallel. Since the derived facts do not change once the engine
+   * has been initialized, the queries can safely be evaluated concurrently.
+   *
+   * @param queries the queries
+   * @return the answers to the queries, in the same order as the queries
+   * @throws IllegalStateException if this engine has not been initialized with a program
+   */
+  @Override
+  public List<Set<PositiveAtom>> queryBatch(List<PositiveAtom> queries) {
+    return BatchQueryHelper.query(this, queries, true);
+  }
+
+  /**
+   * Answers a batch of conjunctive queries in parallel.
+   *
+   * @param queries the conjunctive queries
+   * @return the answers to the queries, in the same order as the queries
+   * @throws IllegalStateException if this engine has not been initialized with a program
+   */
+  @Override
+  public List<Set<ConstOnlySubstitution>> queryConjunctiveBatch(List<List<PositiveAtom>> queries) {
+    return BatchQueryHelper.queryConjunctive(this, queries, true);
+  }
+
+  /**
+   * Returns a stream of the facts that unify with the query. The stream walks the relevant index of
+   * the derived facts directly, filtering the facts lazily, so no answer set is materialized.
+   *
+   * @param q the query
+   * @return a stream of facts
+   * @throws IllegalStateException if this engine has not been initialized with a program
+   */
+  @Override
+  public Stream<PositiveAtom> queryStream(PositiveAtom q) {
+    if (!this.isInitialized) {
+      throw new IllegalStateException("Engine must be initialized before it can be queried.");
+    }
+
+    return StreamSupport.stream(this.facts.indexInto(q).spliterator(), false)
+        .filter(a -> q.unify(a) != null);
+  }
 }
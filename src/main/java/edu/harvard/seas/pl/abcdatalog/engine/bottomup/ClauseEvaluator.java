@@ -73,14 +73,38 @@ public class ClauseEvaluator {
   private final ClauseSubstitution substTemplate;
   private final Consumer<PositiveAtom> firstAction;
 
+  private final SemiNaiveClause rule;
+  private final EvalMetrics metrics;
+
   public ClauseEvaluator(
       SemiNaiveClause cl,
       BiConsumer<PositiveAtom, ClauseSubstitution> newFact,
       BiFunction<AnnotatedAtom, ClauseSubstitution, Iterable<PositiveAtom>> getFacts) {
+    this(cl, newFact, getFacts, null);
+  }
+
+  /**
+   * Constructs an evaluator that reports the tuples probed and produced by each premise of the rule
+   * to the given listener. If the listener is null, nothing is reported and the evaluator is the
+   * same as one constructed without a listener.
+   *
+   * @param cl the rule
+   * @param newFact the action invoked with the head of the rule and a substitution when the body of
+   *     the rule is satisfied
+   * @param getFacts the function that retrieves the facts that might unify with an atom
+   * @param metrics the listener, or null
+   */
+  public ClauseEvaluator(
+      SemiNaiveClause cl,
+      BiConsumer<PositiveAtom, ClauseSubstitution> newFact,
+      BiFunction<AnnotatedAtom, ClauseSubstitution, Iterable<PositiveAtom>> getFacts,
+      EvalMetrics metrics) {
     assert !cl.getBody().isEmpty();
     this.newFact = newFact;
     this.getFacts = getFacts;
     this.substTemplate = new ClauseSubstitution(cl);
+    this.rule = cl;
+    this.metrics = metrics;
 
     Consumer<ClauseSubstitution> secondAction = makeAction(cl, 1);
     this.firstAction =
@@ -90,6 +114,16 @@ public class ClauseEvaluator {
                 new CrashPremiseVisitor<Void, Consumer<PositiveAtom>>() {
                   @Override
                   public Consumer<PositiveAtom> visit(AnnotatedAtom atom, Void nothing) {
+                    if (metrics != null) {
+                      return fact -> {
+                        ClauseSubstitution s = substTemplate.getCleanCopy();
+                        boolean unified = unifyAtomWithFact(atom.asUnannotatedAtom(), fact, s);
+                        metrics.premiseEvaluated(rule, 0, 1, unified ? 1 : 0);
+                        if (unified) {
+                          secondAction.accept(s);
+                        }
+                      };
+                    }
                     return fact -> {
                       ClauseSubstitution s = substTemplate.getCleanCopy();
                       if (unifyAtomWithFact(atom.asUnannotatedAtom(), fact, s)) {
@@ -115,6 +149,9 @@ public class ClauseEvaluator {
     }
 
     Consumer<ClauseSubstitution> nextAction = makeAction(cl, i + 1);
+    if (metrics != null) {
+      return makeMeasuredAction(cl, i, nextAction);
+    }
 
     return cl.getBody()
         .get(i)
@@ -177,6 +214,83 @@ public class ClauseEvaluator {
             i);
   }
 
+  /** Like the actions of makeAction, but reports the tuples probed and produced to metrics. */
+  private Consumer<ClauseSubstitution> makeMeasuredAction(
+      SemiNaiveClause cl, int i, Consumer<ClauseSubstitution> nextAction) {
+    return cl.getBody()
+        .get(i)
+        .accept(
+            new CrashPremiseVisitor<Integer, Consumer<ClauseSubstitution>>() {
+              @Override
+              public Consumer<ClauseSubstitution> visit(AnnotatedAtom atom, Integer i) {
+                return s -> {
+                  int probed = 0;
+                  int produced = 0;
+                  s.resetState(i);
+                  Iterator<PositiveAtom> iter = getFacts.apply(atom, s).iterator();
+                  while (iter.hasNext()) {
+                    s.resetState(i);
+                    PositiveAtom fact = iter.next();
+                    ++probed;
+                    if (unifyAtomWithFact(atom.asUnannotatedAtom(), fact, s)) {
+                      ++produced;
+                      nextAction.accept(s);
+                    }
+                  }
+                  metrics.premiseEvaluated(rule, i, probed, produced);
+                };
+              }
+
+              @Override
+              public Consumer<ClauseSubstitution> visit(NegatedAtom atom, Integer i) {
+                return s -> {
+                  int probed = 0;
+                  Iterator<PositiveAtom> iter =
+                      getFacts
+                          .apply(
+                              new AnnotatedAtom(
+                                  atom.asPositiveAtom(), AnnotatedAtom.Annotation.IDB),
+                              s)
+                          .iterator();
+                  while (iter.hasNext()) {
+                    s.resetState(i);
+                    PositiveAtom fact = iter.next();
+                    ++probed;
+                    if (unifyAtomWithFact(atom.asPositiveAtom(), fact, s)) {
+                      metrics.premiseEvaluated(rule, i, probed, 0);
+                      return;
+                    }
+                  }
+                  metrics.premiseEvaluated(rule, i, probed, 1);
+                  nextAction.accept(s);
+                };
+              }
+
+              @Override
+              public Consumer<ClauseSubstitution> visit(BinaryUnifier u, Integer i) {
+                return s -> {
+                  boolean unified = TermHelpers.unify(u.getLeft(), u.getRight(), s);
+                  metrics.premiseEvaluated(rule, i, 1, unified ? 1 : 0);
+                  if (unified) {
+                    nextAction.accept(s);
+                  }
+                };
+              }
+
+              @Override
+              public Consumer<ClauseSubstitution> visit(BinaryDisunifier u, Integer i) {
+                return s -> {
+                  boolean unified = TermHelpers.unify(u.getLeft(), u.getRight(), s);
+                  metrics.premiseEvaluated(rule, i, 1, unified ? 0 : 1);
+                  if (!unified) {
+                    nextAction.accept(s);
+                  }
+                };
+              }
+            },
+            i);
+  }
+
   private boolean unifyAtomWithFact(PositiveAtom atom, PositiveAtom fact, ClauseSubstitution s) {
     assert atom.getPred().equals(fact.getPred());
     Term[] atomArgs = atom.getArgs();
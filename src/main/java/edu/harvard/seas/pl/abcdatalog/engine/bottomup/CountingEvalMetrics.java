@@ -0,0 +1,305 @@
+package edu.harvard.seas.pl.abcdatalog.engine.bottomup;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.SemiNaiveClauseAnnotator.SemiNaiveClause;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.IndexableFactCollection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A metrics listener that accumulates counts and timings, which can be inspected once the
+ * evaluation is complete (see {@link #report()} for a summary). It is thread-safe, and so can be
+ * used with the concurrent engines.
+ */
+public class CountingEvalMetrics implements EvalMetrics {
+  private final ConcurrentMap<SemiNaiveClause, RuleCounts> ruleCounts = new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<Round> rounds = new ConcurrentLinkedQueue<>();
+  private final ConcurrentSkipListMap<Integer, Long> stratumTimes = new ConcurrentSkipListMap<>();
+  private volatile Map<PredicateSym, Integer> relationSizes = Collections.emptyMap();
+  private volatile long evaluationTime;
+
+  private RuleCounts getRuleCounts(SemiNaiveClause rule) {
+    RuleCounts counts = ruleCounts.get(rule);
+    if (counts == null) {
+      counts = ruleCounts.computeIfAbsent(rule, RuleCounts::new);
+    }
+    return counts;
+  }
+
+  @Override
+  public void ruleFired(SemiNaiveClause rule, boolean isNew) {
+    RuleCounts counts = getRuleCounts(rule);
+    counts.firings.increment();
+    if (!isNew) {
+      counts.redundant.increment();
+    }
+  }
+
+  @Override
+  public void premiseEvaluated(SemiNaiveClause rule, int index, int probed, int produced) {
+    RuleCounts counts = getRuleCounts(rule);
+    counts.probed[index].add(probed);
+    counts.produced[index].add(produced);
+  }
+
+  @Override
+  public void roundCompleted(int stratum, int round, int newFacts, long nanos) {
+    rounds.add(new Round(stratum, round, newFacts, nanos));
+  }
+
+  @Override
+  public void stratumCompleted(int stratum, long nanos) {
+    stratumTimes.put(stratum, nanos);
+  }
+
+  @Override
+  public void evaluationCompleted(IndexableFactCollection facts, long nanos) {
+    Map<PredicateSym, Integer> sizes = new HashMap<>();
+    for (PredicateSym pred : facts.getPreds()) {
+      int size = 0;
+      for (@SuppressWarnings("unused") PositiveAtom fact : facts.indexInto(pred)) {
+        ++size;
+      }
+      sizes.put(pred, size);
+    }
+    relationSizes = Collections.unmodifiableMap(sizes);
+    evaluationTime = nanos;
+  }
+
+  /**
+   * Returns the counts for each rule that has been evaluated.
+   *
+   * @return a live, unmodifiable view of the counts, by rule
+   */
+  public Map<SemiNaiveClause, RuleCounts> getRuleCounts() {
+    return Collections.unmodifiableMap(ruleCounts);
+  }
+
+  /**
+   * Returns the rounds that have been completed, in the order in which they were completed.
+   *
+   * @return the rounds
+   */
+  public List<Round> getRounds() {
+    return Collections.unmodifiableList(new ArrayList<>(rounds));
+  }
+
+  /**
+   * Returns the wall time in nanoseconds of each stratum that has been completed.
+   *
+   * @return the wall times, by stratum
+   */
+  public SortedMap<Integer, Long> getStratumTimes() {
+    return Collections.unmodifiableSortedMap(new TreeMap<>(stratumTimes));
+  }
+
+  /**
+   * Returns the number of facts in each relation at the end of the evaluation.
+   *
+   * @return the relation sizes, by predicate; empty if the evaluation is not complete
+   */
+  public Map<PredicateSym, Integer> getRelationSizes() {
+    return relationSizes;
+  }
+
+  /**
+   * Returns the wall time of the evaluation in nanoseconds.
+   *
+   * @return the wall time, or 0 if the evaluation is not complete
+   */
+  public long getEvaluationTime() {
+    return evaluationTime;
+  }
+
+  /**
+   * Returns a human-readable summary of the metrics, which lists the rules in decreasing order of
+   * the number of tuples they probed (as a rough measure of the work spent on them).
+   *
+   * @return the summary
+   */
+  public String report() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("Evaluation: %.3f ms%n", evaluationTime / 1e6));
+    for (Map.Entry<Integer, Long> e : getStratumTimes().entrySet()) {
+      sb.append(String.format("Stratum %d: %.3f ms%n", e.getKey(), e.getValue() / 1e6));
+    }
+    for (Round r : getRounds()) {
+      sb.append(
+          String.format(
+              "Stratum %d, round %d: %d new facts, %.3f ms%n",
+              r.getStratum(), r.getRound(), r.getNewFacts(), r.getNanos() / 1e6));
+    }
+    List<RuleCounts> rules = new ArrayList<>(ruleCounts.values());
+    rules.sort(Comparator.comparingLong(RuleCounts::getTotalProbed).reversed());
+    for (RuleCounts counts : rules) {
+      sb.append(counts.getRule());
+      sb.append(
+          String.format(
+              "%n  fired %d times (%d redundant)%n",
+              counts.getFirings(), counts.getRedundantDerivations()));
+      for (int i = 0; i < counts.probed.length; ++i) {
+        sb.append(
+            String.format(
+                "  %d: %s probed %d, produced %d%n",
+                i, counts.getRule().getBody().get(i), counts.getProbed(i), counts.getProduced(i)));
+      }
+    }
+    List<Map.Entry<PredicateSym, Integer>> sizes = new ArrayList<>(relationSizes.entrySet());
+    sizes.sort(Comparator.comparing(e -> e.getKey().toString()));
+    for (Map.Entry<PredicateSym, Integer> e : sizes) {
+      sb.append(String.format("|%s| = %d%n", e.getKey(), e.getValue()));
+    }
+    return sb.toString();
+  }
+
+  /** The counts for a single rule. */
+  public static final class RuleCounts {
+    private final SemiNaiveClause rule;
+    private final LongAdder firings = new LongAdder();
+    private final LongAdder redundant = new LongAdder();
+    private final LongAdder[] probed;
+    private final LongAdder[] produced;
+
+    private RuleCounts(SemiNaiveClause rule) {
+      this.rule = rule;
+      int n = rule.getBody().size();
+      probed = new LongAdder[n];
+      produced = new LongAdder[n];
+      for (int i = 0; i < n; ++i) {
+        probed[i] = new LongAdder();
+        produced[i] = new LongAdder();
+      }
+    }
+
+    public SemiNaiveClause getRule() {
+      return rule;
+    }
+
+    /**
+     * Returns the number of times the body of the rule was satisfied.
+     *
+     * @return the number of firings
+     */
+    public long getFirings() {
+      return firings.sum();
+    }
+
+    /**
+     * Returns the number of firings that derived a fact that had already been derived.
+     *
+     * @return the number of redundant derivations
+     */
+    public long getRedundantDerivations() {
+      return redundant.sum();
+    }
+
+    /**
+     * Returns the number of tuples probed by a premise of the rule.
+     *
+     * @param index the position of the premise in the body of the rule
+     * @return the number of tuples
+     */
+    public long getProbed(int index) {
+      return probed[index].sum();
+    }
+
+    /**
+     * Returns the number of tuples produced by a premise of the rule.
+     *
+     * @param index the position of the premise in the body of the rule
+     * @return the number of tuples
+     */
+    public long getProduced(int index) {
+      return produced[index].sum();
+    }
+
+    /**
+     * Returns the number of tuples probed by all the premises of the rule.
+     *
+     * @return the number of tuples
+     */
+    public long getTotalProbed() {
+      long total = 0;
+      for (LongAdder a : probed) {
+        total += a.sum();
+      }
+      return total;
+    }
+  }
+
+  /** A completed round of a stratum. */
+  public static final class Round {
+    private final int stratum;
+    private final int round;
+    private final int newFacts;
+    private final long nanos;
+
+    private Round(int stratum, int round, int newFacts, long nanos) {
+      this.stratum = stratum;
+      this.round = round;
+      this.newFacts = newFacts;
+      this.nanos = nanos;
+    }
+
+    public int getStratum() {
+      return stratum;
+    }
+
+    public int getRound() {
+      return round;
+    }
+
+    public int getNewFacts() {
+      return newFacts;
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+  }
+}
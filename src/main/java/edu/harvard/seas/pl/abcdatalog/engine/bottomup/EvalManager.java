@@ -55,4 +55,15 @@ public interface EvalManager {
    * @return the facts
    */
   IndexableFactCollection eval();
+
+  /**
+   * Sets the listener that is notified of the work performed during evaluation. The listener must
+   * be set before this manager is initialized.
+   *
+   * @param metrics the listener, or null for none
+   * @throws UnsupportedOperationException if this manager does not report metrics
+   */
+  default void setMetrics(EvalMetrics metrics) {
+    throw new UnsupportedOperationException("This evaluation manager does not report metrics.");
+  }
 }
@@ -0,0 +1,97 @@
+package edu.harvard.seas.pl.abcdatalog.engine.bottomup;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.SemiNaiveClauseAnnotator.SemiNaiveClause;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.IndexableFactCollection;
+
+/**
+ * A listener that is notified of the work performed by a bottom-up evaluation manager, for
+ * profiling programs. Rules are reported in the form in which they are evaluated, that is, as
+ * annotated clauses; a single rule of the original program might give rise to several of these.
+ *
+ * <p>The callbacks can be invoked concurrently from the worker threads of an evaluation, and so
+ * implementations must be thread-safe. A manager that has no listener does not pay for any of the
+ * bookkeeping. All methods do nothing by default.
+ */
+public interface EvalMetrics {
+  /**
+   * Invoked when the body of a rule is satisfied and the rule derives a fact.
+   *
+   * @param rule the rule
+   * @param isNew whether the fact is new, as opposed to a redundant derivation of a fact that has
+   *     already been derived
+   */
+  default void ruleFired(SemiNaiveClause rule, boolean isNew) {}
+
+  /**
+   * Invoked each time a premise in the body of a rule is evaluated under a (partial) substitution.
+   * For an atom, the number of probed tuples is the number of facts retrieved from the index, and
+   * the number of produced tuples is the number of those that unify with the atom. The first atom
+   * of a rule is probed with one fact at a time. Negated atoms and (dis)unifiers produce at most
+   * one tuple per evaluation.
+   *
+   * @param rule the rule
+   * @param index the position of the premise in the body of the rule
+   * @param probed the number of tuples probed
+   * @param produced the number of tuples produced, that is, passed on to the next premise
+   */
+  default void premiseEvaluated(SemiNaiveClause rule, int index, int probed, int produced) {}
+
+  /**
+   * Invoked when a round of a stratum of a round-based evaluation is complete.
+   *
+   * @param stratum the stratum
+   * @param round the round, counting from zero
+   * @param newFacts the number of new facts derived in the round
+   * @param nanos the wall time of the round in nanoseconds
+   */
+  default void roundCompleted(int stratum, int round, int newFacts, long nanos) {}
+
+  /**
+   * Invoked when a stratum of a stratified evaluation is complete.
+   *
+   * @param stratum the stratum
+   * @param nanos the wall time of the stratum in nanoseconds
+   */
+  default void stratumCompleted(int stratum, long nanos) {}
+
+  /**
+   * Invoked once the evaluation is complete.
+   *
+   * @param facts the facts derived by the evaluation
+   * @param nanos the wall time of the evaluation in nanoseconds
+   */
+  default void evaluationCompleted(IndexableFactCollection facts, long nanos) {}
+}
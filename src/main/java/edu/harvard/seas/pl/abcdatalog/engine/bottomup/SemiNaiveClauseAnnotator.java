@@ -190,7 +190,7 @@ public class SemiNaiveClauseAnnotator {
               }
               ++total;
             }
-            return (total == 0) ? 1.0 : count / total;
+            return (total == 0) ? 1.0 : (double) count / total;
           }
 
           @Override
@@ -42,8 +42,10 @@ import edu.harvard.seas.pl.abcdatalog.ast.validation.UnstratifiedProgram;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.AnnotatedAtom;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.ClauseEvaluator;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.EvalManager;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.EvalMetrics;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.SemiNaiveClauseAnnotator;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.SemiNaiveClauseAnnotator.SemiNaiveClause;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.jfr.PhaseEvent;
 import edu.harvard.seas.pl.abcdatalog.util.ExecutorServiceCounter;
 import edu.harvard.seas.pl.abcdatalog.util.Utilities;
 import edu.harvard.seas.pl.abcdatalog.util.datastructures.ConcurrentFactTrie;
@@ -63,34 +65,79 @@ import java.util.concurrent.ForkJoinPool;
 public class BottomUpEvalManager implements EvalManager {
 
   protected final Map<PredicateSym, Set<ClauseEvaluator>> predToEvalMap = new HashMap<>();
-  protected final ExecutorServiceCounter exec =
-      new ExecutorServiceCounter(
-          new ForkJoinPool(
-              Utilities.concurrency, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true));
-  protected final FactIndexer facts = FactIndexerFactory.createConcurrentQueueFactIndexer();
+  protected final ForkJoinPool pool =
+      new ForkJoinPool(
+          Utilities.concurrency, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+  protected final ExecutorServiceCounter exec = new ExecutorServiceCounter(this.pool);
+  protected final FactIndexer facts;
   protected final Set<PositiveAtom> initialFacts = Utilities.createConcurrentSet();
   protected final ConcurrentFactTrie trie = new ConcurrentFactTrie();
+  protected EvalMetrics metrics;
+
+  /** Constructs an evaluation manager. */
+  public BottomUpEvalManager() {
+    this(FactIndexerFactory.createConcurrentQueueFactIndexer());
+  }
+
+  /**
+   * Constructs an evaluation manager that stores the facts derived during evaluation in the given
+   * indexer.
+   *
+   * @param facts the indexer
+   */
+  protected BottomUpEvalManager(FactIndexer facts) {
+    this.facts = facts;
+  }
+
+  @Override
+  public synchronized void setMetrics(EvalMetrics metrics) {
+    this.metrics = metrics;
+  }
 
   @Override
   public synchronized void initialize(Set<Clause> program) throws DatalogValidationException {
+    PhaseEvent validation = PhaseEvent.start(PhaseEvent.VALIDATION, getClass());
     UnstratifiedProgram prog =
         (new DatalogValidator())
             .withBinaryDisunificationInRuleBody()
             .withBinaryUnificationInRuleBody()
             .validate(program);
+    validation.finish(program.size());
     initialFacts.addAll(prog.getInitialFacts());
 
     SemiNaiveClauseAnnotator annotator = new SemiNaiveClauseAnnotator(prog.getIdbPredicateSyms());
+    PhaseEvent annotation = PhaseEvent.start(PhaseEvent.ANNOTATION, getClass());
+    Set<SemiNaiveClause> rules = annotator.annotate(prog.getRules());
+    annotation.finish(rules.size());
+
     // set up map from predicate sym to rules. this depends on the first
     // atom in the annotated rule body being the "delta" atom
-    for (SemiNaiveClause cl : annotator.annotate(prog.getRules())) {
+    PhaseEvent construction = PhaseEvent.start(PhaseEvent.EVALUATOR_CONSTRUCTION, getClass());
+    for (SemiNaiveClause cl : rules) {
       Utilities.getSetFromMap(this.predToEvalMap, cl.getFirstAtom().getPred())
-          .add(new ClauseEvaluator(cl, this::newFact, this::getFacts));
+          .add(this.createClauseEvaluator(cl));
+    }
+    construction.finish(rules.size());
+  }
+
+  /**
+   * Creates the evaluator for a rule, which reports to the metrics listener if there is one.
+   *
+   * @param cl the rule
+   * @return the evaluator
+   */
+  protected ClauseEvaluator createClauseEvaluator(SemiNaiveClause cl) {
+    EvalMetrics metrics = this.metrics;
+    if (metrics == null) {
+      return new ClauseEvaluator(cl, this::newFact, this::getFacts);
     }
+    return new ClauseEvaluator(
+        cl, (atom, s) -> metrics.ruleFired(cl, this.newFact(atom, s)), this::getFacts, metrics);
   }
 
   @Override
   public synchronized IndexableFactCollection eval() {
+    long start = this.metrics != null ? System.nanoTime() : 0;
     this.facts.addAll(this.initialFacts);
     for (PositiveAtom fact : this.initialFacts) {
       this.trie.add(fact);
@@ -98,6 +145,9 @@ public class BottomUpEvalManager implements EvalManager {
     this.processInitialFacts(this.initialFacts);
     this.exec.blockUntilFinished();
     this.exec.shutdownAndAwaitTermination();
+    if (this.metrics != null) {
+      this.metrics.evaluationCompleted(this.facts, System.nanoTime() - start);
+    }
     return this.facts;
   }
 
@@ -128,11 +178,20 @@ public class BottomUpEvalManager implements EvalManager {
     return facts.indexInto(atom.asUnannotatedAtom(), s);
   }
 
-  protected void newFact(PositiveAtom atom, ClauseSubstitution s) {
+  /**
+   * Records a fact derived by a rule, unless it has already been derived.
+   *
+   * @param atom the head of the rule
+   * @param s the substitution that satisfies the body of the rule
+   * @return whether the fact is new
+   */
+  protected boolean newFact(PositiveAtom atom, ClauseSubstitution s) {
     if (trie.add(atom, s)) {
       PositiveAtom f = atom.applySubst(s);
       facts.add(f);
       processNewFact(f);
+      return true;
     }
+    return false;
   }
 }
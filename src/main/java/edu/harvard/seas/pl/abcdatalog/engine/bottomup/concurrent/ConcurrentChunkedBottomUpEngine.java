@@ -43,8 +43,11 @@ import edu.harvard.seas.pl.abcdatalog.engine.bottomup.AnnotatedAtom;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.BottomUpEngineFrame;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.ClauseEvaluator;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.EvalManager;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.EvalMetrics;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.SemiNaiveClauseAnnotator;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.SemiNaiveClauseAnnotator.SemiNaiveClause;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.jfr.ChunkEvent;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.jfr.PhaseEvent;
 import edu.harvard.seas.pl.abcdatalog.util.Box;
 import edu.harvard.seas.pl.abcdatalog.util.ExecutorServiceCounter;
 import edu.harvard.seas.pl.abcdatalog.util.Utilities;
@@ -63,7 +66,7 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ForkJoinPool;
-import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
 
 /**
  * A concurrent bottom-up Datalog engine that employs a saturation algorithm similar to semi-naive
@@ -90,27 +93,39 @@ public class ConcurrentChunkedBottomUpEngine extends BottomUpEngineFrame<EvalMan
                 null,
                 true));
     private final int chunkSize;
+    private volatile EvalMetrics metrics;
 
     public ChunkedEvalManager(int chunkSize) {
       this.chunkSize = chunkSize;
     }
 
+    @Override
+    public void setMetrics(EvalMetrics metrics) {
+      this.metrics = metrics;
+    }
+
     @Override
     public void initialize(Set<Clause> program) throws DatalogValidationException {
+      PhaseEvent validation = PhaseEvent.start(PhaseEvent.VALIDATION, getClass());
       this.program =
           (new DatalogValidator())
               .withBinaryUnificationInRuleBody()
               .withBinaryDisunificationInRuleBody()
               .validate(program);
+      validation.finish(program.size());
     }
 
     @Override
     public IndexableFactCollection eval() {
+      long start = metrics != null ? System.nanoTime() : 0;
+      PhaseEvent annotation = PhaseEvent.start(PhaseEvent.ANNOTATION, getClass());
       SemiNaiveClauseAnnotator annotator =
           new SemiNaiveClauseAnnotator(program.getIdbPredicateSyms());
-      for (SemiNaiveClause cl : annotator.annotate(program.getRules())) {
+      Set<SemiNaiveClause> rules = annotator.annotate(program.getRules());
+      for (SemiNaiveClause cl : rules) {
         Utilities.getSetFromMap(predToRuleMap, cl.getFirstAtom().getPred()).add(cl);
       }
+      annotation.finish(rules.size());
 
       for (PositiveAtom fact : program.getInitialFacts()) {
         if (redundancyTrie.add(fact)) {
@@ -139,6 +154,9 @@ public class ConcurrentChunkedBottomUpEngine extends BottomUpEngineFrame<EvalMan
       exec.blockUntilFinished();
       exec.shutdownAndAwaitTermination();
 
+      if (metrics != null) {
+        metrics.evaluationCompleted(index, System.nanoTime() - start);
+      }
       return index;
     }
 
@@ -155,12 +173,15 @@ public class ConcurrentChunkedBottomUpEngine extends BottomUpEngineFrame<EvalMan
 
       @Override
       public void run() {
+        ChunkEvent event = new ChunkEvent();
+        event.begin();
+        int nfacts = 0;
         Box<Queue<PositiveAtom>> acc = new Box<>();
         acc.value = new ConcurrentLinkedQueue<>();
         Box<Integer> size = new Box<>();
         size.value = 0;
 
-        BiConsumer<PositiveAtom, ClauseSubstitution> reportFact =
+        BiPredicate<PositiveAtom, ClauseSubstitution> reportFact =
             (a, s) -> {
               if (redundancyTrie.add(a, s)) {
                 PositiveAtom fact = a.applySubst(s);
@@ -171,12 +192,15 @@ public class ConcurrentChunkedBottomUpEngine extends BottomUpEngineFrame<EvalMan
                   acc.value = new ConcurrentLinkedQueue<>();
                   size.value = 0;
                 }
+                return true;
               }
+              return false;
             };
 
         Map<PredicateSym, List<ClauseEvaluator>> predToEvalMap = new HashMap<>();
 
         for (PositiveAtom fact : facts) {
+          ++nfacts;
           PredicateSym pred = fact.getPred();
           List<ClauseEvaluator> evals = predToEvalMap.get(pred);
           if (evals == null) {
@@ -185,8 +209,19 @@ public class ConcurrentChunkedBottomUpEngine extends BottomUpEngineFrame<EvalMan
               evals = Collections.emptyList();
             } else {
               evals = new ArrayList<>();
+              EvalMetrics metrics = ChunkedEvalManager.this.metrics;
               for (SemiNaiveClause cl : rules) {
-                evals.add(new ClauseEvaluator(cl, reportFact, ChunkedEvalManager.this::getFacts));
+                if (metrics == null) {
+                  evals.add(
+                      new ClauseEvaluator(cl, reportFact::test, ChunkedEvalManager.this::getFacts));
+                } else {
+                  evals.add(
+                      new ClauseEvaluator(
+                          cl,
+                          (a, s) -> metrics.ruleFired(cl, reportFact.test(a, s)),
+                          ChunkedEvalManager.this::getFacts,
+                          metrics));
+                }
               }
             }
             predToEvalMap.put(pred, evals);
@@ -200,6 +235,12 @@ public class ConcurrentChunkedBottomUpEngine extends BottomUpEngineFrame<EvalMan
         if (size.value != 0) {
           exec.submitTask(new WorkItem(acc.value));
         }
+
+        event.end();
+        if (event.shouldCommit()) {
+          event.facts = nfacts;
+          event.commit();
+        }
       }
     }
   }
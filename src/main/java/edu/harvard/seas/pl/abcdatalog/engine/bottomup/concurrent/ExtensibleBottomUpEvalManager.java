@@ -39,15 +39,17 @@ import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
 import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidationException;
 import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidator;
 import edu.harvard.seas.pl.abcdatalog.ast.validation.UnstratifiedProgram;
-import edu.harvard.seas.pl.abcdatalog.engine.bottomup.ClauseEvaluator;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.SemiNaiveClauseAnnotator;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.SemiNaiveClauseAnnotator.SemiNaiveClause;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.jfr.PhaseEvent;
 import edu.harvard.seas.pl.abcdatalog.executor.DatalogListener;
 import edu.harvard.seas.pl.abcdatalog.util.Utilities;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.EpochFactIndexer;
 import edu.harvard.seas.pl.abcdatalog.util.datastructures.IndexableFactCollection;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -66,6 +68,27 @@ public class ExtensibleBottomUpEvalManager extends BottomUpEvalManager {
   private final AtomicInteger ongoingAdds = new AtomicInteger();
   final Object lock = new Object();
 
+  /**
+   * Whether external additions are currently held back so that a snapshot can be taken. This is
+   * only written while holding this manager's inherent lock.
+   */
+  private volatile boolean isPaused = false;
+
+  /** Whether a fact has been added to the evaluation since the latest snapshot was taken. */
+  private volatile boolean isDirty = true;
+
+  /** The latest snapshot, guarded by this manager's inherent lock. */
+  private Snapshot latestSnapshot;
+
+  /**
+   * The facts derived during evaluation, stamped with the epoch of the snapshot they first appear
+   * in. This is the same indexer as {@link #facts}.
+   */
+  private final EpochFactIndexer epochFacts;
+
+  /** When the evaluation was started, if there is a metrics listener. */
+  private long evalStart;
+
   /**
    * Constructs a concurrent semi-naive evaluation manager that supports the explicit addition of
    * facts during evaluation. The argument marks the predicates of the relations that are allowed to
@@ -74,7 +97,14 @@ public class ExtensibleBottomUpEvalManager extends BottomUpEvalManager {
    * @param extensiblePreds the predicates of the relations that can be extended by new facts
    */
   public ExtensibleBottomUpEvalManager(Set<PredicateSym> extensiblePreds) {
+    this(extensiblePreds, new EpochFactIndexer());
+  }
+
+  private ExtensibleBottomUpEvalManager(
+      Set<PredicateSym> extensiblePreds, EpochFactIndexer epochFacts) {
+    super(epochFacts);
     this.extensiblePreds = extensiblePreds;
+    this.epochFacts = epochFacts;
   }
 
   @Override
@@ -82,22 +112,30 @@ public class ExtensibleBottomUpEvalManager extends BottomUpEvalManager {
     if (this.isInitialized) {
       throw new IllegalStateException("Cannot initialize an evaluation manager more than once.");
     }
+    PhaseEvent validation = PhaseEvent.start(PhaseEvent.VALIDATION, getClass());
     UnstratifiedProgram prog =
         (new DatalogValidator())
             .withBinaryDisunificationInRuleBody()
             .withBinaryUnificationInRuleBody()
             .validate(program);
+    validation.finish(program.size());
     initialFacts.addAll(prog.getInitialFacts());
     Set<PredicateSym> idbPreds = new HashSet<>(prog.getIdbPredicateSyms());
     idbPreds.addAll(this.extensiblePreds);
 
     SemiNaiveClauseAnnotator annotator = new SemiNaiveClauseAnnotator(idbPreds);
+    PhaseEvent annotation = PhaseEvent.start(PhaseEvent.ANNOTATION, getClass());
+    Set<SemiNaiveClause> rules = annotator.annotate(prog.getRules());
+    annotation.finish(rules.size());
+
     // set up map from predicate sym to rules. this depends on the first
     // atom in the annotated rule body being the "delta" atom
-    for (SemiNaiveClause cl : annotator.annotate(prog.getRules())) {
+    PhaseEvent construction = PhaseEvent.start(PhaseEvent.EVALUATOR_CONSTRUCTION, getClass());
+    for (SemiNaiveClause cl : rules) {
       Utilities.getSetFromMap(this.predToEvalMap, cl.getFirstAtom().getPred())
-          .add(new ClauseEvaluator(cl, this::newFact, this::getFacts));
+          .add(this.createClauseEvaluator(cl));
     }
+    construction.finish(rules.size());
 
     this.isInitialized = true;
   }
@@ -116,6 +154,9 @@ public class ExtensibleBottomUpEvalManager extends BottomUpEvalManager {
       throw new IllegalStateException("Evaluation cannot be performed more than once.");
     }
     this.isEvaluated = true;
+    if (this.metrics != null) {
+      this.evalStart = System.nanoTime();
+    }
 
     for (PositiveAtom fact : this.initialFacts) {
       this.addFact(fact);
@@ -140,6 +181,99 @@ public class ExtensibleBottomUpEvalManager extends BottomUpEvalManager {
     }
     this.isFinishing = true;
 
+    this.awaitOngoingAdds();
+    this.exec.blockUntilFinished();
+    this.exec.shutdownAndAwaitTermination();
+    if (this.metrics != null) {
+      this.metrics.evaluationCompleted(this.facts, System.nanoTime() - this.evalStart);
+    }
+    return this.facts;
+  }
+
+  /**
+   * Takes a consistent snapshot of the facts derived so far without stopping the evaluation. The
+   * snapshot is taken at a quiescent point: facts added by other threads are held back while any
+   * outstanding derivations are completed, and then the current epoch is ended. Every derived fact
+   * is stamped with the epoch during which it was derived, so the snapshot is a view that filters
+   * out the facts of later epochs, and taking it does not copy any facts; the work done is that of
+   * completing the derivations from the facts added since the latest snapshot. Each snapshot that
+   * reflects new additions is assigned the next epoch number; if no facts have been added since the
+   * latest snapshot, that snapshot is returned again.
+   *
+   * <p>Listeners are allowed to add facts while a snapshot is being taken (the facts they add are
+   * part of the evaluation being completed), but they must not block waiting on threads that are
+   * themselves adding facts.
+   *
+   * @return the snapshot
+   * @throws IllegalStateException if the evaluation was never started, or if it has already been
+   *     finished (or is in the process of finishing).
+   */
+  public synchronized Snapshot snapshot() {
+    if (!this.isEvaluated) {
+      throw new IllegalStateException("Evaluation has not started, and so cannot be snapshotted.");
+    }
+    if (this.isFinishing) {
+      throw new IllegalStateException("Evaluation has already been finished.");
+    }
+    if (!this.isDirty) {
+      return this.latestSnapshot;
+    }
+
+    this.pauseAndDrain();
+    try {
+      this.isDirty = false;
+      long epoch = this.epochFacts.advanceEpoch();
+      this.latestSnapshot = new Snapshot(epoch, this.epochFacts.asOf(epoch));
+    } finally {
+      this.resume();
+    }
+    return this.latestSnapshot;
+  }
+
+  /**
+   * Blocks until the evaluation reaches a quiescent point, i.e., until every fact that was added
+   * before this method was invoked has been fully processed. Facts added by other threads are held
+   * back in the meantime, so that the evaluation is guaranteed to make progress toward quiescence.
+   * Once this method returns, the view returned by {@link #eval()} contains (at least) every fact
+   * derivable from the facts added before the invocation. If the evaluation has already been
+   * finished, this method returns immediately.
+   *
+   * @throws IllegalStateException if the evaluation was never started
+   */
+  public synchronized void awaitQuiescence() {
+    if (!this.isEvaluated) {
+      throw new IllegalStateException("Evaluation has not started.");
+    }
+    // Since finishing holds this manager's lock, a finishing evaluation has
+    // already completed by the time we get here.
+    if (this.isFinishing || !this.isDirty) {
+      return;
+    }
+
+    this.pauseAndDrain();
+    this.resume();
+  }
+
+  /**
+   * Holds back additions from threads outside the evaluation and blocks until all outstanding work
+   * has been completed. Should only be called while holding this manager's inherent lock.
+   */
+  private void pauseAndDrain() {
+    this.isPaused = true;
+    this.awaitOngoingAdds();
+    this.exec.blockUntilFinished();
+  }
+
+  /** Lets held-back additions proceed. */
+  private void resume() {
+    synchronized (this.lock) {
+      this.isPaused = false;
+      this.lock.notifyAll();
+    }
+  }
+
+  /** Blocks until there are no additions in progress. */
+  private void awaitOngoingAdds() {
     synchronized (this.lock) {
       while (this.ongoingAdds.get() > 0) {
         // wait until the current adds are done
@@ -150,10 +284,19 @@ public class ExtensibleBottomUpEvalManager extends BottomUpEvalManager {
         }
       }
     }
+  }
 
-    this.exec.blockUntilFinished();
-    this.exec.shutdownAndAwaitTermination();
-    return this.facts;
+  /** Blocks until additions are no longer being held back. */
+  private void awaitUnpaused() {
+    synchronized (this.lock) {
+      while (this.isPaused) {
+        try {
+          this.lock.wait();
+        } catch (InterruptedException e) {
+          // do nothing
+        }
+      }
+    }
   }
 
   /**
@@ -173,6 +316,18 @@ public class ExtensibleBottomUpEvalManager extends BottomUpEvalManager {
     }
 
     this.ongoingAdds.incrementAndGet();
+    // If additions are being held back (e.g., for a snapshot), back off until
+    // they are resumed. Threads that are carrying out the evaluation (e.g.,
+    // listeners) are not held back, since the manager is waiting on them.
+    while (this.isPaused && ForkJoinTask.getPool() != this.pool) {
+      if (this.ongoingAdds.decrementAndGet() == 0) {
+        synchronized (this.lock) {
+          this.lock.notifyAll();
+        }
+      }
+      this.awaitUnpaused();
+      this.ongoingAdds.incrementAndGet();
+    }
 
     if (this.isFinishing) {
       if (this.ongoingAdds.decrementAndGet() == 0) {
@@ -192,6 +347,7 @@ public class ExtensibleBottomUpEvalManager extends BottomUpEvalManager {
     // in which the above condition is true, but the initialFacts are
     // processed in this.eval before the given fact is added to that set.
     if (this.isEvaluated && this.trie.add(fact)) {
+      this.isDirty = true;
       this.facts.add(fact);
       this.processNewFact(fact);
     }
@@ -241,4 +397,37 @@ public class ExtensibleBottomUpEvalManager extends BottomUpEvalManager {
     }
     s.add(listener);
   }
+
+  /**
+   * A stable view of the facts derived by an asynchronous evaluation at some quiescent point. The
+   * epoch numbers of the snapshots taken from a given manager increase in the order the snapshots
+   * were taken.
+   */
+  public static final class Snapshot {
+    private final long epoch;
+    private final IndexableFactCollection facts;
+
+    private Snapshot(long epoch, IndexableFactCollection facts) {
+      this.epoch = epoch;
+      this.facts = facts;
+    }
+
+    /**
+     * Returns the epoch of this snapshot.
+     *
+     * @return the epoch
+     */
+    public long getEpoch() {
+      return this.epoch;
+    }
+
+    /**
+     * Returns the facts that had been derived at the time of this snapshot.
+     *
+     * @return the facts
+     */
+    public IndexableFactCollection getFacts() {
+      return this.facts;
+    }
+  }
 }
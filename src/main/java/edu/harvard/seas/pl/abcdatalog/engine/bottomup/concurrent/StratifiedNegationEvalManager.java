@@ -49,8 +49,11 @@ import edu.harvard.seas.pl.abcdatalog.ast.visitors.PremiseVisitorBuilder;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.AnnotatedAtom;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.ClauseEvaluator;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.EvalManager;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.EvalMetrics;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.SemiNaiveClauseAnnotator;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.SemiNaiveClauseAnnotator.SemiNaiveClause;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.jfr.PhaseEvent;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.jfr.StratumEvent;
 import edu.harvard.seas.pl.abcdatalog.util.ExecutorServiceCounter;
 import edu.harvard.seas.pl.abcdatalog.util.Utilities;
 import edu.harvard.seas.pl.abcdatalog.util.datastructures.ConcurrentFactIndexer;
@@ -71,8 +74,8 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
 
 public class StratifiedNegationEvalManager implements EvalManager {
   private final ExecutorServiceCounter handlerExecService =
@@ -95,10 +98,18 @@ public class StratifiedNegationEvalManager implements EvalManager {
 
   private StratifiedProgram stratProg;
 
+  private EvalMetrics metrics;
+
   private static final int EDB_STRATUM = -1;
 
+  @Override
+  public synchronized void setMetrics(EvalMetrics metrics) {
+    this.metrics = metrics;
+  }
+
   @Override
   public void initialize(Set<Clause> program) throws DatalogValidationException {
+    PhaseEvent validation = PhaseEvent.start(PhaseEvent.VALIDATION, getClass());
     UnstratifiedProgram prog =
         (new DatalogValidator())
             .withBinaryDisunificationInRuleBody()
@@ -106,6 +117,7 @@ public class StratifiedNegationEvalManager implements EvalManager {
             .withAtomNegationInRuleBody()
             .validate(program);
     stratProg = StratifiedNegationValidator.validate(prog);
+    validation.finish(program.size());
 
     Map<PredicateSym, Integer> stratumByPred = new HashMap<>(stratProg.getPredToStratumMap());
     for (PredicateSym p : this.stratProg.getEdbPredicateSyms()) {
@@ -127,9 +139,12 @@ public class StratifiedNegationEvalManager implements EvalManager {
     for (int i = 0; i < nstrata; ++i) {
       relevantRulesByStratum[i] = new HashSet<>();
     }
+    PhaseEvent annotation = PhaseEvent.start(PhaseEvent.ANNOTATION, getClass());
     SemiNaiveClauseAnnotator annotator =
         new SemiNaiveClauseAnnotator(stratProg.getIdbPredicateSyms());
-    for (SemiNaiveClause rule : annotator.annotate(this.stratProg.getRules())) {
+    Set<SemiNaiveClause> rules = annotator.annotate(this.stratProg.getRules());
+    annotation.finish(rules.size());
+    for (SemiNaiveClause rule : rules) {
       PredicateSym headPred = rule.getHead().accept(getHeadPred, null);
       int stratum = stratumByPred.get(headPred);
       relevantRulesByStratum[stratum].add(rule);
@@ -138,9 +153,11 @@ public class StratifiedNegationEvalManager implements EvalManager {
       Utilities.getSetFromMap(this.relevantStrataByPred, firstPred).add(stratum);
     }
 
+    PhaseEvent construction = PhaseEvent.start(PhaseEvent.EVALUATOR_CONSTRUCTION, getClass());
     for (int i = 0; i < nstrata; ++i) {
       this.handlers.add(new StratumHandler(i, relevantRulesByStratum[i], stratumByPred));
     }
+    construction.finish(rules.size());
   }
 
   private void propagateStratumCompletion(int stratum) {
@@ -151,6 +168,7 @@ public class StratifiedNegationEvalManager implements EvalManager {
 
   @Override
   public IndexableFactCollection eval() {
+    long start = this.metrics != null ? System.nanoTime() : 0;
     for (PositiveAtom fact : this.stratProg.getInitialFacts()) {
       this.trie.add(fact);
       this.facts.add(fact);
@@ -175,6 +193,9 @@ public class StratifiedNegationEvalManager implements EvalManager {
       }
     } while (!finished);
 
+    if (this.metrics != null) {
+      this.metrics.evaluationCompleted(this.facts, System.nanoTime() - start);
+    }
     return this.facts;
   }
 
@@ -223,13 +244,15 @@ public class StratifiedNegationEvalManager implements EvalManager {
       this.clauseEvaluatorsByFirstPred = new HashMap<>();
       BiFunction<AnnotatedAtom, ClauseSubstitution, Iterable<PositiveAtom>> getFacts =
           (atom, s) -> facts.indexInto(atom.asUnannotatedAtom(), s);
-      BiConsumer<PositiveAtom, ClauseSubstitution> newFact =
+      BiPredicate<PositiveAtom, ClauseSubstitution> newFact =
           (atom, s) -> {
             if (trie.add(atom, s)) {
               PositiveAtom f = atom.applySubst(s);
               facts.add(f);
               propagateNewFact(f);
+              return true;
             }
+            return false;
           };
 
       PremiseVisitor<Void, PredicateSym> getPred =
@@ -238,13 +261,21 @@ public class StratifiedNegationEvalManager implements EvalManager {
               .orCrash();
       for (SemiNaiveClause cl : relevantRules) {
         PredicateSym bodyPred = cl.getBody().get(0).accept(getPred, null);
-        ClauseEvaluator ce = new ClauseEvaluator(cl, newFact, getFacts);
+        ClauseEvaluator ce;
+        if (metrics == null) {
+          ce = new ClauseEvaluator(cl, newFact::test, getFacts);
+        } else {
+          ce =
+              new ClauseEvaluator(
+                  cl, (atom, s) -> metrics.ruleFired(cl, newFact.test(atom, s)), getFacts, metrics);
+        }
         Utilities.getSetFromMap(this.clauseEvaluatorsByFirstPred, bodyPred).add(ce);
       }
     }
 
     @Override
     public void run() {
+      long created = System.nanoTime();
       while (!this.negDependencies.isEmpty()) {
         try {
           int n = this.completedStrataFeed.take();
@@ -256,6 +287,9 @@ public class StratifiedNegationEvalManager implements EvalManager {
       }
 
       this.running = true;
+      StratumEvent event = new StratumEvent();
+      event.begin();
+      long start = System.nanoTime();
 
       while (!this.queuedFacts.isEmpty()) {
         this.evaluateWithNewFact(this.queuedFacts.remove());
@@ -271,6 +305,15 @@ public class StratifiedNegationEvalManager implements EvalManager {
 
       this.exec.blockUntilFinished();
 
+      if (metrics != null) {
+        metrics.stratumCompleted(this.stratum, System.nanoTime() - start);
+      }
+      event.end();
+      if (event.shouldCommit()) {
+        event.stratum = this.stratum;
+        event.blockedTime = start - created;
+        event.commit();
+      }
       propagateStratumCompletion(this.stratum);
     }
 
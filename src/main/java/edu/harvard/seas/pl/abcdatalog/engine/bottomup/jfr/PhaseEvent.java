@@ -0,0 +1,97 @@
+package edu.harvard.seas.pl.abcdatalog.engine.bottomup.jfr;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Flight Recorder event for a phase of the setup of a bottom-up evaluation: validating the
+ * program, annotating its rules for semi-naive evaluation, or constructing the evaluators for the
+ * rules.
+ */
+@Name(PhaseEvent.NAME)
+@Label("Engine Phase")
+@Category({"AbcDatalog", "Bottom-Up Evaluation"})
+@Description("A phase of the setup of a bottom-up evaluation")
+public final class PhaseEvent extends jdk.jfr.Event {
+  public static final String NAME = "edu.harvard.seas.pl.abcdatalog.Phase";
+
+  public static final String VALIDATION = "Validation";
+  public static final String ANNOTATION = "Annotation";
+  public static final String EVALUATOR_CONSTRUCTION = "Evaluator Construction";
+
+  @Label("Phase")
+  String phase;
+
+  @Label("Source")
+  @Description("The class that carries out the phase")
+  Class<?> source;
+
+  @Label("Clauses")
+  @Description("The number of clauses handled by the phase")
+  int clauses;
+
+  private PhaseEvent() {}
+
+  /**
+   * Begins timing a phase.
+   *
+   * @param phase the phase; one of the constants of this class
+   * @param source the class that carries out the phase, such as an evaluation manager
+   * @return the event
+   */
+  public static PhaseEvent start(String phase, Class<?> source) {
+    PhaseEvent event = new PhaseEvent();
+    event.begin();
+    event.phase = phase;
+    event.source = source;
+    return event;
+  }
+
+  /**
+   * Ends the phase, and commits the event if it is enabled and passes the recording's threshold.
+   *
+   * @param clauses the number of clauses handled by the phase
+   */
+  public void finish(int clauses) {
+    end();
+    if (shouldCommit()) {
+      this.clauses = clauses;
+      commit();
+    }
+  }
+}
@@ -41,6 +41,7 @@ import edu.harvard.seas.pl.abcdatalog.engine.DatalogEngineWithProvenance;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.BottomUpEngineFrameWithProvenance;
 import edu.harvard.seas.pl.abcdatalog.parser.DatalogParser;
 import edu.harvard.seas.pl.abcdatalog.parser.DatalogTokenizer;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.IndexableFactCollection;
 import java.io.Reader;
 import java.io.StringReader;
 import java.util.Set;
@@ -63,6 +64,21 @@ public class SemiNaiveEngine extends BottomUpEngineFrameWithProvenance {
     super(new SemiNaiveEvalManager(collectProv));
   }
 
+  /**
+   * Initializes this engine with a compiled program and a separate collection of EDB facts. This
+   * skips the validation and annotation of the program, so a program that is compiled once can be
+   * cheaply evaluated against many EDBs, either in sequence or concurrently (using a separate
+   * engine for each evaluation). The EDB facts are read directly from the given collection rather
+   * than copied, and so the collection must not be modified while this engine is in use.
+   *
+   * @param program the compiled program
+   * @param edb the EDB facts
+   * @throws IllegalStateException if this engine has already been initialized
+   */
+  public void init(SemiNaiveProgram program, IndexableFactCollection edb) {
+    init(() -> ((SemiNaiveEvalManager) manager).initialize(program, edb));
+  }
+
   public static void main(String[] args) throws Exception {
     String[] lines = {
       "edge(a, b).",
@@ -41,25 +41,19 @@ import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
 import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
 import edu.harvard.seas.pl.abcdatalog.ast.Premise;
 import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidationException;
-import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidator;
-import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidator.ValidClause;
-import edu.harvard.seas.pl.abcdatalog.ast.validation.StratifiedNegationValidator;
-import edu.harvard.seas.pl.abcdatalog.ast.validation.StratifiedProgram;
-import edu.harvard.seas.pl.abcdatalog.ast.validation.UnstratifiedProgram;
-import edu.harvard.seas.pl.abcdatalog.ast.visitors.HeadVisitor;
 import edu.harvard.seas.pl.abcdatalog.ast.visitors.PremiseVisitor;
-import edu.harvard.seas.pl.abcdatalog.ast.visitors.PremiseVisitorBuilder;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.AnnotatedAtom;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.ClauseEvaluator;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.EvalManagerWithProvenance;
-import edu.harvard.seas.pl.abcdatalog.engine.bottomup.SemiNaiveClauseAnnotator;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.EvalMetrics;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.SemiNaiveClauseAnnotator.SemiNaiveClause;
-import edu.harvard.seas.pl.abcdatalog.util.Utilities;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.jfr.PhaseEvent;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.jfr.RoundEvent;
 import edu.harvard.seas.pl.abcdatalog.util.datastructures.ConcurrentFactIndexer;
-import edu.harvard.seas.pl.abcdatalog.util.datastructures.FactIndexer;
 import edu.harvard.seas.pl.abcdatalog.util.datastructures.FactIndexerFactory;
 import edu.harvard.seas.pl.abcdatalog.util.datastructures.IndexableFactCollection;
 import edu.harvard.seas.pl.abcdatalog.util.substitution.ClauseSubstitution;
+import edu.harvard.seas.pl.abcdatalog.util.substitution.ConstOnlySubstitution;
 import edu.harvard.seas.pl.abcdatalog.util.substitution.SubstitutionUtils;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -69,7 +63,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class SemiNaiveEvalManager implements EvalManagerWithProvenance {
   private final ConcurrentFactIndexer<Set<PositiveAtom>> allFacts =
@@ -78,93 +75,116 @@ public class SemiNaiveEvalManager implements EvalManagerWithProvenance {
   private final boolean collectProv;
   private final ConcurrentHashMap<PositiveAtom, Clause> justifications = new ConcurrentHashMap<>();
 
+  /** The EDB facts supplied separately from the program, which are shared by reference. */
+  private IndexableFactCollection sharedEdb;
+
+  /** The facts visible to the evaluation: allFacts, possibly combined with the shared EDB. */
+  private IndexableFactCollection visibleFacts = allFacts;
+
+  private EvalMetrics metrics;
+
   public SemiNaiveEvalManager(boolean collectProv) {
     this.collectProv = collectProv;
   }
 
-  @SuppressWarnings("unchecked")
+  @Override
+  public synchronized void setMetrics(EvalMetrics metrics) {
+    this.metrics = metrics;
+  }
+
   @Override
   public synchronized void initialize(Set<Clause> program) throws DatalogValidationException {
-    UnstratifiedProgram prog =
-        (new DatalogValidator())
-            .withBinaryDisunificationInRuleBody()
-            .withBinaryUnificationInRuleBody()
-            .withAtomNegationInRuleBody()
-            .validate(program);
-    StratifiedProgram stratProg = StratifiedNegationValidator.validate(prog);
-    List<Set<PredicateSym>> strata = stratProg.getStrata();
-    int nstrata = strata.size();
-    Map<PredicateSym, Set<SemiNaiveClause>>[] firstRoundRules = new HashMap[nstrata];
-    Map<PredicateSym, Set<SemiNaiveClause>>[] laterRoundRules = new HashMap[nstrata];
-    Set<PositiveAtom>[] initialIdbFacts = new HashSet[nstrata];
-    for (int i = 0; i < nstrata; ++i) {
-      firstRoundRules[i] = new HashMap<>();
-      laterRoundRules[i] = new HashMap<>();
-      initialIdbFacts[i] = new HashSet<>();
-    }
-    Map<PredicateSym, Integer> predToStratumMap = stratProg.getPredToStratumMap();
+    initialize(SemiNaiveProgram.compile(program), null);
+  }
 
-    HeadVisitor<Void, PredicateSym> getHeadPred =
-        new HeadVisitor<Void, PredicateSym>() {
+  /**
+   * Initializes this manager with a compiled program and a separate collection of EDB facts. The
+   * EDB facts are not copied; instead, the evaluation reads them directly from the given
+   * collection, which must therefore not be modified while this manager is in use. The same
+   * collection can be shared by multiple managers (including concurrently running ones).
+   *
+   * @param program the compiled program
+   * @param edb the EDB facts, or null if there are none besides those in the program
+   */
+  public synchronized void initialize(SemiNaiveProgram program, IndexableFactCollection edb) {
+    List<SemiNaiveProgram.Stratum> strata = program.getStrata();
+    List<Set<PositiveAtom>> initialIdbFacts = new ArrayList<>();
+    for (SemiNaiveProgram.Stratum stratum : strata) {
+      initialIdbFacts.add(new HashSet<>(stratum.getInitialIdbFacts()));
+    }
 
-          @Override
-          public PredicateSym visit(PositiveAtom atom, Void state) {
-            return atom.getPred();
+    Set<PredicateSym> idbPreds = program.getIdbPredicateSyms();
+    if (edb != null && !edb.isEmpty()) {
+      this.sharedEdb = edb;
+      this.visibleFacts = new CombinedFacts(idbPreds);
+      // Supplied facts for IDB relations seed the evaluation of their strata
+      // (like initial IDB facts in the program), and so are copied.
+      for (PredicateSym pred : edb.getPreds()) {
+        Integer stratum = program.getStratum(pred);
+        if (stratum != null) {
+          for (PositiveAtom fact : edb.indexInto(pred)) {
+            initialIdbFacts.get(stratum).add(fact);
           }
-        };
-    for (ValidClause clause : prog.getRules()) {
-      PredicateSym pred = clause.getHead().accept(getHeadPred, null);
-      int stratum = predToStratumMap.get(pred);
-      // Treat IDB predicates from earlier strata as EDB predicates.
-      Set<PredicateSym> idbs = strata.get(stratum);
-      PremiseVisitor<Boolean, Boolean> checkForIdbPred =
-          (new PremiseVisitorBuilder<Boolean, Boolean>())
-              .onPositiveAtom((atom, idb) -> idbs.contains(atom.getPred()) || idb)
-              .or((premise, idb) -> idb);
-      SemiNaiveClauseAnnotator annotator = new SemiNaiveClauseAnnotator(idbs);
-      boolean hasIdbPred = false;
-      for (Premise c : clause.getBody()) {
-        hasIdbPred = c.accept(checkForIdbPred, hasIdbPred);
-      }
-      for (SemiNaiveClause rule : annotator.annotate(clause)) {
-        PredicateSym bodyPred = rule.getFirstAtom().getPred();
-        if (hasIdbPred) {
-          Utilities.getSetFromMap(laterRoundRules[stratum], bodyPred).add(rule);
-        } else {
-          Utilities.getSetFromMap(firstRoundRules[stratum], bodyPred).add(rule);
         }
       }
     }
 
-    Set<PredicateSym> edbs = prog.getEdbPredicateSyms();
-    for (PositiveAtom fact : prog.getInitialFacts()) {
-      if (edbs.contains(fact.getPred())) {
+    for (PositiveAtom fact : program.getEdbFacts()) {
+      // Avoid storing an EDB fact twice, so that it is not visible twice.
+      if (this.sharedEdb == null || !contains(this.sharedEdb, fact)) {
         allFacts.add(fact);
-      } else {
-        initialIdbFacts[predToStratumMap.get(fact.getPred())].add(fact);
       }
-      if (collectProv) {
+    }
+    if (collectProv) {
+      for (PositiveAtom fact : program.getEdbFacts()) {
         justifications.put(fact, new Clause(fact, Collections.emptyList()));
       }
+      for (Set<PositiveAtom> facts : initialIdbFacts) {
+        for (PositiveAtom fact : facts) {
+          justifications.put(fact, new Clause(fact, Collections.emptyList()));
+        }
+      }
     }
 
-    for (int i = 0; i < nstrata; ++i) {
-      stratumEvals.add(
-          new StratumEvaluator(firstRoundRules[i], laterRoundRules[i], initialIdbFacts[i]));
+    PhaseEvent construction = PhaseEvent.start(PhaseEvent.EVALUATOR_CONSTRUCTION, getClass());
+    int nevals = 0;
+    for (int i = 0; i < strata.size(); ++i) {
+      StratumEvaluator se = new StratumEvaluator(i, strata.get(i), initialIdbFacts.get(i));
+      stratumEvals.add(se);
+      nevals += se.size();
     }
+    construction.finish(nevals);
+  }
+
+  private static boolean contains(IndexableFactCollection facts, PositiveAtom fact) {
+    for (PositiveAtom other : facts.indexInto(fact)) {
+      if (other.equals(fact)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   @Override
   public synchronized IndexableFactCollection eval() {
+    long start = metrics != null ? System.nanoTime() : 0;
     for (StratumEvaluator se : stratumEvals) {
       se.eval();
     }
-    return allFacts;
+    if (metrics != null) {
+      metrics.evaluationCompleted(visibleFacts, System.nanoTime() - start);
+    }
+    return visibleFacts;
   }
 
   @Override
   public Clause getJustification(PositiveAtom fact) {
-    return justifications.get(fact);
+    Clause r = justifications.get(fact);
+    if (r == null && collectProv && sharedEdb != null && contains(sharedEdb, fact)) {
+      // Facts in the shared EDB are not recorded up front, to avoid copying them.
+      r = new Clause(fact, Collections.emptyList());
+    }
+    return r;
   }
 
   public static Clause stripSemiNaiveClause(SemiNaiveClause cl) {
@@ -214,11 +234,12 @@ public class SemiNaiveEvalManager implements EvalManagerWithProvenance {
     private final Map<PredicateSym, Set<ClauseEvaluator>> firstRoundEvals;
     private final Map<PredicateSym, Set<ClauseEvaluator>> laterRoundEvals;
     private final Set<PositiveAtom> initialIdbFacts;
+    private final int index;
+    private int round;
 
     public StratumEvaluator(
-        Map<PredicateSym, Set<SemiNaiveClause>> firstRoundRules,
-        Map<PredicateSym, Set<SemiNaiveClause>> laterRoundRules,
-        Set<PositiveAtom> initialIdbFacts) {
+        int index, SemiNaiveProgram.Stratum stratum, Set<PositiveAtom> initialIdbFacts) {
+      this.index = index;
       Function<Map<PredicateSym, Set<SemiNaiveClause>>, Map<PredicateSym, Set<ClauseEvaluator>>>
           translate =
               (clauseMap) -> {
@@ -226,29 +247,54 @@ public class SemiNaiveEvalManager implements EvalManagerWithProvenance {
                 for (Map.Entry<PredicateSym, Set<SemiNaiveClause>> entry : clauseMap.entrySet()) {
                   Set<ClauseEvaluator> s = new HashSet<>();
                   for (SemiNaiveClause cl : entry.getValue()) {
-                    Clause stripped = stripSemiNaiveClause(cl);
-                    s.add(
-                        new ClauseEvaluator(
-                            cl, (fact, subst) -> addFact(fact, subst, stripped), this::getFacts));
+                    Clause stripped = stratum.getStrippedRule(cl);
+                    BiConsumer<PositiveAtom, ClauseSubstitution> newFact;
+                    if (metrics == null) {
+                      newFact = (fact, subst) -> addFact(fact, subst, stripped);
+                    } else {
+                      newFact =
+                          (fact, subst) -> metrics.ruleFired(cl, addFact(fact, subst, stripped));
+                    }
+                    s.add(new ClauseEvaluator(cl, newFact, this::getFacts, metrics));
                   }
                   evalMap.put(entry.getKey(), s);
                 }
                 return evalMap;
               };
-      firstRoundEvals = translate.apply(firstRoundRules);
-      laterRoundEvals = translate.apply(laterRoundRules);
+      firstRoundEvals = translate.apply(stratum.getFirstRoundRules());
+      laterRoundEvals = translate.apply(stratum.getLaterRoundRules());
       this.initialIdbFacts = initialIdbFacts;
     }
 
+    /** Returns the number of clause evaluators of this stratum. */
+    int size() {
+      int n = 0;
+      for (Set<ClauseEvaluator> evals : firstRoundEvals.values()) {
+        n += evals.size();
+      }
+      for (Set<ClauseEvaluator> evals : laterRoundEvals.values()) {
+        n += evals.size();
+      }
+      return n;
+    }
+
     public void eval() {
+      long start = metrics != null ? System.nanoTime() : 0;
       deltaNew.addAll(this.initialIdbFacts);
-      evalOneRound(allFacts, firstRoundEvals);
+      evalOneRound(visibleFacts, firstRoundEvals);
       while (evalOneRound(deltaOld, laterRoundEvals)) {
         // Loop...
       }
+      if (metrics != null) {
+        metrics.stratumCompleted(this.index, System.nanoTime() - start);
+      }
     }
 
-    private boolean evalOneRound(FactIndexer index, Map<PredicateSym, Set<ClauseEvaluator>> rules) {
+    private boolean evalOneRound(
+        IndexableFactCollection index, Map<PredicateSym, Set<ClauseEvaluator>> rules) {
+      long start = metrics != null ? System.nanoTime() : 0;
+      RoundEvent event = new RoundEvent();
+      event.begin();
       for (PredicateSym pred : index.getPreds()) {
         Set<ClauseEvaluator> evals = rules.get(pred);
         if (evals != null) {
@@ -260,6 +306,25 @@ public class SemiNaiveEvalManager implements EvalManagerWithProvenance {
         }
       }
 
+      event.end();
+      boolean commit = event.shouldCommit();
+      if (metrics != null || commit) {
+        int newFacts = 0;
+        for (PredicateSym pred : deltaNew.getPreds()) {
+          newFacts += deltaNew.indexInto(pred).size();
+        }
+        if (metrics != null) {
+          metrics.roundCompleted(this.index, round, newFacts, System.nanoTime() - start);
+        }
+        if (commit) {
+          event.stratum = this.index;
+          event.round = round;
+          event.newFacts = newFacts;
+          event.commit();
+        }
+      }
+      ++round;
+
       if (deltaNew.isEmpty()) {
         return false;
       }
@@ -275,6 +340,11 @@ public class SemiNaiveEvalManager implements EvalManagerWithProvenance {
       fact = fact.applySubst(subst);
       Set<PositiveAtom> set = allFacts.indexInto(fact);
       if (!set.contains(fact)) {
+        // Rederiving a fact in the round in which it was first derived is harmless, but it is only
+        // worth the lookup to tell it apart when it is being measured.
+        if (metrics != null && deltaNew.indexInto(fact).contains(fact)) {
+          return false;
+        }
         deltaNew.add(fact);
         if (collectProv) {
           justifications.put(fact, SubstitutionUtils.applyToClause(subst, stripped));
@@ -285,13 +355,13 @@ public class SemiNaiveEvalManager implements EvalManagerWithProvenance {
     }
 
     private Iterable<PositiveAtom> getFacts(AnnotatedAtom atom, ClauseSubstitution subst) {
-      Set<PositiveAtom> r = null;
+      Iterable<PositiveAtom> r = null;
       PositiveAtom unannotated = atom.asUnannotatedAtom();
       switch (atom.getAnnotation()) {
         case EDB:
           // Fall through...
         case IDB:
-          r = allFacts.indexInto(unannotated, subst);
+          r = visibleFacts.indexInto(unannotated, subst);
           break;
         case IDB_PREV:
           r = idbsPrev.indexInto(unannotated, subst);
@@ -305,4 +375,65 @@ public class SemiNaiveEvalManager implements EvalManagerWithProvenance {
       return r;
     }
   }
+
+  /**
+   * A view that combines the facts stored by this manager with the shared EDB. Facts for IDB
+   * relations are only ever found in the former.
+   */
+  private class CombinedFacts implements IndexableFactCollection {
+    /** The predicates of the shared EDB relations that are not IDB relations. */
+    private final Set<PredicateSym> sharedPreds;
+
+    public CombinedFacts(Set<PredicateSym> idbPreds) {
+      sharedPreds = new HashSet<>(sharedEdb.getPreds());
+      sharedPreds.removeAll(idbPreds);
+    }
+
+    private Iterable<PositiveAtom> combine(Set<PositiveAtom> own, Iterable<PositiveAtom> shared) {
+      if (own.isEmpty()) {
+        return shared;
+      }
+      return () ->
+          Stream.concat(own.stream(), StreamSupport.stream(shared.spliterator(), false)).iterator();
+    }
+
+    @Override
+    public Iterable<PositiveAtom> indexInto(PositiveAtom atom) {
+      Set<PositiveAtom> own = allFacts.indexInto(atom);
+      if (!sharedPreds.contains(atom.getPred())) {
+        return own;
+      }
+      return combine(own, sharedEdb.indexInto(atom));
+    }
+
+    @Override
+    public Iterable<PositiveAtom> indexInto(PositiveAtom atom, ConstOnlySubstitution subst) {
+      Set<PositiveAtom> own = allFacts.indexInto(atom, subst);
+      if (!sharedPreds.contains(atom.getPred())) {
+        return own;
+      }
+      return combine(own, sharedEdb.indexInto(atom, subst));
+    }
+
+    @Override
+    public Iterable<PositiveAtom> indexInto(PredicateSym pred) {
+      Set<PositiveAtom> own = allFacts.indexInto(pred);
+      if (!sharedPreds.contains(pred)) {
+        return own;
+      }
+      return combine(own, sharedEdb.indexInto(pred));
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return allFacts.isEmpty() && sharedPreds.isEmpty();
+    }
+
+    @Override
+    public Set<PredicateSym> getPreds() {
+      Set<PredicateSym> preds = new HashSet<>(allFacts.getPreds());
+      preds.addAll(sharedPreds);
+      return preds;
+    }
+  }
 }
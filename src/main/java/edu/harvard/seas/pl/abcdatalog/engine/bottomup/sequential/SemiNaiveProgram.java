@@ -0,0 +1,309 @@
+package edu.harvard.seas.pl.abcdatalog.engine.bottomup.sequential;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.Clause;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import edu.harvard.seas.pl.abcdatalog.ast.Premise;
+import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidationException;
+import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidator;
+import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidator.ValidClause;
+import edu.harvard.seas.pl.abcdatalog.ast.validation.StratifiedNegationValidator;
+import edu.harvard.seas.pl.abcdatalog.ast.validation.StratifiedProgram;
+import edu.harvard.seas.pl.abcdatalog.ast.validation.UnstratifiedProgram;
+import edu.harvard.seas.pl.abcdatalog.ast.visitors.HeadVisitor;
+import edu.harvard.seas.pl.abcdatalog.ast.visitors.PremiseVisitor;
+import edu.harvard.seas.pl.abcdatalog.ast.visitors.PremiseVisitorBuilder;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.SemiNaiveClauseAnnotator;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.SemiNaiveClauseAnnotator.SemiNaiveClause;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.jfr.PhaseEvent;
+import edu.harvard.seas.pl.abcdatalog.util.Utilities;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A Datalog program that has been validated, stratified, and annotated for semi-naive evaluation.
+ * Compiling a program once and then evaluating it against many different EDBs (see {@link
+ * SemiNaiveEngine#init(SemiNaiveProgram,
+ * edu.harvard.seas.pl.abcdatalog.util.datastructures.IndexableFactCollection)}) avoids repeating
+ * this work for each EDB. A compiled program is immutable, and so can be shared by evaluations
+ * running concurrently.
+ */
+public final class SemiNaiveProgram {
+  private final List<Stratum> strata;
+  private final Set<PositiveAtom> edbFacts;
+  private final Set<PredicateSym> idbPreds;
+  private final Map<PredicateSym, Integer> predToStratumMap;
+
+  private SemiNaiveProgram(
+      List<Stratum> strata,
+      Set<PositiveAtom> edbFacts,
+      Set<PredicateSym> idbPreds,
+      Map<PredicateSym, Integer> predToStratumMap) {
+    this.strata = strata;
+    this.edbFacts = edbFacts;
+    this.idbPreds = idbPreds;
+    this.predToStratumMap = predToStratumMap;
+  }
+
+  /**
+   * Validates, stratifies, and annotates a program. The program can include initial facts, which
+   * are part of every evaluation of the compiled program.
+   *
+   * @param program the program
+   * @return the compiled program
+   * @throws DatalogValidationException if the program is invalid
+   */
+  @SuppressWarnings("unchecked")
+  public static SemiNaiveProgram compile(Set<Clause> program) throws DatalogValidationException {
+    PhaseEvent validation = PhaseEvent.start(PhaseEvent.VALIDATION, SemiNaiveProgram.class);
+    UnstratifiedProgram prog =
+        (new DatalogValidator())
+            .withBinaryDisunificationInRuleBody()
+            .withBinaryUnificationInRuleBody()
+            .withAtomNegationInRuleBody()
+            .validate(program);
+    StratifiedProgram stratProg = StratifiedNegationValidator.validate(prog);
+    validation.finish(program.size());
+
+    PhaseEvent annotation = PhaseEvent.start(PhaseEvent.ANNOTATION, SemiNaiveProgram.class);
+    int nrules = 0;
+    List<Set<PredicateSym>> strata = stratProg.getStrata();
+    int nstrata = strata.size();
+    Map<PredicateSym, Set<SemiNaiveClause>>[] firstRoundRules = new HashMap[nstrata];
+    Map<PredicateSym, Set<SemiNaiveClause>>[] laterRoundRules = new HashMap[nstrata];
+    Set<PositiveAtom>[] initialIdbFacts = new HashSet[nstrata];
+    for (int i = 0; i < nstrata; ++i) {
+      firstRoundRules[i] = new HashMap<>();
+      laterRoundRules[i] = new HashMap<>();
+      initialIdbFacts[i] = new HashSet<>();
+    }
+    Map<PredicateSym, Integer> predToStratumMap = stratProg.getPredToStratumMap();
+
+    HeadVisitor<Void, PredicateSym> getHeadPred =
+        new HeadVisitor<Void, PredicateSym>() {
+
+          @Override
+          public PredicateSym visit(PositiveAtom atom, Void state) {
+            return atom.getPred();
+          }
+        };
+    for (ValidClause clause : prog.getRules()) {
+      PredicateSym pred = clause.getHead().accept(getHeadPred, null);
+      int stratum = predToStratumMap.get(pred);
+      // Treat IDB predicates from earlier strata as EDB predicates.
+      Set<PredicateSym> idbs = strata.get(stratum);
+      PremiseVisitor<Boolean, Boolean> checkForIdbPred =
+          (new PremiseVisitorBuilder<Boolean, Boolean>())
+              .onPositiveAtom((atom, idb) -> idbs.contains(atom.getPred()) || idb)
+              .or((premise, idb) -> idb);
+      SemiNaiveClauseAnnotator annotator = new SemiNaiveClauseAnnotator(idbs);
+      boolean hasIdbPred = false;
+      for (Premise c : clause.getBody()) {
+        hasIdbPred = c.accept(checkForIdbPred, hasIdbPred);
+      }
+      for (SemiNaiveClause rule : annotator.annotate(clause)) {
+        ++nrules;
+        PredicateSym bodyPred = rule.getFirstAtom().getPred();
+        if (hasIdbPred) {
+          Utilities.getSetFromMap(laterRoundRules[stratum], bodyPred).add(rule);
+        } else {
+          Utilities.getSetFromMap(firstRoundRules[stratum], bodyPred).add(rule);
+        }
+      }
+    }
+
+    annotation.finish(nrules);
+
+    Set<PositiveAtom> edbFacts = new HashSet<>();
+    Set<PredicateSym> edbs = prog.getEdbPredicateSyms();
+    for (PositiveAtom fact : prog.getInitialFacts()) {
+      if (edbs.contains(fact.getPred())) {
+        edbFacts.add(fact);
+      } else {
+        initialIdbFacts[predToStratumMap.get(fact.getPred())].add(fact);
+      }
+    }
+
+    List<Stratum> compiledStrata = new ArrayList<>();
+    for (int i = 0; i < nstrata; ++i) {
+      compiledStrata.add(new Stratum(firstRoundRules[i], laterRoundRules[i], initialIdbFacts[i]));
+    }
+    return new SemiNaiveProgram(
+        Collections.unmodifiableList(compiledStrata),
+        Collections.unmodifiableSet(edbFacts),
+        Collections.unmodifiableSet(new HashSet<>(prog.getIdbPredicateSyms())),
+        Collections.unmodifiableMap(new HashMap<>(predToStratumMap)));
+  }
+
+  /**
+   * Returns a program that is the same as this one, except that it has the given additional initial
+   * facts. This does not repeat any of the work of compiling the program.
+   *
+   * @param facts the additional facts
+   * @return the extended program
+   * @throws IllegalArgumentException if one of the facts is not ground
+   */
+  public SemiNaiveProgram withFacts(Iterable<PositiveAtom> facts) {
+    Set<PositiveAtom> newEdbFacts = new HashSet<>(this.edbFacts);
+    List<Set<PositiveAtom>> newIdbFacts = new ArrayList<>();
+    for (Stratum stratum : this.strata) {
+      newIdbFacts.add(new HashSet<>(stratum.getInitialIdbFacts()));
+    }
+    for (PositiveAtom fact : facts) {
+      if (!fact.isGround()) {
+        throw new IllegalArgumentException("Atom is not ground: " + fact);
+      }
+      Integer stratum = this.predToStratumMap.get(fact.getPred());
+      if (stratum != null) {
+        newIdbFacts.get(stratum).add(fact);
+      } else {
+        newEdbFacts.add(fact);
+      }
+    }
+
+    List<Stratum> newStrata = new ArrayList<>();
+    for (int i = 0; i < this.strata.size(); ++i) {
+      newStrata.add(this.strata.get(i).withInitialIdbFacts(newIdbFacts.get(i)));
+    }
+    return new SemiNaiveProgram(
+        Collections.unmodifiableList(newStrata),
+        Collections.unmodifiableSet(newEdbFacts),
+        this.idbPreds,
+        this.predToStratumMap);
+  }
+
+  List<Stratum> getStrata() {
+    return this.strata;
+  }
+
+  /**
+   * Returns the initial facts of the program that belong to EDB relations.
+   *
+   * @return the EDB facts
+   */
+  public Set<PositiveAtom> getEdbFacts() {
+    return this.edbFacts;
+  }
+
+  /**
+   * Returns the predicate symbols of the relations that are defined by rules or initial facts of
+   * the program.
+   *
+   * @return the IDB predicate symbols
+   */
+  public Set<PredicateSym> getIdbPredicateSyms() {
+    return this.idbPreds;
+  }
+
+  /**
+   * Returns the index of the stratum of the given IDB predicate.
+   *
+   * @param pred the IDB predicate symbol
+   * @return the stratum, or null if the predicate is not an IDB predicate
+   */
+  Integer getStratum(PredicateSym pred) {
+    return this.predToStratumMap.get(pred);
+  }
+
+  /** The rules and initial facts of a single stratum. */
+  static final class Stratum {
+    private final Map<PredicateSym, Set<SemiNaiveClause>> firstRoundRules;
+    private final Map<PredicateSym, Set<SemiNaiveClause>> laterRoundRules;
+    private final Map<SemiNaiveClause, Clause> strippedRules;
+    private final Set<PositiveAtom> initialIdbFacts;
+
+    private Stratum(Stratum other, Set<PositiveAtom> initialIdbFacts) {
+      this.firstRoundRules = other.firstRoundRules;
+      this.laterRoundRules = other.laterRoundRules;
+      this.strippedRules = other.strippedRules;
+      this.initialIdbFacts = initialIdbFacts;
+    }
+
+    private Stratum(
+        Map<PredicateSym, Set<SemiNaiveClause>> firstRoundRules,
+        Map<PredicateSym, Set<SemiNaiveClause>> laterRoundRules,
+        Set<PositiveAtom> initialIdbFacts) {
+      this.firstRoundRules = firstRoundRules;
+      this.laterRoundRules = laterRoundRules;
+      this.strippedRules = new HashMap<>();
+      this.initialIdbFacts = initialIdbFacts;
+      for (Map<PredicateSym, Set<SemiNaiveClause>> rules :
+          Arrays.asList(firstRoundRules, laterRoundRules)) {
+        for (Set<SemiNaiveClause> s : rules.values()) {
+          for (SemiNaiveClause cl : s) {
+            this.strippedRules.put(cl, SemiNaiveEvalManager.stripSemiNaiveClause(cl));
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the rules without IDB atoms in their bodies, indexed by the predicate symbol of the
+     * first atom in their bodies.
+     */
+    Map<PredicateSym, Set<SemiNaiveClause>> getFirstRoundRules() {
+      return this.firstRoundRules;
+    }
+
+    /**
+     * Returns the rules with IDB atoms in their bodies, indexed by the predicate symbol of the
+     * first atom in their bodies.
+     */
+    Map<PredicateSym, Set<SemiNaiveClause>> getLaterRoundRules() {
+      return this.laterRoundRules;
+    }
+
+    /** Returns the given rule with its semi-naive annotations stripped away. */
+    Clause getStrippedRule(SemiNaiveClause cl) {
+      return this.strippedRules.get(cl);
+    }
+
+    Set<PositiveAtom> getInitialIdbFacts() {
+      return this.initialIdbFacts;
+    }
+
+    /** Returns a stratum with the same rules as this one but different initial facts. */
+    Stratum withInitialIdbFacts(Set<PositiveAtom> facts) {
+      return new Stratum(this, Collections.unmodifiableSet(facts));
+    }
+  }
+}
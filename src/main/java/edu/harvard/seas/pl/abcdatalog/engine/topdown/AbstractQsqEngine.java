@@ -45,11 +45,13 @@ import edu.harvard.seas.pl.abcdatalog.ast.visitors.HeadVisitor;
 import edu.harvard.seas.pl.abcdatalog.engine.DatalogEngine;
 import edu.harvard.seas.pl.abcdatalog.util.Utilities;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 /** A Datalog engine that uses a variant of the query-subquery evaluation method. */
 public abstract class AbstractQsqEngine implements DatalogEngine {
@@ -87,31 +89,57 @@ public abstract class AbstractQsqEngine implements DatalogEngine {
   public abstract Set<PositiveAtom> query(PositiveAtom q);
 
   /**
-   * Creates a new tuple that is like t except the bound terms of t have been replaced by the terms
-   * in input.
+   * Returns the terms of an adorned atom in its bound positions. Since input tuples are ground, an
+   * input tuple for the atom's predicate unifies with the atom exactly when it is an instance of
+   * this pattern (see {@link Relation#restrict(Tuple)}).
    *
-   * @param t
-   * @param adornment specifies bound terms of t
-   * @param input
-   * @return new tuple
+   * @param a the adorned atom
+   * @return the pattern
    */
-  protected Tuple applyBoundArgs(Tuple t, List<Boolean> adornment, Tuple input) {
-    assert t.size() == adornment.size();
-
-    List<Term> newTerms = new ArrayList<>();
-    int bound = 0;
-    int j = 0; // Indexes into input.
-    for (int i = 0; i < t.size(); ++i) {
+  protected static Tuple boundArgs(AdornedAtom a) {
+    List<Boolean> adornment = a.getPred().getAdornment();
+    Term[] args = a.getArgs();
+    List<Term> bound = new ArrayList<>();
+    for (int i = 0; i < args.length; ++i) {
       if (adornment.get(i)) {
-        newTerms.add(input.get(j++));
-        ++bound;
-      } else {
-        newTerms.add(t.get(i));
+        bound.add(args[i]);
       }
     }
+    return new Tuple(bound);
+  }
 
-    assert bound == input.size();
-    return new Tuple(newTerms);
+  /**
+   * The adorned rules generated so far, mapped by the adorned predicate symbol they define. Since
+   * the rules of the program do not change after initialization, the adorned rules for a given
+   * pattern of bound arguments are generated once and shared by all queries.
+   */
+  private final ConcurrentMap<AdornedPredicateSym, Set<AdornedClause>> adornedRuleCache =
+      Utilities.createConcurrentMap();
+
+  /**
+   * Returns all the adorned rules that define an adorned predicate symbol, generating them if they
+   * have not been generated before. The returned set must not be modified.
+   *
+   * @param pred the predicate symbol
+   * @return the rules
+   */
+  protected Set<AdornedClause> generateAdornedRules(AdornedPredicateSym pred) {
+    Set<AdornedClause> rules = this.adornedRuleCache.get(pred);
+    if (rules == null) {
+      rules = new LinkedHashSet<>();
+      Set<ValidClause> unadornedRules = this.idbRules.get(pred.getUnadorned());
+      if (unadornedRules != null) {
+        for (ValidClause c : unadornedRules) {
+          rules.add(AdornedClause.fromClause(pred.getAdornment(), c));
+        }
+      }
+      rules = Collections.unmodifiableSet(rules);
+      Set<AdornedClause> existing = this.adornedRuleCache.putIfAbsent(pred, rules);
+      if (existing != null) {
+        rules = existing;
+      }
+    }
+    return rules;
   }
 
   /**
@@ -124,10 +152,8 @@ public abstract class AbstractQsqEngine implements DatalogEngine {
     Relation facts = this.edbRelations.get(q.getPred());
     if (facts != null) {
       Set<PositiveAtom> result = new LinkedHashSet<>();
-      for (Tuple fact : facts) {
-        if (fact.unify(new Tuple(q.getArgs())) != null) {
-          result.add(PositiveAtom.create(q.getPred(), fact.elts));
-        }
+      for (Tuple fact : facts.select(new Tuple(q.getArgs()))) {
+        result.add(PositiveAtom.create(q.getPred(), fact.elts));
       }
       return result;
     }
@@ -0,0 +1,500 @@
+package edu.harvard.seas.pl.abcdatalog.engine.topdown;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import edu.harvard.seas.pl.abcdatalog.ast.Variable;
+import edu.harvard.seas.pl.abcdatalog.util.Utilities;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A Datalog evaluation engine that uses a parallel version of the iterative query-subquery
+ * technique. Evaluation proceeds in rounds. In each round, the new input for each adorned predicate
+ * symbol and the new tuples (and new answers) for each supplementary relation are processed as
+ * separate fork-join tasks; since each task has exclusive access to the supplementary relation it
+ * updates, and the answer and EDB relations are only read during a round, the tasks do not need to
+ * synchronize with each other. At the end of a round, the new answers are merged into the answer
+ * relations and the work items for the next round are collected.
+ *
+ * <p>Each query runs its tasks on a fork-join pool of its own, which is shut down when the query
+ * returns; an engine therefore holds no threads between queries and needs no cleanup.
+ */
+public class ConcurrentIterativeQsqEngine extends AbstractQsqEngine {
+  /** The number of threads in the pool of each query. */
+  private final int nThreads;
+
+  /** Constructs an engine that uses as many threads as there are available processors. */
+  public ConcurrentIterativeQsqEngine() {
+    this(Utilities.concurrency);
+  }
+
+  /**
+   * Constructs an engine that uses the given number of threads.
+   *
+   * @param nThreads the number of threads
+   * @throws IllegalArgumentException if the number of threads is not positive
+   */
+  public ConcurrentIterativeQsqEngine(int nThreads) {
+    if (nThreads <= 0) {
+      throw new IllegalArgumentException("The number of threads must be positive.");
+    }
+    this.nThreads = nThreads;
+  }
+
+  @Override
+  public Set<PositiveAtom> query(PositiveAtom q) {
+    // Is the query for EDB facts?
+    Set<PositiveAtom> edbFacts = checkIfEdbQuery(q);
+    if (edbFacts != null) {
+      return edbFacts;
+    }
+
+    // Figure out adornment from query.
+    List<Boolean> adornment = new ArrayList<>();
+    List<Term> input = new ArrayList<>();
+    for (Term t : q.getArgs()) {
+      if (t instanceof Constant) {
+        adornment.add(true);
+        input.add(t);
+      } else {
+        adornment.add(false);
+      }
+    }
+
+    AdornedPredicateSym p = new AdornedPredicateSym(q.getPred(), adornment);
+    if (!idbRules.containsKey(p.getUnadorned())) {
+      // The query predicate is not recognized.
+      return Collections.emptySet();
+    }
+
+    Relation r = new Relation(p.getBound());
+    r.add(new Tuple(input));
+    ForkJoinPool pool =
+        new ForkJoinPool(
+            this.nThreads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    Relation ans;
+    try {
+      ans = new EvalState(pool).eval(p, r);
+    } finally {
+      pool.shutdown();
+    }
+
+    Set<PositiveAtom> results = new LinkedHashSet<>();
+    for (Tuple fact : ans.select(new Tuple(q.getArgs()))) {
+      results.add(PositiveAtom.create(q.getPred(), fact.elts));
+    }
+    return results;
+  }
+
+  /** The state of a single query evaluation. */
+  private class EvalState {
+    /** The pool that runs the tasks of this evaluation. */
+    private final ForkJoinPool pool;
+
+    /** A map from an adorned predicate symbol to the rules that define it. */
+    private final Map<AdornedPredicateSym, Set<AdornedClause>> adornedRules = new HashMap<>();
+
+    /** A map from an adorned rule to its first supplementary relation. */
+    private final Map<AdornedClause, QsqSupRelation> supRelations = new HashMap<>();
+
+    /**
+     * A map from an adorned predicate symbol to the supplementary relations that precede atoms with
+     * that symbol.
+     */
+    private final Map<AdornedPredicateSym, List<QsqSupRelation>> dependencies = new HashMap<>();
+
+    /** All the answers that have been generated, mapped by adorned predicate symbol. */
+    private final Map<AdornedPredicateSym, Relation> answers = new HashMap<>();
+
+    /** New input for the rules of each adorned predicate symbol, to be processed next round. */
+    private Map<AdornedPredicateSym, Relation> newInput = new LinkedHashMap<>();
+
+    /** New tuples for each supplementary relation, to be processed next round. */
+    private Map<QsqSupRelation, Relation> newSupInfo = new IdentityHashMap<>();
+
+    /**
+     * New answers for the atom following each supplementary relation, to be processed next round.
+     */
+    private Map<QsqSupRelation, Relation> newAnsInfo = new IdentityHashMap<>();
+
+    public EvalState(ForkJoinPool pool) {
+      this.pool = pool;
+    }
+
+    /**
+     * Evaluates the rules for the given adorned predicate symbol on the given input.
+     *
+     * @param p the adorned predicate symbol
+     * @param input the input
+     * @return the answers for the adorned predicate symbol
+     */
+    public Relation eval(AdornedPredicateSym p, Relation input) {
+      newInput.put(p, input);
+      while (!newInput.isEmpty() || !newSupInfo.isEmpty() || !newAnsInfo.isEmpty()) {
+        List<RecursiveTask<Result>> tasks = new ArrayList<>();
+
+        // Lazily create adorned rules and supplementary relations. This is
+        // the only time these structures are modified.
+        for (Map.Entry<AdornedPredicateSym, Relation> e : newInput.entrySet()) {
+          Set<AdornedClause> rules = getAdornedRules(e.getKey());
+          if (!rules.isEmpty()) {
+            tasks.add(new InputTask(rules, e.getValue()));
+          }
+        }
+        Set<QsqSupRelation> sups = Collections.newSetFromMap(new IdentityHashMap<>());
+        sups.addAll(newSupInfo.keySet());
+        sups.addAll(newAnsInfo.keySet());
+        for (QsqSupRelation sup : sups) {
+          tasks.add(new SupTask(sup, newSupInfo.get(sup), newAnsInfo.get(sup)));
+        }
+        newInput = new LinkedHashMap<>();
+        newSupInfo = new IdentityHashMap<>();
+        newAnsInfo = new IdentityHashMap<>();
+
+        for (Result result : runAll(tasks)) {
+          merge(result);
+        }
+      }
+      return getAnswers(p);
+    }
+
+    /**
+     * Runs the given tasks to completion, in parallel if there is more than one.
+     *
+     * @param tasks the tasks
+     * @return the results of the tasks
+     */
+    private List<Result> runAll(List<RecursiveTask<Result>> tasks) {
+      List<Result> results = new ArrayList<>();
+      if (tasks.size() == 1) {
+        results.add(tasks.get(0).invoke());
+        return results;
+      }
+      pool.invoke(
+          new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+              invokeAll(tasks);
+            }
+          });
+      for (RecursiveTask<Result> task : tasks) {
+        results.add(task.join());
+      }
+      return results;
+    }
+
+    /**
+     * Merges the result of a task into the state, adding new answers to the answer relations and
+     * collecting the work for the next round.
+     *
+     * @param result the result
+     */
+    private void merge(Result result) {
+      for (Map.Entry<AdornedPredicateSym, Relation> e : result.input.entrySet()) {
+        addTo(newInput, e.getKey(), e.getValue());
+      }
+      for (Map.Entry<QsqSupRelation, Relation> e : result.supInfo.entrySet()) {
+        addTo(newSupInfo, e.getKey(), e.getValue());
+      }
+      for (Map.Entry<AdornedPredicateSym, Relation> e : result.answers.entrySet()) {
+        Relation newAns = e.getValue();
+        Relation ans = getAnswers(e.getKey());
+        newAns.removeAll(ans);
+        if (!newAns.isEmpty()) {
+          ans.addAll(newAns);
+          for (QsqSupRelation sup :
+              dependencies.getOrDefault(e.getKey(), Collections.emptyList())) {
+            addTo(newAnsInfo, sup, newAns);
+          }
+        }
+      }
+    }
+
+    /**
+     * Gets the adorned rules that define the adorned predicate symbol p, creating them (and their
+     * supplementary relations) if necessary.
+     *
+     * @param p the adorned predicate symbol
+     * @return the adorned rules
+     */
+    private Set<AdornedClause> getAdornedRules(AdornedPredicateSym p) {
+      Set<AdornedClause> rules = adornedRules.get(p);
+      if (rules == null) {
+        rules = generateAdornedRules(p);
+        adornedRules.put(p, rules);
+        for (AdornedClause rule : rules) {
+          supRelations.put(rule, generateSupRelations(rule));
+        }
+      }
+      return rules;
+    }
+
+    /**
+     * Gets the answer relation for the adorned predicate symbol p, creating a new relation if
+     * necessary.
+     *
+     * @param p the adorned predicate symbol
+     * @return the answer relation
+     */
+    private Relation getAnswers(AdornedPredicateSym p) {
+      Relation ans = answers.get(p);
+      if (ans == null) {
+        ans = new Relation(p.getArity());
+        answers.put(p, ans);
+      }
+      return ans;
+    }
+
+    /**
+     * Given an adorned rule, generates a linked list of supplementary relations for that rule, and
+     * updates the dependencies map so that the adorned predicate symbol of each IDB atom in the
+     * body of the rule points to the supplementary relation that precedes it.
+     *
+     * @param rule the adorned rule
+     * @return the linked list of supplementary relations, or null if the rule has no body
+     */
+    private QsqSupRelation generateSupRelations(AdornedClause rule) {
+      if (rule.getBody().isEmpty()) {
+        return null;
+      }
+
+      QsqTemplate templ = new QsqTemplate(rule);
+      QsqSupRelation first = new QsqSupRelation(templ.get(0));
+      QsqSupRelation prev = first;
+      for (int i = 1; i < templ.size(); ++i) {
+        AdornedAtom a = rule.getBody().get(i - 1);
+        prev.nextAtom = a;
+        if (!edbRelations.containsKey(a.getPred().getUnadorned())) {
+          dependencies.computeIfAbsent(a.getPred(), k -> new ArrayList<>()).add(prev);
+        }
+        QsqSupRelation sup = new QsqSupRelation(templ.get(i));
+        prev.next = sup;
+        prev = sup;
+      }
+      // The last supplementary relation points back to the head of the rule.
+      prev.nextAtom = rule.getHead();
+      return first;
+    }
+
+    /**
+     * A task that passes new input to all the rules that define an adorned predicate symbol. Tasks
+     * are never serialized.
+     */
+    @SuppressWarnings("serial")
+    private class InputTask extends RecursiveTask<Result> {
+      private static final long serialVersionUID = 1L;
+
+      private final Set<AdornedClause> rules;
+
+      private final Relation input;
+
+      public InputTask(Set<AdornedClause> rules, Relation input) {
+        this.rules = rules;
+        this.input = input;
+      }
+
+      @Override
+      protected Result compute() {
+        Result result = new Result();
+        for (AdornedClause rule : rules) {
+          // See which input tuples actually unify with the head.
+          Tuple headTuple = new Tuple(rule.getHead().getArgs());
+          List<Boolean> adornment = rule.getHead().getPred().getAdornment();
+          Relation newIn = input.restrict(boundArgs(rule.getHead()));
+          if (newIn.isEmpty()) {
+            continue;
+          }
+
+          // Handle special case of explicit IDB fact.
+          if (rule.getBody().isEmpty()) {
+            Relation ans = new Relation(headTuple.size());
+            ans.add(headTuple);
+            result.addAnswers(rule.getHead().getPred(), ans);
+            continue;
+          }
+
+          // Need to project only bound variables (this is an issue if the
+          // rule head has a constant in a bound position).
+          List<Boolean> isBoundVar = new ArrayList<>();
+          for (int i = 0; i < adornment.size(); ++i) {
+            if (adornment.get(i)) {
+              isBoundVar.add(rule.getHead().getArgs()[i] instanceof Variable);
+            }
+          }
+          result.addSupInfo(supRelations.get(rule), newIn.project(isBoundVar));
+        }
+        return result;
+      }
+    }
+
+    /**
+     * A task that processes the new tuples for a supplementary relation and the new answers for the
+     * atom that follows it. It is the only task in its round that accesses the supplementary
+     * relation. Tasks are never serialized.
+     */
+    @SuppressWarnings("serial")
+    private class SupTask extends RecursiveTask<Result> {
+      private static final long serialVersionUID = 1L;
+
+      private final QsqSupRelation sup;
+
+      /** The new tuples for the supplementary relation, or null if there are none. */
+      private final Relation newTuples;
+
+      /** The new answers for the atom following the supplementary relation, or null. */
+      private final Relation newAnswers;
+
+      public SupTask(QsqSupRelation sup, Relation newTuples, Relation newAnswers) {
+        this.sup = sup;
+        this.newTuples = newTuples;
+        this.newAnswers = newAnswers;
+      }
+
+      @Override
+      protected Result compute() {
+        Result result = new Result();
+        AdornedAtom a = sup.nextAtom;
+
+        // Join the new answers for the following atom with the tuples that
+        // were already in the supplementary relation. The new answers are
+        // already in the answer relation, so they are joined with the new
+        // tuples below.
+        if (newAnswers != null) {
+          Tuple pattern = new Tuple(a.getArgs());
+          Relation ans = newAnswers.restrict(pattern);
+          ans.renameAttributes(new TermSchema(Arrays.asList(a.getArgs())));
+          result.addSupInfo(sup.next, sup.joinAndProject(ans, sup.next.getAttributes()));
+        }
+
+        if (newTuples == null) {
+          return result;
+        }
+        newTuples.removeAll(sup);
+        if (newTuples.isEmpty()) {
+          return result; // Nothing new.
+        }
+        sup.addAll(newTuples);
+        newTuples.renameAttributes(sup.getAttributes());
+
+        // At the end of rule, so new tuples are answers to a subquery.
+        if (sup.next == null) {
+          result.addAnswers(
+              a.getPred(), newTuples.applyTuplesAsSubstitutions(new Tuple(a.getArgs())));
+          return result;
+        }
+
+        Tuple pattern = new Tuple(a.getArgs());
+        Relation edb = edbRelations.get(a.getPred().getUnadorned());
+        if (edb != null) {
+          // We have an EDB predicate.
+          result.addSupInfo(
+              sup.next, newTuples.joinAndProject(edb, pattern, sup.next.getAttributes()));
+          return result;
+        }
+
+        // We have an IDB predicate. Push information sideways into next
+        // supplementary relation, using the answers from previous rounds.
+        Relation ans = answers.get(a.getPred());
+        if (ans != null) {
+          result.addSupInfo(
+              sup.next, newTuples.joinAndProject(ans, pattern, sup.next.getAttributes()));
+        }
+
+        // Push the new tuples into the next atom (i.e. top-down information
+        // passing).
+        result.addInput(
+            a.getPred(),
+            newTuples.applyTuplesAsSubstitutions(pattern).project(a.getPred().getAdornment()));
+        return result;
+      }
+    }
+  }
+
+  /** The new work items and candidate answers produced by a task. */
+  private static class Result {
+    private final Map<AdornedPredicateSym, Relation> input = new HashMap<>();
+
+    private final Map<QsqSupRelation, Relation> supInfo = new IdentityHashMap<>();
+
+    private final Map<AdornedPredicateSym, Relation> answers = new HashMap<>();
+
+    public void addInput(AdornedPredicateSym p, Relation r) {
+      addTo(input, p, r);
+    }
+
+    public void addSupInfo(QsqSupRelation sup, Relation r) {
+      addTo(supInfo, sup, r);
+    }
+
+    public void addAnswers(AdornedPredicateSym p, Relation r) {
+      addTo(answers, p, r);
+    }
+  }
+
+  /**
+   * Adds the tuples of a relation to the relation the map associates with the given key. The tuples
+   * are copied, so that the relation passed in is never modified through the map.
+   *
+   * @param map the map
+   * @param key the key
+   * @param r the relation
+   */
+  private static <K> void addTo(Map<K, Relation> map, K key, Relation r) {
+    if (r.isEmpty()) {
+      return;
+    }
+    Relation existing = map.get(key);
+    if (existing == null) {
+      map.put(key, new Relation(r));
+    } else {
+      existing.addAll(r);
+    }
+  }
+}
@@ -37,10 +37,8 @@ import edu.harvard.seas.pl.abcdatalog.ast.Constant;
 import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
 import edu.harvard.seas.pl.abcdatalog.ast.Term;
 import edu.harvard.seas.pl.abcdatalog.ast.Variable;
-import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidator.ValidClause;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -63,388 +61,409 @@ public class IterativeQsqEngine extends AbstractQsqEngine {
       return edbFacts;
     }
 
-    // Figure out adornment from query.
-    List<Boolean> adornment = new ArrayList<>();
-    List<Term> input = new ArrayList<>();
-    for (Term t : q.getArgs()) {
-      if (t instanceof Constant) {
-        adornment.add(true);
-        input.add(t);
-      } else {
-        adornment.add(false);
-      }
-    }
+    return new QsqiState().query(q);
+  }
 
-    // Create initial input for QSQI algorithm.
-    Map<AdornedClause, QsqSupRelation> supRelations = new LinkedHashMap<>();
-    Map<AdornedPredicateSym, Set<AdornedClause>> adornedRules = new LinkedHashMap<>();
-    Map<AdornedPredicateSym, Set<QsqSupRelation>> dependencies = new LinkedHashMap<>();
+  /**
+   * The state of a QSQI evaluation: the adorned rules that have been generated so far, their
+   * supplementary relations, and the answers that have been derived for each adorned predicate
+   * symbol. Every time a query has been evaluated to completion, the answer relation for each
+   * adorned predicate symbol contains every answer for every input that has been passed to it, so a
+   * state can be reused to answer subsequent queries (as long as the EDB does not change).
+   */
+  protected class QsqiState {
+    /** A map from an adorned rule to its first supplementary relation. */
+    private final Map<AdornedClause, QsqSupRelation> supRelations = new LinkedHashMap<>();
 
-    AdornedPredicateSym p = new AdornedPredicateSym(q.getPred(), adornment);
-    Set<AdornedClause> initialRules = generateAdornedRules(p);
-    if (initialRules.isEmpty()) {
-      // The query predicate is not recognized.
-      return Collections.emptySet();
-    }
-    adornedRules.put(p, initialRules);
-    for (AdornedClause rule : initialRules) {
-      supRelations.put(rule, generateSupRelations(rule, dependencies));
-    }
+    /**
+     * A map from an adorned predicate symbol to the rules that define it. It is kept in access
+     * order, so that it records which symbols have been passed input most recently.
+     */
+    private final Map<AdornedPredicateSym, Set<AdornedClause>> adornedRules =
+        new LinkedHashMap<>(16, 0.75f, true);
 
-    Map<AdornedPredicateSym, Relation> answers = new LinkedHashMap<>();
-    Stack<SidewaysInfo> newSupInfo = new Stack<>();
-    Stack<SidewaysInfo> newAnsInfo = new Stack<>();
-    Stack<TopDownInfo> newInput = new Stack<>();
-    Relation r = new Relation(p.getBound());
-    r.add(new Tuple(input));
-    newInput.push(new TopDownInfo(p, r));
-
-    // This is the main QSQI evaluation loop. New work items (i.e.
-    // information to be processed) are added as previous work items are
-    // handled. Once there are no longer any work items to process, the
-    // Datalog evaluation has finished.
-    while (true) {
-      if (!newInput.isEmpty()) {
-        // Case 1: there is new top-down input.
-        handleNewInput(
-            newInput.pop(),
-            newSupInfo,
-            newAnsInfo,
-            adornedRules,
-            supRelations,
-            answers,
-            dependencies);
-      } else if (!newSupInfo.isEmpty()) {
-        // Case 2: New tuples are being passed to a supplementary
-        // relation.
-        handleNewSupInfo(newSupInfo.pop(), newSupInfo, newInput, newAnsInfo, answers, dependencies);
-      } else if (!newAnsInfo.isEmpty()) {
-        // Case 3: New answers have been generated for an atom.
-        handleNewAnsInfo(newAnsInfo.pop(), newSupInfo);
-      } else {
-        // Case 4: Nothing left to do, so the evaluation is complete.
-        break;
+    /**
+     * A map from an adorned predicate symbol to the supplementary relations that precede atoms with
+     * that symbol.
+     */
+    private final Map<AdornedPredicateSym, List<QsqSupRelation>> dependencies =
+        new LinkedHashMap<>();
+
+    /** All the answers that have been generated, mapped by adorned predicate symbol. */
+    private final Map<AdornedPredicateSym, Relation> answers = new LinkedHashMap<>();
+
+    /** Work items related to when information is passed onto another supplementary relation. */
+    private final Stack<SidewaysInfo> newSupInfo = new Stack<>();
+
+    /** Work items related to when new answers have been generated for an atom. */
+    private final Stack<SidewaysInfo> newAnsInfo = new Stack<>();
+
+    /**
+     * Work items related to when information is passed to all the rules defining an adorned
+     * predicate symbol.
+     */
+    private final Stack<TopDownInfo> newInput = new Stack<>();
+
+    /**
+     * Evaluates a query for an IDB relation, reusing whatever answers have already been derived
+     * using this state.
+     *
+     * @param q the query
+     * @return the answers to the query
+     */
+    public Set<PositiveAtom> query(PositiveAtom q) {
+      // Figure out adornment from query.
+      List<Boolean> adornment = new ArrayList<>();
+      List<Term> input = new ArrayList<>();
+      for (Term t : q.getArgs()) {
+        if (t instanceof Constant) {
+          adornment.add(true);
+          input.add(t);
+        } else {
+          adornment.add(false);
+        }
       }
-    }
 
-    Set<PositiveAtom> results = new LinkedHashSet<>();
-    Relation ans = answers.get(p);
-    if (ans != null) {
-      for (Tuple fact : ans) {
-        if (fact.unify(new Tuple(q.getArgs())) != null) {
+      AdornedPredicateSym p = new AdornedPredicateSym(q.getPred(), adornment);
+      if (!idbRules.containsKey(p.getUnadorned())) {
+        // The query predicate is not recognized.
+        return Collections.emptySet();
+      }
+
+      // Create initial input for QSQI algorithm.
+      Relation r = new Relation(p.getBound());
+      r.add(new Tuple(input));
+      newInput.push(new TopDownInfo(p, r));
+      run();
+
+      Set<PositiveAtom> results = new LinkedHashSet<>();
+      Relation ans = answers.get(p);
+      if (ans != null) {
+        for (Tuple fact : ans.select(new Tuple(q.getArgs()))) {
           results.add(PositiveAtom.create(q.getPred(), fact.elts));
         }
       }
+
+      return results;
     }
 
-    return results;
-  }
+    /**
+     * This is the main QSQI evaluation loop. New work items (i.e. information to be processed) are
+     * added as previous work items are handled. Once there are no longer any work items to process,
+     * the Datalog evaluation has finished.
+     */
+    private void run() {
+      while (true) {
+        if (!newInput.isEmpty()) {
+          // Case 1: there is new top-down input.
+          handleNewInput(newInput.pop());
+        } else if (!newSupInfo.isEmpty()) {
+          // Case 2: New tuples are being passed to a supplementary
+          // relation.
+          handleNewSupInfo(newSupInfo.pop());
+        } else if (!newAnsInfo.isEmpty()) {
+          // Case 3: New answers have been generated for an atom.
+          handleNewAnsInfo(newAnsInfo.pop());
+        } else {
+          // Case 4: Nothing left to do, so the evaluation is complete.
+          break;
+        }
+      }
+    }
 
-  /**
-   * Handles the case when new information is being passed down into all the rules that define the
-   * adorned predicate symbol in info.
-   *
-   * @param info the new information
-   * @param newSupInfo collects work items related to when information is passed onto another
-   *     supplemental relation
-   * @param newAnsInfo collects work items related to when new answers have been generated for an
-   *     atom
-   * @param adornedRules a map from an adorned predicate symbol to the rules that define it
-   * @param supRelations a map from an adorned rule to its first supplementary relation
-   * @param answers all the answers that have been generated, mapped by adorned predicate symbol
-   * @param dependencies a map from an adorned predicate symbol to the supplementary relations that
-   *     follow atoms with that symbol
-   */
-  private void handleNewInput(
-      TopDownInfo info,
-      Collection<SidewaysInfo> newSupInfo,
-      Collection<SidewaysInfo> newAnsInfo,
-      Map<AdornedPredicateSym, Set<AdornedClause>> adornedRules,
-      Map<AdornedClause, QsqSupRelation> supRelations,
-      Map<AdornedPredicateSym, Relation> answers,
-      Map<AdornedPredicateSym, Set<QsqSupRelation>> dependencies) {
-    Set<AdornedClause> rules = adornedRules.get(info.pred);
-
-    // Lazily create adorned rules and supplementary relations.
-    if (rules == null) {
-      rules = generateAdornedRules(info.pred);
-      adornedRules.put(info.pred, rules);
-      for (AdornedClause rule : rules) {
-        supRelations.put(rule, generateSupRelations(rule, dependencies));
+    /**
+     * Returns the number of tuples this state stores on behalf of each adorned predicate symbol for
+     * which it has generated rules, i.e., the size of its answer relation plus the sizes of the
+     * supplementary relations of its rules. The symbols are ordered from the one that has least
+     * recently been passed input to the one that has most recently been passed input.
+     *
+     * @return the number of tuples, mapped by adorned predicate symbol
+     */
+    public Map<AdornedPredicateSym, Long> getTableSizes() {
+      Map<AdornedPredicateSym, Long> sizes = new LinkedHashMap<>();
+      // Iterating over the key set does not affect its access order.
+      for (AdornedPredicateSym p : adornedRules.keySet()) {
+        Relation ans = answers.get(p);
+        sizes.put(p, ans == null ? 0L : ans.size());
+      }
+      for (Map.Entry<AdornedClause, QsqSupRelation> e : supRelations.entrySet()) {
+        long n = 0;
+        for (QsqSupRelation sup = e.getValue(); sup != null; sup = sup.next) {
+          n += sup.size();
+        }
+        sizes.merge(e.getKey().getHead().getPred(), n, Long::sum);
       }
-      answers.put(info.pred, new Relation(info.pred.getArity()));
+      return sizes;
     }
 
-    // Predicate is not recognized.
-    if (rules.isEmpty()) {
-      return;
+    /**
+     * Discards the rules, supplementary relations, and answers of the given adorned predicate
+     * symbol. This should only be done between queries. The answers of any other adorned predicate
+     * symbol remain complete, since they have already been derived; if an input is later passed to
+     * the rules of the discarded symbol, it is evaluated from scratch.
+     *
+     * @param p the adorned predicate symbol
+     */
+    public void remove(AdornedPredicateSym p) {
+      assert newInput.isEmpty() && newSupInfo.isEmpty() && newAnsInfo.isEmpty();
+      Set<AdornedClause> rules = adornedRules.remove(p);
+      if (rules != null) {
+        for (AdornedClause rule : rules) {
+          for (QsqSupRelation sup = supRelations.remove(rule); sup != null; sup = sup.next) {
+            if (sup.next != null) {
+              QsqSupRelation removed = sup;
+              // Compare by identity, since supplementary relations are mutable.
+              dependencies.get(sup.nextAtom.getPred()).removeIf(other -> other == removed);
+            }
+          }
+        }
+      }
+      answers.remove(p);
     }
 
-    for (AdornedClause rule : rules) {
-      // See which input tuples actually unify with the head.
-      Tuple headTuple = new Tuple(rule.getHead().getArgs());
-      Relation newIn =
-          info.newInfo.filter(
-              tup ->
-                  applyBoundArgs(headTuple, rule.getHead().getPred().getAdornment(), tup)
-                          .unify(headTuple)
-                      != null);
-
-      // Handle special case of explicit IDB fact.
-      if (rule.getBody().isEmpty()) {
-        Relation ans = getAnswers(answers, rule.getHead().getPred());
-        if (!ans.contains(headTuple)) {
-          ans.add(headTuple);
-          propagateToDependencies(rule.getHead().getPred(), info.newInfo, newAnsInfo, dependencies);
+    /**
+     * Handles the case when new information is being passed down into all the rules that define the
+     * adorned predicate symbol in info.
+     *
+     * @param info the new information
+     */
+    private void handleNewInput(TopDownInfo info) {
+      Set<AdornedClause> rules = adornedRules.get(info.pred);
+
+      // Lazily create adorned rules and supplementary relations.
+      if (rules == null) {
+        rules = generateAdornedRules(info.pred);
+        adornedRules.put(info.pred, rules);
+        for (AdornedClause rule : rules) {
+          supRelations.put(rule, generateSupRelations(rule));
         }
-        continue;
+        answers.put(info.pred, new Relation(info.pred.getArity()));
+      }
+
+      // Predicate is not recognized.
+      if (rules.isEmpty()) {
+        return;
       }
 
-      // Push tuples that unify with the head into the first
-      // supplementary relation for that rule.
-      if (!newIn.isEmpty()) {
-        // Need to project only bound variables (this is an
-        // issue if the rule head has a constant in a bound
-        // position).
-        List<Boolean> isBoundVar = new ArrayList<>();
-        for (int i = 0; i < rule.getHead().getPred().getArity(); ++i) {
-          if (rule.getHead().getPred().getAdornment().get(i)) {
-            isBoundVar.add(rule.getHead().getArgs()[i] instanceof Variable);
+      for (AdornedClause rule : rules) {
+        // See which input tuples actually unify with the head.
+        Tuple headTuple = new Tuple(rule.getHead().getArgs());
+        Relation newIn = info.newInfo.restrict(boundArgs(rule.getHead()));
+
+        // Handle special case of explicit IDB fact.
+        if (rule.getBody().isEmpty()) {
+          Relation ans = getAnswers(rule.getHead().getPred());
+          if (!newIn.isEmpty() && !ans.contains(headTuple)) {
+            ans.add(headTuple);
+            Relation newAns = new Relation(headTuple.size());
+            newAns.add(headTuple);
+            propagateToDependencies(rule.getHead().getPred(), newAns);
           }
+          continue;
         }
-        newIn = newIn.project(isBoundVar);
 
-        newSupInfo.add(new SidewaysInfo(supRelations.get(rule), newIn));
+        // Push tuples that unify with the head into the first
+        // supplementary relation for that rule.
+        if (!newIn.isEmpty()) {
+          // Need to project only bound variables (this is an
+          // issue if the rule head has a constant in a bound
+          // position).
+          List<Boolean> isBoundVar = new ArrayList<>();
+          for (int i = 0; i < rule.getHead().getPred().getArity(); ++i) {
+            if (rule.getHead().getPred().getAdornment().get(i)) {
+              isBoundVar.add(rule.getHead().getArgs()[i] instanceof Variable);
+            }
+          }
+          newIn = newIn.project(isBoundVar);
+
+          newSupInfo.add(new SidewaysInfo(supRelations.get(rule), newIn));
+        }
       }
     }
-  }
 
-  /**
-   * Handles the case when the supplementary relation in info has been passed new tuples.
-   *
-   * @param info the new information
-   * @param newSupInfo collects work items related to when information is passed onto another
-   *     supplemental relation
-   * @param newInput collects work items related to when information is passed to all the rules
-   *     defining an adorned predicate symbol
-   * @param newAnsInfo collects work items related to when new answers have been generated for an
-   *     atom
-   * @param answers all the answers that have been generated, mapped by adorned predicate symbol
-   * @param dependencies a map from an adorned predicate symbol to the supplementary relations that
-   *     follow atoms with that symbol
-   */
-  private void handleNewSupInfo(
-      SidewaysInfo info,
-      Collection<SidewaysInfo> newSupInfo,
-      Collection<TopDownInfo> newInput,
-      Collection<SidewaysInfo> newAnsInfo,
-      Map<AdornedPredicateSym, Relation> answers,
-      Map<AdornedPredicateSym, Set<QsqSupRelation>> dependencies) {
-    info.newInfo.removeAll(info.sup);
-    info.sup.addAll(info.newInfo);
-    if (info.newInfo.isEmpty()) {
-      return; // Nothing new.
-    }
+    /**
+     * Handles the case when the supplementary relation in info has been passed new tuples.
+     *
+     * @param info the new information
+     */
+    private void handleNewSupInfo(SidewaysInfo info) {
+      info.newInfo.removeAll(info.sup);
+      info.sup.addAll(info.newInfo);
+      if (info.newInfo.isEmpty()) {
+        return; // Nothing new.
+      }
+      info.newInfo.renameAttributes(info.sup.getAttributes());
 
-    // At the end of rule, so new tuples are answers to a subquery.
-    if (info.sup.next == null) {
-      Relation oldAnswers = answers.get(info.sup.nextAtom.getPred());
+      // At the end of rule, so new tuples are answers to a subquery.
+      if (info.sup.next == null) {
+        Relation oldAnswers = answers.get(info.sup.nextAtom.getPred());
 
-      AdornedAtom ruleHead = info.sup.nextAtom;
-      Relation newInfo = info.newInfo.applyTuplesAsSubstitutions(new Tuple(ruleHead.getArgs()));
+        AdornedAtom ruleHead = info.sup.nextAtom;
+        Relation newInfo = info.newInfo.applyTuplesAsSubstitutions(new Tuple(ruleHead.getArgs()));
 
-      if (oldAnswers != null) {
-        newInfo.removeAll(oldAnswers);
-      }
+        if (oldAnswers != null) {
+          newInfo.removeAll(oldAnswers);
+        }
 
-      if (!newInfo.isEmpty()) {
-        // Note: by construction, info.sup.nextAtom points to the head
-        // of the rule.
-        getAnswers(answers, ruleHead.getPred()).addAll(newInfo);
-        propagateToDependencies(ruleHead.getPred(), newInfo, newAnsInfo, dependencies);
+        if (!newInfo.isEmpty()) {
+          // Note: by construction, info.sup.nextAtom points to the head
+          // of the rule.
+          getAnswers(ruleHead.getPred()).addAll(newInfo);
+          propagateToDependencies(ruleHead.getPred(), newInfo);
+        }
+        return;
       }
-      return;
-    }
 
-    // Process how new tuples added to this supplementary relation
-    // play out in the following atom.
-    AdornedAtom a = info.sup.nextAtom;
-    // TODO what's up with this??
-    // Relation EDBs = this.edbRelations.get(new PredicateSym(a.pred));
-    Relation EDBs = this.edbRelations.get(a.getPred().getUnadorned());
-    if (EDBs != null) {
-      // We have an EDB predicate.
-      // TODO clunky
-      EDBs.renameAttributes(new TermSchema(Arrays.asList(a.getArgs())));
-      EDBs = EDBs.filter(tup -> tup.unify(new Tuple(a.getArgs())) != null);
-
-      Relation newOut = info.sup.joinAndProject(EDBs, info.sup.next.getAttributes());
-      newSupInfo.add(new SidewaysInfo(info.sup.next, newOut));
-    } else {
-      // We have an IDB predicate.
-      Relation ans = answers.get(a.getPred());
-      if (ans != null) {
-        // Push information sideways into next supplementary relation.
-        ans = ans.filter(tup -> tup.unify(new Tuple(a.getArgs())) != null);
-        // TODO clunky
-        ans.renameAttributes(new TermSchema(Arrays.asList(a.getArgs())));
-
-        Relation out = info.newInfo.joinAndProject(ans, info.sup.next.getAttributes());
-        if (!out.isEmpty()) {
-          newSupInfo.add(new SidewaysInfo(info.sup.next, out));
+      // Process how new tuples added to this supplementary relation
+      // play out in the following atom.
+      AdornedAtom a = info.sup.nextAtom;
+      // TODO what's up with this??
+      // Relation EDBs = this.edbRelations.get(new PredicateSym(a.pred));
+      Relation EDBs = edbRelations.get(a.getPred().getUnadorned());
+      if (EDBs != null) {
+        // We have an EDB predicate. Since the EDB does not change during
+        // evaluation, only the new tuples need to be joined with it.
+        Relation newOut =
+            info.newInfo.joinAndProject(
+                EDBs, new Tuple(a.getArgs()), info.sup.next.getAttributes());
+        if (!newOut.isEmpty()) {
+          newSupInfo.add(new SidewaysInfo(info.sup.next, newOut));
+        }
+      } else {
+        // We have an IDB predicate.
+        Relation ans = answers.get(a.getPred());
+        if (ans != null) {
+          // Push information sideways into next supplementary relation.
+          Relation out =
+              info.newInfo.joinAndProject(
+                  ans, new Tuple(a.getArgs()), info.sup.next.getAttributes());
+          if (!out.isEmpty()) {
+            newSupInfo.add(new SidewaysInfo(info.sup.next, out));
+          }
         }
-      }
 
-      // Push the new tuples into the next atom (i.e. top-down
-      // information passing).
-      info.newInfo.renameAttributes(new TermSchema(info.sup.getAttributes()));
-      Relation newTopDownInput = new Relation(a.getPred().getArity());
-      for (Tuple tup : info.newInfo.applyTuplesAsSubstitutions(new Tuple(a.getArgs()))) {
-        newTopDownInput.add(tup);
-      }
+        // Push the new tuples into the next atom (i.e. top-down
+        // information passing).
+        Relation newTopDownInput = new Relation(a.getPred().getArity());
+        for (Tuple tup : info.newInfo.applyTuplesAsSubstitutions(new Tuple(a.getArgs()))) {
+          newTopDownInput.add(tup);
+        }
 
-      newTopDownInput = newTopDownInput.project(a.getPred().getAdornment());
+        newTopDownInput = newTopDownInput.project(a.getPred().getAdornment());
 
-      if (!newTopDownInput.isEmpty()) {
-        newInput.add(new TopDownInfo(a.getPred(), newTopDownInput));
+        if (!newTopDownInput.isEmpty()) {
+          newInput.add(new TopDownInfo(a.getPred(), newTopDownInput));
+        }
       }
     }
-  }
-
-  /**
-   * Handles the case when an atom has new answers. The supplementary relation in info immediately
-   * precedes the atom. The new answers for the atom are joined with all the tuples in the
-   * supplementary relation to determine which new tuples to pass onto the supplementary relation
-   * that follows the atom.
-   *
-   * @param info the new info
-   * @param newSupInfo collects work items related to when information is passed onto another
-   *     supplementary relation
-   */
-  private void handleNewAnsInfo(SidewaysInfo info, Collection<SidewaysInfo> newSupInfo) {
-    AdornedAtom a = info.sup.nextAtom;
-    Relation ans = new Relation(info.newInfo);
-    ans.filter(tup -> tup.unify(new Tuple(a.getArgs())) != null);
 
-    // TODO clunky
-    ans.renameAttributes(new TermSchema(Arrays.asList(a.getArgs())));
-    Relation out = info.sup.joinAndProject(ans, info.sup.next.getAttributes());
+    /**
+     * Handles the case when an atom has new answers. The supplementary relation in info immediately
+     * precedes the atom. The new answers for the atom are joined with all the tuples in the
+     * supplementary relation to determine which new tuples to pass onto the supplementary relation
+     * that follows the atom.
+     *
+     * @param info the new info
+     */
+    private void handleNewAnsInfo(SidewaysInfo info) {
+      AdornedAtom a = info.sup.nextAtom;
+      // The answers might have been derived for a different atom with the
+      // same adorned predicate symbol, so keep only those that fit this one.
+      Tuple pattern = new Tuple(a.getArgs());
+      Relation ans = info.newInfo.restrict(pattern);
 
-    if (!out.isEmpty()) {
-      newSupInfo.add(new SidewaysInfo(info.sup.next, out));
-    }
-  }
+      // TODO clunky
+      ans.renameAttributes(new TermSchema(Arrays.asList(a.getArgs())));
+      Relation out = info.sup.joinAndProject(ans, info.sup.next.getAttributes());
 
-  /**
-   * Alert all the supplementary relations that precede an atom with the adorned predicate p that
-   * that atom has new answers.
-   *
-   * @param p the adorned predicate
-   * @param newInfo the new answers
-   * @param newAnsInfo collects work items related to when new answers have been generated for an
-   *     atom
-   * @param dependencies a map from an adorned predicate symbol to the supplementary relations that
-   *     follow atoms with that symbol
-   */
-  private void propagateToDependencies(
-      AdornedPredicateSym p,
-      Relation newInfo,
-      Collection<SidewaysInfo> newAnsInfo,
-      Map<AdornedPredicateSym, Set<QsqSupRelation>> dependencies) {
-    Set<QsqSupRelation> d = dependencies.get(p);
-    if (d != null) {
-      for (QsqSupRelation sup : d) {
-        newAnsInfo.add(new SidewaysInfo(sup, new Relation(newInfo)));
+      if (!out.isEmpty()) {
+        newSupInfo.add(new SidewaysInfo(info.sup.next, out));
       }
     }
-  }
 
-  /**
-   * Gets the answer relation for the adorned predicate symbol p, creating a new relation if
-   * necessary.
-   *
-   * @param answers a map from an adorned predicate symbol to answer relation
-   * @param p the adorned predicate symbol
-   * @return the answer relation
-   */
-  private Relation getAnswers(Map<AdornedPredicateSym, Relation> answers, AdornedPredicateSym p) {
-    Relation ans = answers.get(p);
-    if (ans == null) {
-      ans = new Relation(p.getArity());
-      answers.put(p, ans);
-    }
-    return ans;
-  }
-
-  /**
-   * Generates all the adorned rules that define an adorned predicate symbol.
-   *
-   * @param pred the predicate symbol
-   * @return the rules, or null if there are no relevant rules
-   */
-  private Set<AdornedClause> generateAdornedRules(AdornedPredicateSym pred) {
-    Set<AdornedClause> rules = new LinkedHashSet<>();
-    Set<ValidClause> unadornedRules = this.idbRules.get(pred.getUnadorned());
-    if (unadornedRules != null) {
-      for (ValidClause c : unadornedRules) {
-        rules.add(AdornedClause.fromClause(pred.getAdornment(), c));
+    /**
+     * Alert all the supplementary relations that precede an atom with the adorned predicate p that
+     * that atom has new answers.
+     *
+     * @param p the adorned predicate
+     * @param newInfo the new answers
+     */
+    private void propagateToDependencies(AdornedPredicateSym p, Relation newInfo) {
+      List<QsqSupRelation> d = dependencies.get(p);
+      if (d != null) {
+        for (QsqSupRelation sup : d) {
+          newAnsInfo.add(new SidewaysInfo(sup, new Relation(newInfo)));
+        }
       }
     }
-    return rules;
-  }
 
-  /**
-   * Given an adorned rule, generates a linked list of supplementary relations for that rule, and
-   * updates the dependencies map so that the adorned predicate symbol of each atom in the body of
-   * the rule points to the supplementary relation that precedes it.
-   *
-   * @param rule the adorned rule
-   * @param dependencies the dependencies map
-   * @return the linked list of supplementary relations
-   */
-  private QsqSupRelation generateSupRelations(
-      AdornedClause rule, Map<AdornedPredicateSym, Set<QsqSupRelation>> dependencies) {
-    // Handle special case of explicit IDB facts (i.e. body-less rules with
-    // an IDB predicate in the head).
-    if (rule.getBody().isEmpty()) {
-      QsqSupRelation sup = new QsqSupRelation(new TermSchema(new ArrayList<>()));
-      sup.next = null;
-      sup.nextAtom = rule.getHead();
-      return sup;
+    /**
+     * Gets the answer relation for the adorned predicate symbol p, creating a new relation if
+     * necessary.
+     *
+     * @param p the adorned predicate symbol
+     * @return the answer relation
+     */
+    private Relation getAnswers(AdornedPredicateSym p) {
+      Relation ans = answers.get(p);
+      if (ans == null) {
+        ans = new Relation(p.getArity());
+        answers.put(p, ans);
+      }
+      return ans;
     }
 
-    QsqSupRelation first = null;
-    QsqTemplate templ = new QsqTemplate(rule);
-    QsqSupRelation prev = null;
-    for (int i = 0; i < templ.size(); ++i) {
-      QsqSupRelation sup = new QsqSupRelation(templ.get(i));
-      if (prev != null) {
-        prev.next = sup;
+    /**
+     * Given an adorned rule, generates a linked list of supplementary relations for that rule, and
+     * updates the dependencies map so that the adorned predicate symbol of each atom in the body of
+     * the rule points to the supplementary relation that precedes it.
+     *
+     * @param rule the adorned rule
+     * @return the linked list of supplementary relations
+     */
+    private QsqSupRelation generateSupRelations(AdornedClause rule) {
+      // Handle special case of explicit IDB facts (i.e. body-less rules with
+      // an IDB predicate in the head).
+      if (rule.getBody().isEmpty()) {
+        QsqSupRelation sup = new QsqSupRelation(new TermSchema(new ArrayList<>()));
+        sup.next = null;
+        sup.nextAtom = rule.getHead();
+        return sup;
       }
 
-      if (i == 0) {
-        first = sup;
-      }
-      if (i < templ.size() - 1) {
-        // Supplemental relation should point to the atom that follows,
-        // and the dependency map needs to be updated accordingly.
-        sup.nextAtom = rule.getBody().get(i);
-        Set<QsqSupRelation> d = dependencies.get(sup.nextAtom.getPred());
-        if (d == null) {
-          d = new LinkedHashSet<>();
-          dependencies.put(sup.nextAtom.getPred(), d);
+      QsqSupRelation first = null;
+      QsqTemplate templ = new QsqTemplate(rule);
+      QsqSupRelation prev = null;
+      for (int i = 0; i < templ.size(); ++i) {
+        QsqSupRelation sup = new QsqSupRelation(templ.get(i));
+        if (prev != null) {
+          prev.next = sup;
         }
-        d.add(sup);
-      } else {
-        // The last supplementary relation points back to the head of
-        // the rule, which allows us to easily identify which rule is
-        // being processed.
-        sup.next = null;
-        sup.nextAtom = rule.getHead();
+
+        if (i == 0) {
+          first = sup;
+        }
+        if (i < templ.size() - 1) {
+          // Supplemental relation should point to the atom that follows,
+          // and the dependency map needs to be updated accordingly.
+          sup.nextAtom = rule.getBody().get(i);
+          List<QsqSupRelation> d = dependencies.get(sup.nextAtom.getPred());
+          if (d == null) {
+            d = new ArrayList<>();
+            dependencies.put(sup.nextAtom.getPred(), d);
+          }
+          d.add(sup);
+        } else {
+          // The last supplementary relation points back to the head of
+          // the rule, which allows us to easily identify which rule is
+          // being processed.
+          sup.next = null;
+          sup.nextAtom = rule.getHead();
+        }
+        prev = sup;
       }
-      prev = sup;
+      return first;
     }
-    return first;
   }
 
   /**
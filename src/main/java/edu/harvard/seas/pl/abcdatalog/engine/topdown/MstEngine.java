@@ -37,43 +37,66 @@ import edu.harvard.seas.pl.abcdatalog.ast.Clause;
 import edu.harvard.seas.pl.abcdatalog.ast.Constant;
 import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
 import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
-import edu.harvard.seas.pl.abcdatalog.ast.Premise;
 import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import edu.harvard.seas.pl.abcdatalog.ast.Variable;
 import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidationException;
 import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidator;
 import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidator.ValidClause;
 import edu.harvard.seas.pl.abcdatalog.ast.validation.UnstratifiedProgram;
 import edu.harvard.seas.pl.abcdatalog.ast.visitors.HeadVisitor;
 import edu.harvard.seas.pl.abcdatalog.engine.DatalogEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.PreparedQuery;
+import edu.harvard.seas.pl.abcdatalog.engine.QueryTemplate;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.concurrent.ConcurrentBottomUpEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.sequential.SemiNaiveEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.sequential.SemiNaiveProgram;
+import edu.harvard.seas.pl.abcdatalog.engine.topdown.MagicSetTransformer.MagicProgram;
 import edu.harvard.seas.pl.abcdatalog.util.Utilities;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.ConcurrentFactIndexer;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.FactIndexerFactory;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A Datalog evaluation engine that uses the magic set transformation technique. Given a query, this
  * engine rewrites the program in such a way that it can evaluate the query efficiently using a
- * bottom-up engine.
+ * bottom-up engine. The rewritten (and compiled) program is cached per query pattern, so that
+ * subsequent queries fitting the same pattern only need to evaluate it; the EDB facts are shared by
+ * all evaluations rather than copied into each one. A query with no bound arguments gains nothing
+ * from the rewriting, since its rewritten program derives everything the original program does;
+ * such a query is instead evaluated over all the EDB facts by the concurrent bottom-up engine.
  *
  * <p><b>NOTE:</b> predicate symbols that use '%' might not work with this engine.
  */
 public class MstEngine implements DatalogEngine {
   // FIXME The predicate symbol issue noted in the Javadocs is awkward.
 
-  /** Maps an EDB predicate to its facts. */
-  private final Map<PredicateSym, Set<PositiveAtom>> edbFacts = new HashMap<>();
+  /** Indexes the EDB facts. */
+  private final ConcurrentFactIndexer<Set<PositiveAtom>> edbFacts =
+      FactIndexerFactory.createConcurrentSetFactIndexer();
 
   /** Maps an IDB predicate to the rules that define it. */
   private final Map<PredicateSym, Set<ValidClause>> idbRules = new HashMap<>();
 
+  /** Rewrites the program relative to query patterns. */
+  private volatile MagicSetTransformer transformer;
+
+  /** Caches the compiled rewritten programs, keyed by query pattern. */
+  private final ConcurrentMap<AdornedPredicateSym, CompiledMagicProgram> cache =
+      Utilities.createConcurrentMap();
+
   @Override
   public void init(Set<Clause> program) throws DatalogValidationException {
+    if (this.transformer != null) {
+      throw new IllegalStateException("Cannot initialize an engine more than once.");
+    }
     UnstratifiedProgram prog = (new DatalogValidator()).validate(program, true);
 
     HeadVisitor<Void, PredicateSym> getHeadPred =
@@ -88,18 +111,20 @@ public class MstEngine implements DatalogEngine {
       PredicateSym pred = c.getHead().accept(getHeadPred, null);
       Utilities.getSetFromMap(idbRules, pred).add(c);
     }
-    for (PositiveAtom fact : prog.getInitialFacts()) {
-      Utilities.getSetFromMap(edbFacts, fact.getPred()).add(fact);
-    }
+    edbFacts.addAll(prog.getInitialFacts());
+    this.transformer = new MagicSetTransformer(idbRules, edbFacts.getPreds());
   }
 
   @Override
   public Set<PositiveAtom> query(PositiveAtom q) {
+    if (this.transformer == null) {
+      throw new IllegalStateException("Engine must be initialized before it can be queried.");
+    }
+
     // Is the query for EDB facts?
-    Set<PositiveAtom> facts = this.edbFacts.get(q.getPred());
-    if (facts != null) {
+    if (this.edbFacts.getPreds().contains(q.getPred())) {
       Set<PositiveAtom> result = new LinkedHashSet<>();
-      for (PositiveAtom fact : facts) {
+      for (PositiveAtom fact : this.edbFacts.indexInto(q)) {
         if (q.unify(fact) != null) {
           result.add(fact);
         }
@@ -109,305 +134,126 @@ public class MstEngine implements DatalogEngine {
 
     // Figure out adornment from query.
     List<Boolean> adornment = new ArrayList<>();
-    List<Term> input = new ArrayList<>();
     for (Term t : q.getArgs()) {
-      if (t instanceof Constant) {
-        adornment.add(true);
-        input.add(t);
-      } else {
-        adornment.add(false);
-      }
+      adornment.add(t instanceof Constant);
     }
-
-    // Generate rewritten program.
-    AdornedPredicateSym adornedQueryPred = new AdornedPredicateSym(q.getPred(), adornment);
-    Set<Clause> magicProgram = genMagicProgram(adornedQueryPred, input);
-
-    // Initialize a semi-naive evaluation engine with the rewritten program
-    // and process query results.
-    DatalogEngine engine = new ConcurrentBottomUpEngine();
-    try {
-      engine.init(magicProgram);
-    } catch (DatalogValidationException e) {
-      throw new AssertionError();
-    }
-    PositiveAtom newQuery = createAtom(adornedQueryPred, q.getArgs());
-    Set<PositiveAtom> result = new LinkedHashSet<>();
-    for (PositiveAtom r : engine.query(newQuery)) {
-      // Need to translate atoms from rewritten program to original one.
-      result.add(PositiveAtom.create(q.getPred(), r.getArgs()));
-    }
-    return result;
+    return evaluate(q, getMagicProgram(q.getPred(), adornment));
   }
 
   /**
-   * Given the adorned predicate for a query and the initial input "tuple", returns a rewritten
-   * program that allows for efficient evaluation of that query using a bottom-up engine.
+   * Prepares a query for repeated execution. The magic-set rewriting for the pattern of bound
+   * arguments of the query is looked up (or computed) once, when the query is prepared; each
+   * execution only seeds the rewritten program with its input fact and evaluates it.
    *
-   * @param adornedQueryPred adorned predicate for query
-   * @param input input (i.e. constants that appear in query)
-   * @return rewritten program
+   * @param query the query
+   * @param params the variables of the query that are parameters
+   * @return the prepared query
+   * @throws IllegalStateException if this engine has not been initialized with a program
+   * @throws IllegalArgumentException if a parameter does not occur in the query or is listed more
+   *     than once
    */
-  private Set<Clause> genMagicProgram(AdornedPredicateSym adornedQueryPred, List<Term> input) {
-    assert adornedQueryPred.getBound() == input.size();
-
-    // Add rule to magic program for initial input from query.
-    Set<Clause> magicProgram = new LinkedHashSet<>();
-    // TODO this is clunky
-    Term[] inputAsArray = new Term[input.size()];
-    inputAsArray = input.toArray(inputAsArray);
-    magicProgram.add(createInputRule(adornedQueryPred, inputAsArray, new ArrayList<>()));
-
-    // Track which predicates we need to process and which ones already have
-    // been processed.
-    Stack<AdornedPredicateSym> predsToProcess = new Stack<>();
-    predsToProcess.push(adornedQueryPred);
-    Set<AdornedPredicateSym> predsInProcess = new LinkedHashSet<>();
-    predsInProcess.add(adornedQueryPred);
-
-    while (!predsToProcess.isEmpty()) {
-      AdornedPredicateSym p = predsToProcess.pop();
-
-      // If it's an EDB predicate, no action needs to be taken.
-      if (this.edbFacts.containsKey(p.getUnadorned())) {
-        continue;
-      }
-
-      int ruleNo = 0;
-      Set<ValidClause> rules = this.idbRules.get(p.getUnadorned());
-      // If there are no rules, the predicate isn't recognized.
-      if (rules == null) {
-        continue;
-      }
-
-      // Process each rule in turn, creating a new set of "magic" rules.
-      for (ValidClause rule : rules) {
-        AdornedClause adornedRule = AdornedClause.fromClause(p.getAdornment(), rule);
-
-        // Handle special case of explicit IDB fact (i.e. body-less
-        // clause with an IDB predicate).
-        if (adornedRule.getBody().isEmpty()) {
-          Clause idbFact =
-              createRule(
-                  adornedRule.getHead().getPred(),
-                  adornedRule.getHead().getArgs(),
-                  new ArrayList<>());
-          magicProgram.add(idbFact);
-          continue;
-        }
-
-        QsqTemplate templ = new QsqTemplate(adornedRule);
-
-        // Skip rule for first supplementary relation by just treating
-        // the input relation as the first supplementary relation.
-        PositiveAtom prevSup = createInputAtom(p, getBoundArgs(adornedRule.getHead()));
-
-        // Loop through remaining supplementary relations.
-        int last = templ.size();
-        for (int i = 1; i < last; ++i) {
-          AdornedAtom a = adornedRule.getBody().get(i - 1);
-          if (!predsInProcess.contains(a.getPred())) {
-            predsToProcess.push(a.getPred());
-            predsInProcess.add(a.getPred());
-          }
-
-          HeadVisitor<Void, PositiveAtom> getHead =
-              new HeadVisitor<Void, PositiveAtom>() {
-
-                @Override
-                public PositiveAtom visit(PositiveAtom atom, Void state) {
-                  return atom;
-                }
-              };
-          // Head of rule is the current supplemental relation.
-          PositiveAtom head;
-          if (i < last - 1) {
-            // TODO clunky
-            Term[] attr = new Term[templ.get(i).attributes.size()];
-            attr = templ.get(i).attributes.toArray(attr);
-            head = createSupAtom(p, ruleNo, i, attr);
-          } else {
-            // Skip rule defining the last supplementary relation by
-            // replacing it with a rule defining the predicate that
-            // we are processing.
-            head = createAtom(p, rule.getHead().accept(getHead, null).getArgs());
-          }
-
-          // Body of rule is the previous supplemental relation and
-          // the current atom.
-          List<Premise> body = new ArrayList<>();
-          PositiveAtom atom = createAtom(a.getPred(), a.getArgs());
-          body.add(prevSup);
-          body.add(atom);
-          magicProgram.add(new Clause(head, body));
+  @Override
+  public PreparedQuery prepare(PositiveAtom query, Variable... params) {
+    if (this.transformer == null) {
+      throw new IllegalStateException("Engine must be initialized before it can be queried.");
+    }
 
-          // If the current atom is an IDB predicate, we must define a
-          // new rule passing in input from previous supplementary
-          // relation.
-          if (this.idbRules.containsKey(a.getPred().getUnadorned())) {
-            List<Premise> inputRuleBody = new ArrayList<>();
-            inputRuleBody.add(prevSup);
-            Clause inputRule = createInputRule(a.getPred(), getBoundArgs(a), inputRuleBody);
-            magicProgram.add(inputRule);
+    QueryTemplate template = new QueryTemplate(query, params);
+    if (this.edbFacts.getPreds().contains(query.getPred())) {
+      return args -> {
+        Set<PositiveAtom> result = new LinkedHashSet<>();
+        for (PositiveAtom fact : this.edbFacts.indexInto(template.bind(args))) {
+          if (template.matches(args, fact)) {
+            result.add(fact);
           }
-
-          prevSup = head;
         }
-
-        ++ruleNo;
-      }
+        return result;
+      };
     }
 
-    // Add EDB facts to the rewritten program.
-    for (Set<PositiveAtom> set : this.edbFacts.values()) {
-      for (PositiveAtom fact : set) {
-        magicProgram.add(new Clause(fact, Collections.emptyList()));
-      }
+    List<Boolean> adornment = new ArrayList<>();
+    for (int i = 0; i < query.getPred().getArity(); ++i) {
+      adornment.add(template.isBound(i));
     }
-
-    return magicProgram;
+    CompiledMagicProgram magic = getMagicProgram(query.getPred(), adornment);
+    return args -> evaluate(template.bind(args), magic);
   }
 
   /**
-   * Returns the bound terms of an adorned atom.
+   * Returns the number of query patterns (that is, IDB predicates together with patterns of bound
+   * arguments) for which a rewritten program has been compiled and cached.
    *
-   * @param a adorned atom
-   * @return bound terms
+   * @return the number of cached programs
    */
-  private Term[] getBoundArgs(AdornedAtom a) {
-    List<Term> boundTerms = new ArrayList<>();
-    for (int j = 0; j < a.getPred().getArity(); ++j) {
-      if (a.getPred().getAdornment().get(j)) {
-        boundTerms.add(a.getArgs()[j]);
-      }
-    }
-    Term[] r = new Term[boundTerms.size()];
-    return boundTerms.toArray(r);
+  public int getCachedProgramCount() {
+    return this.cache.size();
   }
 
-  /**
-   * Constructs an atom from a predicate name and a list of arguments.
-   *
-   * @param predName predicate name
-   * @param args arguments
-   * @return atom
-   */
-  private PositiveAtom constructAtom(String predName, Term[] args) {
-    return PositiveAtom.create(PredicateSym.create(predName, args.length), args);
+  private CompiledMagicProgram getMagicProgram(PredicateSym pred, List<Boolean> adornment) {
+    AdornedPredicateSym adornedQueryPred = new AdornedPredicateSym(pred, adornment);
+    return this.cache.computeIfAbsent(adornedQueryPred, CompiledMagicProgram::new);
   }
 
   /**
-   * Generates the name for a relation for an adorned predicate. E.g. the adorned predicate {@code
-   * p<bbf>} is translated as p_bbf.
+   * Evaluates a query for an IDB predicate using the rewritten program for its pattern of bound
+   * arguments.
    *
-   * @param p adorned predicate
-   * @return name
+   * @param q the query
+   * @param magic the rewritten program
+   * @return the facts that unify with the query
    */
-  private String genName(AdornedPredicateSym p) {
-    String s = p.getSym();
-    // Add adornment information if it's an IDB predicate.
-    if (idbRules.containsKey(p.getUnadorned())) {
-      if (!p.getAdornment().isEmpty()) {
-        s = "%" + s + "_";
-        for (boolean b : p.getAdornment()) {
-          s += (b) ? "b" : "f";
+  private Set<PositiveAtom> evaluate(PositiveAtom q, CompiledMagicProgram magic) {
+    // Evaluate the rewritten program seeded with the input from the query.
+    DatalogEngine engine;
+    PositiveAtom input = magic.program.createInputFact(q);
+    if (magic.compiled == null) {
+      engine = new ConcurrentBottomUpEngine();
+      Set<Clause> program = new HashSet<>(magic.program.getRules());
+      program.add(new Clause(input, Collections.emptyList()));
+      for (PredicateSym pred : this.edbFacts.getPreds()) {
+        for (PositiveAtom fact : this.edbFacts.indexInto(pred)) {
+          program.add(new Clause(fact, Collections.emptyList()));
         }
       }
+      try {
+        engine.init(program);
+      } catch (DatalogValidationException e) {
+        throw new AssertionError();
+      }
+    } else {
+      SemiNaiveEngine seq = new SemiNaiveEngine(false);
+      seq.init(magic.compiled.withFacts(Collections.singleton(input)), this.edbFacts);
+      engine = seq;
     }
-    return s;
-  }
-
-  /**
-   * Generates the name for an input relation for an adorned predicate. E.g. the adorned predicate
-   * {@code p<bbf>} is translated as input_p_bbf.
-   *
-   * @param p adorned predicate
-   * @return name
-   */
-  private String genInputName(AdornedPredicateSym p) {
-    return "%input" + genName(p);
-  }
 
-  /**
-   * Generates the name for the supNo supplementary relation for the ruleNo rule defining the
-   * adorned predicate p. E.g. the third supplementary relation for the first rule defining the
-   * adorned predicate {@code p<bbf>} is translated as p_bbf_r1_sup3.
-   *
-   * @param p adorned predicate
-   * @param ruleNo rule number
-   * @param supNo supplementary relation number
-   * @return rule
-   */
-  private String genSupName(AdornedPredicateSym p, int ruleNo, int supNo) {
-    return genName(p) + "_r" + ruleNo + "_sup" + supNo;
-  }
-
-  /**
-   * Creates a properly named atom representing a relation for the adorned predicate pred that has
-   * the terms specified in args.
-   *
-   * @param pred adorned predicate
-   * @param args arguments for atom
-   * @return atom
-   */
-  private PositiveAtom createAtom(AdornedPredicateSym pred, Term[] args) {
-    if (idbRules.containsKey(pred.getUnadorned())) {
-      return constructAtom(genName(pred), args);
+    // Process query results.
+    Set<PositiveAtom> result = new LinkedHashSet<>();
+    for (PositiveAtom r : engine.query(magic.program.translateQuery(q))) {
+      // Need to translate atoms from rewritten program to original one.
+      result.add(PositiveAtom.create(q.getPred(), r.getArgs()));
     }
-    return PositiveAtom.create(pred.getUnadorned(), args);
-  }
-
-  /**
-   * Creates a properly named atom representing an input relation for the adorned predicate pred
-   * that has the terms specified in args.
-   *
-   * @param pred adorned predicate
-   * @param args arguments for atom
-   * @return atom
-   */
-  private PositiveAtom createInputAtom(AdornedPredicateSym pred, Term[] args) {
-    return constructAtom(genInputName(pred), args);
-  }
-
-  /**
-   * Creates a properly named atom representing the supNo supplementary relation for the ruleNo rule
-   * defining the adorned predicate pred that has the terms specified in args.
-   *
-   * @param pred adorned predicate
-   * @param ruleNo rule number
-   * @param supNo supplementary relation number
-   * @param args arguments for atom
-   * @return atom
-   */
-  private PositiveAtom createSupAtom(AdornedPredicateSym pred, int ruleNo, int supNo, Term[] args) {
-    return constructAtom(genSupName(pred, ruleNo, supNo), args);
-  }
-
-  /**
-   * Creates a rule where the head is a properly named atom representing a relation for the adorned
-   * predicate headPred that has the terms specified in headArgs.
-   *
-   * @param headPred predicate for head of rule
-   * @param headArgs arguments for head of rule
-   * @param body body of rule
-   * @return rule
-   */
-  private Clause createRule(AdornedPredicateSym headPred, Term[] headArgs, List<Premise> body) {
-    return new Clause(createAtom(headPred, headArgs), body);
+    return result;
   }
 
   /**
-   * Creates a rule where the head is a properly named atom representing an input relation for the
-   * adorned predicate headPred that has the terms specified in headArgs.
-   *
-   * @param headPred predicate for head of rule
-   * @param headArgs arguments for head of rule
-   * @param body body of rule
-   * @return rule
+   * A rewritten program, along with its compiled form. The program is only compiled if its pattern
+   * has a bound argument; otherwise it is evaluated by the concurrent bottom-up engine.
    */
-  private Clause createInputRule(
-      AdornedPredicateSym headPred, Term[] headArgs, List<Premise> body) {
-    PositiveAtom head = createInputAtom(headPred, headArgs);
-    return new Clause(head, body);
+  private class CompiledMagicProgram {
+    private final MagicProgram program;
+    private final SemiNaiveProgram compiled;
+
+    public CompiledMagicProgram(AdornedPredicateSym adornedQueryPred) {
+      this.program = transformer.transform(adornedQueryPred);
+      if (!adornedQueryPred.getAdornment().contains(true)) {
+        this.compiled = null;
+        return;
+      }
+      try {
+        this.compiled = SemiNaiveProgram.compile(this.program.getRules());
+      } catch (DatalogValidationException e) {
+        throw new AssertionError();
+      }
+    }
   }
 }
@@ -35,12 +35,11 @@ package edu.harvard.seas.pl.abcdatalog.engine.topdown;
 
 import edu.harvard.seas.pl.abcdatalog.ast.Constant;
 import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
-import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
 import edu.harvard.seas.pl.abcdatalog.ast.Term;
 import edu.harvard.seas.pl.abcdatalog.ast.Variable;
-import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidator.ValidClause;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -49,7 +48,9 @@ import java.util.Set;
 
 /**
  * A Datalog evaluation engine that uses a recursive version of the query-subquery top-down
- * technique.
+ * technique. Evaluation is semi-naive: the supplementary relations of each adorned rule persist for
+ * the whole evaluation, and each time a rule is evaluated, only the input tuples and answers that
+ * are new since the last time are propagated through it.
  */
 public class RecursiveQsqEngine extends AbstractQsqEngine {
 
@@ -58,33 +59,43 @@ public class RecursiveQsqEngine extends AbstractQsqEngine {
     /** Tracks the answer tuples generated for each adorned predicate. */
     private final Map<AdornedPredicateSym, Relation> ans;
 
-    /** Tracks which input tuples have been used for each rule. */
-    private final Map<AdornedClause, Relation> inputByRule;
+    /**
+     * Tracks the answer tuples generated for each adorned predicate in the order they were
+     * generated, so that a rule can tell which answers are new since it was last evaluated.
+     */
+    private final Map<AdornedPredicateSym, List<Tuple>> ansLog;
+
+    /** Tracks the input tuples that have been passed to each adorned predicate. */
+    private final Map<AdornedPredicateSym, Relation> inputs;
+
+    /**
+     * Tracks the input tuples that have been passed to each adorned predicate but not yet to its
+     * rules.
+     */
+    private final Map<AdornedPredicateSym, Relation> pendingInputs;
+
+    /** Tracks the evaluation state of each adorned rule. */
+    private final Map<AdornedClause, RuleState> ruleStates;
 
     /** Holds all the adorned rules for a given adorned predicate. */
     private final Map<AdornedPredicateSym, Set<AdornedClause>> adornedRules;
 
-    /** Holds all the unadorned rules for a given predicate. */
-    private final Map<PredicateSym, Set<ValidClause>> unadornedRules;
-
-    /** Tracks the total number of input tuples that have been tried. */
-    private int inputCount;
+    /** The adorned predicates that are currently being evaluated further up the stack. */
+    private final Set<AdornedPredicateSym> inProgress;
 
-    /** Tracks the total number of answer tuples that have been generated. */
-    private int ansCount;
+    /** Tracks the total number of input and answer tuples that have been generated. */
+    private int changeCount;
 
-    /**
-     * Initializes state with a set of all unadorned rules for the program.
-     *
-     * @param unadornedRules set of unadorned rules
-     */
-    public QSQRState(Map<PredicateSym, Set<ValidClause>> unadornedRules) {
+    /** Initializes an empty state. */
+    public QSQRState() {
       this.ans = new LinkedHashMap<>();
-      this.inputByRule = new LinkedHashMap<>();
+      this.ansLog = new LinkedHashMap<>();
+      this.inputs = new LinkedHashMap<>();
+      this.pendingInputs = new LinkedHashMap<>();
+      this.ruleStates = new LinkedHashMap<>();
       this.adornedRules = new LinkedHashMap<>();
-      this.unadornedRules = unadornedRules;
-      this.inputCount = 0;
-      this.ansCount = 0;
+      this.inProgress = new HashSet<>();
+      this.changeCount = 0;
     }
 
     /**
@@ -97,16 +108,13 @@ public class RecursiveQsqEngine extends AbstractQsqEngine {
       Set<AdornedClause> rules = this.adornedRules.get(p);
       // Lazily create adorned rules.
       if (rules == null) {
-        rules = new LinkedHashSet<>();
-        Set<ValidClause> unadornedRules = this.unadornedRules.get(p.getUnadorned());
+        rules = generateAdornedRules(p);
         // No applicable rules for predicate...
-        if (unadornedRules == null) {
+        if (rules.isEmpty()) {
           return null;
         }
-        for (ValidClause c : unadornedRules) {
-          AdornedClause adornedRule = AdornedClause.fromClause(p.getAdornment(), c);
-          rules.add(adornedRule);
-          this.inputByRule.put(adornedRule, new Relation(p.getBound()));
+        for (AdornedClause adornedRule : rules) {
+          this.ruleStates.put(adornedRule, new RuleState(adornedRule));
         }
         adornedRules.put(p, rules);
       }
@@ -114,93 +122,77 @@ public class RecursiveQsqEngine extends AbstractQsqEngine {
     }
 
     /**
-     * Get the current input count.
+     * Get the current change count, i.e., the total number of input and answer tuples that have
+     * been generated.
      *
-     * @return current input count
+     * @return current change count
      */
-    public int getInputCount() {
-      return this.inputCount;
+    public int getChangeCount() {
+      return this.changeCount;
     }
 
     /**
-     * Get the current answer count.
+     * Records that the tuples in newInput have been passed to the adorned predicate p. The tuples
+     * that have not been passed to p before are held until they are taken by takePendingInput.
      *
-     * @return current answer count
-     */
-    public int getAnsCount() {
-      return this.ansCount;
-    }
-
-    /**
-     * Given a rule and a relation, returns a subset of that relation containing the tuples that
-     * have not yet been processed for this rule.
-     *
-     * @param rule rule
-     * @param newTuples relation
-     * @return subset of input relation
+     * @param p adorned predicate
+     * @param newInput input tuples
      */
-    public Relation filterNewInput(AdornedClause rule, Relation newTuples) {
-      Relation delta = new Relation(newTuples);
-      delta.removeAll(this.getInput(rule));
-      return delta;
+    public void addInput(AdornedPredicateSym p, Relation newInput) {
+      Relation delta = new Relation(newInput);
+      delta.removeAll(this.inputs.computeIfAbsent(p, k -> new Relation(p.getBound())));
+      if (!delta.isEmpty()) {
+        this.inputs.get(p).addAll(delta);
+        this.pendingInputs.computeIfAbsent(p, k -> new Relation(p.getBound())).addAll(delta);
+        this.changeCount += delta.size();
+      }
     }
 
     /**
-     * Adds tuples in delta to the extant input relation for this rule, increasing the input count
-     * by the number of new tuples in delta.
+     * Retrieves (and clears) the input tuples that have been passed to the adorned predicate p but
+     * not yet to its rules.
      *
-     * @param rule rule
-     * @param delta input relation
-     * @return number of new tuples added
+     * @param p adorned predicate
+     * @return input relation, or null if there is no pending input
      */
-    public int addToInput(AdornedClause rule, Relation delta) {
-      Relation input = this.getInput(rule);
-      int oldSize = input.size();
-      input.addAll(delta);
-      int diff = input.size() - oldSize;
-      this.inputCount += diff;
-      return diff;
+    public Relation takePendingInput(AdornedPredicateSym p) {
+      return this.pendingInputs.remove(p);
     }
 
     /**
-     * Retrieves the current input relation for rule.
+     * Retrieves the evaluation state of the adorned rule.
      *
-     * @param rule rule
-     * @return input relation
+     * @param rule adorned rule
+     * @return rule state
      */
-    public Relation getInput(AdornedClause rule) {
-      Relation r = this.inputByRule.get(rule);
-      if (r == null) {
-        r = new Relation(rule.getHead().getPred().getBound());
-        this.inputByRule.put(rule, r);
-      }
-      return r;
+    public RuleState getRuleState(AdornedClause rule) {
+      return this.ruleStates.get(rule);
     }
 
     /**
      * Adds the tuples in supplied relation to the answer relation for the adorned predicate p,
-     * increasing the answer count for that predicate by the number of new tuples.
+     * increasing the change count by the number of new tuples.
      *
      * @param p adorned predicate
      * @param newTuples relation
      */
     public void updateAns(AdornedPredicateSym p, Relation newTuples) {
-      Relation answer = this.getAns(p);
-      int oldSize = answer.size();
-      answer.addAll(newTuples);
-      this.ansCount += answer.size() - oldSize;
+      for (Tuple t : newTuples) {
+        updateAns(p, t);
+      }
     }
 
     /**
      * Adds the supplied tuple to the answer relation for the adorned predicate p, increasing the
-     * answer count for that predicate if the tuple is new.
+     * change count if the tuple is new.
      *
      * @param p adorned predicate
      * @param newTuple tuple
      */
     public void updateAns(AdornedPredicateSym p, Tuple newTuple) {
       if (this.getAns(p).add(newTuple)) {
-        ++this.ansCount;
+        this.getAnsLog(p).add(newTuple);
+        ++this.changeCount;
       }
     }
 
@@ -218,6 +210,53 @@ public class RecursiveQsqEngine extends AbstractQsqEngine {
       }
       return r;
     }
+
+    /**
+     * Retrieves the answer tuples for the adorned predicate p in the order they were generated.
+     *
+     * @param p adorned predicate
+     * @return answer tuples
+     */
+    public List<Tuple> getAnsLog(AdornedPredicateSym p) {
+      return this.ansLog.computeIfAbsent(p, k -> new ArrayList<>());
+    }
+  }
+
+  /** The evaluation state of an adorned rule. */
+  private static class RuleState {
+    /** The attribute schemata of the supplementary relations of the rule. */
+    private final QsqTemplate templ;
+
+    /** The supplementary relations of the rule. */
+    private final Relation[] sups;
+
+    /**
+     * For each IDB atom in the body of the rule, the number of its answers that have already been
+     * joined with the supplementary relation that precedes it (indexed by the position of that
+     * supplementary relation).
+     */
+    private final int[] ansSeen;
+
+    /** Which of the bound arguments of the head of the rule are variables. */
+    private final List<Boolean> isBoundVar;
+
+    public RuleState(AdornedClause rule) {
+      this.templ = new QsqTemplate(rule);
+      this.sups = new Relation[this.templ.size()];
+      for (int i = 0; i < this.sups.length; ++i) {
+        this.sups[i] = new Relation(this.templ.get(i));
+      }
+      this.ansSeen = new int[this.templ.size()];
+
+      // Want projection only of bound *variables*. This handles the case
+      // where a rule has a constant in a bound position.
+      this.isBoundVar = new ArrayList<>();
+      for (int i = 0; i < rule.getHead().getPred().getArity(); ++i) {
+        if (rule.getHead().getPred().getAdornment().get(i)) {
+          this.isBoundVar.add(rule.getHead().getArgs()[i] instanceof Variable);
+        }
+      }
+    }
   }
 
   @Override
@@ -245,21 +284,23 @@ public class RecursiveQsqEngine extends AbstractQsqEngine {
     Tuple t = new Tuple(input);
     Relation r = new Relation(input.size());
     r.add(t);
-    QSQRState state = new QSQRState(this.idbRules);
+    QSQRState state = new QSQRState();
 
     qsqr(p, r, state);
 
     Set<PositiveAtom> results = new LinkedHashSet<>();
-    for (Tuple fact : state.getAns(p)) {
-      if (fact.unify(new Tuple(q.getArgs())) != null) {
-        results.add(PositiveAtom.create(q.getPred(), fact.elts));
-      }
+    for (Tuple fact : state.getAns(p).select(new Tuple(q.getArgs()))) {
+      results.add(PositiveAtom.create(q.getPred(), fact.elts));
     }
     return results;
   }
 
   /**
-   * Evaluates the query represented by the adorned predicate p and the relation newInput.
+   * Evaluates the query represented by the adorned predicate p and the relation newInput. If p is
+   * already being evaluated further up the stack, the input is left for that evaluation to process;
+   * otherwise, the rules for p are evaluated until neither new input nor new answers are generated.
+   * Since the rules are evaluated even if there is no new input, this also brings the answers for p
+   * up to date with any new answers of the predicates that p depends on.
    *
    * @param p adorned predicate of query
    * @param newInput input tuples
@@ -271,104 +312,100 @@ public class RecursiveQsqEngine extends AbstractQsqEngine {
       return;
     }
 
-    // Calculate the new input per rule.
-    Map<AdornedClause, Relation> newInputByRule = new LinkedHashMap<>();
-    for (AdornedClause rule : rules) {
-      Relation delta = state.filterNewInput(rule, newInput);
-      newInputByRule.put(rule, delta);
+    state.addInput(p, newInput);
+    if (!state.inProgress.add(p)) {
+      return;
     }
 
-    int oldInputSize;
-    int oldAnsSize;
-    boolean firstTime = true;
+    int oldChangeCount;
     do {
-      oldInputSize = state.getInputCount();
-      oldAnsSize = state.getAnsCount();
-
+      oldChangeCount = state.getChangeCount();
+      Relation input = state.takePendingInput(p);
       for (AdornedClause rule : rules) {
-        Relation input = newInputByRule.get(rule);
-        // Record that the rule has been called with the new input.
-        if (firstTime) {
-          // Adjust the record of the old input size to take into
-          // account the new input we just added.
-          oldAnsSize += state.addToInput(rule, input);
-        }
         qsqrSubroutine(rule, input, state);
       }
-      firstTime = false;
-    } while (oldInputSize != state.getInputCount() || oldAnsSize != state.getAnsCount());
+    } while (oldChangeCount != state.getChangeCount());
+
+    state.inProgress.remove(p);
   }
 
   /**
-   * Evaluates the supplied rule using the input tuples newInput.
+   * Evaluates the supplied rule using the input tuples newInput, along with any answers to the IDB
+   * atoms in its body that have been generated since the last time the rule was evaluated.
    *
    * @param rule rule
-   * @param newInput input tuples
+   * @param newInput input tuples, or null if there are none
    * @param state current state of evaluation-wide variables
    */
   private void qsqrSubroutine(AdornedClause rule, Relation newInput, QSQRState state) {
-    // See which input tuples actually unify with the head.
-    Tuple headTuple = new Tuple(rule.getHead().getArgs());
-    Relation sup =
-        newInput.filter(
-            t ->
-                applyBoundArgs(headTuple, rule.getHead().getPred().getAdornment(), t)
-                        .unify(headTuple)
-                    != null);
-
-    // No new tuples to test, so exit.
-    if (sup.isEmpty()) {
-      return;
-    }
+    RuleState rs = state.getRuleState(rule);
+    Relation delta = new Relation(rs.templ.get(0));
+    if (newInput != null) {
+      // See which input tuples actually unify with the head.
+      Tuple headTuple = new Tuple(rule.getHead().getArgs());
+      Relation unifying = newInput.restrict(boundArgs(rule.getHead()));
+
+      // Handles special case of explicit IDB fact.
+      if (rule.getBody().isEmpty()) {
+        if (!unifying.isEmpty()) {
+          state.updateAns(rule.getHead().getPred(), headTuple);
+        }
+        return;
+      }
 
-    // Handles special case of explicit IDB fact. Note that we are currently
-    // skipping the dependency stuff below.
-    if (rule.getBody().isEmpty()) {
-      state.updateAns(rule.getHead().getPred(), headTuple);
+      delta.addAll(unifying.project(rs.isBoundVar));
+      delta.removeAll(rs.sups[0]);
+    } else if (rule.getBody().isEmpty()) {
       return;
     }
 
-    // Want projection only of bound *variables*. This handles the case
-    // where a rule has a constant in a bound position.
-    List<Boolean> isBoundVar = new ArrayList<>();
-    for (int i = 0; i < rule.getHead().getPred().getArity(); ++i) {
-      if (rule.getHead().getPred().getAdornment().get(i)) {
-        isBoundVar.add(rule.getHead().getArgs()[i] instanceof Variable);
-      }
-    }
-    sup = sup.project(isBoundVar);
-
-    QsqTemplate templ = new QsqTemplate(rule);
-    sup.renameAttributes(templ.get(0));
-
-    // Process rule one atom/supplemental relation at a time.
-    for (int i = 1; i < templ.size(); ++i) {
+    // Process rule one atom/supplemental relation at a time. At each step,
+    // delta holds the tuples that are new to the previous supplementary
+    // relation.
+    for (int i = 1; i < rs.templ.size(); ++i) {
       AdornedAtom a = rule.getBody().get(i - 1);
+      Tuple pattern = new Tuple(a.getArgs());
+      Relation prev = rs.sups[i - 1];
+      Relation next;
       Relation facts = this.edbRelations.get(a.getPred().getUnadorned());
       if (facts != null) {
-        // We have an EDB predicate.
-        // TODO clunky
-        facts.renameAttributes(new TermSchema(Arrays.asList(a.getArgs())));
-        facts = facts.filter(t -> t.unify(new Tuple(a.getArgs())) != null);
-        sup = sup.joinAndProject(facts, templ.get(i));
+        // We have an EDB predicate, which does not change.
+        next = delta.joinAndProject(facts, pattern, rs.templ.get(i));
       } else {
-        // We have an IDB predicate.
-        Relation input = sup.applyTuplesAsSubstitutions(new Tuple(a.getArgs()));
+        // We have an IDB predicate. Recurse down subquery; this is done
+        // even if there is no new input, since the subquery might have new
+        // answers.
+        Relation input = delta.applyTuplesAsSubstitutions(pattern);
         input = input.project(a.getPred().getAdornment());
-
-        // Recurse down subquery.
         qsqr(a.getPred(), input, state);
 
-        Relation answers = state.getAns(a.getPred());
-        // TODO clunky
-        answers.renameAttributes(new TermSchema(Arrays.asList(a.getArgs())));
-        sup = answers.joinAndProject(sup, templ.get(i));
+        // Join the new tuples with all the answers, and the old tuples with
+        // the new answers.
+        next = delta.joinAndProject(state.getAns(a.getPred()), pattern, rs.templ.get(i));
+        List<Tuple> log = state.getAnsLog(a.getPred());
+        if (rs.ansSeen[i - 1] < log.size() && !prev.isEmpty()) {
+          // The new answers are usually few, so probe an index on the old
+          // tuples with them (rather than the other way around).
+          Relation newAns = new Relation(new TermSchema(Arrays.asList(a.getArgs())));
+          for (Tuple t : log.subList(rs.ansSeen[i - 1], log.size())) {
+            if (t.matches(pattern)) {
+              newAns.add(t);
+            }
+          }
+          next.addAll(prev.joinAndProject(newAns, rs.templ.get(i)));
+        }
+        rs.ansSeen[i - 1] = log.size();
       }
+      prev.addAll(delta);
+      next.removeAll(rs.sups[i]);
+      delta = next;
     }
+    rs.sups[rs.sups.length - 1].addAll(delta);
 
-    // Create a substitution from the final supplementary relation.
+    // Create a substitution from the new tuples of the final supplementary
+    // relation.
     state.updateAns(
         rule.getHead().getPred(),
-        sup.applyTuplesAsSubstitutions(new Tuple(rule.getHead().getArgs())));
+        delta.applyTuplesAsSubstitutions(new Tuple(rule.getHead().getArgs())));
   }
 }
@@ -33,24 +33,33 @@ package edu.harvard.seas.pl.abcdatalog.engine.topdown;
  * #L%
  */
 
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
 import edu.harvard.seas.pl.abcdatalog.ast.Term;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.NoSuchElementException;
 import java.util.function.Function;
 
 /**
  * A relation, i.e., a set of tuples of a fixed arity with an associated attribute schema of the
  * same arity.
+ *
+ * <p>The tuples are stored column-wise: each column of the relation is an array of terms, and a
+ * tuple is identified by its row number. Since terms are interned, a term reference serves as the
+ * dictionary code of the term, and two terms are equal exactly when they are the same object. The
+ * relational operators (joins, projections, selections and set operations) work directly on the
+ * columns and write their results straight into the columns of the new relation, so they do not
+ * allocate anything per tuple beyond the occasional growth of an array. A {@link Tuple} is only
+ * created when a relation is read through {@link #iterator()}, {@link #select(Tuple)} or {@link
+ * #filter(Function)}.
  */
 public class Relation implements Iterable<Tuple> {
-  /** The tuples of this relation. */
-  protected Set<Tuple> tuples;
+  private static final int INITIAL_CAPACITY = 8;
 
   /** The attribute schema of this relation. */
   protected TermSchema attributes;
@@ -58,15 +67,48 @@ public class Relation implements Iterable<Tuple> {
   /** The fixed arity of this relation. */
   public final int arity;
 
+  /** The columns of this relation; the term in column c of row r is columns[c][r]. */
+  private final Term[][] columns;
+
+  /** The hash code of each row. */
+  private int[] hashes;
+
+  /** The number of rows, i.e., of tuples, in this relation. */
+  private int size;
+
+  /**
+   * An open-addressing hash table of the rows of this relation, used to detect duplicate tuples.
+   * Each slot holds either zero or one more than a row number.
+   */
+  private int[] slots;
+
+  /**
+   * The secondary indexes of this relation, mapped by the set of columns they are keyed on. They
+   * are built lazily the first time a join needs them, and are afterwards kept up to date as tuples
+   * are added to and removed from this relation. Building an index is thread-safe, so a relation
+   * that is not being modified can be joined against from multiple threads.
+   */
+  private final Map<BitSet, Index> indexes = new HashMap<>();
+
+  /** The values of {@link #indexes}, which are updated whenever a row is added. */
+  private Index[] indexList = new Index[0];
+
   /**
    * Constructs a relation from another relation.
    *
    * @param other the other relation
    */
   public Relation(Relation other) {
-    this.tuples = new HashSet<>(other.tuples);
     this.attributes = new TermSchema(other.attributes);
     this.arity = other.arity;
+    int capacity = Math.max(other.size, INITIAL_CAPACITY);
+    this.columns = new Term[this.arity][];
+    for (int c = 0; c < this.arity; ++c) {
+      this.columns[c] = Arrays.copyOf(other.columns[c], capacity);
+    }
+    this.hashes = Arrays.copyOf(other.hashes, capacity);
+    this.size = other.size;
+    this.slots = other.slots.clone();
   }
 
   /**
@@ -75,9 +117,7 @@ public class Relation implements Iterable<Tuple> {
    * @param attributes the attribute schema
    */
   public Relation(TermSchema attributes) {
-    this.tuples = new HashSet<>();
-    this.attributes = attributes;
-    this.arity = attributes.size();
+    this(attributes, attributes.size());
   }
 
   /**
@@ -86,9 +126,199 @@ public class Relation implements Iterable<Tuple> {
    * @param arity the arity
    */
   public Relation(int arity) {
-    this.tuples = new HashSet<>();
+    this(new TermSchema(arity), arity);
+  }
+
+  private Relation(TermSchema attributes, int arity) {
+    this.attributes = attributes;
     this.arity = arity;
-    this.attributes = new TermSchema(arity);
+    this.columns = new Term[arity][INITIAL_CAPACITY];
+    this.hashes = new int[INITIAL_CAPACITY];
+    this.slots = new int[2 * INITIAL_CAPACITY];
+  }
+
+  private static int hash(Term t) {
+    return t == null ? 0 : t.hashCode();
+  }
+
+  /** Spreads the bits of a hash code so that its low bits can be used to pick a slot. */
+  private static int spread(int h) {
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Makes sure there is room for one more row, which can then be written into the columns just past
+   * the last row and added with {@link #commitPendingRow()}.
+   */
+  private void ensureCapacity() {
+    if (this.size == this.hashes.length) {
+      grow(2 * this.size);
+    }
+  }
+
+  /**
+   * Makes sure there is room for the given number of additional rows without further copying, so
+   * that bulk operations do not grow the columns and the table of rows one doubling at a time.
+   *
+   * @param n the number of additional rows
+   */
+  private void ensureCapacity(int n) {
+    int needed = this.size + n;
+    if (needed > this.hashes.length) {
+      grow(Math.max(needed, 2 * this.size));
+    }
+    if (2 * needed > this.slots.length) {
+      rehash(Integer.highestOneBit(2 * needed - 1) << 1);
+    }
+  }
+
+  private void grow(int capacity) {
+    for (int c = 0; c < this.arity; ++c) {
+      this.columns[c] = Arrays.copyOf(this.columns[c], capacity);
+    }
+    this.hashes = Arrays.copyOf(this.hashes, capacity);
+  }
+
+  /**
+   * Adds the row that has been written into the columns just past the last row, unless this
+   * relation already has an equal row.
+   *
+   * @return whether this relation has changed
+   */
+  private boolean commitPendingRow() {
+    int h = 1;
+    for (int c = 0; c < this.arity; ++c) {
+      h = 31 * h + hash(this.columns[c][this.size]);
+    }
+    return commitPendingRow(h);
+  }
+
+  /**
+   * Adds the row that has been written into the columns just past the last row, unless this
+   * relation already has an equal row.
+   *
+   * @param h the hash code of the row
+   * @return whether this relation has changed
+   */
+  private boolean commitPendingRow(int h) {
+    int row = this.size;
+    int mask = this.slots.length - 1;
+    int i = spread(h) & mask;
+    for (int s; (s = this.slots[i]) != 0; i = (i + 1) & mask) {
+      if (this.hashes[s - 1] == h && sameRows(s - 1, row)) {
+        return false;
+      }
+    }
+    this.slots[i] = row + 1;
+    this.hashes[row] = h;
+    this.size = row + 1;
+    for (Index index : this.indexList) {
+      index.add(row);
+    }
+    if (2 * this.size > this.slots.length) {
+      rehash(2 * this.slots.length);
+    }
+    return true;
+  }
+
+  private boolean sameRows(int r1, int r2) {
+    for (int c = 0; c < this.arity; ++c) {
+      if (this.columns[c][r1] != this.columns[c][r2]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Rebuilds the table of rows with the given number of slots, which is a power of two. */
+  private void rehash(int nSlots) {
+    int[] newSlots = new int[nSlots];
+    int mask = nSlots - 1;
+    for (int row = 0; row < this.size; ++row) {
+      int i = spread(this.hashes[row]) & mask;
+      while (newSlots[i] != 0) {
+        i = (i + 1) & mask;
+      }
+      newSlots[i] = row + 1;
+    }
+    this.slots = newSlots;
+  }
+
+  /**
+   * Returns the row of this relation that holds the given terms, or -1 if there is none.
+   *
+   * @param terms the terms
+   * @param h the hash code of the terms
+   * @return the row, or -1
+   */
+  private int find(Term[] terms, int h) {
+    int mask = this.slots.length - 1;
+    for (int i = spread(h) & mask, s; (s = this.slots[i]) != 0; i = (i + 1) & mask) {
+      if (this.hashes[s - 1] == h && sameRow(s - 1, terms)) {
+        return s - 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the row of this relation that is equal to the given row of the other relation, which
+   * must have the same arity, or -1 if there is none.
+   *
+   * @param other the other relation
+   * @param row the row of the other relation
+   * @return the row, or -1
+   */
+  private int find(Relation other, int row) {
+    int h = other.hashes[row];
+    int mask = this.slots.length - 1;
+    for (int i = spread(h) & mask, s; (s = this.slots[i]) != 0; i = (i + 1) & mask) {
+      if (this.hashes[s - 1] == h && sameRow(s - 1, other, row)) {
+        return s - 1;
+      }
+    }
+    return -1;
+  }
+
+  private boolean sameRow(int row, Term[] terms) {
+    for (int c = 0; c < this.arity; ++c) {
+      if (this.columns[c][row] != terms[c]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean sameRow(int row, Relation other, int otherRow) {
+    for (int c = 0; c < this.arity; ++c) {
+      if (this.columns[c][row] != other.columns[c][otherRow]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int hashOf(Term[] terms) {
+    int h = 1;
+    for (Term t : terms) {
+      h = 31 * h + hash(t);
+    }
+    return h;
+  }
+
+  /**
+   * Returns the terms in the given row as a new tuple.
+   *
+   * @param row the row
+   * @return the tuple
+   */
+  private Tuple tupleAt(int row) {
+    Term[] terms = new Term[this.arity];
+    for (int c = 0; c < this.arity; ++c) {
+      terms[c] = this.columns[c][row];
+    }
+    return new Tuple(terms);
   }
 
   /**
@@ -102,7 +332,11 @@ public class Relation implements Iterable<Tuple> {
       throw new IllegalArgumentException(
           "Relation has arity " + this.arity + " but tuple has size " + x.size() + ".");
     }
-    return this.tuples.add(x);
+    ensureCapacity();
+    for (int c = 0; c < this.arity; ++c) {
+      this.columns[c][this.size] = x.elts[c];
+    }
+    return commitPendingRow();
   }
 
   /**
@@ -121,20 +355,31 @@ public class Relation implements Iterable<Tuple> {
               + this.arity
               + ".");
     }
-    return this.tuples.addAll(other.tuples);
+    if (this.size == 0) {
+      // Every row of the other relation is new here, so make room for all of them at once.
+      ensureCapacity(other.size);
+    }
+    boolean changed = false;
+    for (int row = 0; row < other.size; ++row) {
+      ensureCapacity();
+      for (int c = 0; c < this.arity; ++c) {
+        this.columns[c][this.size] = other.columns[c][row];
+      }
+      changed |= commitPendingRow(other.hashes[row]);
+    }
+    return changed;
   }
 
   /**
    * Remove all the tuples in other relation from this relation. The two relations must have the
-   * same arity.
+   * same arity. The remaining rows are compacted in a single pass, so a batch of tuples should be
+   * removed with one call rather than one call per tuple.
    *
    * @param other the other relation
    * @return whether this relation has changed
    */
   public boolean removeAll(Relation other) {
     if (other.arity != this.arity) {
-      System.out.println(this);
-      System.out.println(other);
       throw new IllegalArgumentException(
           "Cannot remove a relation of arity "
               + other.arity
@@ -142,7 +387,48 @@ public class Relation implements Iterable<Tuple> {
               + this.arity
               + ".");
     }
-    return this.tuples.removeAll(other.tuples);
+    if (this.size == 0 || other.size == 0) {
+      return false;
+    }
+
+    // Find the rows to remove by probing the hash table of the larger relation.
+    BitSet removed = new BitSet(this.size);
+    if (other.size < this.size) {
+      for (int row = 0; row < other.size; ++row) {
+        int r = find(other, row);
+        if (r >= 0) {
+          removed.set(r);
+        }
+      }
+    } else {
+      for (int row = 0; row < this.size; ++row) {
+        if (other.find(this, row) >= 0) {
+          removed.set(row);
+        }
+      }
+    }
+    if (removed.isEmpty()) {
+      return false;
+    }
+
+    int n = 0;
+    for (int row = 0; row < this.size; ++row) {
+      if (!removed.get(row)) {
+        for (int c = 0; c < this.arity; ++c) {
+          this.columns[c][n] = this.columns[c][row];
+        }
+        this.hashes[n++] = this.hashes[row];
+      }
+    }
+    for (int c = 0; c < this.arity; ++c) {
+      Arrays.fill(this.columns[c], n, this.size, null);
+    }
+    this.size = n;
+    rehash(this.slots.length);
+    for (Index index : this.indexList) {
+      index.rebuild();
+    }
+    return true;
   }
 
   /**
@@ -152,22 +438,82 @@ public class Relation implements Iterable<Tuple> {
    * @return the new relation
    */
   public Relation filter(Function<Tuple, Boolean> f) {
-    Relation r = new Relation(this.attributes);
-    for (Tuple t : this.tuples) {
-      if (f.apply(t)) {
-        r.tuples.add(t);
+    Relation r = new Relation(this.attributes, this.arity);
+    for (int row = 0; row < this.size; ++row) {
+      if (f.apply(tupleAt(row))) {
+        r.copyRow(this, row);
       }
     }
     return r;
   }
 
+  /**
+   * Returns a new relation consisting of those tuples that are instances of the supplied pattern,
+   * i.e., that hold the same constant wherever the pattern does and the same term wherever the
+   * pattern repeats a variable. The new relation has the same attribute schema as this one.
+   *
+   * @param pattern the pattern
+   * @return the new relation
+   */
+  public Relation restrict(Tuple pattern) {
+    if (pattern.size() != this.arity) {
+      throw new IllegalArgumentException(
+          "Pattern of size "
+              + pattern.size()
+              + " cannot be applied to a relation of arity "
+              + this.arity
+              + ".");
+    }
+    // For each column, the constant it must hold or the earlier column it
+    // must match, if any.
+    Term[] constants = new Term[this.arity];
+    int[] sameAs = new int[this.arity];
+    for (int i = 0; i < this.arity; ++i) {
+      Term t = pattern.elts[i];
+      if (t instanceof Constant) {
+        constants[i] = t;
+      } else {
+        sameAs[i] = Arrays.asList(pattern.elts).indexOf(t) + 1;
+        if (sameAs[i] == i + 1) {
+          sameAs[i] = 0;
+        }
+      }
+    }
+
+    Relation r = new Relation(this.attributes, this.arity);
+    rows:
+    for (int row = 0; row < this.size; ++row) {
+      for (int c = 0; c < this.arity; ++c) {
+        Term t = this.columns[c][row];
+        if ((constants[c] != null && t != constants[c])
+            || (sameAs[c] != 0 && t != this.columns[sameAs[c] - 1][row])) {
+          continue rows;
+        }
+      }
+      r.copyRow(this, row);
+    }
+    return r;
+  }
+
+  /**
+   * Appends a row of another relation of the same arity to this relation, which must not already
+   * hold an equal row.
+   */
+  private void copyRow(Relation other, int row) {
+    ensureCapacity();
+    for (int c = 0; c < this.arity; ++c) {
+      this.columns[c][this.size] = other.columns[c][row];
+    }
+    commitPendingRow(other.hashes[row]);
+  }
+
   /**
    * Returns the number of tuples in this relation.
    *
    * @return the number of tuples
    */
   public int size() {
-    return this.tuples.size();
+    return this.size;
   }
 
   /**
@@ -176,7 +522,7 @@ public class Relation implements Iterable<Tuple> {
    * @return whether the relation is empty
    */
   public boolean isEmpty() {
-    return this.tuples.isEmpty();
+    return this.size == 0;
   }
 
   /**
@@ -184,137 +530,323 @@ public class Relation implements Iterable<Tuple> {
    * supplied attribute schema. If the schema has attributes not in either relation, those terms are
    * null.
    *
+   * <p>The join is implemented as an index nested-loop join. If either relation already has an
+   * index on the join attributes, that index is used; otherwise, an index is built on the larger
+   * relation (which tends to be the long-lived one) and kept for subsequent joins.
+   *
    * @param other the other relation
    * @param schema the attribute schema
    * @return the new relation
    */
   public Relation joinAndProject(Relation other, TermSchema schema) {
-    // The join is implemented via hash-join.
-
-    // Find common terms in this relation and the other one.
-    Set<Term> thisTerms = new HashSet<>();
-    for (int i = 0; i < this.attributes.size(); ++i) {
-      thisTerms.add(this.attributes.get(i));
-    }
-    Set<Term> otherTerms = new HashSet<>();
-    for (int i = 0; i < other.attributes.size(); ++i) {
-      otherTerms.add(other.attributes.get(i));
+    // Find the first column in each relation of each attribute they share.
+    BitSet thisCols = new BitSet();
+    BitSet otherCols = new BitSet();
+    Map<Integer, Integer> otherColForThisCol = new HashMap<>();
+    for (int i = 0; i < this.arity; ++i) {
+      Term attribute = this.attributes.get(i);
+      int j = other.attributes.get(attribute);
+      if (j >= 0 && this.attributes.get(attribute) == i) {
+        thisCols.set(i);
+        otherCols.set(j);
+        otherColForThisCol.put(i, j);
+      }
     }
-    thisTerms.retainAll(otherTerms);
 
-    // Identify the smaller of the two relations.
-    Relation smaller;
-    Relation larger;
-    if (size() < other.size()) {
-      smaller = this;
-      larger = other;
+    // Decide which relation to index and which to probe it with.
+    boolean indexOther;
+    if (other.hasIndex(otherCols)) {
+      indexOther = true;
+    } else if (this.hasIndex(thisCols)) {
+      indexOther = false;
     } else {
-      smaller = other;
-      larger = this;
+      indexOther = other.size() >= size();
     }
+    Relation probe = indexOther ? this : other;
+    Relation indexed = indexOther ? other : this;
+    BitSet indexedCols = indexOther ? otherCols : thisCols;
 
-    // Create a map from term to an integer index into the schema used when
-    // hashing tuples.
-    Map<Term, Integer> indexMap = new HashMap<>();
-    int idx = 0;
-    for (Term term : thisTerms) {
-      indexMap.put(term, idx++);
+    // The index key is made up of the indexed columns in ascending order;
+    // determine which probe column supplies each component.
+    int[] keyFrom = new int[indexedCols.cardinality()];
+    int k = 0;
+    if (indexOther) {
+      Map<Integer, Integer> thisColForOtherCol = new HashMap<>();
+      for (Map.Entry<Integer, Integer> e : otherColForThisCol.entrySet()) {
+        thisColForOtherCol.put(e.getValue(), e.getKey());
+      }
+      for (int j = otherCols.nextSetBit(0); j >= 0; j = otherCols.nextSetBit(j + 1)) {
+        keyFrom[k++] = thisColForOtherCol.get(j);
+      }
+    } else {
+      for (int i = thisCols.nextSetBit(0); i >= 0; i = thisCols.nextSetBit(i + 1)) {
+        keyFrom[k++] = otherColForThisCol.get(i);
+      }
     }
 
-    // Create a map from term to an integer index into the schema for output
-    // tuples.
-    Map<Term, Integer> outputMap = new HashMap<>();
-    for (int i = 0; i < schema.size(); ++i) {
-      outputMap.put(schema.get(i), i);
+    Term[] keyTempl = new Term[keyFrom.length];
+    return probe.joinAndProject(
+        indexed,
+        indexedCols,
+        keyTempl,
+        keyFrom,
+        indexed.attributes,
+        new int[indexed.arity],
+        schema);
+  }
+
+  /**
+   * Creates a new relation by joining this relation with those tuples of the other relation that
+   * unify with the supplied pattern, and projecting onto the supplied attribute schema. The terms
+   * of the pattern serve as the attributes of the other relation, so that constants in the pattern
+   * select tuples and repeated variables in the pattern constrain them. If the schema has
+   * attributes not in either relation, those terms are null. The other relation itself is left
+   * unchanged, save that an index on the columns that are constrained by the join is built if
+   * necessary and kept for subsequent joins.
+   *
+   * @param other the other relation
+   * @param pattern the pattern
+   * @param schema the attribute schema
+   * @return the new relation
+   */
+  public Relation joinAndProject(Relation other, Tuple pattern, TermSchema schema) {
+    if (pattern.size() != other.arity) {
+      throw new IllegalArgumentException(
+          "Pattern of size "
+              + pattern.size()
+              + " cannot be applied to a relation of arity "
+              + other.arity
+              + ".");
     }
+    TermSchema patternSchema = new TermSchema(Arrays.asList(pattern.elts));
 
-    // Determine how the schema for the smaller relation relates to the
-    // schemas used for hashing the tuples and for the output.
-    Integer[] hashTupIdxForSmaller = new Integer[smaller.arity];
-    Integer[] outputTupIdxForSmaller = new Integer[smaller.arity];
-    for (int i = 0; i < smaller.attributes.size(); ++i) {
-      Term attribute = smaller.attributes.get(i);
-      hashTupIdxForSmaller[i] = indexMap.get(attribute);
-      outputTupIdxForSmaller[i] = outputMap.get(attribute);
+    // The other relation is indexed on each column that holds a constant in
+    // the pattern or the first occurrence of a variable this relation shares.
+    // Later occurrences of a variable in the pattern must match the first.
+    BitSet cols = new BitSet();
+    int[] sameAs = new int[other.arity];
+    for (int i = 0; i < other.arity; ++i) {
+      Term t = pattern.get(i);
+      int first = patternSchema.get(t);
+      if (t instanceof Constant) {
+        cols.set(i);
+      } else if (first < i) {
+        sameAs[i] = first + 1;
+      } else if (this.attributes.get(t) >= 0) {
+        cols.set(i);
+      }
     }
 
-    // Add tuples from smaller relation to the hash table.
-    HashMap<Tuple, Set<Tuple>> table = new HashMap<>();
-    int hashTupSize = thisTerms.size();
-    for (Tuple t : smaller) {
-      Tuple hashTup = toHashTuple(t, hashTupIdxForSmaller, hashTupSize);
-      Set<Tuple> tuples = table.get(hashTup);
-      if (tuples == null) {
-        tuples = new HashSet<>();
-        table.put(hashTup, tuples);
+    // Each component of the key is either a constant from the pattern or
+    // comes from a column of this relation.
+    int[] keyFrom = new int[cols.cardinality()];
+    Term[] keyTempl = new Term[keyFrom.length];
+    int k = 0;
+    for (int i = cols.nextSetBit(0); i >= 0; i = cols.nextSetBit(i + 1)) {
+      Term t = pattern.get(i);
+      if (t instanceof Constant) {
+        keyTempl[k] = t;
+        keyFrom[k++] = -1;
+      } else {
+        keyFrom[k++] = this.attributes.get(t);
       }
-      tuples.add(t);
     }
 
-    // Determine how the schema for the larger relation relates to the
-    // schemas used for hashing the tuples and for the output.
-    Integer[] hashTupIdxForLarger = new Integer[larger.arity];
-    Integer[] outputTupIdxForLarger = new Integer[larger.arity];
-    for (int i = 0; i < larger.arity; ++i) {
-      Term attribute = larger.attributes.get(i);
-      hashTupIdxForLarger[i] = indexMap.get(attribute);
-      outputTupIdxForLarger[i] = outputMap.get(attribute);
+    return joinAndProject(other, cols, keyTempl, keyFrom, patternSchema, sameAs, schema);
+  }
+
+  /**
+   * Probes an index of the other relation with the rows of this relation, and projects each pair of
+   * matching rows onto the supplied attribute schema.
+   *
+   * @param indexed the other relation
+   * @param cols the columns of the other relation to use the index on
+   * @param keyTempl a template for the key; components supplied by this relation are ignored
+   * @param keyFrom for each component of the key, the column of this relation that supplies it, or
+   *     -1 if it is supplied by the template
+   * @param indexedAttributes the attribute schema of the other relation
+   * @param sameAs for each column of the other relation, either zero or one more than the index of
+   *     an earlier column that must hold the same term
+   * @param schema the attribute schema of the result
+   * @return the new relation
+   */
+  private Relation joinAndProject(
+      Relation indexed,
+      BitSet cols,
+      Term[] keyTempl,
+      int[] keyFrom,
+      TermSchema indexedAttributes,
+      int[] sameAs,
+      TermSchema schema) {
+    // Determine where each output term comes from, preferring this relation.
+    int[] outputFromThis = new int[schema.size()];
+    int[] outputFromIndexed = new int[schema.size()];
+    for (int i = 0; i < schema.size(); ++i) {
+      Term attribute = schema.get(i);
+      outputFromThis[i] = this.attributes.get(attribute);
+      outputFromIndexed[i] = outputFromThis[i] < 0 ? indexedAttributes.get(attribute) : -1;
     }
 
-    // Perform the actual join and project each tuple onto the output schema
     Relation result = new Relation(schema);
-    for (Tuple t1 : larger) {
-      Tuple hashTup = toHashTuple(t1, hashTupIdxForLarger, hashTupSize);
-      Set<Tuple> tuples = table.get(hashTup);
-      if (tuples != null) {
-        // Create a template for the output tuple based on the terms in
-        // t1.
-        Term[] outputTempl = new Term[schema.size()];
-        for (int i = 0; i < larger.arity; ++i) {
-          Integer j = outputTupIdxForLarger[i];
-          if (j != null) {
-            outputTempl[j] = t1.get(i);
+    if (this.size == 0 || indexed.size == 0) {
+      return result;
+    }
+    Index index = indexed.getIndex(cols);
+    Term[][] in = indexed.columns;
+    Term[][] out = result.columns;
+    for (int r1 = 0; r1 < this.size; ++r1) {
+      int h = 1;
+      for (int k = 0; k < keyFrom.length; ++k) {
+        h = 31 * h + hash(keyFrom[k] >= 0 ? this.columns[keyFrom[k]][r1] : keyTempl[k]);
+      }
+      matches:
+      for (int r2 = index.first(h); r2 >= 0; r2 = index.next(r2)) {
+        if (index.keyHashes[r2] != h) {
+          continue;
+        }
+        for (int k = 0; k < keyFrom.length; ++k) {
+          Term t = keyFrom[k] >= 0 ? this.columns[keyFrom[k]][r1] : keyTempl[k];
+          if (in[index.cols[k]][r2] != t) {
+            continue matches;
           }
         }
-
-        // Create new tuples by adding terms from the tuples in the
-        // smaller relation to the output template.
-        for (Tuple t2 : tuples) {
-          Term[] output = new Term[outputTempl.length];
-          System.arraycopy(outputTempl, 0, output, 0, output.length);
-
-          for (int i = 0; i < smaller.arity; ++i) {
-            Integer j = outputTupIdxForSmaller[i];
-            if (j != null) {
-              output[j] = t2.get(i);
-            }
+        for (int i = 0; i < sameAs.length; ++i) {
+          if (sameAs[i] != 0 && in[i][r2] != in[sameAs[i] - 1][r2]) {
+            continue matches;
           }
-          result.add(new Tuple(Arrays.asList(output)));
         }
+        result.ensureCapacity();
+        int row = result.size;
+        for (int i = 0; i < out.length; ++i) {
+          if (outputFromThis[i] >= 0) {
+            out[i][row] = this.columns[outputFromThis[i]][r1];
+          } else if (outputFromIndexed[i] >= 0) {
+            out[i][row] = in[outputFromIndexed[i]][r2];
+          } else {
+            out[i][row] = null;
+          }
+        }
+        result.commitPendingRow();
       }
     }
-
     return result;
   }
 
   /**
-   * Hashes a tuple given an index from the tuple into the desired output tuple and the size of the
-   * output tuple.
+   * Returns the index of this relation keyed on the given columns, building it if necessary.
+   *
+   * @param cols the columns
+   * @return the index
+   */
+  private Index getIndex(BitSet cols) {
+    synchronized (this.indexes) {
+      Index index = this.indexes.get(cols);
+      if (index == null) {
+        index = new Index(cols);
+        index.rebuild();
+        this.indexes.put((BitSet) cols.clone(), index);
+        this.indexList = this.indexes.values().toArray(new Index[0]);
+      }
+      return index;
+    }
+  }
+
+  /**
+   * Returns whether this relation has an index keyed on the given columns.
    *
-   * @param input the input tuple
-   * @param hashTupIdx the index from the input tuple into the output tuple
-   * @param hashTupSize the size of the output tuple
-   * @return the hashed tuple
+   * @param cols the columns
+   * @return whether there is such an index
    */
-  private static Tuple toHashTuple(Tuple input, Integer[] hashTupIdx, int hashTupSize) {
-    Term[] terms = new Term[hashTupSize];
-    for (int i = 0; i < input.size(); ++i) {
-      Integer j = hashTupIdx[i];
-      if (j != null) {
-        terms[j] = input.get(i);
+  private boolean hasIndex(BitSet cols) {
+    synchronized (this.indexes) {
+      return this.indexes.containsKey(cols);
+    }
+  }
+
+  /**
+   * A hash index from the terms in a subset of the columns of this relation to its rows. The rows
+   * with the same key are chained together through an array indexed by row, so neither adding a row
+   * nor looking up a key allocates anything.
+   */
+  private final class Index {
+    /** The columns the index is keyed on, in ascending order. */
+    private final int[] cols;
+
+    /** For each bucket, either zero or one more than the first row in its chain. */
+    private int[] heads;
+
+    /** For each row, either zero or one more than the next row in its chain. */
+    private int[] next;
+
+    /** For each row, the hash code of its key. */
+    private int[] keyHashes;
+
+    public Index(BitSet cols) {
+      this.cols = cols.stream().toArray();
+    }
+
+    /** Indexes every row of the relation from scratch. */
+    public void rebuild() {
+      int nBuckets = Integer.highestOneBit(Math.max(size, INITIAL_CAPACITY) - 1) << 1;
+      this.heads = new int[nBuckets];
+      this.next = new int[hashes.length];
+      this.keyHashes = new int[hashes.length];
+      for (int row = 0; row < size; ++row) {
+        int h = 1;
+        for (int c : this.cols) {
+          h = 31 * h + hash(columns[c][row]);
+        }
+        this.keyHashes[row] = h;
+        link(row);
+      }
+    }
+
+    private void link(int row) {
+      int b = spread(this.keyHashes[row]) & (this.heads.length - 1);
+      this.next[row] = this.heads[b];
+      this.heads[b] = row + 1;
+    }
+
+    /** Indexes a row that has just been added to the relation. */
+    public void add(int row) {
+      if (row >= this.next.length) {
+        this.next = Arrays.copyOf(this.next, hashes.length);
+        this.keyHashes = Arrays.copyOf(this.keyHashes, hashes.length);
+      }
+      int h = 1;
+      for (int c : this.cols) {
+        h = 31 * h + hash(columns[c][row]);
+      }
+      this.keyHashes[row] = h;
+      if (row >= this.heads.length) {
+        this.heads = new int[2 * this.heads.length];
+        for (int r = 0; r < row; ++r) {
+          link(r);
+        }
       }
+      link(row);
+    }
+
+    /**
+     * Returns the first row in the chain for the given key hash, or -1 if there is none. The chain
+     * can hold rows with other keys, so callers must check the key of each row.
+     *
+     * @param h the hash code of the key
+     * @return the row, or -1
+     */
+    public int first(int h) {
+      return this.heads[spread(h) & (this.heads.length - 1)] - 1;
+    }
+
+    /**
+     * Returns the row after the given one in its chain, or -1 if there is none.
+     *
+     * @param row the row
+     * @return the next row, or -1
+     */
+    public int next(int row) {
+      return this.next[row] - 1;
     }
-    return new Tuple(Arrays.asList(terms));
   }
 
   /**
@@ -326,21 +858,19 @@ public class Relation implements Iterable<Tuple> {
    * @return the new relation
    */
   public Relation applyTuplesAsSubstitutions(Tuple x) {
+    // For each term of x, find the column (if any) that it is mapped to.
+    int[] src = new int[x.size()];
+    for (int k = 0; k < src.length; ++k) {
+      src[k] = this.attributes.attributes.lastIndexOf(x.elts[k]);
+    }
+
     Relation r = new Relation(x.size());
-    for (Tuple t : this.tuples) {
-      Map<Term, Term> subst = new HashMap<>();
-      for (int j = 0; j < this.arity; ++j) {
-        subst.put(this.attributes.get(j), t.get(j));
-      }
-      List<Term> newTerms = new ArrayList<>();
-      for (Term term : x.elts) {
-        Term s = subst.get(term);
-        if (s != null) {
-          term = s;
-        }
-        newTerms.add(term);
+    for (int row = 0; row < this.size; ++row) {
+      r.ensureCapacity();
+      for (int k = 0; k < src.length; ++k) {
+        r.columns[k][r.size] = src[k] >= 0 ? this.columns[src[k]][row] : x.elts[k];
       }
-      r.add(new Tuple(newTerms));
+      r.commitPendingRow();
     }
     return r;
   }
@@ -361,16 +891,63 @@ public class Relation implements Iterable<Tuple> {
         ++nKeepers;
       }
     }
+    int[] keepers = new int[nKeepers];
+    for (int i = 0, k = 0; i < colsToKeep.size(); ++i) {
+      if (colsToKeep.get(i)) {
+        keepers[k++] = i;
+      }
+    }
 
     Relation r = new Relation(nKeepers);
-    for (Tuple t : this.tuples) {
-      List<Term> newTerms = new ArrayList<>();
-      for (int i = 0; i < this.arity; ++i) {
-        if (colsToKeep.get(i)) {
-          newTerms.add(t.get(i));
+    for (int row = 0; row < this.size; ++row) {
+      r.ensureCapacity();
+      for (int k = 0; k < nKeepers; ++k) {
+        r.columns[k][r.size] = this.columns[keepers[k]][row];
+      }
+      r.commitPendingRow();
+    }
+    return r;
+  }
+
+  /**
+   * Returns the tuples of this relation that unify with the given pattern. If the pattern has any
+   * constants, an index on the columns that hold them is used (and built if necessary).
+   *
+   * @param pattern the pattern
+   * @return the tuples
+   */
+  public List<Tuple> select(Tuple pattern) {
+    BitSet cols = new BitSet();
+    for (int i = 0; i < pattern.size(); ++i) {
+      if (pattern.elts[i] instanceof Constant) {
+        cols.set(i);
+      }
+    }
+    List<Tuple> r = new ArrayList<>();
+    if (cols.isEmpty()) {
+      for (int row = 0; row < this.size; ++row) {
+        Tuple t = tupleAt(row);
+        if (t.matches(pattern)) {
+          r.add(t);
+        }
+      }
+      return r;
+    }
+    if (this.size == 0) {
+      return r;
+    }
+    Index index = getIndex(cols);
+    int h = 1;
+    for (int c : index.cols) {
+      h = 31 * h + hash(pattern.elts[c]);
+    }
+    for (int row = index.first(h); row >= 0; row = index.next(row)) {
+      if (index.keyHashes[row] == h) {
+        Tuple t = tupleAt(row);
+        if (t.matches(pattern)) {
+          r.add(t);
         }
       }
-      r.add(new Tuple(newTerms));
     }
     return r;
   }
@@ -382,7 +959,7 @@ public class Relation implements Iterable<Tuple> {
    * @return whether this relation contains x
    */
   public boolean contains(Tuple x) {
-    return this.tuples.contains(x);
+    return x.size() == this.arity && find(x.elts, hashOf(x.elts)) >= 0;
   }
 
   /**
@@ -417,9 +994,9 @@ public class Relation implements Iterable<Tuple> {
     StringBuilder sb = new StringBuilder();
     sb.append("Attributes: " + attributes);
     sb.append("; Tuples: ");
-    for (Iterator<Tuple> it = this.tuples.iterator(); it.hasNext(); ) {
-      sb.append(it.next());
-      if (it.hasNext()) {
+    for (int row = 0; row < this.size; ++row) {
+      sb.append(tupleAt(row));
+      if (row < this.size - 1) {
         sb.append(", ");
       }
     }
@@ -432,7 +1009,11 @@ public class Relation implements Iterable<Tuple> {
     int result = 1;
     result = prime * result + arity;
     result = prime * result + ((attributes == null) ? 0 : attributes.hashCode());
-    result = prime * result + ((tuples == null) ? 0 : tuples.hashCode());
+    int tuples = 0;
+    for (int row = 0; row < this.size; ++row) {
+      tuples += this.hashes[row];
+    }
+    result = prime * result + tuples;
     return result;
   }
 
@@ -446,14 +1027,30 @@ public class Relation implements Iterable<Tuple> {
     if (attributes == null) {
       if (other.attributes != null) return false;
     } else if (!attributes.equals(other.attributes)) return false;
-    if (tuples == null) {
-      if (other.tuples != null) return false;
-    } else if (!tuples.equals(other.tuples)) return false;
+    if (size != other.size) return false;
+    for (int row = 0; row < this.size; ++row) {
+      if (other.find(this, row) < 0) return false;
+    }
     return true;
   }
 
   @Override
   public Iterator<Tuple> iterator() {
-    return this.tuples.iterator();
+    return new Iterator<Tuple>() {
+      private int row = 0;
+
+      @Override
+      public boolean hasNext() {
+        return this.row < size;
+      }
+
+      @Override
+      public Tuple next() {
+        if (this.row >= size) {
+          throw new NoSuchElementException();
+        }
+        return tupleAt(this.row++);
+      }
+    };
   }
 }
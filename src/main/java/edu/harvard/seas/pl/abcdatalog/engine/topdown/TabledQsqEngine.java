@@ -0,0 +1,249 @@
+package edu.harvard.seas.pl.abcdatalog.engine.topdown;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.Clause;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidationException;
+import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidator.ValidClause;
+import edu.harvard.seas.pl.abcdatalog.ast.visitors.PremiseVisitor;
+import edu.harvard.seas.pl.abcdatalog.ast.visitors.PremiseVisitorBuilder;
+import edu.harvard.seas.pl.abcdatalog.util.Utilities;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A Datalog evaluation engine that uses the iterative query-subquery technique, but keeps the
+ * answer tables it builds up across queries. A query is evaluated against the tables built by
+ * previous queries, so that subgoals that have already been solved are not evaluated again. The
+ * tables are evicted in least-recently-used order once there are more than a given number of them
+ * or once they hold more than a given number of tuples in total. EDB facts can be added and removed
+ * between queries; doing so invalidates exactly those tables that depend on the affected EDB
+ * relations.
+ */
+public class TabledQsqEngine extends IterativeQsqEngine {
+  /** The maximum number of tables (one per adorned predicate symbol) to keep between queries. */
+  private final int maxTables;
+
+  /** The maximum total number of tuples to keep in tables between queries. */
+  private final long maxTuples;
+
+  /** A map from a predicate symbol to the IDB predicate symbols with rules that directly use it. */
+  private final Map<PredicateSym, Set<PredicateSym>> dependents = new HashMap<>();
+
+  /** The tables, guarded by this engine's inherent lock. */
+  private QsqiState tables = new QsqiState();
+
+  /** Constructs an engine that keeps its tables indefinitely (unless they are invalidated). */
+  public TabledQsqEngine() {
+    this(Integer.MAX_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   * Constructs an engine that keeps at most the given number of tables, holding at most the given
+   * number of tuples in total, between queries.
+   *
+   * @param maxTables the maximum number of tables
+   * @param maxTuples the maximum number of tuples
+   * @throws IllegalArgumentException if either bound is negative
+   */
+  public TabledQsqEngine(int maxTables, long maxTuples) {
+    if (maxTables < 0 || maxTuples < 0) {
+      throw new IllegalArgumentException("Table bounds must be nonnegative.");
+    }
+    this.maxTables = maxTables;
+    this.maxTuples = maxTuples;
+  }
+
+  @Override
+  public synchronized void init(Set<Clause> program) throws DatalogValidationException {
+    super.init(program);
+    PremiseVisitor<Void, PredicateSym> getPred =
+        (new PremiseVisitorBuilder<Void, PredicateSym>())
+            .onPositiveAtom((atom, nothing) -> atom.getPred())
+            .orNull();
+    for (Map.Entry<PredicateSym, Set<ValidClause>> e : this.idbRules.entrySet()) {
+      for (ValidClause rule : e.getValue()) {
+        rule.getBody()
+            .forEach(
+                premise -> {
+                  PredicateSym p = premise.accept(getPred, null);
+                  if (p != null) {
+                    Utilities.getSetFromMap(this.dependents, p).add(e.getKey());
+                  }
+                });
+      }
+    }
+    this.tables = new QsqiState();
+  }
+
+  @Override
+  public synchronized Set<PositiveAtom> query(PositiveAtom q) {
+    // Is the query for EDB facts?
+    Set<PositiveAtom> edbFacts = checkIfEdbQuery(q);
+    if (edbFacts != null) {
+      return edbFacts;
+    }
+
+    Set<PositiveAtom> results = this.tables.query(q);
+    evict();
+    return results;
+  }
+
+  /** Evicts tables in least-recently-used order until the tables that remain are within bounds. */
+  private void evict() {
+    Map<AdornedPredicateSym, Long> sizes = this.tables.getTableSizes();
+    long total = 0;
+    for (long n : sizes.values()) {
+      total += n;
+    }
+    int count = sizes.size();
+    Iterator<Map.Entry<AdornedPredicateSym, Long>> it = sizes.entrySet().iterator();
+    while ((count > this.maxTables || total > this.maxTuples) && it.hasNext()) {
+      Map.Entry<AdornedPredicateSym, Long> e = it.next();
+      this.tables.remove(e.getKey());
+      total -= e.getValue();
+      --count;
+    }
+  }
+
+  /**
+   * Adds the given facts to the EDB, invalidating any tables that depend on them.
+   *
+   * @param facts the facts
+   * @throws IllegalArgumentException if a fact is not ground or is for an IDB relation
+   */
+  public synchronized void addFacts(Iterable<PositiveAtom> facts) {
+    Set<PredicateSym> changed = new HashSet<>();
+    for (PositiveAtom fact : checkFacts(facts)) {
+      Relation r =
+          this.edbRelations.computeIfAbsent(fact.getPred(), p -> new Relation(p.getArity()));
+      if (r.add(new Tuple(fact.getArgs()))) {
+        changed.add(fact.getPred());
+      }
+    }
+    invalidate(changed);
+  }
+
+  /**
+   * Removes the given facts from the EDB, invalidating any tables that depend on them.
+   *
+   * @param facts the facts
+   * @throws IllegalArgumentException if a fact is not ground or is for an IDB relation
+   */
+  public synchronized void removeFacts(Iterable<PositiveAtom> facts) {
+    // Group the facts by predicate so that each relation is compacted once.
+    Map<PredicateSym, Relation> old = new HashMap<>();
+    for (PositiveAtom fact : checkFacts(facts)) {
+      Relation r = this.edbRelations.get(fact.getPred());
+      if (r != null) {
+        old.computeIfAbsent(fact.getPred(), p -> new Relation(r.arity))
+            .add(new Tuple(fact.getArgs()));
+      }
+    }
+    Set<PredicateSym> changed = new HashSet<>();
+    for (Map.Entry<PredicateSym, Relation> e : old.entrySet()) {
+      if (this.edbRelations.get(e.getKey()).removeAll(e.getValue())) {
+        changed.add(e.getKey());
+      }
+    }
+    invalidate(changed);
+  }
+
+  /**
+   * Checks that the given facts can be used to update the EDB.
+   *
+   * @param facts the facts
+   * @return the facts
+   * @throws IllegalArgumentException if a fact is not ground or is for an IDB relation
+   */
+  private Iterable<PositiveAtom> checkFacts(Iterable<PositiveAtom> facts) {
+    for (PositiveAtom fact : facts) {
+      if (!fact.isGround()) {
+        throw new IllegalArgumentException("Atom is not ground: " + fact);
+      }
+      if (this.idbRules.containsKey(fact.getPred())) {
+        throw new IllegalArgumentException("Atom is not part of an EDB relation: " + fact);
+      }
+    }
+    return facts;
+  }
+
+  /**
+   * Discards the tables of every IDB predicate symbol that (transitively) depends on one of the
+   * given EDB predicate symbols.
+   *
+   * @param changed the EDB predicate symbols
+   */
+  private void invalidate(Set<PredicateSym> changed) {
+    Set<PredicateSym> affected = new HashSet<>();
+    Deque<PredicateSym> worklist = new ArrayDeque<>(changed);
+    while (!worklist.isEmpty()) {
+      for (PredicateSym p : this.dependents.getOrDefault(worklist.pop(), Collections.emptySet())) {
+        if (affected.add(p)) {
+          worklist.push(p);
+        }
+      }
+    }
+    if (affected.isEmpty()) {
+      return;
+    }
+    for (AdornedPredicateSym p : this.tables.getTableSizes().keySet()) {
+      if (affected.contains(p.getUnadorned())) {
+        this.tables.remove(p);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of tables currently kept by this engine.
+   *
+   * @return the number of tables
+   */
+  public synchronized int getNumberOfTables() {
+    return this.tables.getTableSizes().size();
+  }
+
+  /** Discards all the tables kept by this engine. */
+  public synchronized void clearTables() {
+    this.tables = new QsqiState();
+  }
+}
@@ -33,6 +33,7 @@ package edu.harvard.seas.pl.abcdatalog.engine.topdown;
  * #L%
  */
 
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
 import edu.harvard.seas.pl.abcdatalog.ast.Term;
 import edu.harvard.seas.pl.abcdatalog.util.substitution.Substitution;
 import edu.harvard.seas.pl.abcdatalog.util.substitution.UnionFindBasedUnifier;
@@ -44,6 +45,9 @@ public class Tuple {
   /** The terms in this tuple. */
   public final Term[] elts;
 
+  /** The cached hash code of this tuple, or zero if it has not been computed yet. */
+  private int hash;
+
   /**
    * Constructs a tuple from a list of terms.
    *
@@ -54,6 +58,12 @@ public class Tuple {
     this.elts = elts.toArray(tmp);
   }
 
+  /**
+   * Constructs a tuple that takes ownership of an array of terms, which must not be modified
+   * afterwards.
+   *
+   * @param elts the array of terms
+   */
   public Tuple(Term[] elts) {
     this.elts = elts;
   }
@@ -91,6 +101,39 @@ public class Tuple {
     return null;
   }
 
+  /**
+   * Returns whether this tuple, which must be ground, is an instance of the given pattern, i.e.,
+   * whether it holds the same constant wherever the pattern does and the same constant wherever the
+   * pattern repeats a variable. This is equivalent to (but cheaper than) checking whether the two
+   * tuples unify.
+   *
+   * @param pattern the pattern
+   * @return whether this tuple is an instance of the pattern
+   */
+  public boolean matches(Tuple pattern) {
+    Term[] pat = pattern.elts;
+    if (pat.length != this.elts.length) {
+      return false;
+    }
+    for (int i = 0; i < pat.length; ++i) {
+      if (pat[i] instanceof Constant) {
+        if (pat[i] != this.elts[i]) {
+          return false;
+        }
+      } else {
+        for (int j = 0; j < i; ++j) {
+          if (pat[j] == pat[i]) {
+            if (this.elts[j] != this.elts[i]) {
+              return false;
+            }
+            break;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
@@ -107,10 +150,14 @@ public class Tuple {
 
   @Override
   public int hashCode() {
-    final int prime = 31;
-    int result = 1;
-    result = prime * result + Arrays.hashCode(elts);
-    return result;
+    int h = this.hash;
+    if (h == 0) {
+      final int prime = 31;
+      h = 1;
+      h = prime * h + Arrays.hashCode(elts);
+      this.hash = h;
+    }
+    return h;
   }
 
   @Override
@@ -119,6 +166,7 @@ public class Tuple {
     if (obj == null) return false;
     if (getClass() != obj.getClass()) return false;
     Tuple other = (Tuple) obj;
+    if (this.hash != 0 && other.hash != 0 && this.hash != other.hash) return false;
     if (!Arrays.equals(elts, other.elts)) return false;
     return true;
   }
@@ -38,8 +38,13 @@ import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
 import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
 import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidationException;
 import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidator;
+import edu.harvard.seas.pl.abcdatalog.engine.ConjunctiveQueryEvaluator;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.concurrent.ExtensibleBottomUpEvalManager;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.concurrent.ExtensibleBottomUpEvalManager.Snapshot;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.IndexableFactCollection;
+import edu.harvard.seas.pl.abcdatalog.util.substitution.ConstOnlySubstitution;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /** A Datalog executor that runs the actual Datalog evaluation concurrently in separate threads. */
@@ -55,6 +60,9 @@ public class DatalogParallelExecutor implements DatalogExecutor {
 
   private volatile ExtensibleBottomUpEvalManager eval;
 
+  /** A live view of the facts derived so far; set once the executor is started. */
+  private volatile IndexableFactCollection facts;
+
   @Override
   public synchronized void initialize(Set<Clause> program, Set<PredicateSym> extensibleEdbPreds)
       throws DatalogValidationException {
@@ -80,7 +88,7 @@ public class DatalogParallelExecutor implements DatalogExecutor {
     if (!this.isInitialized) {
       throw new IllegalStateException("Executor has not been initialized.");
     }
-    this.eval.eval();
+    this.facts = this.eval.eval();
     this.isRunning = true;
   }
 
@@ -89,6 +97,97 @@ public class DatalogParallelExecutor implements DatalogExecutor {
     this.eval.finishAsynchronousEval();
   }
 
+  /**
+   * Takes a consistent snapshot of the facts derived so far, without stopping the executor. Facts
+   * that are added while the snapshot is being taken are held back until it is complete; the
+   * snapshot itself is unaffected by any facts added afterwards.
+   *
+   * @return the snapshot
+   * @throws IllegalStateException if the executor is not running
+   */
+  public Snapshot snapshot() {
+    if (!this.isRunning) {
+      throw new IllegalStateException("Executor must be running to take a snapshot.");
+    }
+    return this.eval.snapshot();
+  }
+
+  /**
+   * Returns the facts derived so far that unify with the given query. The query is answered
+   * directly against the facts of the ongoing evaluation, so the result might not reflect facts
+   * that are still being processed.
+   *
+   * @param q the query
+   * @return the facts
+   * @throws IllegalStateException if the executor has not been started
+   */
+  public Set<PositiveAtom> query(PositiveAtom q) {
+    return this.query(q, false);
+  }
+
+  /**
+   * Returns the facts derived so far that unify with the given query. If the flag is set, the
+   * executor first waits until the evaluation is quiescent, in which case the result reflects (at
+   * least) every fact that was added before this method was invoked. Otherwise, the query is
+   * answered directly against the facts of the ongoing evaluation.
+   *
+   * @param q the query
+   * @param waitForQuiescence whether to wait for outstanding additions to be processed first
+   * @return the facts
+   * @throws IllegalStateException if the executor has not been started
+   */
+  public Set<PositiveAtom> query(PositiveAtom q, boolean waitForQuiescence) {
+    this.prepareForQuery(waitForQuiescence);
+    return this.lookup(q);
+  }
+
+  /**
+   * Returns the set of all (minimal) substitutions that ground the given conjunctive query and make
+   * it true with respect to the facts derived so far. The query is answered directly against the
+   * facts of the ongoing evaluation.
+   *
+   * @param query the conjunctive query
+   * @return the set of minimal satisfying substitutions
+   * @throws IllegalStateException if the executor has not been started
+   */
+  public Set<ConstOnlySubstitution> query(List<PositiveAtom> query) {
+    return this.query(query, false);
+  }
+
+  /**
+   * Returns the set of all (minimal) substitutions that ground the given conjunctive query and make
+   * it true with respect to the facts derived so far. If the flag is set, the executor first waits
+   * until the evaluation is quiescent.
+   *
+   * @param query the conjunctive query
+   * @param waitForQuiescence whether to wait for outstanding additions to be processed first
+   * @return the set of minimal satisfying substitutions
+   * @throws IllegalStateException if the executor has not been started
+   */
+  public Set<ConstOnlySubstitution> query(List<PositiveAtom> query, boolean waitForQuiescence) {
+    this.prepareForQuery(waitForQuiescence);
+    return ConjunctiveQueryEvaluator.query(this.facts, query);
+  }
+
+  private void prepareForQuery(boolean waitForQuiescence) {
+    if (!this.isRunning) {
+      throw new IllegalStateException("Executor must be started before it can be queried.");
+    }
+    if (waitForQuiescence) {
+      this.eval.awaitQuiescence();
+    }
+  }
+
+  private Set<PositiveAtom> lookup(PositiveAtom q) {
+    Set<PositiveAtom> r = new HashSet<>();
+    for (PositiveAtom a : this.facts.indexInto(q)) {
+      if (q.unify(a) != null) {
+        r.add(a);
+      }
+    }
+    return r;
+  }
+
   @Override
   public void addFactAsynchronously(PositiveAtom edbFact) {
     if (!this.isInitialized) {
@@ -0,0 +1,184 @@
+package edu.harvard.seas.pl.abcdatalog.io;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import edu.harvard.seas.pl.abcdatalog.parser.DatalogParseException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A reader for the binary relation files written by {@link FactExporter}. A file holds the facts of
+ * a single relation. It begins with the four bytes "ADLF", followed by the predicate symbol (a
+ * string) and its arity (a varint). Then, for each fact, each argument is written as a varint k: if
+ * k is zero, it is followed by a string that is the name of a constant not seen before in the file,
+ * which thereby becomes constant number i if it is the i-th such constant; otherwise, the argument
+ * is constant number k. (A fact of a nullary relation is written as the single byte 1.) Varints are
+ * unsigned LEB128, and strings are a varint length followed by that many bytes of UTF-8.
+ */
+public final class BinaryFactReader {
+
+  private BinaryFactReader() {
+    throw new AssertionError("impossible");
+  }
+
+  /** The first four bytes of a binary relation file. */
+  static final int MAGIC = 0x41444c46;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * Reads all the facts in the given file, passing each one to the consumer.
+   *
+   * @param file the file
+   * @param sink the consumer of the facts
+   * @return the number of facts read
+   * @throws IOException if the file cannot be read
+   * @throws DatalogParseException if the file is not a well-formed binary relation file
+   */
+  public static long read(Path file, Consumer<? super PositiveAtom> sink)
+      throws IOException, DatalogParseException {
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+      return new Reader(ch, file).readAll(sink);
+    }
+  }
+
+  /** The state of reading one file. */
+  private static final class Reader {
+    private final FileChannel ch;
+    private final Path file;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final List<Constant> dictionary = new ArrayList<>();
+
+    Reader(FileChannel ch, Path file) {
+      this.ch = ch;
+      this.file = file;
+      this.buf.flip();
+    }
+
+    long readAll(Consumer<? super PositiveAtom> sink) throws IOException, DatalogParseException {
+      for (int shift = 24; shift >= 0; shift -= 8) {
+        if (this.read() != ((MAGIC >>> shift) & 0xff)) {
+          throw this.error("Not a binary relation file.");
+        }
+      }
+      String sym = this.readString();
+      PredicateSym pred = PredicateSym.create(sym, this.readVarint());
+      long count = 0;
+      int b;
+      while ((b = this.read()) != -1) {
+        Term[] args = new Term[pred.getArity()];
+        if (args.length == 0 && b != 1) {
+          throw this.error("Invalid fact of nullary relation.");
+        }
+        for (int i = 0; i < args.length; ++i) {
+          int k = this.readVarint(i == 0 ? b : this.read());
+          if (k == 0) {
+            Constant c = Constant.create(this.readString());
+            this.dictionary.add(c);
+            args[i] = c;
+          } else if (k <= this.dictionary.size()) {
+            args[i] = this.dictionary.get(k - 1);
+          } else {
+            throw this.error("Invalid constant number " + k + ".");
+          }
+        }
+        sink.accept(PositiveAtom.create(pred, args));
+        ++count;
+      }
+      return count;
+    }
+
+    private int read() throws IOException {
+      if (!this.buf.hasRemaining()) {
+        this.buf.clear();
+        int n;
+        do {
+          n = this.ch.read(this.buf);
+        } while (n == 0);
+        this.buf.flip();
+        if (n < 0) {
+          return -1;
+        }
+      }
+      return this.buf.get() & 0xff;
+    }
+
+    private int readVarint() throws IOException, DatalogParseException {
+      return this.readVarint(this.read());
+    }
+
+    private int readVarint(int b) throws IOException, DatalogParseException {
+      int n = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        if (b == -1) {
+          throw this.error("Unexpected end of file.");
+        }
+        n |= (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          return n;
+        }
+        b = this.read();
+      }
+      throw this.error("Malformed varint.");
+    }
+
+    private String readString() throws IOException, DatalogParseException {
+      int len = this.readVarint();
+      byte[] bytes = new byte[len];
+      for (int i = 0; i < len; ++i) {
+        int b = this.read();
+        if (b == -1) {
+          throw this.error("Unexpected end of file.");
+        }
+        bytes[i] = (byte) b;
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private DatalogParseException error(String msg) {
+      return new DatalogParseException(this.file + ": " + msg);
+    }
+  }
+}
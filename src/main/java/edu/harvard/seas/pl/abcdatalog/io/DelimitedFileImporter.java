@@ -0,0 +1,393 @@
+package edu.harvard.seas.pl.abcdatalog.io;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import edu.harvard.seas.pl.abcdatalog.parser.DatalogParseException;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.FactIndexer;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An importer that reads the rows of a delimited text file (such as a CSV or TSV file) as the facts
+ * of an EDB relation. Each field of a row becomes a constant whose name is the text of the field;
+ * since constants in AbcDatalog are untyped, no conversion is done. The file is read through a file
+ * channel and scanned byte by byte, so rows are never materialized as lines.
+ *
+ * <p>In a file with a comma delimiter, fields can be quoted with double quotes, in which case they
+ * can contain delimiters and line breaks, and a double quote is written as two double quotes. Other
+ * files are not quoted. Empty lines are skipped, and a line can end with "\n" or "\r\n".
+ */
+public final class DelimitedFileImporter {
+
+  private DelimitedFileImporter() {
+    throw new AssertionError("impossible");
+  }
+
+  /** The number of facts that are added to a fact indexer at once. */
+  private static final int BATCH_SIZE = 4096;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /** A mapping from the columns of a delimited file onto the arguments of a predicate. */
+  public static final class Mapping {
+    private static final Pattern SPEC =
+        Pattern.compile(
+            "\\s*([^\\s/]+)\\s*/\\s*(\\d+)\\s*<-\\s*(.+?)\\s*(?:\\[\\s*(\\d+(?:\\s*,\\s*\\d+)*)\\s*\\])?\\s*");
+
+    private final PredicateSym pred;
+    private final Path file;
+    private final byte delimiter;
+    private final boolean hasHeader;
+    private final int[] columns;
+
+    /**
+     * Creates a mapping.
+     *
+     * @param pred the predicate whose facts are in the file
+     * @param file the file
+     * @param delimiter the field delimiter, which must be an ASCII character
+     * @param hasHeader whether the first row of the file is a header to be skipped
+     * @param columns for each argument of the predicate, the (zero-based) column of the file that
+     *     holds it; if empty, the file must have exactly one column per argument, in order
+     * @throws IllegalArgumentException if the delimiter is not ASCII or the number of columns does
+     *     not match the arity of the predicate
+     */
+    public Mapping(
+        PredicateSym pred, Path file, char delimiter, boolean hasHeader, int... columns) {
+      if (delimiter >= 0x80 || delimiter == '\n' || delimiter == '\r' || delimiter == '"') {
+        throw new IllegalArgumentException("Invalid delimiter: " + delimiter);
+      }
+      if (columns.length == 0) {
+        columns = new int[pred.getArity()];
+        for (int i = 0; i < columns.length; ++i) {
+          columns[i] = i;
+        }
+      }
+      if (columns.length != pred.getArity()) {
+        throw new IllegalArgumentException(
+            "Expected " + pred.getArity() + " columns but got " + columns.length + ".");
+      }
+      for (int c : columns) {
+        if (c < 0) {
+          throw new IllegalArgumentException("Invalid column: " + c);
+        }
+      }
+      this.pred = pred;
+      this.file = file;
+      this.delimiter = (byte) delimiter;
+      this.hasHeader = hasHeader;
+      this.columns = columns.clone();
+    }
+
+    /**
+     * Parses a mapping from a specification of the form "edge/2 &lt;- edges.tsv", optionally
+     * followed by the columns to use, as in "edge/2 &lt;- edges.tsv[3,1]". The delimiter is a comma
+     * if the file name ends in ".csv" and a tab otherwise; files have no header. A relative path is
+     * resolved against the given directory.
+     *
+     * @param spec the specification
+     * @param dir the directory
+     * @return the mapping
+     * @throws IllegalArgumentException if the specification is malformed
+     */
+    public static Mapping parse(String spec, Path dir) {
+      Matcher m = SPEC.matcher(spec);
+      if (!m.matches()) {
+        throw new IllegalArgumentException("Malformed relation mapping: \"" + spec + "\".");
+      }
+      PredicateSym pred = PredicateSym.create(m.group(1), Integer.parseInt(m.group(2)));
+      Path file = dir.resolve(Paths.get(m.group(3)));
+      char delimiter = m.group(3).toLowerCase().endsWith(".csv") ? ',' : '\t';
+      int[] columns = new int[0];
+      if (m.group(4) != null) {
+        columns =
+            Arrays.stream(m.group(4).split(","))
+                .mapToInt(s -> Integer.parseInt(s.trim()))
+                .toArray();
+      }
+      return new Mapping(pred, file, delimiter, false, columns);
+    }
+
+    public PredicateSym getPred() {
+      return this.pred;
+    }
+
+    public Path getFile() {
+      return this.file;
+    }
+
+    @Override
+    public String toString() {
+      return this.pred + " <- " + this.file + Arrays.toString(this.columns);
+    }
+  }
+
+  /**
+   * Reads the facts in the file of the given mapping, passing each one to the consumer.
+   *
+   * @param mapping the mapping
+   * @param sink the consumer of the facts
+   * @return the number of facts read
+   * @throws IOException if the file cannot be read
+   * @throws DatalogParseException if a row has too few fields or an empty field
+   */
+  public static long importFacts(Mapping mapping, Consumer<? super PositiveAtom> sink)
+      throws IOException, DatalogParseException {
+    try (FileChannel ch = FileChannel.open(mapping.file, StandardOpenOption.READ)) {
+      return new Scanner(mapping, ch).scan(sink);
+    }
+  }
+
+  /**
+   * Reads the facts in the file of the given mapping into a fact indexer, adding them in batches.
+   *
+   * @param mapping the mapping
+   * @param indexer the fact indexer
+   * @return the number of facts read
+   * @throws IOException if the file cannot be read
+   * @throws DatalogParseException if a row has too few fields or an empty field
+   */
+  public static long importFacts(Mapping mapping, FactIndexer indexer)
+      throws IOException, DatalogParseException {
+    List<PositiveAtom> batch = new ArrayList<>(BATCH_SIZE);
+    long n =
+        importFacts(
+            mapping,
+            fact -> {
+              batch.add(fact);
+              if (batch.size() == BATCH_SIZE) {
+                indexer.addAll(batch);
+                batch.clear();
+              }
+            });
+    indexer.addAll(batch);
+    return n;
+  }
+
+  /** The state of reading one file. */
+  private static final class Scanner {
+    private final Mapping mapping;
+    private final FileChannel ch;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final boolean quoted;
+
+    /** For each column of the file, the arguments it supplies. */
+    private final int[][] argsByColumn;
+
+    private final int nColumns;
+    private final Term[] args;
+    private byte[] field = new byte[64];
+    private int fieldLength;
+    private long line = 1;
+
+    /**
+     * The bytes of the last field read from each column, so that a value that is repeated in
+     * consecutive rows (as happens in sorted files) is turned into a constant only once.
+     */
+    private final byte[][] lastFields;
+
+    private final Constant[] lastConstants;
+
+    Scanner(Mapping mapping, FileChannel ch) {
+      this.mapping = mapping;
+      this.ch = ch;
+      this.quoted = mapping.delimiter == ',';
+      this.buf.flip();
+      int max = -1;
+      for (int c : mapping.columns) {
+        max = Math.max(max, c);
+      }
+      this.nColumns = max + 1;
+      this.argsByColumn = new int[this.nColumns][];
+      for (int col = 0; col < this.nColumns; ++col) {
+        int n = 0;
+        for (int c : mapping.columns) {
+          if (c == col) {
+            ++n;
+          }
+        }
+        this.argsByColumn[col] = new int[n];
+        n = 0;
+        for (int i = 0; i < mapping.columns.length; ++i) {
+          if (mapping.columns[i] == col) {
+            this.argsByColumn[col][n++] = i;
+          }
+        }
+      }
+      this.args = new Term[mapping.columns.length];
+      this.lastFields = new byte[this.nColumns][];
+      this.lastConstants = new Constant[this.nColumns];
+    }
+
+    private int read() throws IOException {
+      if (!this.buf.hasRemaining()) {
+        this.buf.clear();
+        int n;
+        do {
+          n = this.ch.read(this.buf);
+        } while (n == 0);
+        this.buf.flip();
+        if (n < 0) {
+          return -1;
+        }
+      }
+      return this.buf.get() & 0xff;
+    }
+
+    long scan(Consumer<? super PositiveAtom> sink) throws IOException, DatalogParseException {
+      long count = 0;
+      boolean skip = this.mapping.hasHeader;
+      int c = this.read();
+      while (c != -1) {
+        if (c == '\n' || c == '\r') {
+          // Empty line.
+          if (c == '\n') {
+            ++this.line;
+          }
+          c = this.read();
+          continue;
+        }
+        // Read one row.
+        int col = 0;
+        while (true) {
+          c = this.readField(c);
+          if (!skip && col < this.nColumns) {
+            this.store(col);
+          }
+          ++col;
+          if (c != this.mapping.delimiter) {
+            break;
+          }
+          c = this.read();
+        }
+        if (c == '\r') {
+          c = this.read();
+        }
+        if (c != '\n' && c != -1) {
+          throw this.error("Unexpected character after field.");
+        }
+        if (!skip) {
+          if (col < this.nColumns) {
+            throw this.error("Expected at least " + this.nColumns + " fields but got " + col + ".");
+          }
+          sink.accept(PositiveAtom.create(this.mapping.pred, this.args.clone()));
+          ++count;
+        }
+        skip = false;
+        ++this.line;
+        c = this.read();
+      }
+      return count;
+    }
+
+    /**
+     * Reads a field that begins with the given byte into the field buffer, returning the byte that
+     * follows it.
+     */
+    private int readField(int c) throws IOException, DatalogParseException {
+      this.fieldLength = 0;
+      if (this.quoted && c == '"') {
+        while (true) {
+          c = this.read();
+          if (c == -1) {
+            throw this.error("Unterminated quoted field.");
+          }
+          if (c == '"') {
+            c = this.read();
+            if (c != '"') {
+              return c;
+            }
+          } else if (c == '\n') {
+            ++this.line;
+          }
+          this.append(c);
+        }
+      }
+      while (c != this.mapping.delimiter && c != '\n' && c != '\r' && c != -1) {
+        this.append(c);
+        c = this.read();
+      }
+      return c;
+    }
+
+    private void append(int c) {
+      if (this.fieldLength == this.field.length) {
+        this.field = Arrays.copyOf(this.field, 2 * this.fieldLength);
+      }
+      this.field[this.fieldLength++] = (byte) c;
+    }
+
+    /** Turns the field just read into a constant for the arguments that come from the column. */
+    private void store(int col) throws DatalogParseException {
+      int[] argPositions = this.argsByColumn[col];
+      if (argPositions.length == 0) {
+        return;
+      }
+      if (this.fieldLength == 0) {
+        throw this.error("Empty field in column " + col + ".");
+      }
+      byte[] last = this.lastFields[col];
+      Constant k;
+      if (last != null && Arrays.equals(last, 0, last.length, this.field, 0, this.fieldLength)) {
+        k = this.lastConstants[col];
+      } else {
+        k = Constant.create(new String(this.field, 0, this.fieldLength, StandardCharsets.UTF_8));
+        this.lastFields[col] = Arrays.copyOf(this.field, this.fieldLength);
+        this.lastConstants[col] = k;
+      }
+      for (int i : argPositions) {
+        this.args[i] = k;
+      }
+    }
+
+    private DatalogParseException error(String msg) {
+      return new DatalogParseException(this.mapping.file + ", line " + this.line + ": " + msg);
+    }
+  }
+}
@@ -0,0 +1,357 @@
+package edu.harvard.seas.pl.abcdatalog.io;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import edu.harvard.seas.pl.abcdatalog.ast.Variable;
+import edu.harvard.seas.pl.abcdatalog.engine.DatalogEngine;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.IndexableFactCollection;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * An exporter that writes relations to files, one file per predicate symbol. The facts are read
+ * directly from a fact collection (or, for an arbitrary engine, from a query for each predicate
+ * symbol) and encoded into a buffer that is written to a file channel, without going through {@link
+ * PositiveAtom#toString()}. Each constant is encoded only once per file.
+ *
+ * <p>The file for a predicate symbol p of arity n is named "p_n" followed by the extension of the
+ * format. Delimited files can be read back using {@link DelimitedFileImporter}, and binary files
+ * using {@link BinaryFactReader}.
+ */
+public final class FactExporter {
+
+  private FactExporter() {
+    throw new AssertionError("impossible");
+  }
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /** The formats in which relations can be written. */
+  public enum Format {
+    /**
+     * Tab-separated values, one fact per line. Constants that contain a tab or a line break cannot
+     * be written in this format.
+     */
+    TSV(".tsv"),
+
+    /**
+     * Comma-separated values, one fact per line. Constants that contain a comma, a double quote or
+     * a line break are quoted.
+     */
+    CSV(".csv"),
+
+    /** The binary format described in {@link BinaryFactReader}. */
+    BINARY(".facts");
+
+    private final String extension;
+
+    Format(String extension) {
+      this.extension = extension;
+    }
+
+    public String getExtension() {
+      return this.extension;
+    }
+  }
+
+  /**
+   * Returns the name of the file that the relation for the given predicate symbol is written to.
+   *
+   * @param pred the predicate symbol
+   * @param format the format
+   * @return the file name
+   */
+  public static String getFileName(PredicateSym pred, Format format) {
+    return pred.getSym() + "_" + pred.getArity() + format.getExtension();
+  }
+
+  /**
+   * Writes the relations for the given predicate symbols from a fact collection to files in the
+   * given directory, possibly writing several files in parallel.
+   *
+   * @param facts the fact collection
+   * @param preds the predicate symbols, or null for every predicate symbol in the collection
+   * @param dir the directory
+   * @param format the format
+   * @param nThreads the number of files to write in parallel
+   * @return the number of facts written for each predicate symbol
+   * @throws IOException if a file cannot be written
+   * @throws IllegalArgumentException if a constant cannot be written in the given format
+   */
+  public static Map<PredicateSym, Long> export(
+      IndexableFactCollection facts,
+      Collection<PredicateSym> preds,
+      Path dir,
+      Format format,
+      int nThreads)
+      throws IOException {
+    if (preds == null) {
+      preds = facts.getPreds();
+    }
+    return export(facts::indexInto, preds, dir, format, nThreads);
+  }
+
+  /**
+   * Writes the relations for the given predicate symbols to files in the given directory, getting
+   * the facts of each relation by querying the engine.
+   *
+   * @param engine the engine
+   * @param preds the predicate symbols
+   * @param dir the directory
+   * @param format the format
+   * @param nThreads the number of files to write in parallel, which must be 1 unless the engine
+   *     supports concurrent queries
+   * @return the number of facts written for each predicate symbol
+   * @throws IOException if a file cannot be written
+   * @throws IllegalArgumentException if a constant cannot be written in the given format
+   */
+  public static Map<PredicateSym, Long> export(
+      DatalogEngine engine, Collection<PredicateSym> preds, Path dir, Format format, int nThreads)
+      throws IOException {
+    return export(
+        pred -> {
+          Term[] args = new Term[pred.getArity()];
+          for (int i = 0; i < args.length; ++i) {
+            args[i] = Variable.createFreshVariable();
+          }
+          return engine.query(PositiveAtom.create(pred, args));
+        },
+        preds,
+        dir,
+        format,
+        nThreads);
+  }
+
+  private static Map<PredicateSym, Long> export(
+      Function<PredicateSym, ? extends Iterable<PositiveAtom>> relations,
+      Collection<PredicateSym> preds,
+      Path dir,
+      Format format,
+      int nThreads)
+      throws IOException {
+    if (nThreads < 1) {
+      throw new IllegalArgumentException("Number of threads must be positive.");
+    }
+    Map<PredicateSym, Long> counts = new LinkedHashMap<>();
+    if (nThreads == 1 || preds.size() < 2) {
+      for (PredicateSym pred : preds) {
+        counts.put(pred, write(relations.apply(pred), pred, dir, format));
+      }
+      return counts;
+    }
+
+    ExecutorService exec = Executors.newFixedThreadPool(Math.min(nThreads, preds.size()));
+    try {
+      Map<PredicateSym, Future<Long>> futures = new LinkedHashMap<>();
+      for (PredicateSym pred : preds) {
+        futures.put(pred, exec.submit(() -> write(relations.apply(pred), pred, dir, format)));
+      }
+      for (Map.Entry<PredicateSym, Future<Long>> e : futures.entrySet()) {
+        counts.put(e.getKey(), e.getValue().get());
+      }
+      return counts;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } finally {
+      exec.shutdownNow();
+    }
+  }
+
+  private static long write(
+      Iterable<PositiveAtom> facts, PredicateSym pred, Path dir, Format format) throws IOException {
+    Path file = dir.resolve(getFileName(pred, format));
+    try (FileChannel ch =
+        FileChannel.open(
+            file,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      Writer w = new Writer(ch, format);
+      if (format == Format.BINARY) {
+        w.writeHeader(pred);
+      }
+      long count = 0;
+      for (PositiveAtom fact : facts) {
+        if (fact.getPred().equals(pred)) {
+          w.writeFact(fact);
+          ++count;
+        }
+      }
+      w.flush();
+      return count;
+    }
+  }
+
+  /** The state of writing one file. */
+  private static final class Writer {
+    private final FileChannel ch;
+    private final Format format;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /** For delimited formats, the encoding of each constant written so far. */
+    private final Map<Constant, byte[]> encodings = new HashMap<>();
+
+    /** For the binary format, the index of each constant in the dictionary of the file. */
+    private final Map<Constant, Integer> ids = new HashMap<>();
+
+    Writer(FileChannel ch, Format format) {
+      this.ch = ch;
+      this.format = format;
+    }
+
+    void writeHeader(PredicateSym pred) throws IOException {
+      this.buf.putInt(BinaryFactReader.MAGIC);
+      this.writeString(pred.getSym().getBytes(StandardCharsets.UTF_8));
+      this.writeVarint(pred.getArity());
+    }
+
+    void writeFact(PositiveAtom fact) throws IOException {
+      Term[] args = fact.getArgs();
+      if (this.format == Format.BINARY) {
+        if (args.length == 0) {
+          this.ensure(1);
+          this.buf.put((byte) 1);
+        }
+        for (Term t : args) {
+          Constant c = (Constant) t;
+          Integer id = this.ids.get(c);
+          if (id == null) {
+            this.ids.put(c, this.ids.size() + 1);
+            this.writeVarint(0);
+            this.writeString(c.getName().getBytes(StandardCharsets.UTF_8));
+          } else {
+            this.writeVarint(id);
+          }
+        }
+        return;
+      }
+      byte delimiter = (byte) (this.format == Format.CSV ? ',' : '\t');
+      for (int i = 0; i < args.length; ++i) {
+        if (i > 0) {
+          this.ensure(1);
+          this.buf.put(delimiter);
+        }
+        byte[] bytes = this.encodings.computeIfAbsent((Constant) args[i], this::encode);
+        this.ensure(bytes.length);
+        this.write(bytes);
+      }
+      this.ensure(1);
+      this.buf.put((byte) '\n');
+    }
+
+    /** Encodes a constant as a field of a delimited file. */
+    private byte[] encode(Constant c) {
+      String s = c.getName();
+      if (this.format == Format.TSV) {
+        if (s.indexOf('\t') >= 0 || s.indexOf('\n') >= 0 || s.indexOf('\r') >= 0) {
+          throw new IllegalArgumentException("Cannot write constant to TSV file: " + s);
+        }
+      } else if (s.isEmpty()
+          || s.indexOf(',') >= 0
+          || s.indexOf('"') >= 0
+          || s.indexOf('\n') >= 0
+          || s.indexOf('\r') >= 0) {
+        s = "\"" + s.replace("\"", "\"\"") + "\"";
+      }
+      return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void writeString(byte[] bytes) throws IOException {
+      this.writeVarint(bytes.length);
+      this.write(bytes);
+    }
+
+    private void writeVarint(int n) throws IOException {
+      this.ensure(5);
+      while ((n & ~0x7f) != 0) {
+        this.buf.put((byte) ((n & 0x7f) | 0x80));
+        n >>>= 7;
+      }
+      this.buf.put((byte) n);
+    }
+
+    /** Writes bytes, which might be more than fit in the buffer. */
+    private void write(byte[] bytes) throws IOException {
+      int off = 0;
+      while (off < bytes.length) {
+        this.ensure(1);
+        int n = Math.min(this.buf.remaining(), bytes.length - off);
+        this.buf.put(bytes, off, n);
+        off += n;
+      }
+    }
+
+    /** Makes room in the buffer for the given number of bytes, if possible. */
+    private void ensure(int n) throws IOException {
+      if (this.buf.remaining() < n) {
+        this.flush();
+      }
+    }
+
+    void flush() throws IOException {
+      this.buf.flip();
+      while (this.buf.hasRemaining()) {
+        this.ch.write(this.buf);
+      }
+      this.buf.clear();
+    }
+  }
+}
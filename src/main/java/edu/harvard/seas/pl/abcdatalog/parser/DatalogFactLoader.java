@@ -0,0 +1,317 @@
+package edu.harvard.seas.pl.abcdatalog.parser;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A loader for files that contain only ground facts, such as "edge(a,b).", one after another. The
+ * loader scans the raw bytes of the input (which is assumed to be UTF-8) directly, rather than
+ * going through {@link DatalogTokenizer} and {@link DatalogParser}, and it creates each constant
+ * and predicate symbol only the first time its identifier is seen. The facts are handed to a
+ * consumer as they are read; no clauses are built and no validation beyond syntax is done. The
+ * loaded facts can, for example, be added to a {@link
+ * edu.harvard.seas.pl.abcdatalog.util.datastructures.FactIndexer} and evaluated using {@link
+ * edu.harvard.seas.pl.abcdatalog.engine.bottomup.sequential.SemiNaiveEngine#init(edu.harvard.seas.pl.abcdatalog.engine.bottomup.sequential.SemiNaiveProgram,
+ * edu.harvard.seas.pl.abcdatalog.util.datastructures.IndexableFactCollection)}.
+ *
+ * <p>The syntax is the same as for facts in a Datalog program: whitespace is insignificant, and the
+ * characters '%' and '/' begin a single line comment. Identifiers consist of letters, digits,
+ * underscores and non-ASCII characters from U+00A0 on, as for {@link DatalogLexer}. Every argument
+ * must be a constant, i.e., an identifier that does not begin with an upper case letter or an
+ * underscore.
+ */
+public final class DatalogFactLoader {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final InputStream in;
+  private final byte[] buf = new byte[BUFFER_SIZE];
+  private int pos = 0;
+  private int limit = 0;
+  private int line = 1;
+
+  /** The bytes of the identifier currently being read. */
+  private byte[] ident = new byte[64];
+
+  private int identLength;
+
+  /** An open-addressing hash table of the identifiers seen so far. */
+  private Identifier[] table = new Identifier[1 << 10];
+
+  private int tableSize = 0;
+
+  private Term[] args = new Term[8];
+
+  private DatalogFactLoader(InputStream in) {
+    this.in = in;
+  }
+
+  /**
+   * Reads all the facts from the given stream, passing each one to the consumer.
+   *
+   * @param in the stream
+   * @param sink the consumer of the facts
+   * @return the number of facts read
+   * @throws DatalogParseException if the stream cannot be read or does not consist of ground facts
+   */
+  public static long load(InputStream in, Consumer<? super PositiveAtom> sink)
+      throws DatalogParseException {
+    try {
+      return new DatalogFactLoader(in).loadAll(sink);
+    } catch (IOException e) {
+      throw new DatalogParseException(e);
+    }
+  }
+
+  /**
+   * Reads all the facts from the given file, passing each one to the consumer.
+   *
+   * @param file the file
+   * @param sink the consumer of the facts
+   * @return the number of facts read
+   * @throws DatalogParseException if the file cannot be read or does not consist of ground facts
+   */
+  public static long load(Path file, Consumer<? super PositiveAtom> sink)
+      throws DatalogParseException {
+    try (InputStream in = Files.newInputStream(file)) {
+      return new DatalogFactLoader(in).loadAll(sink);
+    } catch (IOException e) {
+      throw new DatalogParseException(e);
+    }
+  }
+
+  private long loadAll(Consumer<? super PositiveAtom> sink)
+      throws IOException, DatalogParseException {
+    long count = 0;
+    int c;
+    while ((c = this.skipWhitespace()) != -1) {
+      Identifier pred = this.readIdentifier(c);
+      if (!pred.isConstant) {
+        throw this.error("Invalid predicate symbol \"" + pred.name + "\".");
+      }
+      int arity = 0;
+      c = this.skipWhitespace();
+      if (c == '(') {
+        while (true) {
+          Identifier arg = this.readIdentifier(this.skipWhitespace());
+          if (!arg.isConstant) {
+            throw this.error("Fact is not ground: \"" + arg.name + "\" is a variable.");
+          }
+          if (arity == this.args.length) {
+            this.args = Arrays.copyOf(this.args, 2 * arity);
+          }
+          this.args[arity++] = arg.getConstant();
+          c = this.skipWhitespace();
+          if (c == ')') {
+            break;
+          }
+          if (c != ',') {
+            throw this.error("Expected \",\" or \")\" but found " + describe(c) + ".");
+          }
+        }
+        c = this.skipWhitespace();
+      }
+      if (c != '.') {
+        throw this.error("Expected \".\" but found " + describe(c) + ".");
+      }
+      sink.accept(
+          PositiveAtom.create(pred.getPredicateSym(arity), Arrays.copyOf(this.args, arity)));
+      ++count;
+    }
+    return count;
+  }
+
+  private int read() throws IOException {
+    if (this.pos == this.limit) {
+      this.limit = this.in.read(this.buf, 0, this.buf.length);
+      this.pos = 0;
+      if (this.limit <= 0) {
+        this.limit = 0;
+        return -1;
+      }
+    }
+    return this.buf[this.pos++] & 0xff;
+  }
+
+  /** Skips whitespace and comments, returning the next byte (or -1 at the end of the input). */
+  private int skipWhitespace() throws IOException {
+    while (true) {
+      int c = this.read();
+      if (c == '%' || c == '/') {
+        do {
+          c = this.read();
+        } while (c != '\n' && c != '\r' && c != -1);
+      }
+      if (c == '\n') {
+        ++this.line;
+      } else if (c > ' ' || c == -1) {
+        return c;
+      }
+    }
+  }
+
+  private static boolean isIdentifierByte(int c) {
+    return (c >= 'a' && c <= 'z')
+        || (c >= 'A' && c <= 'Z')
+        || (c >= '0' && c <= '9')
+        || c == '_'
+        || c >= 0x80;
+  }
+
+  /** Reads the identifier that begins with the given byte. */
+  private Identifier readIdentifier(int c) throws IOException, DatalogParseException {
+    if (c == -1 || !isIdentifierByte(c)) {
+      throw this.error("Expected an identifier but found " + describe(c) + ".");
+    }
+    int len = 0;
+    int hash = 0;
+    while (true) {
+      if (len > 0 && this.ident[len - 1] == (byte) 0xc2 && c >= 0x80 && c < 0xa0) {
+        // The UTF-8 encoding of a C1 control character, which is not part of an identifier.
+        throw this.error(String.format("Unexpected character U+%04X.", c));
+      }
+      if (len == this.ident.length) {
+        this.ident = Arrays.copyOf(this.ident, 2 * len);
+      }
+      this.ident[len++] = (byte) c;
+      hash = 31 * hash + c;
+      if (this.pos < this.limit && isIdentifierByte(this.buf[this.pos] & 0xff)) {
+        c = this.buf[this.pos++] & 0xff;
+      } else {
+        c = this.read();
+        if (c == -1 || !isIdentifierByte(c)) {
+          if (c != -1) {
+            --this.pos;
+          }
+          break;
+        }
+      }
+    }
+    this.identLength = len;
+    return this.intern(hash);
+  }
+
+  /** Returns the entry for the identifier that has just been read, adding it if necessary. */
+  private Identifier intern(int hash) {
+    int mask = this.table.length - 1;
+    int i = (hash ^ (hash >>> 16)) & mask;
+    Identifier id;
+    while ((id = this.table[i]) != null) {
+      if (id.hash == hash
+          && Arrays.equals(id.bytes, 0, id.bytes.length, this.ident, 0, this.identLength)) {
+        return id;
+      }
+      i = (i + 1) & mask;
+    }
+    id = new Identifier(Arrays.copyOf(this.ident, this.identLength), hash);
+    this.table[i] = id;
+    if (++this.tableSize * 2 > this.table.length) {
+      this.rehash();
+    }
+    return id;
+  }
+
+  private void rehash() {
+    Identifier[] old = this.table;
+    this.table = new Identifier[2 * old.length];
+    int mask = this.table.length - 1;
+    for (Identifier id : old) {
+      if (id != null) {
+        int i = (id.hash ^ (id.hash >>> 16)) & mask;
+        while (this.table[i] != null) {
+          i = (i + 1) & mask;
+        }
+        this.table[i] = id;
+      }
+    }
+  }
+
+  private DatalogParseException error(String msg) {
+    return new DatalogParseException("Line " + this.line + ": " + msg);
+  }
+
+  private static String describe(int c) {
+    if (c == -1) {
+      return "end of input";
+    }
+    return "\"" + (char) c + "\"";
+  }
+
+  /** An identifier, along with the constant and predicate symbols it has been used to create. */
+  private static final class Identifier {
+    private final byte[] bytes;
+    private final int hash;
+    private final String name;
+    private final boolean isConstant;
+    private Constant constant;
+    private PredicateSym[] predSyms = new PredicateSym[0];
+
+    Identifier(byte[] bytes, int hash) {
+      this.bytes = bytes;
+      this.hash = hash;
+      this.name = new String(bytes, StandardCharsets.UTF_8);
+      char first = this.name.charAt(0);
+      this.isConstant = !Character.isUpperCase(first) && first != '_';
+    }
+
+    Constant getConstant() {
+      if (this.constant == null) {
+        this.constant = Constant.create(this.name);
+      }
+      return this.constant;
+    }
+
+    PredicateSym getPredicateSym(int arity) {
+      if (arity >= this.predSyms.length) {
+        this.predSyms = Arrays.copyOf(this.predSyms, arity + 1);
+      }
+      PredicateSym p = this.predSyms[arity];
+      if (p == null) {
+        p = PredicateSym.create(this.name, arity);
+        this.predSyms[arity] = p;
+      }
+      return p;
+    }
+  }
+}
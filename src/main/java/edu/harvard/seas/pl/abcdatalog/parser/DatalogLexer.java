@@ -0,0 +1,324 @@
+package edu.harvard.seas.pl.abcdatalog.parser;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * A lexer for Datalog that scans a buffer of characters by offset. Identifiers are interned
+ * directly from the range of characters they occupy in the buffer, so an identifier that occurs
+ * many times is turned into a string only once; punctuation tokens are shared constants. The lexer
+ * scans each token exactly once, keeping the next token (if it has been looked at) for lookahead.
+ *
+ * <p>The input is either a character buffer, which is scanned in place if it is backed by an array,
+ * or a reader, from which the buffer is refilled as it is consumed. Tokens are the same as those of
+ * {@link DatalogTokenizer}: the characters '%' and '/' begin a single line comment; letters,
+ * digits, underscores and non-ASCII letters are grouped into identifiers; a quotation (delimited by
+ * double or single quotes, and ending at the end of the line if it is not closed) is a single token
+ * that is represented by its opening quote character; and every other non-whitespace character is a
+ * token by itself.
+ */
+public class DatalogLexer {
+  private static final int BUFFER_SIZE = 1 << 13;
+
+  /** The strings for the single-character tokens in the ASCII range. */
+  private static final String[] PUNCTUATION = new String[128];
+
+  static {
+    for (char c = 0; c < PUNCTUATION.length; ++c) {
+      PUNCTUATION[c] = String.valueOf(c).intern();
+    }
+  }
+
+  /** The source for refilling the buffer, or null if the whole input is in the buffer. */
+  private final Reader in;
+
+  private char[] buf;
+  private int pos;
+  private int limit;
+
+  /** The next token, if it has been scanned but not consumed; null otherwise. */
+  private String lookahead;
+
+  /** Whether the end of the input has been reached by the lookahead. */
+  private boolean atEof;
+
+  /** An open-addressing hash table of the identifiers seen so far. */
+  private String[] table = new String[1 << 8];
+
+  private int tableSize = 0;
+
+  /**
+   * Constructs a lexer over the remaining characters of a buffer. The buffer must not be modified
+   * while the lexer is in use.
+   *
+   * @param input the buffer
+   */
+  public DatalogLexer(CharBuffer input) {
+    this.in = null;
+    if (input.hasArray()) {
+      this.buf = input.array();
+      this.pos = input.arrayOffset() + input.position();
+      this.limit = input.arrayOffset() + input.limit();
+    } else {
+      this.buf = new char[input.remaining()];
+      input.duplicate().get(this.buf);
+      this.pos = 0;
+      this.limit = this.buf.length;
+    }
+  }
+
+  /**
+   * Constructs a lexer over the characters of a reader.
+   *
+   * @param in the reader
+   */
+  public DatalogLexer(Reader in) {
+    this.in = in;
+    this.buf = new char[BUFFER_SIZE];
+    this.pos = 0;
+    this.limit = 0;
+  }
+
+  /**
+   * Makes more input available, keeping the characters from the given offset onward (which may move
+   * them to the start of the buffer, adjusting the current position accordingly). Returns whether
+   * any more input was read.
+   */
+  private boolean fill(int keepFrom) throws IOException {
+    if (this.in == null) {
+      return false;
+    }
+    int kept = this.limit - keepFrom;
+    if (kept == this.buf.length) {
+      this.buf = Arrays.copyOf(this.buf, 2 * this.buf.length);
+    }
+    System.arraycopy(this.buf, keepFrom, this.buf, 0, kept);
+    this.pos -= keepFrom;
+    this.limit = kept;
+    int n;
+    do {
+      n = this.in.read(this.buf, this.limit, this.buf.length - this.limit);
+    } while (n == 0);
+    if (n < 0) {
+      return false;
+    }
+    this.limit += n;
+    return true;
+  }
+
+  /** Returns the next character without consuming it, or -1 at the end of the input. */
+  private int peekChar() throws IOException {
+    if (this.pos == this.limit && !this.fill(this.pos)) {
+      return -1;
+    }
+    return this.buf[this.pos];
+  }
+
+  private static boolean isWordChar(int c) {
+    return (c >= 'a' && c <= 'z')
+        || (c >= 'A' && c <= 'Z')
+        || (c >= '0' && c <= '9')
+        || c == '_'
+        || c >= 160;
+  }
+
+  /** Scans the next token into the lookahead, unless it has already been scanned. */
+  private void scan() throws DatalogParseException {
+    if (this.lookahead != null || this.atEof) {
+      return;
+    }
+    try {
+      int c;
+      while (true) {
+        c = this.peekChar();
+        if (c == -1) {
+          this.atEof = true;
+          return;
+        }
+        if (c <= ' ') {
+          ++this.pos;
+        } else if (c == '%' || c == '/') {
+          // Skip the comment, leaving the line break.
+          while ((c = this.peekChar()) != -1 && c != '\n' && c != '\r') {
+            ++this.pos;
+          }
+        } else {
+          break;
+        }
+      }
+
+      if (isWordChar(c)) {
+        int len = 0;
+        int hash = 0;
+        while (this.pos < this.limit || this.fill(this.pos - len)) {
+          char d = this.buf[this.pos];
+          if (!isWordChar(d)) {
+            break;
+          }
+          hash = 31 * hash + d;
+          ++this.pos;
+          ++len;
+        }
+        this.lookahead = this.intern(this.pos - len, len, hash);
+        return;
+      }
+
+      ++this.pos;
+      if (c == '"' || c == '\'') {
+        // Skip the quotation, which is represented by its opening quote.
+        int d;
+        while ((d = this.peekChar()) != -1 && d != '\n' && d != '\r') {
+          ++this.pos;
+          if (d == c) {
+            break;
+          }
+          if (d == '\\' && this.peekChar() != -1) {
+            ++this.pos;
+          }
+        }
+      }
+      this.lookahead = c < PUNCTUATION.length ? PUNCTUATION[c] : String.valueOf((char) c);
+    } catch (IOException e) {
+      throw new DatalogParseException(e);
+    }
+  }
+
+  /** Returns the string for the identifier in the given range of the buffer. */
+  private String intern(int start, int len, int hash) {
+    int mask = this.table.length - 1;
+    int i = (hash ^ (hash >>> 16)) & mask;
+    String s;
+    while ((s = this.table[i]) != null) {
+      if (s.hashCode() == hash && s.length() == len && this.matches(s, start)) {
+        return s;
+      }
+      i = (i + 1) & mask;
+    }
+    s = new String(this.buf, start, len);
+    this.table[i] = s;
+    if (++this.tableSize * 2 > this.table.length) {
+      String[] old = this.table;
+      this.table = new String[2 * old.length];
+      mask = this.table.length - 1;
+      for (String t : old) {
+        if (t != null) {
+          int h = t.hashCode();
+          int j = (h ^ (h >>> 16)) & mask;
+          while (this.table[j] != null) {
+            j = (j + 1) & mask;
+          }
+          this.table[j] = t;
+        }
+      }
+    }
+    return s;
+  }
+
+  private boolean matches(String s, int start) {
+    for (int i = 0; i < s.length(); ++i) {
+      if (s.charAt(i) != this.buf[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether there is another token.
+   *
+   * @return whether there is another token
+   * @throws DatalogParseException if the input cannot be read
+   */
+  public boolean hasNext() throws DatalogParseException {
+    this.scan();
+    return !this.atEof;
+  }
+
+  /**
+   * Returns the next token without consuming it.
+   *
+   * @return the token
+   * @throws DatalogParseException if at the end of the input
+   */
+  public String peek() throws DatalogParseException {
+    this.scan();
+    if (this.atEof) {
+      throw new DatalogParseException("Unexpected EOF token.");
+    }
+    return this.lookahead;
+  }
+
+  /**
+   * Returns (and consumes) the next token.
+   *
+   * @return the token
+   * @throws DatalogParseException if at the end of the input
+   */
+  public String next() throws DatalogParseException {
+    String token = this.peek();
+    this.lookahead = null;
+    return token;
+  }
+
+  /**
+   * Consumes tokens that together spell the given string. An exception is thrown if the tokens do
+   * not match the string. The string must describe complete (i.e. not partial) tokens.
+   *
+   * @param s the string representation of the tokens to be consumed
+   * @throws DatalogParseException if the tokens do not match
+   */
+  public void consume(String s) throws DatalogParseException {
+    int matched = 0;
+    StringBuilder found = null;
+    while (found == null ? matched < s.length() : found.length() < s.length()) {
+      String token = this.next();
+      if (found == null && token.length() <= s.length() - matched && s.startsWith(token, matched)) {
+        matched += token.length();
+      } else {
+        if (found == null) {
+          found = new StringBuilder(s.substring(0, matched));
+        }
+        found.append(token);
+      }
+    }
+    if (found != null) {
+      throw new DatalogParseException(
+          "Tried to consume \"" + s + "\" but found \"" + found + "\".");
+    }
+  }
+}
@@ -43,11 +43,24 @@ import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
 import edu.harvard.seas.pl.abcdatalog.ast.Premise;
 import edu.harvard.seas.pl.abcdatalog.ast.Term;
 import edu.harvard.seas.pl.abcdatalog.ast.Variable;
+import edu.harvard.seas.pl.abcdatalog.util.Utilities;
+import java.io.IOException;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A recursive descent parser for Datalog. <br>
@@ -80,6 +93,159 @@ public final class DatalogParser {
     return clauses;
   }
 
+  /**
+   * Generates an abstract syntax tree representation of the program in the given file, parsing the
+   * file in parallel using as many threads as there are available processors. See {@link
+   * #parseProgram(Path, int)}.
+   *
+   * @param file the file
+   * @return the AST of program
+   * @throws DatalogParseException
+   */
+  public static Set<Clause> parseProgram(Path file) throws DatalogParseException {
+    return parseProgram(file, Utilities.concurrency);
+  }
+
+  /**
+   * Generates an abstract syntax tree representation of the program in the given file, parsing the
+   * file in parallel. The file is split into chunks at clause boundaries (i.e., at periods that are
+   * not in a comment or a quotation), and the chunks are memory-mapped and parsed on separate
+   * threads. The result is the same as that of parsing the whole file with {@link
+   * #parseProgram(DatalogTokenizer)}; the file is assumed to be encoded in UTF-8.
+   *
+   * @param file the file
+   * @param nThreads the number of threads to use
+   * @return the AST of program
+   * @throws DatalogParseException
+   */
+  public static Set<Clause> parseProgram(Path file, int nThreads) throws DatalogParseException {
+    return parseProgram(file, nThreads, MIN_CHUNK_SIZE);
+  }
+
+  /** The smallest chunk of a file that is worth parsing on its own thread. */
+  private static final long MIN_CHUNK_SIZE = 1 << 20;
+
+  /** The largest chunk of a file that can be memory-mapped at once. */
+  private static final long MAX_CHUNK_SIZE = 1 << 30;
+
+  static Set<Clause> parseProgram(Path file, int nThreads, long minChunkSize)
+      throws DatalogParseException {
+    if (nThreads < 1) {
+      throw new IllegalArgumentException("Number of threads must be positive.");
+    }
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = ch.size();
+      // Aim for a few chunks per thread, so that the threads stay busy if
+      // the chunks take different amounts of time to parse.
+      long chunkSize = Math.max(minChunkSize, size / (4L * nThreads));
+      chunkSize = Math.min(chunkSize, MAX_CHUNK_SIZE);
+      List<Long> boundaries = new ArrayList<>();
+      boundaries.add(0L);
+      long prev = 0;
+      while (size - prev > chunkSize) {
+        long b = findClauseBoundary(ch, prev + chunkSize, size);
+        if (b >= size) {
+          break;
+        }
+        if (b - prev > MAX_CHUNK_SIZE) {
+          throw new DatalogParseException("Clause at offset " + prev + " is too long.");
+        }
+        boundaries.add(b);
+        prev = b;
+      }
+      boundaries.add(size);
+
+      if (boundaries.size() == 2 || nThreads == 1) {
+        Set<Clause> clauses = new HashSet<>();
+        for (int i = 0; i + 1 < boundaries.size(); ++i) {
+          clauses.addAll(parseChunk(ch, boundaries.get(i), boundaries.get(i + 1)));
+        }
+        return clauses;
+      }
+
+      ExecutorService exec = Executors.newFixedThreadPool(nThreads);
+      try {
+        List<Future<Set<Clause>>> futures = new ArrayList<>();
+        for (int i = 0; i + 1 < boundaries.size(); ++i) {
+          long start = boundaries.get(i);
+          long end = boundaries.get(i + 1);
+          futures.add(exec.submit(() -> parseChunk(ch, start, end)));
+        }
+        Set<Clause> clauses = new HashSet<>();
+        for (Future<Set<Clause>> f : futures) {
+          clauses.addAll(f.get());
+        }
+        return clauses;
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof DatalogParseException) {
+          throw (DatalogParseException) e.getCause();
+        }
+        throw new DatalogParseException(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new DatalogParseException(e);
+      } finally {
+        exec.shutdownNow();
+      }
+    } catch (IOException e) {
+      throw new DatalogParseException(e);
+    }
+  }
+
+  private static Set<Clause> parseChunk(FileChannel ch, long start, long end)
+      throws IOException, DatalogParseException {
+    MappedByteBuffer bytes = ch.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    CharBuffer chars = StandardCharsets.UTF_8.decode(bytes);
+    return parseProgram(new DatalogTokenizer(chars));
+  }
+
+  /**
+   * Returns the offset just past the first period at or after the given offset that ends a clause,
+   * or the size of the file if there is none. The search begins at the start of the next line,
+   * where (as lines end both comments and quotations) the tokenizer is known to be between tokens.
+   */
+  private static long findClauseBoundary(FileChannel ch, long from, long size) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+    boolean seenNewline = false;
+    boolean inComment = false;
+    int quote = -1;
+    boolean escaped = false;
+    long pos = from;
+    while (pos < size) {
+      buf.clear();
+      int n = ch.read(buf, pos);
+      if (n <= 0) {
+        break;
+      }
+      for (int i = 0; i < n; ++i, ++pos) {
+        int c = buf.get(i);
+        if (c == '\n' || c == '\r') {
+          seenNewline = true;
+          inComment = false;
+          quote = -1;
+          escaped = false;
+        } else if (!seenNewline || inComment) {
+          continue;
+        } else if (quote != -1) {
+          if (escaped) {
+            escaped = false;
+          } else if (c == '\\') {
+            escaped = true;
+          } else if (c == quote) {
+            quote = -1;
+          }
+        } else if (c == '%' || c == '/') {
+          inComment = true;
+        } else if (c == '"' || c == '\'') {
+          quote = c;
+        } else if (c == '.') {
+          return pos + 1;
+        }
+      }
+    }
+    return size;
+  }
+
   /**
    * Attempts to extract a clause from the provided token stream.
    *
@@ -33,20 +33,20 @@ package edu.harvard.seas.pl.abcdatalog.parser;
  * #L%
  */
 
-import java.io.IOException;
 import java.io.Reader;
-import java.io.StreamTokenizer;
+import java.nio.CharBuffer;
 
 /**
  * A tokenizer for Datalog. <br>
  * <br>
  * The character '%' begins a single line comment. Newlines are treated like normal whitespace, to
  * the effect that a clause can extend over multiple lines. Alphanumeric characters and underscores
- * are grouped together, but other punctuation is tokenized character by character.
+ * are grouped together, but other punctuation is tokenized character by character. The tokens are
+ * produced by a {@link DatalogLexer}.
  */
 public class DatalogTokenizer {
   /** A stream of tokens. */
-  private final StreamTokenizer st;
+  private final DatalogLexer lexer;
 
   /**
    * Construct a stream of Datalog tokens from a Reader.
@@ -54,39 +54,17 @@ public class DatalogTokenizer {
    * @param r the Reader
    */
   public DatalogTokenizer(Reader r) {
-    this.st = new StreamTokenizer(r);
-    this.st.commentChar('%');
-    // Treat numbers as strings.
-    this.st.ordinaryChars('0', '9');
-    this.st.ordinaryChar('.');
-    this.st.wordChars('0', '9');
-    this.st.wordChars('_', '_');
+    this.lexer = new DatalogLexer(r);
   }
 
   /**
-   * Returns the string signified by the given token code.
+   * Construct a stream of Datalog tokens from the remaining characters of a buffer, which is
+   * scanned in place if it is backed by an array.
    *
-   * @param token the token code
-   * @return the string representation
-   * @throws DatalogParseException
+   * @param input the buffer
    */
-  private String stringifyToken(int token) throws DatalogParseException {
-    switch (this.st.ttype) {
-      case StreamTokenizer.TT_EOF:
-        throw new DatalogParseException("Unexpected EOF token.");
-      case StreamTokenizer.TT_EOL:
-        // This case should never be reached, since EOLs are treated as
-        // having no special significance.
-        // Fall through to...
-      case StreamTokenizer.TT_NUMBER:
-        // This case should never be reached, since numbers are tokenized as
-        // strings.
-        throw new AssertionError();
-      case StreamTokenizer.TT_WORD:
-        return this.st.sval;
-      default:
-        return Character.toString((char) token);
-    }
+  public DatalogTokenizer(CharBuffer input) {
+    this.lexer = new DatalogLexer(input);
   }
 
   /**
@@ -98,19 +76,7 @@ public class DatalogTokenizer {
    * @throws DatalogParseException
    */
   public void consume(String s) throws DatalogParseException {
-    try {
-      String token = "";
-      while (token.length() < s.length()) {
-        token += stringifyToken(this.st.nextToken());
-      }
-
-      if (!token.equals(s)) {
-        throw new DatalogParseException(
-            "Tried to consume \"" + s + "\" but found \"" + token + "\".");
-      }
-    } catch (IOException e) {
-      throw new DatalogParseException(e);
-    }
+    this.lexer.consume(s);
   }
 
   /**
@@ -120,13 +86,7 @@ public class DatalogTokenizer {
    * @throws DatalogParseException
    */
   public String peek() throws DatalogParseException {
-    try {
-      String token = stringifyToken(this.st.nextToken());
-      this.st.pushBack();
-      return token;
-    } catch (IOException e) {
-      throw new DatalogParseException(e);
-    }
+    return this.lexer.peek();
   }
 
   /**
@@ -136,12 +96,7 @@ public class DatalogTokenizer {
    * @throws DatalogParseException
    */
   public String next() throws DatalogParseException {
-    try {
-      String token = stringifyToken(this.st.nextToken());
-      return token;
-    } catch (IOException e) {
-      throw new DatalogParseException(e);
-    }
+    return this.lexer.next();
   }
 
   /**
@@ -151,12 +106,6 @@ public class DatalogTokenizer {
    * @throws DatalogParseException
    */
   public boolean hasNext() throws DatalogParseException {
-    try {
-      this.st.nextToken();
-      this.st.pushBack();
-      return this.st.ttype != StreamTokenizer.TT_EOF;
-    } catch (IOException e) {
-      throw new DatalogParseException(e);
-    }
+    return this.lexer.hasNext();
   }
 }
@@ -0,0 +1,112 @@
+package edu.harvard.seas.pl.abcdatalog.util;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * A thread-safe table for interning values by key that does not keep the values alive: once a value
+ * is no longer referenced from elsewhere, it can be garbage collected and its entry is dropped from
+ * the table. Interning the same key again afterwards creates a fresh value, which is safe as long
+ * as values are only ever compared with other interned values.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+public final class WeakInterner<K, V> {
+  private final ConcurrentMap<K, Entry<K, V>> map = new ConcurrentHashMap<>();
+  private final ReferenceQueue<V> queue = new ReferenceQueue<>();
+
+  private static final class Entry<K, V> extends WeakReference<V> {
+    private final K key;
+
+    private Entry(K key, V value, ReferenceQueue<V> queue) {
+      super(value, queue);
+      this.key = key;
+    }
+  }
+
+  /**
+   * Returns the value interned under the given key, creating (and interning) it with the given
+   * factory if there is none. The factory might be invoked even if another thread concurrently
+   * interns a value for the same key, in which case only one of the values is returned to both.
+   *
+   * @param key the key
+   * @param factory the factory for a new value
+   * @return the interned value
+   */
+  public V intern(K key, Function<? super K, ? extends V> factory) {
+    this.expunge();
+    Entry<K, V> e = this.map.get(key);
+    while (true) {
+      if (e != null) {
+        V v = e.get();
+        if (v != null) {
+          return v;
+        }
+      }
+      V v = factory.apply(key);
+      Entry<K, V> fresh = new Entry<>(key, v, this.queue);
+      if (e == null ? this.map.putIfAbsent(key, fresh) == null : this.map.replace(key, e, fresh)) {
+        return v;
+      }
+      e = this.map.get(key);
+    }
+  }
+
+  /**
+   * Returns the number of entries in the table, which includes entries whose values have been
+   * collected but not yet dropped.
+   *
+   * @return the number of entries
+   */
+  public int size() {
+    this.expunge();
+    return this.map.size();
+  }
+
+  /** Drops the entries whose values have been garbage collected. */
+  @SuppressWarnings("unchecked")
+  private void expunge() {
+    Entry<K, V> e;
+    while ((e = (Entry<K, V>) this.queue.poll()) != null) {
+      // Only remove the entry if it has not already been replaced.
+      this.map.remove(e.key, e);
+    }
+  }
+}
@@ -0,0 +1,254 @@
+package edu.harvard.seas.pl.abcdatalog.util.datastructures;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import edu.harvard.seas.pl.abcdatalog.util.substitution.ConstOnlySubstitution;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A fact indexer that stamps each fact with the epoch during which it was added. The facts that had
+ * been added by the end of any epoch can later be read through a view that filters out the facts
+ * added since, so that a stable view of the indexer can be taken without copying it.
+ *
+ * <p>Facts can be added concurrently, but the epoch must not be advanced while a fact is being
+ * added; otherwise, the fact might be visible through some indices of a view but not others.
+ */
+public class EpochFactIndexer implements FactIndexer {
+  /** The current epoch, with which newly added facts are stamped. */
+  private volatile long epoch = 0;
+
+  private final ConcurrentFactIndexer<StampedBag> index =
+      new ConcurrentFactIndexer<>(
+          StampedBag::new,
+          (bag, fact) -> bag.add(fact, this.epoch),
+          () -> StampedBag.EMPTY,
+          StampedBag::size);
+
+  @Override
+  public void add(PositiveAtom fact) {
+    this.index.add(fact);
+  }
+
+  @Override
+  public void addAll(Iterable<PositiveAtom> facts) {
+    this.index.addAll(facts);
+  }
+
+  @Override
+  public Iterable<PositiveAtom> indexInto(PositiveAtom atom) {
+    return this.index.indexInto(atom);
+  }
+
+  @Override
+  public Iterable<PositiveAtom> indexInto(PositiveAtom atom, ConstOnlySubstitution subst) {
+    return this.index.indexInto(atom, subst);
+  }
+
+  @Override
+  public Iterable<PositiveAtom> indexInto(PredicateSym pred) {
+    return this.index.indexInto(pred);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return this.index.isEmpty();
+  }
+
+  @Override
+  public Set<PredicateSym> getPreds() {
+    return this.index.getPreds();
+  }
+
+  /**
+   * Returns the current epoch.
+   *
+   * @return the epoch
+   */
+  public long getEpoch() {
+    return this.epoch;
+  }
+
+  /**
+   * Ends the current epoch, so that facts added from now on are stamped with the next one. Must not
+   * be invoked while facts are being added.
+   *
+   * @return the epoch that was ended
+   */
+  public synchronized long advanceEpoch() {
+    return this.epoch++;
+  }
+
+  /**
+   * Returns a view of the facts that were added during or before the given epoch. The view does not
+   * change as facts are added to this indexer, provided that the given epoch has ended.
+   *
+   * @param epoch the epoch
+   * @return the view
+   */
+  public IndexableFactCollection asOf(long epoch) {
+    return new View(epoch);
+  }
+
+  /** The facts that had been added to the indexer by the end of some epoch. */
+  private class View implements IndexableFactCollection {
+    private final long epoch;
+
+    private View(long epoch) {
+      this.epoch = epoch;
+    }
+
+    @Override
+    public Iterable<PositiveAtom> indexInto(PositiveAtom atom) {
+      return index.indexInto(atom).asOf(this.epoch);
+    }
+
+    @Override
+    public Iterable<PositiveAtom> indexInto(PositiveAtom atom, ConstOnlySubstitution subst) {
+      return index.indexInto(atom, subst).asOf(this.epoch);
+    }
+
+    @Override
+    public Iterable<PositiveAtom> indexInto(PredicateSym pred) {
+      return index.indexInto(pred).asOf(this.epoch);
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return getPreds().isEmpty();
+    }
+
+    @Override
+    public Set<PredicateSym> getPreds() {
+      Set<PredicateSym> preds = new HashSet<>();
+      for (PredicateSym pred : index.getPreds()) {
+        if (indexInto(pred).iterator().hasNext()) {
+          preds.add(pred);
+        }
+      }
+      return preds;
+    }
+  }
+
+  /**
+   * A linked-list-backed bag of facts, each stamped with an epoch. Facts are added at the head of
+   * the list, so the nodes are never modified once they have been added and a traversal is
+   * unaffected by concurrent additions.
+   */
+  private static class StampedBag implements Iterable<PositiveAtom> {
+    private static final StampedBag EMPTY = new StampedBag();
+
+    private final AtomicReference<Node> head = new AtomicReference<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private static final class Node {
+      private final PositiveAtom fact;
+      private final long epoch;
+      private final Node next;
+
+      private Node(PositiveAtom fact, long epoch, Node next) {
+        this.fact = fact;
+        this.epoch = epoch;
+        this.next = next;
+      }
+    }
+
+    public void add(PositiveAtom fact, long epoch) {
+      Node h, n;
+      do {
+        h = this.head.get();
+        n = new Node(fact, epoch, h);
+      } while (!this.head.compareAndSet(h, n));
+      this.size.incrementAndGet();
+    }
+
+    public Integer size() {
+      return this.size.get();
+    }
+
+    @Override
+    public Iterator<PositiveAtom> iterator() {
+      return new NodeIterator(this.head.get(), Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the facts in this bag that were stamped with the given epoch or an earlier one.
+     *
+     * @param epoch the epoch
+     * @return the facts
+     */
+    public Iterable<PositiveAtom> asOf(long epoch) {
+      Node h = this.head.get();
+      return () -> new NodeIterator(h, epoch);
+    }
+
+    private static final class NodeIterator implements Iterator<PositiveAtom> {
+      private final long epoch;
+      private Node cur;
+
+      private NodeIterator(Node head, long epoch) {
+        this.epoch = epoch;
+        this.cur = skip(head);
+      }
+
+      private Node skip(Node n) {
+        while (n != null && n.epoch > this.epoch) {
+          n = n.next;
+        }
+        return n;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return this.cur != null;
+      }
+
+      @Override
+      public PositiveAtom next() {
+        if (this.cur == null) {
+          throw new NoSuchElementException();
+        }
+        PositiveAtom fact = this.cur.fact;
+        this.cur = skip(this.cur.next);
+        return fact;
+      }
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package edu.harvard.seas.pl.abcdatalog.workload;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.Clause;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * A generator of ground facts. Every invocation of {@link #stream()} yields the same sequence of
+ * facts, so that generated workloads are reproducible.
+ */
+@FunctionalInterface
+public interface FactGenerator {
+  /**
+   * Returns a (sequential, lazily generated) stream of the facts.
+   *
+   * @return the facts
+   */
+  Stream<PositiveAtom> stream();
+
+  /**
+   * Returns a generator of the facts of this generator followed by the facts of another one.
+   *
+   * @param other the other generator
+   * @return the combined generator
+   */
+  default FactGenerator concat(FactGenerator other) {
+    return () -> Stream.concat(this.stream(), other.stream());
+  }
+
+  /**
+   * Returns the facts as a set of bodiless clauses, e.g., to be added to a program for {@link
+   * edu.harvard.seas.pl.abcdatalog.engine.DatalogEngine#init}.
+   *
+   * @return the clauses
+   */
+  default Set<Clause> toClauses() {
+    Set<Clause> r = new HashSet<>();
+    this.stream().forEach(fact -> r.add(new Clause(fact, Collections.emptyList())));
+    return r;
+  }
+
+  /**
+   * Writes the facts in Datalog syntax, one per line.
+   *
+   * @param out the writer
+   * @return the number of facts written
+   * @throws IOException if the facts cannot be written
+   */
+  default long write(Writer out) throws IOException {
+    long n = 0;
+    try (Stream<PositiveAtom> facts = this.stream()) {
+      Iterator<PositiveAtom> it = facts.iterator();
+      while (it.hasNext()) {
+        out.write(it.next().toString());
+        out.write(".\n");
+        ++n;
+      }
+    }
+    return n;
+  }
+}
@@ -0,0 +1,370 @@
+package edu.harvard.seas.pl.abcdatalog.workload;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.Clause;
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Factory methods for generators of common shapes of EDB relations. Graph nodes are the constants
+ * {@code n0}, {@code n1}, and so on. The generators that make random choices take a seed, and
+ * generate the same facts for the same arguments.
+ *
+ * <p>The {@link #main} method provides a command line interface for writing generated facts (or
+ * random programs, see {@link RandomProgramGenerator}) to a file.
+ */
+public final class Generators {
+
+  private Generators() {
+    // Cannot be instantiated.
+  }
+
+  /**
+   * Returns a generator of a path {@code pred(n0, n1), pred(n1, n2), ...} of the given length.
+   *
+   * @param pred the name of the (binary) edge predicate
+   * @param length the number of edges
+   * @return the generator
+   */
+  public static FactGenerator chain(String pred, int length) {
+    checkNonNegative("Length", length);
+    PredicateSym p = PredicateSym.create(pred, 2);
+    return () -> IntStream.range(0, length).mapToObj(i -> fact(p, node(i), node(i + 1)));
+  }
+
+  /**
+   * Returns a generator of a grid with edges going right and down; node {@code n(r * cols + c)} is
+   * the node in row r and column c.
+   *
+   * @param pred the name of the (binary) edge predicate
+   * @param rows the number of rows
+   * @param cols the number of columns
+   * @return the generator
+   */
+  public static FactGenerator lattice(String pred, int rows, int cols) {
+    checkNonNegative("Number of rows", rows);
+    checkNonNegative("Number of columns", cols);
+    PredicateSym p = PredicateSym.create(pred, 2);
+    return () ->
+        IntStream.range(0, rows * cols)
+            .boxed()
+            .flatMap(
+                n -> {
+                  Stream.Builder<PositiveAtom> b = Stream.builder();
+                  if (n % cols + 1 < cols) {
+                    b.add(fact(p, node(n), node(n + 1)));
+                  }
+                  if (n / cols + 1 < rows) {
+                    b.add(fact(p, node(n), node(n + cols)));
+                  }
+                  return b.build();
+                });
+  }
+
+  /**
+   * Returns a generator of the edges of a complete tree of the given depth in which each internal
+   * node has the given number of children. Edges go from parent to child; the root is {@code n0}
+   * and the children of node {@code ni} are {@code n(i * fanout + 1)} through {@code n(i * fanout +
+   * fanout)}. A tree of depth 1 is a star.
+   *
+   * @param pred the name of the (binary) edge predicate
+   * @param depth the depth of the tree
+   * @param fanout the number of children of each internal node
+   * @return the generator
+   */
+  public static FactGenerator fanOutTree(String pred, int depth, int fanout) {
+    checkNonNegative("Depth", depth);
+    checkNonNegative("Fan-out", fanout);
+    long internal = 0;
+    long level = 1;
+    for (int d = 0; d < depth; ++d) {
+      internal += level;
+      level *= fanout;
+    }
+    if (internal * fanout > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Tree has too many nodes.");
+    }
+    int edges = (int) (internal * fanout);
+    PredicateSym p = PredicateSym.create(pred, 2);
+    return () -> IntStream.range(0, edges).mapToObj(i -> fact(p, node(i / fanout), node(i + 1)));
+  }
+
+  /**
+   * Returns a generator of a random graph with uniformly distributed edges. The graph might contain
+   * self loops and duplicate edges.
+   *
+   * @param pred the name of the (binary) edge predicate
+   * @param nodes the number of nodes
+   * @param edges the number of edges
+   * @param seed the seed for random choices
+   * @return the generator
+   */
+  public static FactGenerator uniformGraph(String pred, int nodes, int edges, long seed) {
+    return powerLawGraph(pred, nodes, edges, 0, seed);
+  }
+
+  /**
+   * Returns a generator of a random graph whose degree distribution follows a power law: the
+   * endpoints of each edge are drawn independently such that node {@code ni} is picked with a
+   * probability proportional to 1 / (i + 1)^exponent. The graph might contain self loops and
+   * duplicate edges.
+   *
+   * @param pred the name of the (binary) edge predicate
+   * @param nodes the number of nodes
+   * @param edges the number of edges
+   * @param exponent the non-negative exponent of the power law (0 for a uniform graph)
+   * @param seed the seed for random choices
+   * @return the generator
+   */
+  public static FactGenerator powerLawGraph(
+      String pred, int nodes, int edges, double exponent, long seed) {
+    checkNonNegative("Number of edges", edges);
+    ZipfSampler z = new ZipfSampler(nodes, exponent);
+    PredicateSym p = PredicateSym.create(pred, 2);
+    return () -> {
+      Random r = new Random(seed);
+      return IntStream.range(0, edges).mapToObj(i -> fact(p, node(z.sample(r)), node(z.sample(r))));
+    };
+  }
+
+  /**
+   * Returns a generator of two relations that join on a key with a skewed distribution: {@code
+   * left(ai, kj)} and {@code right(kj, bi)} for i less than the number of rows, where each kj is
+   * drawn independently such that key j is picked with a probability proportional to 1 / (j +
+   * 1)^exponent. The size of the join grows with the skew.
+   *
+   * @param left the name of the (binary) left predicate
+   * @param right the name of the (binary) right predicate
+   * @param rows the number of facts in each relation
+   * @param keys the number of distinct keys
+   * @param exponent the non-negative exponent of the key distribution (0 for no skew)
+   * @param seed the seed for random choices
+   * @return the generator
+   */
+  public static FactGenerator skewedJoin(
+      String left, String right, int rows, int keys, double exponent, long seed) {
+    checkNonNegative("Number of rows", rows);
+    ZipfSampler z = new ZipfSampler(keys, exponent);
+    PredicateSym l = PredicateSym.create(left, 2);
+    PredicateSym r = PredicateSym.create(right, 2);
+    return () -> {
+      Random random = new Random(seed);
+      return IntStream.range(0, 2 * rows)
+          .mapToObj(
+              i -> {
+                Constant k = Constant.create("k" + z.sample(random));
+                return i < rows
+                    ? fact(l, Constant.create("a" + i), k)
+                    : fact(r, k, Constant.create("b" + (i - rows)));
+              });
+    };
+  }
+
+  static Constant node(int i) {
+    return Constant.create("n" + i);
+  }
+
+  static PositiveAtom fact(PredicateSym p, Term... args) {
+    return PositiveAtom.create(p, args);
+  }
+
+  private static void checkNonNegative(String what, int n) {
+    if (n < 0) {
+      throw new IllegalArgumentException(what + " must be non-negative, but is " + n + ".");
+    }
+  }
+
+  private static final String USAGE =
+      "Usage: Generators KIND [NAME=VALUE ...]\n"
+          + "Kinds and their parameters (with defaults):\n"
+          + "  chain       length\n"
+          + "  lattice     rows cols\n"
+          + "  tree        depth fanout\n"
+          + "  uniform     nodes edges\n"
+          + "  powerlaw    nodes edges exponent=2\n"
+          + "  skewedjoin  rows keys exponent=1 left=left right=right\n"
+          + "  program     edbs=2 idbs=4 strata=2 rules=2 body=3 negation=0.3 domain=100 facts=1000\n"
+          + "Common parameters: pred=e (edge predicate), seed=0, out=FILE (default: stdout)";
+
+  /**
+   * Writes a generated workload in Datalog syntax. Run without arguments for usage.
+   *
+   * @param args the kind of workload, followed by its parameters as NAME=VALUE pairs
+   * @throws IOException if the output cannot be written
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.err.println(USAGE);
+      System.exit(1);
+    }
+    Map<String, String> params = new HashMap<>();
+    for (int i = 1; i < args.length; ++i) {
+      int eq = args[i].indexOf('=');
+      if (eq < 0) {
+        throw new IllegalArgumentException("Expected NAME=VALUE but got \"" + args[i] + "\".");
+      }
+      params.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+    }
+    Params p = new Params(params);
+    String pred = p.string("pred", "e");
+    long seed = p.integer("seed", 0);
+    FactGenerator facts;
+    Iterable<Clause> rules = null;
+    switch (args[0]) {
+      case "chain":
+        facts = chain(pred, (int) p.integer("length", -1));
+        break;
+      case "lattice":
+        facts = lattice(pred, (int) p.integer("rows", -1), (int) p.integer("cols", -1));
+        break;
+      case "tree":
+        facts = fanOutTree(pred, (int) p.integer("depth", -1), (int) p.integer("fanout", -1));
+        break;
+      case "uniform":
+        facts =
+            uniformGraph(pred, (int) p.integer("nodes", -1), (int) p.integer("edges", -1), seed);
+        break;
+      case "powerlaw":
+        facts =
+            powerLawGraph(
+                pred,
+                (int) p.integer("nodes", -1),
+                (int) p.integer("edges", -1),
+                p.real("exponent", 2),
+                seed);
+        break;
+      case "skewedjoin":
+        facts =
+            skewedJoin(
+                p.string("left", "left"),
+                p.string("right", "right"),
+                (int) p.integer("rows", -1),
+                (int) p.integer("keys", -1),
+                p.real("exponent", 1),
+                seed);
+        break;
+      case "program":
+        RandomProgramGenerator.Program prog =
+            new RandomProgramGenerator()
+                .withEdbPredicates((int) p.integer("edbs", 2))
+                .withIdbPredicates((int) p.integer("idbs", 4))
+                .withStrata((int) p.integer("strata", 2))
+                .withRulesPerPredicate((int) p.integer("rules", 2))
+                .withMaxBodySize((int) p.integer("body", 3))
+                .withNegationProbability(p.real("negation", 0.3))
+                .withDomainSize((int) p.integer("domain", 100))
+                .withFactsPerPredicate((int) p.integer("facts", 1000))
+                .generate(seed);
+        rules = prog.getRules();
+        facts = prog.getFacts();
+        break;
+      default:
+        throw new IllegalArgumentException("Unrecognized kind \"" + args[0] + "\".\n" + USAGE);
+    }
+    String out = p.string("out", null);
+    p.checkAllUsed();
+
+    Writer w =
+        new BufferedWriter(
+            out == null
+                ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+                : Files.newBufferedWriter(Paths.get(out), StandardCharsets.UTF_8));
+    try {
+      if (rules != null) {
+        for (Clause c : rules) {
+          w.write(c.toString());
+          w.write('\n');
+        }
+      }
+      facts.write(w);
+    } finally {
+      if (out == null) {
+        w.flush();
+      } else {
+        w.close();
+      }
+    }
+  }
+
+  /** The parameters given on the command line, which keeps track of the ones that are used. */
+  private static final class Params {
+    private final Map<String, String> values;
+
+    Params(Map<String, String> values) {
+      this.values = new HashMap<>(values);
+    }
+
+    String string(String name, String dflt) {
+      String v = this.values.remove(name);
+      return v != null ? v : dflt;
+    }
+
+    long integer(String name, long dflt) {
+      String v = this.values.remove(name);
+      if (v == null) {
+        if (dflt < 0) {
+          throw new IllegalArgumentException("Missing parameter \"" + name + "\".");
+        }
+        return dflt;
+      }
+      return Long.parseLong(v);
+    }
+
+    double real(String name, double dflt) {
+      String v = this.values.remove(name);
+      return v != null ? Double.parseDouble(v) : dflt;
+    }
+
+    void checkAllUsed() {
+      if (!this.values.isEmpty()) {
+        throw new IllegalArgumentException("Unrecognized parameters " + this.values.keySet() + ".");
+      }
+    }
+  }
+}
@@ -0,0 +1,265 @@
+package edu.harvard.seas.pl.abcdatalog.workload;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import edu.harvard.seas.pl.abcdatalog.ast.Clause;
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.NegatedAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import edu.harvard.seas.pl.abcdatalog.ast.Premise;
+import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import edu.harvard.seas.pl.abcdatalog.ast.Variable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * A generator of random programs with stratified negation over binary predicates. The EDB
+ * predicates are {@code e0}, {@code e1}, ..., holding random pairs of the constants {@code c0},
+ * {@code c1}, ...; the IDB predicates are {@code p0}, {@code p1}, ..., which are divided into
+ * strata in order. Each rule for an IDB predicate joins a chain of atoms from the head's first to
+ * its second variable, e.g.
+ *
+ * <pre>
+ * p3(X, Y) :- e1(X, Z1), p2(Z1, Z2), p3(Z2, Y), not p0(Z1, Y).
+ * </pre>
+ *
+ * Positive atoms may refer to the EDB predicates and to IDB predicates in the same or lower strata
+ * (so rules can be recursive), and negated atoms may refer to the EDB predicates and to IDB
+ * predicates in lower strata. Every generated program is therefore safe and stratified.
+ *
+ * <p>The generator is configured by chaining {@code with...} methods, and the same configuration
+ * and seed always yield the same program.
+ */
+public class RandomProgramGenerator {
+  private int edbPreds = 2;
+  private int idbPreds = 4;
+  private int strata = 2;
+  private int rulesPerPred = 2;
+  private int maxBodySize = 3;
+  private double negationProbability = 0.3;
+  private int domainSize = 100;
+  private int factsPerPred = 1000;
+
+  /** A generated program, i.e., rules together with a generator of EDB facts. */
+  public static final class Program {
+    private final Set<Clause> rules;
+    private final FactGenerator facts;
+    private final List<PredicateSym> idbPreds;
+
+    private Program(Set<Clause> rules, FactGenerator facts, List<PredicateSym> idbPreds) {
+      this.rules = Collections.unmodifiableSet(rules);
+      this.facts = facts;
+      this.idbPreds = Collections.unmodifiableList(idbPreds);
+    }
+
+    /**
+     * Returns the rules of the program.
+     *
+     * @return the rules
+     */
+    public Set<Clause> getRules() {
+      return this.rules;
+    }
+
+    /**
+     * Returns a generator of the EDB facts of the program.
+     *
+     * @return the fact generator
+     */
+    public FactGenerator getFacts() {
+      return this.facts;
+    }
+
+    /**
+     * Returns the IDB predicates of the program, ordered by stratum.
+     *
+     * @return the IDB predicates
+     */
+    public List<PredicateSym> getIdbPredicates() {
+      return this.idbPreds;
+    }
+
+    /**
+     * Returns the rules together with the EDB facts, e.g., for {@link
+     * edu.harvard.seas.pl.abcdatalog.engine.DatalogEngine#init}.
+     *
+     * @return the program
+     */
+    public Set<Clause> toClauses() {
+      Set<Clause> r = new LinkedHashSet<>(this.rules);
+      r.addAll(this.facts.toClauses());
+      return r;
+    }
+  }
+
+  public RandomProgramGenerator withEdbPredicates(int n) {
+    this.edbPreds = checkPositive("Number of EDB predicates", n);
+    return this;
+  }
+
+  public RandomProgramGenerator withIdbPredicates(int n) {
+    this.idbPreds = checkPositive("Number of IDB predicates", n);
+    return this;
+  }
+
+  public RandomProgramGenerator withStrata(int n) {
+    this.strata = checkPositive("Number of strata", n);
+    return this;
+  }
+
+  public RandomProgramGenerator withRulesPerPredicate(int n) {
+    this.rulesPerPred = checkPositive("Number of rules per predicate", n);
+    return this;
+  }
+
+  public RandomProgramGenerator withMaxBodySize(int n) {
+    this.maxBodySize = checkPositive("Maximum body size", n);
+    return this;
+  }
+
+  public RandomProgramGenerator withNegationProbability(double p) {
+    if (!(p >= 0 && p <= 1)) {
+      throw new IllegalArgumentException("Probability must be between 0 and 1, but is " + p + ".");
+    }
+    this.negationProbability = p;
+    return this;
+  }
+
+  public RandomProgramGenerator withDomainSize(int n) {
+    this.domainSize = checkPositive("Domain size", n);
+    return this;
+  }
+
+  public RandomProgramGenerator withFactsPerPredicate(int n) {
+    if (n < 0) {
+      throw new IllegalArgumentException(
+          "Number of facts per predicate must be non-negative, but is " + n + ".");
+    }
+    this.factsPerPred = n;
+    return this;
+  }
+
+  private static int checkPositive(String what, int n) {
+    if (n <= 0) {
+      throw new IllegalArgumentException(what + " must be positive, but is " + n + ".");
+    }
+    return n;
+  }
+
+  /**
+   * Generates a program.
+   *
+   * @param seed the seed for random choices
+   * @return the program
+   * @throws IllegalStateException if there are more strata than IDB predicates
+   */
+  public Program generate(long seed) {
+    if (this.strata > this.idbPreds) {
+      throw new IllegalStateException(
+          "Cannot divide " + this.idbPreds + " IDB predicates into " + this.strata + " strata.");
+    }
+    List<PredicateSym> edbs = new ArrayList<>();
+    for (int i = 0; i < this.edbPreds; ++i) {
+      edbs.add(PredicateSym.create("e" + i, 2));
+    }
+    List<PredicateSym> idbs = new ArrayList<>();
+    int[] stratum = new int[this.idbPreds];
+    for (int i = 0; i < this.idbPreds; ++i) {
+      idbs.add(PredicateSym.create("p" + i, 2));
+      stratum[i] = (int) ((long) i * this.strata / this.idbPreds);
+    }
+
+    Random r = new Random(seed);
+    Set<Clause> rules = new LinkedHashSet<>();
+    Variable x = Variable.create("X");
+    Variable y = Variable.create("Y");
+    for (int i = 0; i < this.idbPreds; ++i) {
+      // Predicates that can appear positively (resp. negatively) in the rules for p_i.
+      List<PredicateSym> positive = new ArrayList<>(edbs);
+      List<PredicateSym> negative = new ArrayList<>(edbs);
+      for (int j = 0; j < this.idbPreds; ++j) {
+        if (stratum[j] <= stratum[i]) {
+          positive.add(idbs.get(j));
+        }
+        if (stratum[j] < stratum[i]) {
+          negative.add(idbs.get(j));
+        }
+      }
+      for (int k = 0; k < this.rulesPerPred; ++k) {
+        int size = 1 + r.nextInt(this.maxBodySize);
+        List<Term> vars = new ArrayList<>();
+        vars.add(x);
+        for (int j = 1; j < size; ++j) {
+          vars.add(Variable.create("Z" + j));
+        }
+        vars.add(y);
+        List<Premise> body = new ArrayList<>();
+        for (int j = 0; j < size; ++j) {
+          // Make sure that every predicate has a rule that is grounded in the EDB.
+          List<PredicateSym> preds = k == 0 && j == 0 ? edbs : positive;
+          PredicateSym p = preds.get(r.nextInt(preds.size()));
+          body.add(PositiveAtom.create(p, new Term[] {vars.get(j), vars.get(j + 1)}));
+        }
+        if (r.nextDouble() < this.negationProbability) {
+          PredicateSym p = negative.get(r.nextInt(negative.size()));
+          Term a = vars.get(r.nextInt(vars.size()));
+          Term b = vars.get(r.nextInt(vars.size()));
+          body.add(new NegatedAtom(p, new Term[] {a, b}));
+        }
+        rules.add(new Clause(PositiveAtom.create(idbs.get(i), new Term[] {x, y}), body));
+      }
+    }
+
+    int domain = this.domainSize;
+    int facts = this.factsPerPred;
+    FactGenerator edb =
+        () -> {
+          Random fr = new Random(seed);
+          return IntStream.range(0, edbs.size() * facts)
+              .mapToObj(
+                  i ->
+                      Generators.fact(
+                          edbs.get(i / facts),
+                          Constant.create("c" + fr.nextInt(domain)),
+                          Constant.create("c" + fr.nextInt(domain))));
+        };
+    return new Program(rules, edb, idbs);
+  }
+}
@@ -0,0 +1,71 @@
+package edu.harvard.seas.pl.abcdatalog.workload;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Samples integers in [0, n) such that the probability of i is proportional to 1 / (i + 1)^s. An
+ * exponent of 0 yields the uniform distribution; larger exponents concentrate more of the mass on
+ * the smallest integers.
+ */
+final class ZipfSampler {
+  private final double[] cdf;
+
+  ZipfSampler(int n, double s) {
+    if (n <= 0) {
+      throw new IllegalArgumentException("Sampling range must be non-empty, but is " + n + ".");
+    }
+    if (s < 0) {
+      throw new IllegalArgumentException("Exponent must be non-negative, but is " + s + ".");
+    }
+    this.cdf = new double[n];
+    double sum = 0;
+    for (int i = 0; i < n; ++i) {
+      sum += Math.pow(i + 1, -s);
+      this.cdf[i] = sum;
+    }
+    for (int i = 0; i < n; ++i) {
+      this.cdf[i] /= sum;
+    }
+  }
+
+  int sample(Random random) {
+    int i = Arrays.binarySearch(this.cdf, random.nextDouble());
+    i = i >= 0 ? i : -i - 1;
+    // Guard against rounding leaving the last entry slightly below 1.
+    return Math.min(i, this.cdf.length - 1);
+  }
+}
@@ -0,0 +1,174 @@
+package edu.harvard.seas.pl.abcdatalog.engine;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.harvard.seas.pl.abcdatalog.ast.Clause;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidationException;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.sequential.SemiNaiveEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.topdown.IterativeQsqEngine;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+@RunWith(Suite.class)
+@Suite.SuiteClasses({
+  CachingDatalogEngineTest.MyCoreTests.class,
+  CachingDatalogEngineTest.MyTinyCacheCoreTests.class,
+  CachingDatalogEngineTest.MyConjunctiveQueryTests.class,
+  CachingDatalogEngineTest.MyCachingTests.class
+})
+public class CachingDatalogEngineTest {
+  public static class MyCoreTests extends CoreTests {
+
+    public MyCoreTests() {
+      super(() -> new CachingDatalogEngine(SemiNaiveEngine.newEngine(), Long.MAX_VALUE));
+    }
+  }
+
+  public static class MyTinyCacheCoreTests extends CoreTests {
+
+    public MyTinyCacheCoreTests() {
+      super(() -> new CachingDatalogEngine(new IterativeQsqEngine(), 2));
+    }
+  }
+
+  public static class MyConjunctiveQueryTests extends ConjunctiveQueryTests {
+
+    public MyConjunctiveQueryTests() {
+      super(() -> new CachingDatalogEngine(SemiNaiveEngine.newEngine(), Long.MAX_VALUE));
+    }
+  }
+
+  public static class MyCachingTests extends AbstractTests {
+
+    public MyCachingTests() {
+      super(SemiNaiveEngine::newEngine);
+    }
+
+    /** An engine that counts the queries made to it. */
+    private static class CountingEngine implements DatalogEngine {
+      private final DatalogEngine engine = SemiNaiveEngine.newEngine();
+
+      private int count = 0;
+
+      @Override
+      public void init(Set<Clause> program) throws DatalogValidationException {
+        engine.init(program);
+      }
+
+      @Override
+      public Set<PositiveAtom> query(PositiveAtom q) {
+        ++count;
+        return engine.query(q);
+      }
+    }
+
+    private static final String program =
+        "edge(a,b). edge(b,c). edge(c,a). edge(c,c). tc(X,Y) :- edge(X,Y)."
+            + "tc(X,Y) :- edge(X,Z), tc(Z,Y).";
+
+    private CountingEngine counter;
+
+    private CachingDatalogEngine initCachingEngine(long maxFacts) {
+      counter = new CountingEngine();
+      CachingDatalogEngine engine = new CachingDatalogEngine(counter, maxFacts);
+      try {
+        engine.init(parseCode(program));
+      } catch (DatalogValidationException e) {
+        throw new AssertionError(e);
+      }
+      return engine;
+    }
+
+    @Test
+    public void testRepeatedQueries() {
+      CachingDatalogEngine engine = initCachingEngine(Long.MAX_VALUE);
+      assertEquals(3, engine.query(parseQuery("tc(a,X)?")).size());
+      assertEquals(3, engine.query(parseQuery("tc(a,Y)?")).size());
+      assertEquals(1, counter.count);
+      assertEquals(3, engine.getCachedFactCount());
+    }
+
+    @Test
+    public void testSubsumedQueries() {
+      CachingDatalogEngine engine = initCachingEngine(Long.MAX_VALUE);
+      assertEquals(9, engine.query(parseQuery("tc(X,Y)?")).size());
+      Set<PositiveAtom> rs = engine.query(parseQuery("tc(c,X)?"));
+      assertEquals(3, rs.size());
+      assertTrue(rs.containsAll(parseFacts("tc(c,a). tc(c,b). tc(c,c).")));
+      rs = engine.query(parseQuery("tc(X,X)?"));
+      assertEquals(3, rs.size());
+      assertEquals(1, engine.query(parseQuery("tc(c,c)?")).size());
+      assertEquals(1, counter.count);
+
+      // A query with a repeated variable does not subsume one without.
+      engine.clear();
+      assertEquals(3, engine.query(parseQuery("tc(X,X)?")).size());
+      assertEquals(3, engine.query(parseQuery("tc(b,X)?")).size());
+      assertEquals(3, counter.count);
+    }
+
+    @Test
+    public void testEviction() {
+      CachingDatalogEngine engine = initCachingEngine(4);
+      // Too large to be cached.
+      engine.query(parseQuery("tc(X,Y)?"));
+      assertEquals(0, engine.getCachedFactCount());
+
+      engine.query(parseQuery("edge(a,X)?"));
+      engine.query(parseQuery("edge(b,X)?"));
+      engine.query(parseQuery("edge(c,X)?"));
+      assertEquals(4, counter.count);
+      assertEquals(4, engine.getCachedFactCount());
+
+      // Using the result for edge(a,X) leaves those for edge(b,X) and
+      // edge(c,X) as the least recently used, so they are evicted.
+      engine.query(parseQuery("edge(a,X)?"));
+      assertEquals(4, counter.count);
+      engine.query(parseQuery("tc(a,X)?"));
+      assertEquals(5, counter.count);
+      assertEquals(4, engine.getCachedFactCount());
+      engine.query(parseQuery("edge(a,X)?"));
+      engine.query(parseQuery("tc(a,X)?"));
+      assertEquals(5, counter.count);
+      assertEquals(2, engine.query(parseQuery("edge(c,X)?")).size());
+      assertEquals(6, counter.count);
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package edu.harvard.seas.pl.abcdatalog.engine;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidationException;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.sequential.SemiNaiveEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.topdown.ConcurrentIterativeQsqEngine;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+@RunWith(Suite.class)
+@Suite.SuiteClasses({
+  ConcurrentIterativeQsqEngineTest.MyCoreTests.class,
+  ConcurrentIterativeQsqEngineTest.MyConjunctiveQueryTests.class,
+  ConcurrentIterativeQsqEngineTest.MySingleThreadCoreTests.class,
+  ConcurrentIterativeQsqEngineTest.MySingleThreadConjunctiveQueryTests.class,
+  ConcurrentIterativeQsqEngineTest.MyFourThreadCoreTests.class,
+  ConcurrentIterativeQsqEngineTest.MyFourThreadConjunctiveQueryTests.class,
+  ConcurrentIterativeQsqEngineTest.MyLargeRecursiveWorkloadTests.class
+})
+public class ConcurrentIterativeQsqEngineTest {
+  public static class MyCoreTests extends CoreTests {
+
+    public MyCoreTests() {
+      super(ConcurrentIterativeQsqEngine::new);
+    }
+  }
+
+  public static class MyConjunctiveQueryTests extends ConjunctiveQueryTests {
+
+    public MyConjunctiveQueryTests() {
+      super(ConcurrentIterativeQsqEngine::new);
+    }
+  }
+
+  public static class MySingleThreadCoreTests extends CoreTests {
+
+    public MySingleThreadCoreTests() {
+      super(() -> new ConcurrentIterativeQsqEngine(1));
+    }
+  }
+
+  public static class MySingleThreadConjunctiveQueryTests extends ConjunctiveQueryTests {
+
+    public MySingleThreadConjunctiveQueryTests() {
+      super(() -> new ConcurrentIterativeQsqEngine(1));
+    }
+  }
+
+  public static class MyFourThreadCoreTests extends CoreTests {
+
+    public MyFourThreadCoreTests() {
+      super(() -> new ConcurrentIterativeQsqEngine(4));
+    }
+  }
+
+  public static class MyFourThreadConjunctiveQueryTests extends ConjunctiveQueryTests {
+
+    public MyFourThreadConjunctiveQueryTests() {
+      super(() -> new ConcurrentIterativeQsqEngine(4));
+    }
+  }
+
+  /**
+   * Evaluates recursive programs with enough independent rules that each round of evaluation has
+   * many tasks, so that the pool runs several of them at once.
+   */
+  public static class MyLargeRecursiveWorkloadTests extends AbstractTests {
+    private static final int NUM_GRAPHS = 8;
+
+    private static final int CHAIN_LENGTH = 60;
+
+    public MyLargeRecursiveWorkloadTests() {
+      super(() -> new ConcurrentIterativeQsqEngine(4));
+    }
+
+    /**
+     * Returns a program with a separate transitive closure over each of several chains, some of
+     * which are closed into cycles, and a predicate that collects all of them.
+     */
+    private static String program() {
+      StringBuilder sb = new StringBuilder();
+      for (int g = 0; g < NUM_GRAPHS; ++g) {
+        for (int i = 0; i < CHAIN_LENGTH; ++i) {
+          sb.append("e").append(g).append("(n").append(i).append(",n").append(i + 1).append(").");
+        }
+        if (g % 2 == 1) {
+          sb.append("e").append(g).append("(n").append(CHAIN_LENGTH).append(",n0).");
+        }
+        sb.append("tc").append(g).append("(X,Y) :- e").append(g).append("(X,Y).");
+        sb.append("tc").append(g).append("(X,Y) :- tc").append(g);
+        sb.append("(X,Z), e").append(g).append("(Z,Y).");
+        sb.append("all(X,Y) :- tc").append(g).append("(X,Y).");
+      }
+      return sb.toString();
+    }
+
+    private static Set<Thread> workerThreads() {
+      Set<Thread> workers = new HashSet<>();
+      for (Thread t : Thread.getAllStackTraces().keySet()) {
+        if (t.getName().matches("ForkJoinPool-\\d+-worker-\\d+")) {
+          workers.add(t);
+        }
+      }
+      return workers;
+    }
+
+    @Test
+    public void testManyIndependentClosures()
+        throws DatalogValidationException, InterruptedException {
+      String program = program();
+      DatalogEngine ref = SemiNaiveEngine.newEngine();
+      ref.init(parseCode(program));
+
+      ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+      Set<Thread> before = workerThreads();
+      long startedBefore = threads.getTotalStartedThreadCount();
+      DatalogEngine engine = initEngine(program);
+      for (String q : new String[] {"all(X,Y)?", "all(n0,Y)?", "tc3(X,n0)?", "tc4(X,X)?"}) {
+        PositiveAtom query = parseQuery(q);
+        assertEquals(ref.query(query), engine.query(query));
+      }
+      long started = threads.getTotalStartedThreadCount() - startedBefore;
+      assertTrue(
+          "expected several pool threads, but only " + started + " were started", started > 1);
+
+      // Each query shuts its pool down, so its threads exit once they are idle.
+      long deadline = System.currentTimeMillis() + 10000;
+      while (true) {
+        Set<Thread> leftover = workerThreads();
+        leftover.removeAll(before);
+        if (leftover.isEmpty()) {
+          break;
+        }
+        assertTrue(
+            "pool threads are still running: " + leftover, System.currentTimeMillis() < deadline);
+        Thread.sleep(10);
+      }
+    }
+  }
+}
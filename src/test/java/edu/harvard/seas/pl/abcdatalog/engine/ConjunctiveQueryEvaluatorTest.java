@@ -0,0 +1,148 @@
+package edu.harvard.seas.pl.abcdatalog.engine;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import edu.harvard.seas.pl.abcdatalog.ast.Variable;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.FactIndexer;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.FactIndexerFactory;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.IndexableFactCollection;
+import edu.harvard.seas.pl.abcdatalog.util.substitution.ConstOnlySubstitution;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+public class ConjunctiveQueryEvaluatorTest {
+  private static final PredicateSym P = PredicateSym.create("p", 2);
+  private static final PredicateSym Q = PredicateSym.create("q", 2);
+  private static final int N = 20 * ConjunctiveQueryEvaluator.ESTIMATE_LIMIT;
+
+  /** A view of a fact collection that counts the facts that are read from it. */
+  private static class CountingFacts implements IndexableFactCollection {
+    private final IndexableFactCollection facts;
+    private int read;
+
+    CountingFacts(IndexableFactCollection facts) {
+      this.facts = facts;
+    }
+
+    private Iterable<PositiveAtom> count(Iterable<PositiveAtom> it) {
+      return () -> {
+        Iterator<PositiveAtom> iter = it.iterator();
+        return new Iterator<PositiveAtom>() {
+          @Override
+          public boolean hasNext() {
+            return iter.hasNext();
+          }
+
+          @Override
+          public PositiveAtom next() {
+            ++read;
+            return iter.next();
+          }
+        };
+      };
+    }
+
+    @Override
+    public Iterable<PositiveAtom> indexInto(PositiveAtom atom) {
+      return count(facts.indexInto(atom));
+    }
+
+    @Override
+    public Iterable<PositiveAtom> indexInto(PositiveAtom atom, ConstOnlySubstitution subst) {
+      return count(facts.indexInto(atom, subst));
+    }
+
+    @Override
+    public Iterable<PositiveAtom> indexInto(PredicateSym pred) {
+      return count(facts.indexInto(pred));
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return facts.isEmpty();
+    }
+
+    @Override
+    public Set<PredicateSym> getPreds() {
+      return facts.getPreds();
+    }
+  }
+
+  private static PositiveAtom atom(PredicateSym pred, Term... args) {
+    return PositiveAtom.create(pred, args);
+  }
+
+  private static CountingFacts chain() {
+    FactIndexer facts = FactIndexerFactory.createConcurrentQueueFactIndexer();
+    facts.add(atom(P, Constant.create("a"), Constant.create("n0")));
+    for (int i = 0; i < N; ++i) {
+      facts.add(atom(Q, Constant.create("n" + i), Constant.create("n" + (i + 1))));
+    }
+    return new CountingFacts(facts);
+  }
+
+  @Test
+  public void testPlanningDoesNotScanRelations() {
+    CountingFacts facts = chain();
+    Variable x = Variable.create("X");
+    Variable y = Variable.create("Y");
+    List<PositiveAtom> query = List.of(atom(P, Constant.create("a"), x), atom(Q, x, y));
+    Set<ConstOnlySubstitution> r = ConjunctiveQueryEvaluator.query(facts, query);
+    assertEquals(1, r.size());
+    ConstOnlySubstitution s = r.iterator().next();
+    assertEquals(Constant.create("n1"), s.get(y));
+    assertTrue(
+        "read " + facts.read + " facts",
+        facts.read <= 2 * ConjunctiveQueryEvaluator.ESTIMATE_LIMIT);
+  }
+
+  @Test
+  public void testLargeJoinIsExact() {
+    CountingFacts facts = chain();
+    Variable x = Variable.create("X");
+    Variable y = Variable.create("Y");
+    Variable z = Variable.create("Z");
+    List<PositiveAtom> query = List.of(atom(Q, x, y), atom(Q, y, z));
+    assertEquals(N - 1, ConjunctiveQueryEvaluator.query(facts, query).size());
+  }
+}
@@ -33,6 +33,7 @@ package edu.harvard.seas.pl.abcdatalog.engine;
  * #L%
  */
 
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -48,6 +49,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import org.junit.Test;
 
 public abstract class ConjunctiveQueryTests extends AbstractTests {
@@ -82,6 +84,14 @@ public abstract class ConjunctiveQueryTests extends AbstractTests {
     for (ConstOnlySubstitution subst : s) {
       r.add(SubstitutionUtils.applyToPositiveAtoms(subst, q));
     }
+    List<List<PositiveAtom>> streamed =
+        engine
+            .queryStream(q)
+            .map(subst -> SubstitutionUtils.applyToPositiveAtoms(subst, q))
+            .collect(Collectors.toList());
+    if (streamed.size() != r.size() || !r.containsAll(streamed)) {
+      return false;
+    }
     Set<List<PositiveAtom>> e = new HashSet<>();
     for (String x : expected) {
       e.add(parseConjunctiveQuery(x));
@@ -140,4 +150,72 @@ public abstract class ConjunctiveQueryTests extends AbstractTests {
     };
     assertTrue(testConjunctiveQuery(program, query, expected));
   }
+
+  @Test
+  public void queryWithConstantsAndRepeatedVariables() {
+    String program = "e(a,a). e(a,b). e(b,b). e(b,c). f(b,c,a). f(b,b,b). f(c,c,c).";
+    String query = "e(X,X). f(X,Y,Z).";
+    String[] expected = {"e(b,b). f(b,c,a).", "e(b,b). f(b,b,b)."};
+    assertTrue(testConjunctiveQuery(program, query, expected));
+    query = "e(a,Y). e(Y,Z). f(Z,Z,W).";
+    expected =
+        new String[] {
+          "e(a,a). e(a,b). f(b,b,b).", "e(a,b). e(b,b). f(b,b,b).", "e(a,b). e(b,c). f(c,c,c)."
+        };
+    assertTrue(testConjunctiveQuery(program, query, expected));
+  }
+
+  @Test
+  public void disconnectedQuery() {
+    String program = "e(a,b). e(b,c). e(c,b). g(d). g(e).";
+    String query = "e(X,b). g(Y).";
+    String[] expected = {"e(a,b). g(d).", "e(a,b). g(e).", "e(c,b). g(d).", "e(c,b). g(e)."};
+    assertTrue(testConjunctiveQuery(program, query, expected));
+  }
+
+  @Test
+  public void conjunctiveQueryBatch() {
+    String program = "p(a,b). p(b,c). p(c,a). q(X,Y) :- p(X,Z), p(Z,Y).";
+    DatalogEngine engine = initEngine(program);
+    List<List<PositiveAtom>> queries = new ArrayList<>();
+    for (String q :
+        new String[] {"q(X,Y). q(Y,Z).", "q(X,Y). q(Y,X).", "p(a,X). q(X,Y).", "q(X,Y). q(Y,Z)."}) {
+      queries.add(parseConjunctiveQuery(q));
+    }
+    List<Set<ConstOnlySubstitution>> answers = engine.queryConjunctiveBatch(queries);
+    assertTrue(answers.size() == 4);
+    assertNotSame(answers.get(0), answers.get(3));
+    for (int i = 0; i < queries.size(); ++i) {
+      List<PositiveAtom> q = queries.get(i);
+      Set<List<PositiveAtom>> expected = new HashSet<>();
+      for (ConstOnlySubstitution subst : engine.query(q)) {
+        expected.add(SubstitutionUtils.applyToPositiveAtoms(subst, q));
+      }
+      Set<List<PositiveAtom>> actual = new HashSet<>();
+      for (ConstOnlySubstitution subst : answers.get(i)) {
+        actual.add(SubstitutionUtils.applyToPositiveAtoms(subst, q));
+      }
+      assertTrue(expected.equals(actual));
+    }
+  }
+
+  @Test
+  public void streamedQueryWithLimit() {
+    String program = "p(a,b). p(b,c). p(c,a). q(X,Y) :- p(X,Z), p(Z,Y).";
+    DatalogEngine engine = initEngine(program);
+    List<PositiveAtom> q = parseConjunctiveQuery("q(X,Y). p(Y,Z).");
+    Set<List<PositiveAtom>> all = new HashSet<>();
+    for (ConstOnlySubstitution subst : engine.query(q)) {
+      all.add(SubstitutionUtils.applyToPositiveAtoms(subst, q));
+    }
+    List<List<PositiveAtom>> some =
+        engine
+            .queryStream(q)
+            .limit(2)
+            .map(subst -> SubstitutionUtils.applyToPositiveAtoms(subst, q))
+            .collect(Collectors.toList());
+    assertTrue(all.size() == 3 && some.size() == 2 && all.containsAll(some));
+    Set<PositiveAtom> facts = engine.query(parseQuery("p(X,Y)?"));
+    assertTrue(engine.queryStream(parseQuery("p(X,Y)?")).limit(1).allMatch(facts::contains));
+  }
 }
@@ -34,10 +34,15 @@ package edu.harvard.seas.pl.abcdatalog.engine;
  */
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertTrue;
 
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
 import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.Variable;
 import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidationException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.function.Supplier;
 import org.junit.Test;
@@ -377,6 +382,48 @@ public abstract class CoreTests extends AbstractTests {
     assertEquals(rs.size(), 1);
   }
 
+  @Test
+  public void testSamePredicateQueriedFromDifferentCallSites() throws DatalogValidationException {
+    test(
+        "e(a,one). e(b,two). p(X,Y) :- e(X,Y). q(X) :- p(a,X). w(X) :- p(b,X)."
+            + "z(X) :- q(X), w(Y).",
+        "z(X)?",
+        "z(one).");
+  }
+
+  @Test
+  public void testMutualRecursionThroughBoundSubgoals() throws DatalogValidationException {
+    test(
+        "e(a,b). e(b,c). e(c,d). r(X,Y) :- e(X,Y). r(X,Y) :- s(X,Y). s(X,Y) :- r(X,Z), e(Z,Y).",
+        "r(a,Y)?",
+        "r(a,b). r(a,c). r(a,d).");
+  }
+
+  @Test
+  public void testIdbFactWithBoundQuery() throws DatalogValidationException {
+    test("p(a,b). p(X,Y) :- e(X,Y). e(c,d). q(Y) :- p(a,Y). r(Y) :- q(Y).", "r(Y)?", "r(b).");
+    test("p(a,b). p(X,Y) :- e(X,Y). e(c,d). q(Y) :- p(c,Y). r(Y) :- q(Y).", "r(Y)?", "r(d).");
+  }
+
+  @Test
+  public void testBoundSubgoalBeforeItsInputIsKnown() throws DatalogValidationException {
+    test(
+        "f(c). p(X,a) :- p(c,X). q(X) :- f(X). p(Y,b) :- q(X), f(Y).",
+        "p(W,X)?",
+        "p(c,b). p(b,a).");
+    test(
+        "f(c). r(Y,c) :- p(W,Y), q(c). q(Y) :- p(W,Z), f(Y). p(W,W) :- f(W).",
+        "r(X,X)?",
+        "r(c,c).");
+  }
+
+  @Test
+  public void testConstantsInIdbSubgoals() throws DatalogValidationException {
+    test("e(b,d). r(Y,Y) :- e(Y,W). p(X,a) :- r(b,X), r(X,d).", "p(b,a)?", "");
+    test("f(a). q(Y) :- p(b,Z), f(Y). r(Z,d) :- p(Z,Y), q(Y). p(X,X) :- f(X).", "r(a,Y)?", "");
+    test("f(d). q(W) :- r(W,W). r(a,c) :- f(d).", "q(W)?", "");
+  }
+
   @Test(expected = DatalogValidationException.class)
   public void testUnboundVariable1() throws DatalogValidationException {
     test("p(X,b).", "p(X,Y)?", "");
@@ -397,4 +444,68 @@ public abstract class CoreTests extends AbstractTests {
   public void testEmptyProgram() throws DatalogValidationException {
     test("", "anything?", "");
   }
+
+  @Test
+  public void testPreparedQuery() {
+    DatalogEngine e =
+        initEngine(
+            "e(a,b). e(b,c). e(c,c). e(c,d). tc(X,Y) :- e(X,Y). tc(X,Y) :- e(X,Z), tc(Z,Y).");
+    PositiveAtom q = parseQuery("tc(X,Y)?");
+    Variable x = (Variable) q.getArgs()[0];
+    PreparedQuery pq = e.prepare(q, x);
+    for (String c : new String[] {"a", "b", "c", "d", "z"}) {
+      Constant k = Constant.create(c);
+      assertEquals(e.query(parseQuery("tc(" + c + ",Y)?")), pq.execute(k));
+    }
+    PreparedQuery edb = e.prepare(parseQuery("e(X,X)?"));
+    assertEquals(parseFacts("e(c,c)."), edb.execute());
+    q = parseQuery("tc(X,Y)?");
+    pq = e.prepare(q, (Variable) q.getArgs()[1], (Variable) q.getArgs()[0]);
+    assertEquals(parseFacts("tc(a,d)."), pq.execute(Constant.create("d"), Constant.create("a")));
+    assertTrue(pq.execute(Constant.create("a"), Constant.create("d")).isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPreparedQueryWithWrongNumberOfArguments() {
+    DatalogEngine e = initEngine("e(a,b). tc(X,Y) :- e(X,Y).");
+    PositiveAtom q = parseQuery("tc(X,Y)?");
+    e.prepare(q, (Variable) q.getArgs()[0]).execute();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPreparedQueryWithUnknownParameter() {
+    DatalogEngine e = initEngine("e(a,b). tc(X,Y) :- e(X,Y).");
+    e.prepare(parseQuery("tc(X,Y)?"), Variable.create("Z"));
+  }
+
+  @Test
+  public void testQueryBatch() {
+    DatalogEngine e =
+        initEngine(
+            "e(a,b). e(b,c). e(c,c). e(c,d). tc(X,Y) :- e(X,Y). tc(X,Y) :- e(X,Z), tc(Z,Y).");
+    List<PositiveAtom> queries = new ArrayList<>();
+    for (String q :
+        new String[] {
+          "tc(a,Y)?",
+          "tc(X,d)?",
+          "tc(c,Y)?",
+          "tc(X,X)?",
+          "e(X,Y)?",
+          "tc(a,Y)?",
+          "tc(d,Y)?",
+          "tc(b,c)?",
+          "e(c,X)?",
+          "none(X)?"
+        }) {
+      queries.add(parseQuery(q));
+    }
+    List<Set<PositiveAtom>> answers = e.queryBatch(queries);
+    assertEquals(queries.size(), answers.size());
+    for (int i = 0; i < queries.size(); ++i) {
+      assertEquals(e.query(queries.get(i)), answers.get(i));
+    }
+
+    // The answers to duplicate queries are separate sets.
+    assertNotSame(answers.get(0), answers.get(5));
+  }
 }
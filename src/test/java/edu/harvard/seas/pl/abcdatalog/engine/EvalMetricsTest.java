@@ -0,0 +1,155 @@
+package edu.harvard.seas.pl.abcdatalog.engine;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import edu.harvard.seas.pl.abcdatalog.ast.Clause;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.BottomUpEngineFrame;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.CountingEvalMetrics;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.CountingEvalMetrics.RuleCounts;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.concurrent.ConcurrentBottomUpEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.concurrent.ConcurrentChunkedBottomUpEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.concurrent.ConcurrentStratifiedNegationBottomUpEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.sequential.SemiNaiveEngine;
+import edu.harvard.seas.pl.abcdatalog.parser.DatalogParser;
+import edu.harvard.seas.pl.abcdatalog.parser.DatalogTokenizer;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+import org.junit.Test;
+
+public class EvalMetricsTest {
+  private static final String TC =
+      "edge(a,b). edge(b,c). edge(c,d). edge(d,b)."
+          + "tc(X,Y) :- edge(X,Y). tc(X,Y) :- tc(X,Z), edge(Z,Y).";
+
+  private static final List<Supplier<BottomUpEngineFrame<?>>> ENGINES =
+      Arrays.asList(
+          () -> new SemiNaiveEngine(false),
+          ConcurrentBottomUpEngine::new,
+          () -> new ConcurrentChunkedBottomUpEngine(2),
+          ConcurrentStratifiedNegationBottomUpEngine::new);
+
+  private static Set<Clause> parse(String src) throws Exception {
+    return DatalogParser.parseProgram(new DatalogTokenizer(new StringReader(src)));
+  }
+
+  private static CountingEvalMetrics eval(BottomUpEngineFrame<?> engine, String src)
+      throws Exception {
+    CountingEvalMetrics metrics = new CountingEvalMetrics();
+    engine.setMetrics(metrics);
+    engine.init(parse(src));
+    return metrics;
+  }
+
+  @Test
+  public void testRuleCounts() throws Exception {
+    for (Supplier<BottomUpEngineFrame<?>> factory : ENGINES) {
+      CountingEvalMetrics metrics = eval(factory.get(), TC);
+      long newFacts = 0;
+      for (RuleCounts counts : metrics.getRuleCounts().values()) {
+        int last = counts.getRule().getBody().size() - 1;
+        // Every tuple produced by the last premise fires the rule.
+        assertEquals(counts.getProduced(last), counts.getFirings());
+        for (int i = 0; i <= last; ++i) {
+          assertTrue(counts.getProduced(i) <= counts.getProbed(i));
+        }
+        newFacts += counts.getFirings() - counts.getRedundantDerivations();
+      }
+      // a, b, c and d each reach b, c and d.
+      assertEquals(12, newFacts);
+      assertTrue(metrics.getEvaluationTime() > 0);
+    }
+  }
+
+  @Test
+  public void testRedundantDerivations() throws Exception {
+    String src = "e(a). e(b). p(c) :- e(X).";
+    for (Supplier<BottomUpEngineFrame<?>> factory : ENGINES) {
+      CountingEvalMetrics metrics = eval(factory.get(), src);
+      RuleCounts counts = metrics.getRuleCounts().values().iterator().next();
+      assertEquals(2, counts.getFirings());
+      assertEquals(1, counts.getRedundantDerivations());
+    }
+  }
+
+  @Test
+  public void testRelationSizes() throws Exception {
+    for (Supplier<BottomUpEngineFrame<?>> factory : ENGINES) {
+      CountingEvalMetrics metrics = eval(factory.get(), TC);
+      assertEquals(4, (int) metrics.getRelationSizes().get(PredicateSym.create("edge", 2)));
+      assertEquals(12, (int) metrics.getRelationSizes().get(PredicateSym.create("tc", 2)));
+    }
+  }
+
+  @Test
+  public void testRoundsAndStrata() throws Exception {
+    String src =
+        TC + "node(X) :- edge(X,_). node(X) :- edge(_,X). nottc(X) :- node(X), not tc(X,X).";
+    CountingEvalMetrics metrics = eval(new SemiNaiveEngine(false), src);
+    int strata = metrics.getStratumTimes().size();
+    assertTrue(strata >= 2);
+    assertFalse(metrics.getRounds().isEmpty());
+    int newFacts = 0;
+    for (CountingEvalMetrics.Round r : metrics.getRounds()) {
+      newFacts += r.getNewFacts();
+    }
+    // 12 tc facts, 4 node facts and nottc(a).
+    assertEquals(17, newFacts);
+
+    metrics = eval(new ConcurrentStratifiedNegationBottomUpEngine(), src);
+    assertEquals(strata, metrics.getStratumTimes().size());
+    assertTrue(metrics.getRounds().isEmpty());
+  }
+
+  @Test
+  public void testReport() throws Exception {
+    String report = eval(new SemiNaiveEngine(false), TC).report();
+    assertTrue(report.contains("tc(X, Y) :- "));
+    assertTrue(report.contains("|tc| = 12"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testSetMetricsAfterInit() throws Exception {
+    BottomUpEngineFrame<?> engine = new SemiNaiveEngine(false);
+    engine.init(parse(TC));
+    engine.setMetrics(new CountingEvalMetrics());
+  }
+}
@@ -0,0 +1,153 @@
+package edu.harvard.seas.pl.abcdatalog.engine;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.concurrent.ConcurrentBottomUpEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.concurrent.ConcurrentChunkedBottomUpEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.concurrent.ConcurrentStratifiedNegationBottomUpEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.jfr.ChunkEvent;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.jfr.PhaseEvent;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.jfr.RoundEvent;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.jfr.StratumEvent;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.sequential.SemiNaiveEngine;
+import edu.harvard.seas.pl.abcdatalog.parser.DatalogParser;
+import edu.harvard.seas.pl.abcdatalog.parser.DatalogTokenizer;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+public class JfrEventsTest {
+  private static final String PROGRAM =
+      "edge(a,b). edge(b,c). edge(c,d)."
+          + "tc(X,Y) :- edge(X,Y). tc(X,Y) :- tc(X,Z), edge(Z,Y)."
+          + "node(X) :- edge(X,_). node(X) :- edge(_,X). cyclic(X) :- node(X), tc(X,X)."
+          + "acyclic(X) :- node(X), not cyclic(X).";
+
+  private static List<RecordedEvent> record(DatalogEngine engine, String src) throws Exception {
+    Path file = Files.createTempFile("abcdatalog", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(PhaseEvent.NAME);
+      recording.enable(RoundEvent.NAME);
+      recording.enable(StratumEvent.NAME);
+      recording.enable(ChunkEvent.NAME).withoutThreshold();
+      recording.start();
+      engine.init(DatalogParser.parseProgram(new DatalogTokenizer(new StringReader(src))));
+      recording.stop();
+      recording.dump(file);
+      return RecordingFile.readAllEvents(file);
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  private static List<RecordedEvent> filter(List<RecordedEvent> events, String name) {
+    return events.stream()
+        .filter(e -> e.getEventType().getName().equals(name))
+        .collect(Collectors.toList());
+  }
+
+  private static Set<String> phases(List<RecordedEvent> events) {
+    Set<String> phases = new HashSet<>();
+    for (RecordedEvent e : filter(events, PhaseEvent.NAME)) {
+      phases.add(e.getString("phase"));
+    }
+    return phases;
+  }
+
+  @Test
+  public void testSemiNaiveEvents() throws Exception {
+    List<RecordedEvent> events = record(new SemiNaiveEngine(false), PROGRAM);
+    assertEquals(
+        Set.of(PhaseEvent.VALIDATION, PhaseEvent.ANNOTATION, PhaseEvent.EVALUATOR_CONSTRUCTION),
+        phases(events));
+    List<RecordedEvent> rounds = filter(events, RoundEvent.NAME);
+    assertFalse(rounds.isEmpty());
+    int newFacts = 0;
+    for (RecordedEvent e : rounds) {
+      newFacts += e.getInt("newFacts");
+    }
+    // 6 tc facts, 4 node facts and 4 acyclic facts.
+    assertEquals(14, newFacts);
+  }
+
+  @Test
+  public void testConcurrentEvents() throws Exception {
+    List<RecordedEvent> events =
+        record(new ConcurrentBottomUpEngine(), PROGRAM.split("acyclic")[0]);
+    assertEquals(
+        Set.of(PhaseEvent.VALIDATION, PhaseEvent.ANNOTATION, PhaseEvent.EVALUATOR_CONSTRUCTION),
+        phases(events));
+    assertTrue(filter(events, RoundEvent.NAME).isEmpty());
+  }
+
+  @Test
+  public void testStratumEvents() throws Exception {
+    List<RecordedEvent> events = record(new ConcurrentStratifiedNegationBottomUpEngine(), PROGRAM);
+    assertEquals(
+        Set.of(PhaseEvent.VALIDATION, PhaseEvent.ANNOTATION, PhaseEvent.EVALUATOR_CONSTRUCTION),
+        phases(events));
+    List<RecordedEvent> strata = filter(events, StratumEvent.NAME);
+    Set<Integer> seen = new HashSet<>();
+    for (RecordedEvent e : strata) {
+      assertTrue(seen.add(e.getInt("stratum")));
+    }
+    assertTrue(seen.size() >= 2);
+  }
+
+  @Test
+  public void testChunkEvents() throws Exception {
+    String src = PROGRAM.split("acyclic")[0];
+    List<RecordedEvent> events = record(new ConcurrentChunkedBottomUpEngine(2), src);
+    assertEquals(Set.of(PhaseEvent.VALIDATION, PhaseEvent.ANNOTATION), phases(events));
+    int facts = 0;
+    for (RecordedEvent e : filter(events, ChunkEvent.NAME)) {
+      facts += e.getInt("facts");
+    }
+    // Every fact is in exactly one chunk: 3 edge, 6 tc and 4 node facts, and the fact that the
+    // validator adds for the built-in true atom.
+    assertEquals(14, facts);
+  }
+}
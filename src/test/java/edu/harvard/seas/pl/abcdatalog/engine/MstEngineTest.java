@@ -33,12 +33,24 @@ package edu.harvard.seas.pl.abcdatalog.engine;
  * #L%
  */
 
+import static org.junit.Assert.assertEquals;
+
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.Variable;
+import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidationException;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.sequential.SemiNaiveEngine;
 import edu.harvard.seas.pl.abcdatalog.engine.topdown.MstEngine;
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
-@Suite.SuiteClasses({MstEngineTest.MyCoreTests.class, MstEngineTest.MyConjunctiveQueryTests.class})
+@Suite.SuiteClasses({
+  MstEngineTest.MyCoreTests.class,
+  MstEngineTest.MyConjunctiveQueryTests.class,
+  MstEngineTest.MyMagicProgramCacheTests.class
+})
 public class MstEngineTest {
   public static class MyCoreTests extends CoreTests {
 
@@ -53,4 +65,44 @@ public class MstEngineTest {
       super(MstEngine::new);
     }
   }
+
+  public static class MyMagicProgramCacheTests extends AbstractTests {
+    private static final String PROGRAM =
+        "e(a,b). e(b,c). e(c,d). e(d,b). e(x,y)."
+            + "tc(X,Y) :- e(X,Y). tc(X,Y) :- e(X,Z), tc(Z,Y).";
+
+    public MyMagicProgramCacheTests() {
+      super(MstEngine::new);
+    }
+
+    @Test
+    public void testSameAdornmentReusesProgram() throws DatalogValidationException {
+      MstEngine engine = (MstEngine) initEngine(PROGRAM);
+      DatalogEngine reference = new SemiNaiveEngine(false);
+      reference.init(parseCode(PROGRAM));
+      for (String c : new String[] {"a", "b", "d", "x", "y", "z", "a"}) {
+        PositiveAtom q = parseQuery("tc(" + c + ",Y)?");
+        assertEquals(reference.query(q), engine.query(q));
+        assertEquals(1, engine.getCachedProgramCount());
+      }
+
+      // Binding the other argument is a different pattern.
+      PositiveAtom q = parseQuery("tc(X,b)?");
+      assertEquals(reference.query(q), engine.query(q));
+      assertEquals(2, engine.getCachedProgramCount());
+      q = parseQuery("tc(X,y)?");
+      assertEquals(reference.query(q), engine.query(q));
+      assertEquals(2, engine.getCachedProgramCount());
+    }
+
+    @Test
+    public void testPreparedQueryReusesProgram() {
+      MstEngine engine = (MstEngine) initEngine(PROGRAM);
+      engine.query(parseQuery("tc(a,Y)?"));
+      PreparedQuery prepared = engine.prepare(parseQuery("tc(X,Y)?"), Variable.create("X"));
+      assertEquals(engine.query(parseQuery("tc(c,Y)?")), prepared.execute(Constant.create("c")));
+      assertEquals(engine.query(parseQuery("tc(x,Y)?")), prepared.execute(Constant.create("x")));
+      assertEquals(1, engine.getCachedProgramCount());
+    }
+  }
 }
@@ -33,7 +33,24 @@ package edu.harvard.seas.pl.abcdatalog.engine;
  * #L%
  */
 
+import static org.junit.Assert.assertEquals;
+
+import edu.harvard.seas.pl.abcdatalog.ast.Clause;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidationException;
 import edu.harvard.seas.pl.abcdatalog.engine.bottomup.sequential.SemiNaiveEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.sequential.SemiNaiveProgram;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.ConcurrentFactIndexer;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.FactIndexerFactory;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.IndexableFactCollection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
@@ -42,7 +59,11 @@ import org.junit.runners.Suite;
   SemiNaiveEngineTest.MyCoreTests.class,
   SemiNaiveEngineTest.MyUnificationTests.class,
   SemiNaiveEngineTest.MyNegationTests.class,
-  SemiNaiveEngineTest.MyConjunctiveQueryTests.class
+  SemiNaiveEngineTest.MyConjunctiveQueryTests.class,
+  SemiNaiveEngineTest.MyCompiledCoreTests.class,
+  SemiNaiveEngineTest.MyCompiledUnificationTests.class,
+  SemiNaiveEngineTest.MyCompiledNegationTests.class,
+  SemiNaiveEngineTest.MyCompiledProgramReuseTests.class
 })
 public class SemiNaiveEngineTest {
   public static class MyCoreTests extends CoreTests {
@@ -72,4 +93,138 @@ public class SemiNaiveEngineTest {
       super(() -> new SemiNaiveEngine(true));
     }
   }
+
+  /**
+   * Evaluates programs by compiling their rules and supplying their ground facts as a separate EDB.
+   */
+  private static class CompiledProgramEngine implements DatalogEngine {
+    private final SemiNaiveEngine engine = new SemiNaiveEngine(true);
+
+    @Override
+    public void init(Set<Clause> program) throws DatalogValidationException {
+      Set<Clause> rules = new HashSet<>();
+      ConcurrentFactIndexer<Set<PositiveAtom>> edb =
+          FactIndexerFactory.createConcurrentSetFactIndexer();
+      for (Clause cl : program) {
+        if (cl.getBody().isEmpty()
+            && cl.getHead() instanceof PositiveAtom
+            && ((PositiveAtom) cl.getHead()).isGround()) {
+          edb.add((PositiveAtom) cl.getHead());
+        } else {
+          rules.add(cl);
+        }
+      }
+      engine.init(SemiNaiveProgram.compile(rules), edb);
+    }
+
+    @Override
+    public Set<PositiveAtom> query(PositiveAtom q) {
+      return engine.query(q);
+    }
+  }
+
+  public static class MyCompiledCoreTests extends CoreTests {
+
+    public MyCompiledCoreTests() {
+      super(() -> new CompiledProgramEngine());
+    }
+  }
+
+  public static class MyCompiledUnificationTests extends ExplicitUnificationTests {
+
+    public MyCompiledUnificationTests() {
+      super(() -> new CompiledProgramEngine());
+    }
+  }
+
+  public static class MyCompiledNegationTests extends StratifiedNegationTests {
+
+    public MyCompiledNegationTests() {
+      super(() -> new CompiledProgramEngine());
+    }
+  }
+
+  /** Evaluates a single compiled program against many EDBs. */
+  public static class MyCompiledProgramReuseTests extends AbstractTests {
+    private static final String RULES =
+        "tc(X,Y) :- e(X,Y). tc(X,Y) :- e(X,Z), tc(Z,Y)."
+            + "node(X) :- e(X,_). node(X) :- e(_,X). acyclic(X) :- node(X), not tc(X,X)."
+            + "e(root,n0).";
+
+    private static final String[] QUERIES = {"tc(X,Y)?", "acyclic(X)?", "e(X,Y)?"};
+
+    public MyCompiledProgramReuseTests() {
+      super(() -> new SemiNaiveEngine(false));
+    }
+
+    /** Returns the facts of a chain of n edges, closed into a cycle if n is odd. */
+    private static String edges(int n) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < n; ++i) {
+        sb.append("e(n").append(i).append(",n").append(i + 1).append(").");
+      }
+      if (n % 2 == 1) {
+        sb.append("e(n").append(n).append(",n0).");
+      }
+      return sb.toString();
+    }
+
+    private IndexableFactCollection edb(int n) {
+      ConcurrentFactIndexer<Set<PositiveAtom>> edb =
+          FactIndexerFactory.createConcurrentSetFactIndexer();
+      edb.addAll(parseFacts(edges(n)));
+      return edb;
+    }
+
+    private List<Set<PositiveAtom>> answers(DatalogEngine engine) {
+      List<Set<PositiveAtom>> r = new ArrayList<>();
+      for (String q : QUERIES) {
+        r.add(engine.query(parseQuery(q)));
+      }
+      return r;
+    }
+
+    /** Returns the answers of an engine that is initialized with the rules and EDB together. */
+    private List<Set<PositiveAtom>> expected(int n) {
+      return answers(initEngine(RULES + edges(n)));
+    }
+
+    private List<Set<PositiveAtom>> evaluate(
+        SemiNaiveProgram program, IndexableFactCollection edb) {
+      SemiNaiveEngine engine = new SemiNaiveEngine(false);
+      engine.init(program, edb);
+      return answers(engine);
+    }
+
+    @Test
+    public void testSequentialEvaluations() throws DatalogValidationException {
+      SemiNaiveProgram program = SemiNaiveProgram.compile(parseCode(RULES));
+      for (int n = 0; n < 12; ++n) {
+        assertEquals(expected(n), evaluate(program, edb(n)));
+      }
+      // The program is unaffected by the evaluations.
+      assertEquals(expected(3), evaluate(program, edb(3)));
+    }
+
+    @Test
+    public void testConcurrentEvaluations() throws Exception {
+      SemiNaiveProgram program = SemiNaiveProgram.compile(parseCode(RULES));
+      IndexableFactCollection shared = edb(9);
+      ExecutorService exec = Executors.newFixedThreadPool(8);
+      try {
+        List<Future<List<Set<PositiveAtom>>>> results = new ArrayList<>();
+        for (int i = 0; i < 64; ++i) {
+          int n = i % 16;
+          // Every other evaluation shares a single EDB collection.
+          IndexableFactCollection edb = i % 2 == 0 ? edb(n) : shared;
+          results.add(exec.submit(() -> evaluate(program, edb)));
+        }
+        for (int i = 0; i < results.size(); ++i) {
+          assertEquals(expected(i % 2 == 0 ? i % 16 : 9), results.get(i).get());
+        }
+      } finally {
+        exec.shutdown();
+      }
+    }
+  }
 }
@@ -0,0 +1,161 @@
+package edu.harvard.seas.pl.abcdatalog.engine;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.engine.topdown.TabledQsqEngine;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+@RunWith(Suite.class)
+@Suite.SuiteClasses({
+  TabledQsqEngineTest.MyCoreTests.class,
+  TabledQsqEngineTest.MyBoundedCoreTests.class,
+  TabledQsqEngineTest.MyConjunctiveQueryTests.class,
+  TabledQsqEngineTest.MyTablingTests.class
+})
+public class TabledQsqEngineTest {
+  public static class MyCoreTests extends CoreTests {
+
+    public MyCoreTests() {
+      super(TabledQsqEngine::new);
+    }
+  }
+
+  public static class MyBoundedCoreTests extends CoreTests {
+
+    public MyBoundedCoreTests() {
+      super(() -> new TabledQsqEngine(1, 4));
+    }
+  }
+
+  public static class MyConjunctiveQueryTests extends ConjunctiveQueryTests {
+
+    public MyConjunctiveQueryTests() {
+      super(TabledQsqEngine::new);
+    }
+  }
+
+  public static class MyTablingTests extends AbstractTests {
+
+    public MyTablingTests() {
+      super(TabledQsqEngine::new);
+    }
+
+    private static final String tc =
+        "edge(a,b). edge(b,c). edge(c,d). tc(X,Y) :- edge(X,Y). tc(X,Y) :- edge(X,Z), tc(Z,Y)."
+            + "other(X) :- node(X). node(a).";
+
+    @Test
+    public void testRepeatedAndOverlappingQueries() {
+      TabledQsqEngine engine = (TabledQsqEngine) initEngine(tc);
+      Set<PositiveAtom> rs = engine.query(parseQuery("tc(b,X)?"));
+      assertEquals(2, rs.size());
+      assertTrue(rs.containsAll(parseFacts("tc(b,c). tc(b,d).")));
+      assertEquals(1, engine.getNumberOfTables());
+
+      // Reuses the table for tc with its first argument bound.
+      rs = engine.query(parseQuery("tc(a,X)?"));
+      assertEquals(3, rs.size());
+      assertTrue(rs.containsAll(parseFacts("tc(a,b). tc(a,c). tc(a,d).")));
+      rs = engine.query(parseQuery("tc(b,X)?"));
+      assertEquals(2, rs.size());
+      assertEquals(1, engine.getNumberOfTables());
+
+      rs = engine.query(parseQuery("tc(X,d)?"));
+      assertEquals(3, rs.size());
+      assertTrue(rs.containsAll(parseFacts("tc(a,d). tc(b,d). tc(c,d).")));
+      // Tables for tc with its second argument bound and with both arguments bound.
+      assertEquals(3, engine.getNumberOfTables());
+    }
+
+    @Test
+    public void testEdbUpdatesInvalidateDependentTables() {
+      TabledQsqEngine engine = (TabledQsqEngine) initEngine(tc);
+      assertEquals(3, engine.query(parseQuery("tc(a,X)?")).size());
+      assertEquals(1, engine.query(parseQuery("other(X)?")).size());
+      assertEquals(2, engine.getNumberOfTables());
+
+      engine.addFacts(parseFacts("edge(d,e)."));
+      assertEquals(1, engine.getNumberOfTables());
+      Set<PositiveAtom> rs = engine.query(parseQuery("tc(a,X)?"));
+      assertEquals(4, rs.size());
+      assertTrue(rs.contains(parseQuery("tc(a,e)?")));
+
+      engine.removeFacts(parseFacts("edge(b,c)."));
+      rs = engine.query(parseQuery("tc(a,X)?"));
+      assertEquals(1, rs.size());
+      assertTrue(rs.containsAll(parseFacts("tc(a,b).")));
+      assertEquals(3, engine.query(parseQuery("edge(X,Y)?")).size());
+
+      engine.addFacts(parseFacts("node(b)."));
+      assertEquals(2, engine.query(parseQuery("other(X)?")).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCannotAddIdbFacts() {
+      TabledQsqEngine engine = (TabledQsqEngine) initEngine(tc);
+      engine.addFacts(parseFacts("tc(d,a)."));
+    }
+
+    @Test
+    public void testEviction() {
+      TabledQsqEngine engine = new TabledQsqEngine(2, Long.MAX_VALUE);
+      try {
+        engine.init(parseCode(tc));
+      } catch (Exception e) {
+        throw new AssertionError(e);
+      }
+      engine.query(parseQuery("tc(a,X)?"));
+      engine.query(parseQuery("tc(X,d)?"));
+      engine.query(parseQuery("other(X)?"));
+      assertEquals(2, engine.getNumberOfTables());
+      assertEquals(3, engine.query(parseQuery("tc(a,X)?")).size());
+
+      engine = new TabledQsqEngine(Integer.MAX_VALUE, 0);
+      try {
+        engine.init(parseCode(tc));
+      } catch (Exception e) {
+        throw new AssertionError(e);
+      }
+      assertEquals(3, engine.query(parseQuery("tc(a,X)?")).size());
+      assertEquals(0, engine.getNumberOfTables());
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package edu.harvard.seas.pl.abcdatalog.engine.bottomup;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.Premise;
+import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidator;
+import edu.harvard.seas.pl.abcdatalog.ast.validation.UnstratifiedProgram;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.SemiNaiveClauseAnnotator.SemiNaiveClause;
+import edu.harvard.seas.pl.abcdatalog.parser.DatalogParser;
+import edu.harvard.seas.pl.abcdatalog.parser.DatalogTokenizer;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+public class SemiNaiveClauseAnnotatorTest {
+
+  private static Set<SemiNaiveClause> annotate(String src) throws Exception {
+    UnstratifiedProgram prog =
+        (new DatalogValidator())
+            .validate(DatalogParser.parseProgram(new DatalogTokenizer(new StringReader(src))));
+    return new SemiNaiveClauseAnnotator(prog.getIdbPredicateSyms()).annotate(prog.getRules());
+  }
+
+  private static List<String> predOrder(SemiNaiveClause cl) {
+    List<String> preds = new ArrayList<>();
+    for (Premise p : cl.getBody()) {
+      PositiveAtom atom = ((AnnotatedAtom) p).asUnannotatedAtom();
+      preds.add(atom.getPred().getSym());
+    }
+    return preds;
+  }
+
+  @Test
+  public void testPartiallyBoundAtomComesFirst() throws Exception {
+    // Once e(X) has bound X, g(X,Y) has half of its arguments bound and f(Y,Z) has none, so g
+    // should be joined before f even though f comes first in the original body.
+    Set<SemiNaiveClause> rules = annotate("p(X,Z) :- e(X), f(Y,Z), g(X,Y).");
+    assertEquals(1, rules.size());
+    assertEquals(List.of("e", "g", "f"), predOrder(rules.iterator().next()));
+  }
+
+  @Test
+  public void testMoreBoundArgumentsScoreHigher() throws Exception {
+    // After e(X,Y), h(X,Y,W) has two of three arguments bound and g(X,V,W) only one.
+    Set<SemiNaiveClause> rules = annotate("p(X) :- e(X,Y), g(X,V,W), h(X,Y,W).");
+    assertEquals(List.of("e", "h", "g"), predOrder(rules.iterator().next()));
+  }
+}
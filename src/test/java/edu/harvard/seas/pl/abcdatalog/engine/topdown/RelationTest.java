@@ -0,0 +1,174 @@
+package edu.harvard.seas.pl.abcdatalog.engine.topdown;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import edu.harvard.seas.pl.abcdatalog.ast.Variable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+
+public class RelationTest {
+
+  private static final Term X = Variable.create("X");
+  private static final Term Y = Variable.create("Y");
+  private static final Term Z = Variable.create("Z");
+
+  private static Tuple tuple(Term... terms) {
+    return new Tuple(terms);
+  }
+
+  private static Tuple edge(int i, int j) {
+    return tuple(Constant.create("n" + i), Constant.create("n" + j));
+  }
+
+  private static Relation relation(Tuple... tuples) {
+    Relation r = new Relation(2);
+    for (Tuple t : tuples) {
+      r.add(t);
+    }
+    return r;
+  }
+
+  private static Set<Tuple> tuples(Relation r) {
+    Set<Tuple> s = new HashSet<>();
+    for (Tuple t : r) {
+      s.add(t);
+    }
+    return s;
+  }
+
+  /**
+   * Checks that selecting and joining against the indexed relation gives the same answers as doing
+   * so against a fresh copy of its tuples, which has no indexes.
+   */
+  private static void assertIndexesConsistent(Relation indexed) {
+    Relation fresh = relation(tuples(indexed).toArray(new Tuple[0]));
+    for (int i = 0; i < 6; ++i) {
+      Term c = Constant.create("n" + i);
+      for (Tuple pattern : Arrays.asList(tuple(c, X), tuple(X, c), tuple(c, c))) {
+        assertEquals(new HashSet<>(fresh.select(pattern)), new HashSet<>(indexed.select(pattern)));
+      }
+    }
+
+    Relation probe = new Relation(new TermSchema(Arrays.asList(X)));
+    for (int i = 0; i < 6; ++i) {
+      probe.add(tuple(Constant.create("n" + i)));
+    }
+    TermSchema out = new TermSchema(Arrays.asList(X, Y));
+    for (Tuple pattern : Arrays.asList(tuple(X, Y), tuple(Y, X), tuple(X, X))) {
+      assertEquals(
+          tuples(probe.joinAndProject(fresh, pattern, out)),
+          tuples(probe.joinAndProject(indexed, pattern, out)));
+    }
+
+    Relation other = new Relation(new TermSchema(Arrays.asList(Y, Z)));
+    other.addAll(fresh);
+    Relation renamed = new Relation(new TermSchema(Arrays.asList(X, Y)));
+    renamed.addAll(indexed);
+    Relation renamedFresh = new Relation(new TermSchema(Arrays.asList(X, Y)));
+    renamedFresh.addAll(fresh);
+    TermSchema path = new TermSchema(Arrays.asList(X, Z));
+    assertEquals(
+        tuples(renamedFresh.joinAndProject(other, path)),
+        tuples(renamed.joinAndProject(other, path)));
+  }
+
+  @Test
+  public void testIndexesFollowUpdates() {
+    Relation r = relation(edge(0, 1), edge(1, 2), edge(2, 2), edge(2, 3));
+
+    // Build indexes on the first column, the second column, and both.
+    r.select(tuple(Constant.create("n0"), X));
+    r.select(tuple(X, Constant.create("n2")));
+    r.select(tuple(Constant.create("n2"), Constant.create("n2")));
+    assertIndexesConsistent(r);
+
+    r.add(edge(3, 4));
+    r.add(edge(0, 1));
+    assertIndexesConsistent(r);
+
+    r.addAll(relation(edge(4, 5), edge(5, 0), edge(1, 2)));
+    assertIndexesConsistent(r);
+
+    r.removeAll(relation(edge(1, 2), edge(2, 2), edge(4, 4)));
+    assertIndexesConsistent(r);
+    assertEquals(Set.of(), new HashSet<>(r.select(tuple(Constant.create("n1"), X))));
+    assertEquals(Set.of(edge(2, 3)), new HashSet<>(r.select(tuple(Constant.create("n2"), X))));
+
+    // Removing everything leaves no stale entries behind.
+    r.removeAll(relation(tuples(r).toArray(new Tuple[0])));
+    assertIndexesConsistent(r);
+    assertEquals(0, r.size());
+
+    r.add(edge(2, 2));
+    assertIndexesConsistent(r);
+    assertEquals(Set.of(edge(2, 2)), new HashSet<>(r.select(tuple(X, Constant.create("n2")))));
+  }
+
+  @Test
+  public void testJoinIndexFollowsUpdates() {
+    // An index built by a join between two relations is kept up to date too.
+    Relation left = new Relation(new TermSchema(Arrays.asList(X, Y)));
+    Relation right = new Relation(new TermSchema(Arrays.asList(Y, Z)));
+    left.add(edge(0, 1));
+    right.add(edge(1, 2));
+    right.add(edge(1, 3));
+    TermSchema out = new TermSchema(Arrays.asList(X, Z));
+    assertEquals(Set.of(edge(0, 2), edge(0, 3)), tuples(left.joinAndProject(right, out)));
+
+    right.add(edge(1, 4));
+    right.removeAll(relation(edge(1, 2)));
+    right.addAll(relation(edge(5, 5), edge(1, 5)));
+    assertEquals(
+        Set.of(edge(0, 3), edge(0, 4), edge(0, 5)), tuples(left.joinAndProject(right, out)));
+  }
+
+  @Test
+  public void testRestrictMatchesFilter() {
+    Relation r = relation(edge(0, 1), edge(1, 1), edge(1, 2), edge(2, 2), edge(2, 0));
+    Term c = Constant.create("n1");
+    for (Tuple pattern :
+        Arrays.asList(tuple(X, Y), tuple(X, X), tuple(c, X), tuple(X, c), tuple(c, c))) {
+      Relation restricted = r.restrict(pattern);
+      assertEquals(tuples(r.filter(t -> t.matches(pattern))), tuples(restricted));
+      assertEquals(r.getAttributes(), restricted.getAttributes());
+    }
+    assertEquals(Set.of(edge(1, 1), edge(2, 2)), tuples(r.restrict(tuple(X, X))));
+  }
+}
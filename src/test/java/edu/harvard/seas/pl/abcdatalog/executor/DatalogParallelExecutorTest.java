@@ -37,11 +37,14 @@ import edu.harvard.seas.pl.abcdatalog.ast.Clause;
 import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
 import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
 import edu.harvard.seas.pl.abcdatalog.ast.validation.DatalogValidationException;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.concurrent.ExtensibleBottomUpEvalManager.Snapshot;
 import edu.harvard.seas.pl.abcdatalog.parser.DatalogParseException;
 import edu.harvard.seas.pl.abcdatalog.parser.DatalogParser;
 import edu.harvard.seas.pl.abcdatalog.parser.DatalogTokenizer;
 import java.io.StringReader;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -111,4 +114,70 @@ public class DatalogParallelExecutorTest {
     assert (cnt.get() == 25);
     assert (cycleFound.get());
   }
+
+  private static int count(Iterable<PositiveAtom> facts) {
+    int n = 0;
+    for (@SuppressWarnings("unused") PositiveAtom fact : facts) {
+      n++;
+    }
+    return n;
+  }
+
+  @Test
+  public void testSnapshot()
+      throws DatalogParseException, DatalogValidationException, InterruptedException {
+    String program = "edge(0,1). edge(1,2). tc(X,Y) :- edge(X,Y). tc(X,Y) :- edge(X,Z), tc(Z,Y).";
+    DatalogTokenizer t = new DatalogTokenizer(new StringReader(program));
+    Set<Clause> ast = DatalogParser.parseProgram(t);
+    PredicateSym edge = PredicateSym.create("edge", 2);
+    PredicateSym tc = PredicateSym.create("tc", 2);
+
+    DatalogParallelExecutor ex = new DatalogParallelExecutor();
+    ex.initialize(ast, Collections.singleton(edge));
+    ex.start();
+
+    Snapshot s1 = ex.snapshot();
+    assert (count(s1.getFacts().indexInto(tc)) == 3);
+    assert (ex.snapshot() == s1);
+
+    t = new DatalogTokenizer(new StringReader("edge(2,3). edge(3,4)."));
+    while (t.hasNext()) {
+      ex.addFactAsynchronously(DatalogParser.parseClauseAsPositiveAtom(t));
+    }
+
+    Snapshot s2 = ex.snapshot();
+    assert (s2.getEpoch() > s1.getEpoch());
+    assert (count(s2.getFacts().indexInto(tc)) == 10);
+    assert (count(s1.getFacts().indexInto(tc)) == 3);
+
+    ex.shutdown();
+  }
+
+  @Test
+  public void testQuery()
+      throws DatalogParseException, DatalogValidationException, InterruptedException {
+    String program = "edge(0,1). edge(1,2). tc(X,Y) :- edge(X,Y). tc(X,Y) :- edge(X,Z), tc(Z,Y).";
+    DatalogTokenizer t = new DatalogTokenizer(new StringReader(program));
+    Set<Clause> ast = DatalogParser.parseProgram(t);
+    PredicateSym edge = PredicateSym.create("edge", 2);
+
+    DatalogParallelExecutor ex = new DatalogParallelExecutor();
+    ex.initialize(ast, Collections.singleton(edge));
+    ex.start();
+
+    t = new DatalogTokenizer(new StringReader("edge(2,3). edge(3,4)."));
+    while (t.hasNext()) {
+      ex.addFactAsynchronously(DatalogParser.parseClauseAsPositiveAtom(t));
+    }
+
+    t = new DatalogTokenizer(new StringReader("tc(0,X)? tc(X,Y)? edge(Y,4)?"));
+    PositiveAtom q = DatalogParser.parseQuery(t);
+    List<PositiveAtom> cq = Arrays.asList(DatalogParser.parseQuery(t), DatalogParser.parseQuery(t));
+    assert (ex.query(q, true).size() == 4);
+    assert (ex.query(cq, true).size() == 3);
+    assert (ex.query(q).size() == 4);
+
+    ex.shutdown();
+    assert (ex.query(cq, true).size() == 3);
+  }
 }
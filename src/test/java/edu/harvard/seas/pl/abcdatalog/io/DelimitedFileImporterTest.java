@@ -0,0 +1,143 @@
+package edu.harvard.seas.pl.abcdatalog.io;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import edu.harvard.seas.pl.abcdatalog.io.DelimitedFileImporter.Mapping;
+import edu.harvard.seas.pl.abcdatalog.parser.DatalogParseException;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.FactIndexer;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.FactIndexerFactory;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DelimitedFileImporterTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path write(String name, String contents) throws IOException {
+    Path p = folder.getRoot().toPath().resolve(name);
+    Files.write(p, contents.getBytes(StandardCharsets.UTF_8));
+    return p;
+  }
+
+  private static PositiveAtom fact(String pred, String... args) {
+    Term[] terms = new Term[args.length];
+    for (int i = 0; i < args.length; ++i) {
+      terms[i] = Constant.create(args[i]);
+    }
+    return PositiveAtom.create(PredicateSym.create(pred, args.length), terms);
+  }
+
+  private static List<PositiveAtom> importAll(Mapping m) throws IOException, DatalogParseException {
+    List<PositiveAtom> facts = new ArrayList<>();
+    long n = DelimitedFileImporter.importFacts(m, facts::add);
+    assertEquals(facts.size(), n);
+    return facts;
+  }
+
+  @Test
+  public void testTsv() throws Exception {
+    write("edges.tsv", "a\tb\nb\tc\r\n\nc\td");
+    Mapping m = Mapping.parse("edge/2 <- edges.tsv", folder.getRoot().toPath());
+    assertEquals(
+        Arrays.asList(fact("edge", "a", "b"), fact("edge", "b", "c"), fact("edge", "c", "d")),
+        importAll(m));
+  }
+
+  @Test
+  public void testCsvWithQuotesAndColumns() throws Exception {
+    write("people.csv", "id,name,city\n1,\"Smith, J\",boston\n2,\"say \"\"hi\"\"\",nyc\n");
+    Path dir = folder.getRoot().toPath();
+    Mapping m =
+        new Mapping(PredicateSym.create("lives", 2), dir.resolve("people.csv"), ',', true, 1, 2);
+    assertEquals(
+        Arrays.asList(fact("lives", "Smith, J", "boston"), fact("lives", "say \"hi\"", "nyc")),
+        importAll(m));
+    m = Mapping.parse(" name/2 <- people.csv [2, 0] ", dir);
+    assertEquals(fact("name", "city", "id"), importAll(m).get(0));
+  }
+
+  @Test
+  public void testImportIntoFactIndexer() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    Set<PositiveAtom> expected = new HashSet<>();
+    for (int i = 0; i < 10000; ++i) {
+      sb.append("n").append(i / 10).append('\t').append("n").append(i).append('\n');
+      expected.add(fact("edge", "n" + (i / 10), "n" + i));
+    }
+    write("edges.tsv", sb.toString());
+    FactIndexer indexer = FactIndexerFactory.createConcurrentSetFactIndexer();
+    Mapping m = Mapping.parse("edge/2 <- edges.tsv", folder.getRoot().toPath());
+    assertEquals(10000, DelimitedFileImporter.importFacts(m, indexer));
+    Set<PositiveAtom> actual = new HashSet<>();
+    indexer.indexInto(PredicateSym.create("edge", 2)).forEach(actual::add);
+    assertEquals(expected, actual);
+  }
+
+  @Test(expected = DatalogParseException.class)
+  public void testTooFewFields() throws Exception {
+    write("edges.tsv", "a\tb\nc\n");
+    importAll(Mapping.parse("edge/2 <- edges.tsv", folder.getRoot().toPath()));
+  }
+
+  @Test(expected = DatalogParseException.class)
+  public void testEmptyField() throws Exception {
+    write("edges.tsv", "a\t\n");
+    importAll(Mapping.parse("edge/2 <- edges.tsv", folder.getRoot().toPath()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMalformedSpec() {
+    Mapping.parse("edge <- edges.tsv", folder.getRoot().toPath());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongNumberOfColumns() {
+    Mapping.parse("edge/2 <- edges.tsv[0]", folder.getRoot().toPath());
+  }
+}
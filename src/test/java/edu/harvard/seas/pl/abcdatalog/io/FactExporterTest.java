@@ -0,0 +1,157 @@
+package edu.harvard.seas.pl.abcdatalog.io;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import edu.harvard.seas.pl.abcdatalog.ast.Clause;
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.BottomUpEngineFrame;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.sequential.SemiNaiveEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.topdown.IterativeQsqEngine;
+import edu.harvard.seas.pl.abcdatalog.io.DelimitedFileImporter.Mapping;
+import edu.harvard.seas.pl.abcdatalog.io.FactExporter.Format;
+import edu.harvard.seas.pl.abcdatalog.parser.DatalogParser;
+import edu.harvard.seas.pl.abcdatalog.parser.DatalogTokenizer;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.FactIndexer;
+import edu.harvard.seas.pl.abcdatalog.util.datastructures.FactIndexerFactory;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FactExporterTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private static final String PROGRAM =
+      "edge(a,b). edge(b,c). edge(c,d). flag. tc(X,Y) :- edge(X,Y). tc(X,Y) :- edge(X,Z), tc(Z,Y).";
+
+  private static final PredicateSym TC = PredicateSym.create("tc", 2);
+
+  private static final PredicateSym EDGE = PredicateSym.create("edge", 2);
+
+  private static final PredicateSym FLAG = PredicateSym.create("flag", 0);
+
+  private static Set<Clause> program() throws Exception {
+    return DatalogParser.parseProgram(new DatalogTokenizer(new StringReader(PROGRAM)));
+  }
+
+  private static BottomUpEngineFrame<?> engine() throws Exception {
+    SemiNaiveEngine e = new SemiNaiveEngine(false);
+    e.init(program());
+    return e;
+  }
+
+  private static Set<PositiveAtom> relation(BottomUpEngineFrame<?> e, PredicateSym pred) {
+    Set<PositiveAtom> r = new HashSet<>();
+    e.getFacts().indexInto(pred).forEach(r::add);
+    return r;
+  }
+
+  @Test
+  public void testTsvRoundTrip() throws Exception {
+    BottomUpEngineFrame<?> e = engine();
+    Path dir = folder.getRoot().toPath();
+    Map<PredicateSym, Long> counts =
+        FactExporter.export(e.getFacts(), Arrays.asList(TC, EDGE), dir, Format.TSV, 2);
+    assertEquals(6L, (long) counts.get(TC));
+    assertEquals(3L, (long) counts.get(EDGE));
+    Set<PositiveAtom> imported = new HashSet<>();
+    DelimitedFileImporter.importFacts(Mapping.parse("tc/2 <- tc_2.tsv", dir), imported::add);
+    assertEquals(relation(e, TC), imported);
+  }
+
+  @Test
+  public void testCsvQuoting() throws Exception {
+    PredicateSym p = PredicateSym.create("p", 2);
+    Set<PositiveAtom> facts = new HashSet<>();
+    for (String s : new String[] {"a,b", "say \"hi\"", "two\nlines", "plain"}) {
+      facts.add(PositiveAtom.create(p, new Term[] {Constant.create(s), Constant.create("x")}));
+    }
+    Path dir = folder.getRoot().toPath();
+    FactIndexer indexer = FactIndexerFactory.createConcurrentSetFactIndexer();
+    indexer.addAll(facts);
+    FactExporter.export(indexer, null, dir, Format.CSV, 1);
+    Set<PositiveAtom> imported = new HashSet<>();
+    DelimitedFileImporter.importFacts(Mapping.parse("p/2 <- p_2.csv", dir), imported::add);
+    assertEquals(facts, imported);
+  }
+
+  @Test
+  public void testBinaryRoundTrip() throws Exception {
+    BottomUpEngineFrame<?> e = engine();
+    Path dir = folder.getRoot().toPath();
+    FactExporter.export(e.getFacts(), null, dir, Format.BINARY, 4);
+    for (PredicateSym pred : Arrays.asList(TC, EDGE, FLAG)) {
+      Set<PositiveAtom> read = new HashSet<>();
+      long n =
+          BinaryFactReader.read(
+              dir.resolve(FactExporter.getFileName(pred, Format.BINARY)), read::add);
+      assertEquals(read.size(), n);
+      assertEquals(relation(e, pred), read);
+    }
+  }
+
+  @Test
+  public void testExportFromEngine() throws Exception {
+    IterativeQsqEngine e = new IterativeQsqEngine();
+    e.init(program());
+    Path dir = folder.getRoot().toPath();
+    FactExporter.export(e, Collections.singleton(TC), dir, Format.BINARY, 1);
+    Set<PositiveAtom> read = new HashSet<>();
+    BinaryFactReader.read(dir.resolve("tc_2.facts"), read::add);
+    assertEquals(relation(engine(), TC), read);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTsvRejectsTabs() throws Exception {
+    SemiNaiveEngine e = new SemiNaiveEngine(false);
+    PredicateSym p = PredicateSym.create("p", 1);
+    e.init(
+        Collections.singleton(
+            new Clause(
+                PositiveAtom.create(p, new Term[] {Constant.create("a\tb")}),
+                Collections.emptyList())));
+    FactExporter.export(e.getFacts(), null, folder.getRoot().toPath(), Format.TSV, 1);
+  }
+}
@@ -0,0 +1,129 @@
+package edu.harvard.seas.pl.abcdatalog.parser;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import edu.harvard.seas.pl.abcdatalog.ast.Clause;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+
+public class DatalogFactLoaderTest {
+
+  private static Set<PositiveAtom> load(String src) throws DatalogParseException {
+    Set<PositiveAtom> facts = new HashSet<>();
+    long n =
+        DatalogFactLoader.load(
+            new ByteArrayInputStream(src.getBytes(StandardCharsets.UTF_8)), facts::add);
+    assertEquals(facts.size(), n);
+    return facts;
+  }
+
+  private static Set<PositiveAtom> parse(String src) throws DatalogParseException {
+    Set<PositiveAtom> facts = new HashSet<>();
+    for (Clause c : DatalogParser.parseProgram(new DatalogTokenizer(new StringReader(src)))) {
+      facts.add((PositiveAtom) c.getHead());
+    }
+    return facts;
+  }
+
+  @Test
+  public void testSameFactsAsParser() throws DatalogParseException {
+    String src =
+        "edge(a,b). edge( b , c ).\n% edge(c,d).\nedge(c,\n d). % trailing\n"
+            + "node(a).node(b). flag. edge_2(x_1, 42). p(a,b,c,d,e,f,g,h,i,j).";
+    assertEquals(parse(src), load(src));
+  }
+
+  @Test
+  public void testSlashComments() throws DatalogParseException {
+    String src = "e(a,b). / note\ne(b,c). // another\r e(c,d).\n/ e(d,e).";
+    assertEquals(parse(src), load(src));
+    assertEquals(3, load(src).size());
+  }
+
+  @Test
+  public void testNonAsciiIdentifiers() throws DatalogParseException {
+    String src = "e(\u00e9t\u00e9, caf\u00e9). e(\u00a0x, \u03bb).";
+    assertEquals(parse(src), load(src));
+  }
+
+  @Test(expected = DatalogParseException.class)
+  public void testControlCharacterInIdentifier() throws DatalogParseException {
+    // The parser treats U+0085 as punctuation, so this is not a fact.
+    load("e(a\u0085b,c).");
+  }
+
+  @Test
+  public void testLargeInput() throws DatalogParseException {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 20000; ++i) {
+      sb.append("edge(node_").append(i).append(", node_").append(i % 97).append(").\n");
+    }
+    String src = sb.toString();
+    Set<PositiveAtom> facts = load(src);
+    assertEquals(20000, facts.size());
+    assertEquals(parse(src), facts);
+  }
+
+  @Test
+  public void testEmptyInput() throws DatalogParseException {
+    assertEquals(0, load("  % nothing here\n").size());
+  }
+
+  @Test(expected = DatalogParseException.class)
+  public void testVariableArgument() throws DatalogParseException {
+    load("edge(a,X).");
+  }
+
+  @Test(expected = DatalogParseException.class)
+  public void testRule() throws DatalogParseException {
+    load("edge(a,b) :- true.");
+  }
+
+  @Test(expected = DatalogParseException.class)
+  public void testMissingPeriod() throws DatalogParseException {
+    load("edge(a,b). edge(b,c)");
+  }
+
+  @Test(expected = DatalogParseException.class)
+  public void testUpperCasePredicate() throws DatalogParseException {
+    load("Edge(a,b).");
+  }
+}
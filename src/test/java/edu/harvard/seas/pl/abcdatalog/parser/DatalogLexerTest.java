@@ -0,0 +1,167 @@
+package edu.harvard.seas.pl.abcdatalog.parser;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StreamTokenizer;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class DatalogLexerTest {
+
+  /** The tokens of the given input, as produced by the StreamTokenizer the lexer replaces. */
+  private static List<String> referenceTokens(String input) throws IOException {
+    StreamTokenizer st = new StreamTokenizer(new StringReader(input));
+    st.commentChar('%');
+    st.ordinaryChars('0', '9');
+    st.ordinaryChar('.');
+    st.wordChars('0', '9');
+    st.wordChars('_', '_');
+    // The lexer treats '-' as ordinary (StreamTokenizer would parse "-1" as a number).
+    st.ordinaryChar('-');
+    List<String> tokens = new ArrayList<>();
+    while (st.nextToken() != StreamTokenizer.TT_EOF) {
+      tokens.add(st.ttype == StreamTokenizer.TT_WORD ? st.sval : Character.toString(st.ttype));
+    }
+    return tokens;
+  }
+
+  private static List<String> tokens(DatalogLexer lexer) throws DatalogParseException {
+    List<String> tokens = new ArrayList<>();
+    while (lexer.hasNext()) {
+      String peeked = lexer.peek();
+      assertSame(peeked, lexer.next());
+      tokens.add(peeked);
+    }
+    return tokens;
+  }
+
+  /** A reader that returns one character at a time, to exercise refilling. */
+  private static Reader trickle(String s) {
+    return new Reader() {
+      private int pos = 0;
+
+      @Override
+      public int read(char[] cbuf, int off, int len) {
+        if (pos == s.length()) {
+          return -1;
+        }
+        cbuf[off] = s.charAt(pos++);
+        return 1;
+      }
+
+      @Override
+      public void close() {}
+    };
+  }
+
+  private static void check(String input) throws Exception {
+    List<String> expected = referenceTokens(input);
+    assertEquals(input, expected, tokens(new DatalogLexer(new StringReader(input))));
+    assertEquals(input, expected, tokens(new DatalogLexer(trickle(input))));
+    assertEquals(input, expected, tokens(new DatalogLexer(CharBuffer.wrap(input))));
+    assertEquals(
+        input,
+        expected,
+        tokens(new DatalogLexer(CharBuffer.wrap(" " + input + " ", 1, input.length() + 1))));
+  }
+
+  @Test
+  public void testMatchesStreamTokenizer() throws Exception {
+    check("tc(X,Y) :- edge(X,Z), tc(Z,Y). % comment\nedge(a_1, 42).");
+    check("p(a) / comment\n q(\"quoted. string\", 'single \\' quote'). r(\"unterminated\ns).");
+    check("X != Y, not p(X). q(é, ü_2). \u0085 \t\r\n  ");
+    check("");
+    check("%only a comment");
+  }
+
+  @Test
+  public void testRandomInputs() throws Exception {
+    String alphabet = "ab_XY09 \n\t.,()%/\"'\\:-!=?é";
+    Random r = new Random(0);
+    for (int i = 0; i < 2000; ++i) {
+      StringBuilder sb = new StringBuilder();
+      int n = r.nextInt(40);
+      for (int j = 0; j < n; ++j) {
+        sb.append(alphabet.charAt(r.nextInt(alphabet.length())));
+      }
+      check(sb.toString());
+    }
+  }
+
+  @Test
+  public void testLongIdentifierAcrossRefills() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 20000; ++i) {
+      sb.append('a');
+    }
+    String id = sb.toString();
+    DatalogLexer lexer = new DatalogLexer(new StringReader("p(" + id + ", " + id + ")."));
+    assertEquals("p", lexer.next());
+    lexer.consume("(");
+    String first = lexer.next();
+    assertEquals(id, first);
+    lexer.consume(",");
+    assertSame(first, lexer.next());
+    lexer.consume(").");
+    assertFalse(lexer.hasNext());
+  }
+
+  @Test
+  public void testConsumeMultipleTokens() throws Exception {
+    DatalogLexer lexer = new DatalogLexer(new StringReader(":- != :"));
+    lexer.consume(":-");
+    lexer.consume("!=");
+    assertEquals(":", lexer.peek());
+  }
+
+  @Test(expected = DatalogParseException.class)
+  public void testConsumeMismatch() throws Exception {
+    new DatalogLexer(new StringReader(": =")).consume(":-");
+  }
+
+  @Test(expected = DatalogParseException.class)
+  public void testNextAtEof() throws Exception {
+    new DatalogLexer(new StringReader("  % nothing")).next();
+  }
+}
@@ -0,0 +1,105 @@
+package edu.harvard.seas.pl.abcdatalog.parser;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import edu.harvard.seas.pl.abcdatalog.ast.Clause;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DatalogParserTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private static Set<Clause> parse(String src) throws DatalogParseException {
+    return DatalogParser.parseProgram(new DatalogTokenizer(new StringReader(src)));
+  }
+
+  private File write(String src) throws IOException {
+    File f = folder.newFile();
+    Files.write(f.toPath(), src.getBytes(StandardCharsets.UTF_8));
+    return f;
+  }
+
+  @Test
+  public void testParallelParseMatchesSequentialParse() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 500; ++i) {
+      sb.append("edge(n").append(i).append(", n").append(i + 1).append(").\n");
+      if (i % 7 == 0) {
+        sb.append("% a comment. with. periods.\n");
+      }
+      if (i % 11 == 0) {
+        sb.append("tc(X, Y) :-\n  edge(X, Z), % also. here\n  tc(Z, Y).\n");
+      }
+      if (i % 13 == 0) {
+        sb.append("q(\"in. a quote\"). / another. comment\n");
+      }
+      if (i % 17 == 0) {
+        sb.append("r(n").append(i).append(").s(n").append(i).append(").");
+      }
+    }
+    String src = sb.toString();
+    File f = write(src);
+    Set<Clause> expected = parse(src);
+    for (long chunkSize : new long[] {1, 16, 100, 1000, 1 << 20}) {
+      for (int nThreads : new int[] {1, 3}) {
+        assertEquals(expected, DatalogParser.parseProgram(f.toPath(), nThreads, chunkSize));
+      }
+    }
+    assertEquals(expected, DatalogParser.parseProgram(f.toPath()));
+  }
+
+  @Test
+  public void testParallelParseOfEmptyFile() throws Exception {
+    assertEquals(0, DatalogParser.parseProgram(write("").toPath(), 4, 1).size());
+  }
+
+  @Test(expected = DatalogParseException.class)
+  public void testParallelParseReportsErrors() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 100; ++i) {
+      sb.append("edge(n").append(i).append(", n").append(i + 1).append(").\n");
+    }
+    sb.append("edge(a b).\n");
+    DatalogParser.parseProgram(write(sb.toString()).toPath(), 4, 16);
+  }
+}
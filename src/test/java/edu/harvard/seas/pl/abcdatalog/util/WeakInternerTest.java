@@ -0,0 +1,86 @@
+package edu.harvard.seas.pl.abcdatalog.util;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import edu.harvard.seas.pl.abcdatalog.ast.Constant;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class WeakInternerTest {
+
+  @Test
+  public void testInternReturnsSameValue() {
+    WeakInterner<String, Object> interner = new WeakInterner<>();
+    Object a = interner.intern("a", k -> new Object());
+    assertSame(a, interner.intern("a", k -> new Object()));
+    assertNotSame(a, interner.intern("b", k -> new Object()));
+    assertEquals(2, interner.size());
+  }
+
+  @Test
+  public void testUnreferencedValuesAreDropped() throws InterruptedException {
+    WeakInterner<Integer, Object> interner = new WeakInterner<>();
+    Object kept = interner.intern(-1, k -> new Object());
+    for (int i = 0; i < 1000; ++i) {
+      interner.intern(i, k -> new Object());
+    }
+    for (int attempt = 0; attempt < 50 && interner.size() > 1; ++attempt) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(1, interner.size());
+    assertSame(kept, interner.intern(-1, k -> new Object()));
+  }
+
+  @Test
+  public void testSymbolsRemainCanonical() {
+    List<Object> held = new ArrayList<>();
+    for (int i = 0; i < 100; ++i) {
+      held.add(Constant.create("c" + i));
+      held.add(PredicateSym.create("p", i));
+    }
+    System.gc();
+    for (int i = 0; i < 100; ++i) {
+      assertSame(held.get(2 * i), Constant.create("c" + i));
+      assertSame(held.get(2 * i + 1), PredicateSym.create("p", i));
+    }
+    assertNotSame(PredicateSym.create("p", 1), PredicateSym.create("p", 2));
+  }
+}
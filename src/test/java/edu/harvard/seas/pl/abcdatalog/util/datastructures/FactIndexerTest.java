@@ -35,6 +35,9 @@ package edu.harvard.seas.pl.abcdatalog.util.datastructures;
 
 import edu.harvard.seas.pl.abcdatalog.ast.*;
 import edu.harvard.seas.pl.abcdatalog.engine.AbstractTests;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.function.Supplier;
 import org.junit.Assert;
 import org.junit.Test;
@@ -44,7 +47,9 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
   FactIndexerTest.SetTests.class,
-  FactIndexerTest.ConcurrentLinkedBagTests.class
+  FactIndexerTest.ConcurrentLinkedBagTests.class,
+  FactIndexerTest.EpochTests.class,
+  FactIndexerTest.EpochViewTests.class
 })
 public class FactIndexerTest {
   public static class SetTests extends AbstractFactIndexerTests {
@@ -59,6 +64,64 @@ public class FactIndexerTest {
     }
   }
 
+  public static class EpochTests extends AbstractFactIndexerTests {
+    public EpochTests() {
+      super(EpochFactIndexer::new);
+    }
+  }
+
+  public static class EpochViewTests extends AbstractTests {
+    public EpochViewTests() {
+      super(
+          () -> {
+            throw new Error("Tests do not use engine=");
+          });
+    }
+
+    private static Set<PositiveAtom> toSet(Iterable<PositiveAtom> facts) {
+      Set<PositiveAtom> s = new HashSet<>();
+      for (PositiveAtom fact : facts) {
+        s.add(fact);
+      }
+      return s;
+    }
+
+    @Test
+    public void testViewsExcludeLaterEpochs() {
+      EpochFactIndexer indexer = new EpochFactIndexer();
+      indexer.addAll(parseFacts("f(a,b). f(b,c)."));
+      long e0 = indexer.advanceEpoch();
+      indexer.addAll(parseFacts("f(a,c). g(a)."));
+      long e1 = indexer.advanceEpoch();
+      indexer.addAll(parseFacts("f(a,d). g(b). h(c)."));
+      Assert.assertTrue(e0 < e1);
+      Assert.assertEquals(e1 + 1, indexer.getEpoch());
+
+      IndexableFactCollection v0 = indexer.asOf(e0);
+      IndexableFactCollection v1 = indexer.asOf(e1);
+      PredicateSym f = PredicateSym.create("f", 2);
+      PositiveAtom fa = parseQuery("f(a,X)?");
+
+      Assert.assertEquals(parseFacts("f(a,b). f(b,c)."), toSet(v0.indexInto(f)));
+      Assert.assertEquals(parseFacts("f(a,b)."), toSet(v0.indexInto(fa)));
+      Assert.assertEquals(parseFacts("f(a,b). f(a,c)."), toSet(v1.indexInto(fa)));
+      Assert.assertEquals(parseFacts("f(a,b). f(a,c). f(a,d)."), toSet(indexer.indexInto(fa)));
+
+      Assert.assertEquals(Collections.singleton(f), v0.getPreds());
+      Assert.assertEquals(2, v1.getPreds().size());
+      Assert.assertEquals(3, indexer.getPreds().size());
+      Assert.assertFalse(v0.indexInto(parseQuery("g(X)?")).iterator().hasNext());
+      Assert.assertFalse(v0.isEmpty());
+
+      // A view taken before anything was added is empty.
+      EpochFactIndexer empty = new EpochFactIndexer();
+      long e = empty.advanceEpoch();
+      empty.addAll(parseFacts("f(a,b)."));
+      Assert.assertTrue(empty.asOf(e).isEmpty());
+      Assert.assertFalse(empty.isEmpty());
+    }
+  }
+
   public abstract static class AbstractFactIndexerTests extends AbstractTests {
     private final Supplier<FactIndexer> factIndexerFactory;
 
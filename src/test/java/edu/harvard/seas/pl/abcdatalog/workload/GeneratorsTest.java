@@ -0,0 +1,191 @@
+package edu.harvard.seas.pl.abcdatalog.workload;
+
+/*-
+ * #%L
+ * AbcDatalog
+ * %%
+ * Copyright (C) 2016 - 2021 President and Fellows of Harvard College
+ * %%
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the President and Fellows of Harvard College nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ * IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+ * OF THE POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import edu.harvard.seas.pl.abcdatalog.ast.Clause;
+import edu.harvard.seas.pl.abcdatalog.ast.PositiveAtom;
+import edu.harvard.seas.pl.abcdatalog.ast.PredicateSym;
+import edu.harvard.seas.pl.abcdatalog.ast.Term;
+import edu.harvard.seas.pl.abcdatalog.ast.Variable;
+import edu.harvard.seas.pl.abcdatalog.engine.DatalogEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.concurrent.ConcurrentStratifiedNegationBottomUpEngine;
+import edu.harvard.seas.pl.abcdatalog.engine.bottomup.sequential.SemiNaiveEngine;
+import edu.harvard.seas.pl.abcdatalog.parser.DatalogParser;
+import edu.harvard.seas.pl.abcdatalog.parser.DatalogTokenizer;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class GeneratorsTest {
+
+  private static Set<String> strings(FactGenerator g) {
+    return g.stream().map(PositiveAtom::toString).collect(Collectors.toSet());
+  }
+
+  @Test
+  public void testChain() {
+    FactGenerator g = Generators.chain("e", 3);
+    assertEquals(Set.of("e(n0, n1)", "e(n1, n2)", "e(n2, n3)"), strings(g));
+    assertEquals(0, Generators.chain("e", 0).stream().count());
+  }
+
+  @Test
+  public void testLattice() {
+    FactGenerator g = Generators.lattice("e", 2, 3);
+    assertEquals(
+        Set.of(
+            "e(n0, n1)",
+            "e(n1, n2)",
+            "e(n3, n4)",
+            "e(n4, n5)",
+            "e(n0, n3)",
+            "e(n1, n4)",
+            "e(n2, n5)"),
+        strings(g));
+    assertEquals(2 * 30 * 40 - 30 - 40, Generators.lattice("e", 30, 40).stream().count());
+  }
+
+  @Test
+  public void testFanOutTree() {
+    assertEquals(Set.of("e(n0, n1)", "e(n0, n2)"), strings(Generators.fanOutTree("e", 1, 2)));
+    Set<String> facts = strings(Generators.fanOutTree("e", 3, 3));
+    assertEquals(3 + 9 + 27, facts.size());
+    assertTrue(facts.contains("e(n1, n4)"));
+    assertTrue(facts.contains("e(n12, n39)"));
+  }
+
+  @Test
+  public void testRandomGeneratorsAreReproducible() {
+    FactGenerator g = Generators.powerLawGraph("e", 100, 1000, 1.5, 42);
+    List<PositiveAtom> first = g.stream().collect(Collectors.toList());
+    assertEquals(1000, first.size());
+    assertEquals(first, g.stream().collect(Collectors.toList()));
+    assertEquals(first, Generators.powerLawGraph("e", 100, 1000, 1.5, 42).stream().toList());
+    assertNotEquals(first, Generators.powerLawGraph("e", 100, 1000, 1.5, 43).stream().toList());
+  }
+
+  @Test
+  public void testPowerLawIsSkewed() {
+    Map<Term, Integer> degree = new HashMap<>();
+    Generators.powerLawGraph("e", 1000, 10000, 1.5, 0).stream()
+        .forEach(a -> degree.merge(a.getArgs()[0], 1, Integer::sum));
+    // With exponent 1.5, node n0 should get about a third of the edges.
+    int hub = degree.get(Generators.node(0));
+    assertTrue(hub > 2000);
+    assertTrue(degree.getOrDefault(Generators.node(999), 0) < 10);
+
+    degree.clear();
+    Generators.uniformGraph("e", 1000, 10000, 0).stream()
+        .forEach(a -> degree.merge(a.getArgs()[0], 1, Integer::sum));
+    assertTrue(degree.get(Generators.node(0)) < 100);
+  }
+
+  @Test
+  public void testSkewedJoin() {
+    List<PositiveAtom> facts = Generators.skewedJoin("l", "r", 500, 50, 2, 0).stream().toList();
+    assertEquals(1000, facts.size());
+    long hot = facts.stream().filter(a -> a.toString().contains("k0")).count();
+    assertTrue(hot > 500);
+  }
+
+  @Test
+  public void testWriteRoundTrips() throws Exception {
+    FactGenerator g =
+        Generators.uniformGraph("e", 50, 200, 0).concat(Generators.lattice("grid", 4, 4));
+    StringWriter out = new StringWriter();
+    assertEquals(200 + 24, g.write(out));
+    Set<Clause> parsed =
+        DatalogParser.parseProgram(new DatalogTokenizer(new StringReader(out.toString())));
+    assertEquals(g.toClauses(), parsed);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeSize() {
+    Generators.chain("e", -1);
+  }
+
+  @Test
+  public void testRandomProgramsAreStratifiedAndAgree() throws Exception {
+    RandomProgramGenerator gen =
+        new RandomProgramGenerator()
+            .withEdbPredicates(2)
+            .withIdbPredicates(5)
+            .withStrata(3)
+            .withRulesPerPredicate(2)
+            .withMaxBodySize(3)
+            .withNegationProbability(0.5)
+            .withDomainSize(20)
+            .withFactsPerPredicate(40);
+    Term[] args = {Variable.create("X"), Variable.create("Y")};
+    boolean sawNegation = false;
+    for (long seed = 0; seed < 20; ++seed) {
+      RandomProgramGenerator.Program prog = gen.generate(seed);
+      assertEquals(prog.getRules(), gen.generate(seed).getRules());
+      sawNegation |= prog.getRules().toString().contains("not ");
+      Set<Clause> clauses = prog.toClauses();
+      DatalogEngine e1 = SemiNaiveEngine.newEngine();
+      e1.init(clauses);
+      DatalogEngine e2 = new ConcurrentStratifiedNegationBottomUpEngine();
+      e2.init(clauses);
+      for (PredicateSym p : prog.getIdbPredicates()) {
+        PositiveAtom q = PositiveAtom.create(p, args);
+        assertEquals(new HashSet<>(e1.query(q)), new HashSet<>(e2.query(q)));
+      }
+    }
+    assertTrue(sawNegation);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testTooManyStrata() {
+    new RandomProgramGenerator().withIdbPredicates(2).withStrata(3).generate(0);
+  }
+
+  @Test
+  public void testRandomProgramFactsAreReproducible() {
+    FactGenerator facts = new RandomProgramGenerator().generate(7).getFacts();
+    assertEquals(facts.stream().toList(), facts.stream().toList());
+    assertFalse(facts.stream().toList().isEmpty());
+  }
+}